@@ -0,0 +1,147 @@
+package client;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import utils.ChunkedTransfer;
+import utils.NodeProtocol;
+import utils.TransferPlan;
+
+/**
+ * Moves file data between the client and the storage nodes without passing it through the
+ * coordinator. The coordinator only hands out a {@link TransferPlan}: which nodes to use, the
+ * version to store and a ticket the nodes check.
+ *
+ * An upload is sent once, to the first reachable node of the plan, which forwards it down the
+ * rest of the replicas as it arrives. A download is read from the first node that answers, and
+ * continues on the next one from where it stopped if that node fails.
+ */
+public class DirectTransfer {
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+
+    /**
+     * Streams {@code in} to the replicas of the plan and returns the nodes that stored it.
+     * Empty if no node could be reached or the nodes refused the ticket.
+     */
+    public static List<String> upload(TransferPlan plan, InputStream in) throws IOException {
+        List<String> nodes = plan.getNodes();
+        for (int i = 0; i < nodes.size(); i++) {
+            Socket socket;
+            try {
+                socket = connect(nodes.get(i));
+            } catch (IOException e) {
+                System.err.println("Node unreachable, trying the next one: " + nodes.get(i));
+                continue;
+            }
+            try (Socket s = socket;
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+                 DataInputStream reply = new DataInputStream(s.getInputStream())) {
+                out.writeUTF("putDirect");
+                out.writeUTF(plan.getDepartment());
+                out.writeUTF(plan.getFilename());
+                out.writeUTF(plan.getTicket());
+                out.writeLong(plan.getVersion());
+                List<String> downstream = nodes.subList(i + 1, nodes.size());
+                out.writeInt(downstream.size());
+                for (String next : downstream) {
+                    out.writeUTF(next);
+                }
+                out.flush();
+                if (!"Ready".equals(reply.readUTF())) {
+                    System.err.println("Node refused the upload ticket: " + nodes.get(i));
+                    return new ArrayList<>(); // every node checks the same ticket
+                }
+
+                byte[] chunk = new byte[ChunkedTransfer.CHUNK_SIZE];
+                int read;
+                while ((read = in.readNBytes(chunk, 0, chunk.length)) > 0) {
+                    ChunkedTransfer.writeChunk(out, chunk, 0, read);
+                }
+                ChunkedTransfer.writeEnd(out);
+                out.flush();
+
+                String status = reply.readUTF();
+                List<String> storedOn = new ArrayList<>();
+                int count = reply.readInt();
+                for (int j = 0; j < count; j++) {
+                    storedOn.add(reply.readUTF());
+                }
+                if (!"OK".equals(status)) System.err.println("Direct upload was not stored: " + status);
+                return storedOn;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Reads the planned version of the file into {@code out}, from the first node that serves it.
+     * Returns false if none did before any data was written. A node that fails halfway is left
+     * for the next one, which continues at the same offset; once no node is left the failure
+     * is thrown, with part of the file written.
+     */
+    public static boolean download(TransferPlan plan, OutputStream out) throws IOException {
+        return download(plan, out, ProgressListener.NONE);
+    }
+
+    public static boolean download(TransferPlan plan, OutputStream out, ProgressListener progress) throws IOException {
+        long transferred = 0;
+        IOException failure = null;
+        for (String nodeAddress : plan.getNodes()) {
+            Socket socket;
+            try {
+                socket = connect(nodeAddress);
+            } catch (IOException e) {
+                System.err.println("Node unreachable, trying the next one: " + nodeAddress);
+                continue;
+            }
+            try (Socket s = socket;
+                 DataOutputStream request = new DataOutputStream(s.getOutputStream());
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024))) {
+                request.writeUTF("getDirect");
+                request.writeUTF(plan.getDepartment());
+                request.writeUTF(plan.getFilename());
+                request.writeUTF(plan.getTicket());
+                request.writeLong(transferred);
+                request.writeLong(-1); // to the end
+                request.flush();
+
+                long size = in.readLong();
+                if (size < 0) {
+                    if (size == NodeProtocol.READ_DENIED) break; // every node would refuse it
+                    continue; // this node no longer has it
+                }
+                if (in.readLong() != plan.getVersion()) continue; // changed since the plan, the bytes would not fit
+                long length = in.readLong();
+                progress.progress(transferred, size);
+                byte[] buffer = new byte[64 * 1024];
+                long end = transferred + length;
+                while (transferred < end) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - transferred));
+                    if (read < 0) throw new EOFException("Node closed the connection mid-file: " + nodeAddress);
+                    out.write(buffer, 0, read);
+                    progress.progress(transferred += read, size);
+                }
+                return true;
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Download failed at " + transferred + " bytes, trying the next node: " + e.getMessage());
+            }
+        }
+        if (transferred > 0) throw failure;
+        return false;
+    }
+
+    private static Socket connect(String nodeAddress) throws IOException {
+        String[] parts = nodeAddress.split(":");
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])), CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+}
@@ -0,0 +1,452 @@
+package client;
+
+import coordinator.ICoordinator;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import utils.BlockDelta;
+import utils.Checksums;
+import utils.ChunkedTransfer;
+import utils.NodeProtocol;
+import utils.ThreadPools;
+import utils.TransferPlan;
+import utils.VersionedFile;
+
+/**
+ * Headless client of the file system for one signed-in user. Every operation runs in the
+ * background and returns a future; at most {@code parallelism} of them run at a time and the
+ * rest wait their turn, so a batch of many files does not open as many connections. Files
+ * stream from and to disk and are never held in memory whole.
+ *
+ * Data goes straight to and from the storage nodes when the coordinator plans the transfer
+ * (see {@link DirectTransfer}) and through coordinator sessions otherwise. The *All methods
+ * send small files in batches of one call each (see {@link ICoordinator#saveFiles}).
+ *
+ * A transfer that fails partway is resumed rather than started over: uploads go on from the
+ * offset the upload session has taken, downloads fetch the rest of the ".part" file in ranges
+ * as long as the file has not changed in the meantime.
+ */
+public class FileClient implements Closeable {
+    private static final int DEFAULT_PARALLELISM = Integer.getInteger("client.parallelTransfers", 4);
+    private static final int MAX_DELTA_BYTES = ChunkedTransfer.CHUNK_SIZE; // larger deltas go as a streamed upload
+    private static final boolean DIRECT_TRANSFERS = Boolean.parseBoolean(System.getProperty("client.directTransfers", "true"));
+    private static final boolean LINK_CHECK = Boolean.parseBoolean(System.getProperty("client.linkCheck", "true"));
+    private static final int BATCH_FILE_LIMIT = 256 * 1024; // larger files are transferred one by one
+    private static final int BATCH_MAX_FILES = 256;
+    private static final long BATCH_MAX_BYTES = ChunkedTransfer.CHUNK_SIZE; // one RPC request frame
+    private static final int TRANSFER_ATTEMPTS = Integer.getInteger("client.transferAttempts", 3);
+    private static final long RETRY_PAUSE_MS = 500;
+
+    private final ICoordinator coordinator;
+    private final String token;
+    private final ExecutorService transfers;
+
+    public FileClient(ICoordinator coordinator, String token) {
+        this(coordinator, token, DEFAULT_PARALLELISM);
+    }
+
+    public FileClient(ICoordinator coordinator, String token, int parallelism) {
+        this.coordinator = coordinator;
+        this.token = token;
+        this.transfers = Executors.newFixedThreadPool(parallelism, ThreadPools.daemonFactory("transfer"));
+    }
+
+    /** Stores the local file as {@code serverFilename}. */
+    public CompletableFuture<Boolean> upload(File localFile, String serverFilename, ProgressListener progress) {
+        return submit(() -> streamUpload(localFile, serverFilename, progress));
+    }
+
+    /** Replaces an existing file, sending only the changed blocks when that is much smaller. */
+    public CompletableFuture<Boolean> update(File localFile, String serverFilename, ProgressListener progress) {
+        return submit(() -> deltaUpload(localFile, serverFilename, progress)
+                || streamUpload(localFile, serverFilename, progress));
+    }
+
+    /**
+     * Saves the file to {@code target}; false if there is no such file. The data goes to a
+     * ".part" file first, so a failed download never leaves a truncated target behind.
+     */
+    public CompletableFuture<Boolean> download(String serverFilename, File target, ProgressListener progress) {
+        return submit(() -> downloadTo(serverFilename, target, progress));
+    }
+
+    public CompletableFuture<Boolean> delete(String serverFilename) {
+        return submit(() -> coordinator.removeFile(token, serverFilename));
+    }
+
+    /** Uploads every entry (server filename to local file); a failed file maps to false. */
+    public CompletableFuture<Map<String, Boolean>> uploadAll(Map<String, File> files) {
+        Map<String, CompletableFuture<Boolean>> results = new LinkedHashMap<>();
+        Map<String, File> batch = new LinkedHashMap<>();
+        long batchBytes = 0;
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            long size = file.getValue().length();
+            if (size > BATCH_FILE_LIMIT) {
+                results.put(file.getKey(), upload(file.getValue(), file.getKey(), ProgressListener.NONE));
+                continue;
+            }
+            if (batch.size() == BATCH_MAX_FILES || batchBytes + size > BATCH_MAX_BYTES) {
+                uploadBatch(batch, results);
+                batch = new LinkedHashMap<>();
+                batchBytes = 0;
+            }
+            batch.put(file.getKey(), file.getValue());
+            batchBytes += size;
+        }
+        if (!batch.isEmpty()) uploadBatch(batch, results);
+        return collect(results);
+    }
+
+    /**
+     * Downloads every entry (server filename to target file); a missing or failed file maps to
+     * false. Files are fetched in batches first, and the ones too large for that or left out of a
+     * full reply one by one, so no reply holds more than the coordinator's batch byte cap.
+     */
+    public CompletableFuture<Map<String, Boolean>> downloadAll(Map<String, File> files) {
+        Map<String, CompletableFuture<Boolean>> results = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>(files.keySet());
+        for (int start = 0; start < names.size(); start += BATCH_MAX_FILES) {
+            List<String> batch = names.subList(start, Math.min(start + BATCH_MAX_FILES, names.size()));
+            CompletableFuture<Map<String, byte[]>> fetched = submit(() -> coordinator.getFiles(token, batch));
+            for (String serverFilename : batch) {
+                File target = files.get(serverFilename);
+                results.put(serverFilename, fetched.thenCompose(contents -> {
+                    byte[] data = contents == null ? null : contents.get(serverFilename);
+                    if (data == null) return download(serverFilename, target, ProgressListener.NONE);
+                    return CompletableFuture.completedFuture(writeFile(target, data));
+                }));
+            }
+        }
+        return collect(results);
+    }
+
+    public CompletableFuture<Map<String, Boolean>> deleteAll(Collection<String> serverFilenames) {
+        Map<String, CompletableFuture<Boolean>> results = new LinkedHashMap<>();
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(serverFilenames));
+        for (int start = 0; start < names.size(); start += BATCH_MAX_FILES) {
+            List<String> batch = names.subList(start, Math.min(start + BATCH_MAX_FILES, names.size()));
+            CompletableFuture<Map<String, Boolean>> removed = submit(() -> coordinator.removeFiles(token, batch));
+            for (String serverFilename : batch) {
+                results.put(serverFilename, removed.thenApply(outcome -> Boolean.TRUE.equals(outcome.get(serverFilename))));
+            }
+        }
+        return collect(results);
+    }
+
+    /** Lets queued operations finish but accepts no new ones. */
+    @Override
+    public void close() {
+        transfers.shutdown();
+    }
+
+    private interface Transfer<T> {
+        T run() throws IOException;
+    }
+
+    private <T> CompletableFuture<T> submit(Transfer<T> transfer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return transfer.run();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, transfers);
+    }
+
+    private static CompletableFuture<Map<String, Boolean>> collect(Map<String, CompletableFuture<Boolean>> results) {
+        Map<String, CompletableFuture<Boolean>> settled = new LinkedHashMap<>();
+        results.forEach((filename, result) -> settled.put(filename, result.exceptionally(e -> {
+            System.err.println("Transfer of '" + filename + "' failed: " + e.getMessage());
+            return false;
+        })));
+        return CompletableFuture.allOf(settled.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    Map<String, Boolean> outcome = new LinkedHashMap<>();
+                    settled.forEach((filename, result) -> outcome.put(filename, result.join()));
+                    return outcome;
+                });
+    }
+
+    private void uploadBatch(Map<String, File> batch, Map<String, CompletableFuture<Boolean>> results) {
+        CompletableFuture<Map<String, Boolean>> saved = submit(() -> {
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            for (Map.Entry<String, File> file : batch.entrySet()) {
+                try {
+                    contents.put(file.getKey(), Files.readAllBytes(file.getValue().toPath()));
+                } catch (IOException e) {
+                    // Only this file fails; it is left out and maps to false
+                    System.err.println("Transfer of '" + file.getKey() + "' failed: " + e.getMessage());
+                }
+            }
+            return coordinator.saveFiles(token, contents);
+        });
+        for (String serverFilename : batch.keySet()) {
+            results.put(serverFilename, saved.thenApply(outcome -> Boolean.TRUE.equals(outcome.get(serverFilename))));
+        }
+    }
+
+    // Same ".part" then rename as downloadTo, for content that is already in memory
+    private static boolean writeFile(File target, byte[] data) {
+        if (target.getParentFile() != null) target.getParentFile().mkdirs();
+        File partial = new File(target.getPath() + ".part");
+        try {
+            Files.write(partial.toPath(), data);
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            partial.delete();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Sends only the blocks that changed since the server's copy; false means a full upload is needed.
+    private boolean deltaUpload(File localFile, String serverFilename, ProgressListener progress) throws IOException {
+        if (localFile.length() > Integer.MAX_VALUE) return false;
+        BlockDelta.Signature signature = coordinator.getFileSignature(token, serverFilename);
+        if (signature == null) return false;
+
+        try (FileChannel channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            BlockDelta.Delta delta = BlockDelta.compute(signature, content);
+            if (delta.getLiteralBytes() > delta.getResultSize() / 2
+                    || delta.getInstructions().length > MAX_DELTA_BYTES) {
+                return false;
+            }
+            System.out.println("Sending delta for '" + serverFilename + "': " + delta.getLiteralBytes()
+                    + " changed bytes of " + delta.getResultSize());
+            boolean updated = coordinator.updateFileDelta(token, serverFilename, delta);
+            if (updated) progress.progress(delta.getResultSize(), delta.getResultSize());
+            return updated;
+        }
+    }
+
+    private boolean streamUpload(File localFile, String serverFilename, ProgressListener progress) throws IOException {
+        long size = localFile.length();
+        // Hashing locally is cheaper than sending content the replicas may already hold
+        if (LINK_CHECK && size > NodeProtocol.MUX_INLINE_LIMIT
+                && coordinator.linkFile(token, serverFilename, Checksums.sha256(localFile), size)) {
+            progress.progress(size, size);
+            return true;
+        }
+        if (DIRECT_TRANSFERS) {
+            TransferPlan plan = coordinator.planUpload(token, serverFilename);
+            if (plan != null) {
+                List<String> storedOn;
+                try (InputStream in = new ProgressInputStream(
+                        new BufferedInputStream(new FileInputStream(localFile), 64 * 1024), size, progress)) {
+                    storedOn = DirectTransfer.upload(plan, in);
+                } catch (FileNotFoundException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // A pipeline cannot pick up where it stopped, a session upload can
+                    System.err.println("Direct upload of '" + serverFilename + "' failed: " + e.getMessage());
+                    storedOn = Collections.emptyList();
+                }
+                if (!storedOn.isEmpty()) return coordinator.commitUpload(token, plan, storedOn);
+                System.out.println("No node took the direct upload, sending it through the coordinator");
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(localFile.toPath(), StandardOpenOption.READ)) {
+            for (int attempt = 1; ; attempt++) {
+                String sessionId = coordinator.beginUpload(token, serverFilename);
+                if (sessionId == null) return false;
+                boolean sent;
+                try {
+                    sent = sessionUpload(sessionId, channel, progress);
+                } catch (IOException e) {
+                    coordinator.abortUpload(sessionId);
+                    throw e;
+                }
+                if (sent) return coordinator.finishUpload(sessionId);
+                // Sessions live in coordinator memory and end with a restart or a lost quorum
+                if (attempt >= TRANSFER_ATTEMPTS) return false;
+                System.err.println("Upload session of '" + serverFilename + "' was lost, starting over");
+                pause(attempt);
+            }
+        }
+    }
+
+    // Every chunk names its offset, so after a failed call the upload goes on from what the session has
+    private boolean sessionUpload(String sessionId, FileChannel channel, ProgressListener progress) throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        long failedAt = 0;
+        int failures = 0;
+        boolean resuming = false;
+        while (true) {
+            try {
+                if (resuming) {
+                    offset = coordinator.getUploadOffset(sessionId);
+                    resuming = false;
+                } else {
+                    byte[] chunk = readChunk(channel, offset);
+                    if (chunk.length == 0) return true;
+                    offset = coordinator.uploadChunkAt(sessionId, offset, chunk);
+                }
+            } catch (RemoteException e) {
+                // Only failures in a row without any progress in between give up on the upload
+                if (offset > failedAt) failures = 0;
+                failedAt = offset;
+                resuming = true;
+                if (++failures >= TRANSFER_ATTEMPTS) throw e;
+                System.err.println("Upload interrupted at " + offset + " bytes, resuming: " + e.getMessage());
+                pause(failures);
+                continue;
+            }
+            if (offset < 0) return false; // the session is gone
+            progress.progress(offset, size);
+        }
+    }
+
+    private static byte[] readChunk(FileChannel channel, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(ChunkedTransfer.CHUNK_SIZE, channel.size() - offset)));
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+            // a short read only means the rest has not arrived yet
+        }
+        return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private boolean downloadTo(String serverFilename, File target, ProgressListener progress) throws IOException {
+        if (target.getParentFile() != null) target.getParentFile().mkdirs();
+        File partial = new File(target.getPath() + ".part");
+        long[] version = {NodeProtocol.ANY_VERSION}; // of the bytes in the partial file, once known
+        boolean complete = false;
+        long resumedAt = 0;
+        int failures = 0;
+        try {
+            for (int attempt = 1; !complete; attempt++) {
+                try {
+                    if (attempt == 1) {
+                        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(partial), 64 * 1024)) {
+                            TransferPlan plan = DIRECT_TRANSFERS ? coordinator.planDownload(token, serverFilename) : null;
+                            if (plan != null) version[0] = plan.getVersion();
+                            complete = plan != null && DirectTransfer.download(plan, out, progress);
+                            if (!complete) {
+                                version[0] = NodeProtocol.ANY_VERSION; // sessions do not tell
+                                complete = sessionDownload(serverFilename, new ProgressOutputStream(out, progress));
+                            }
+                        }
+                        if (!complete) return false;
+                    } else {
+                        complete = resumeDownload(serverFilename, partial, version, progress);
+                        if (!complete) return false; // removed in the meantime
+                    }
+                } catch (IOException e) {
+                    // Only failures in a row without any progress in between give up on the download
+                    if (partial.length() > resumedAt) failures = 0;
+                    resumedAt = partial.length();
+                    if (++failures >= TRANSFER_ATTEMPTS) throw e;
+                    System.err.println("Download of '" + serverFilename + "' interrupted at " + resumedAt
+                            + " bytes, resuming: " + e.getMessage());
+                    pause(failures);
+                }
+            }
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } finally {
+            if (!complete) partial.delete();
+        }
+    }
+
+    /**
+     * Appends the rest of the file to {@code partial} in ranges. If the file is no longer the
+     * version the partial file holds, it is fetched again from the start. False if it is gone.
+     */
+    private boolean resumeDownload(String serverFilename, File partial, long[] version,
+                                   ProgressListener progress) throws IOException {
+        int restarts = 0;
+        try (FileOutputStream out = new FileOutputStream(partial, true)) {
+            long offset = partial.length();
+            while (true) {
+                VersionedFile range = coordinator.getFileRange(token, serverFilename, offset, ChunkedTransfer.CHUNK_SIZE);
+                if (range == null) return false;
+                if (range.getVersion() != version[0]) {
+                    version[0] = range.getVersion();
+                    if (offset > 0) {
+                        if (++restarts > TRANSFER_ATTEMPTS) throw new IOException("File keeps changing during the download");
+                        out.getChannel().truncate(0);
+                        offset = 0;
+                        continue;
+                    }
+                }
+                out.write(range.getData());
+                offset += range.getData().length;
+                progress.progress(offset, -1);
+                if (range.getData().length < ChunkedTransfer.CHUNK_SIZE) return true;
+            }
+        }
+    }
+
+    private static void pause(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(RETRY_PAUSE_MS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to resume a transfer");
+        }
+    }
+
+    private boolean sessionDownload(String serverFilename, OutputStream out) throws IOException {
+        String sessionId = coordinator.beginDownload(token, serverFilename);
+        if (sessionId == null) return false;
+        try {
+            byte[] chunk;
+            while ((chunk = coordinator.downloadChunk(sessionId)) != null) {
+                out.write(chunk);
+            }
+            return true;
+        } finally {
+            coordinator.endDownload(sessionId);
+        }
+    }
+
+    private static class ProgressInputStream extends FilterInputStream {
+        private final long total;
+        private final ProgressListener progress;
+        private long transferred;
+
+        ProgressInputStream(InputStream in, long total, ProgressListener progress) {
+            super(in);
+            this.total = total;
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) progress.progress(++transferred, total);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) progress.progress(transferred += read, total);
+            return read;
+        }
+    }
+
+    // For session downloads, whose size is only known at the end
+    private static class ProgressOutputStream extends FilterOutputStream {
+        private final ProgressListener progress;
+        private long transferred;
+
+        ProgressOutputStream(OutputStream out, ProgressListener progress) {
+            super(out);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+            progress.progress(transferred += length, -1);
+        }
+    }
+}
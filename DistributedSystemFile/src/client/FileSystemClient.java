@@ -13,9 +13,12 @@ import java.awt.event.MouseEvent;
 import java.io.*;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.concurrent.CompletionException;
 
 public class FileSystemClient {
     private static ICoordinator coordinator;
+    private static FileClient fileClient; // runs the transfers in the background once signed in
+    private static TransferQueuePanel transferQueue;
     private static JFrame currentFrame; // To track the current active frame
     private static String username;
     private static String token;
@@ -68,6 +71,7 @@ public class FileSystemClient {
     private static final String HOME_BUTTON_REGISTER_USER = "Register New User";
     private static final String HOME_BUTTON_EXIT = "Exit System";
     private static final String HOME_FOOTER_LOGGED_IN_AS = "Logged in as: ";
+    private static final String HOME_TRANSFERS_TITLE = "Transfers";
 
     // General Messages & Titles
     private static final String MSG_SUCCESS_TITLE = "Success";
@@ -86,7 +90,6 @@ public class FileSystemClient {
     private static final String UPLOAD_PROMPT_FILENAME_STORAGE = "Enter filename for storage on server:";
     private static final String UPLOAD_SUCCESS_MSG = "File uploaded successfully.";
     private static final String UPLOAD_FAILURE_MSG = "File upload failed. You may not have permission or an error occurred.";
-    private static final String UPLOAD_ERROR_READING_FILE = "An error occurred while reading the local file.";
 
     // Download
     private static final String DOWNLOAD_DIALOG_TITLE = "Save Downloaded File";
@@ -94,7 +97,6 @@ public class FileSystemClient {
     private static final String DOWNLOAD_SUCCESS_MSG_PREFIX = "File downloaded successfully to: ";
     private static final String DOWNLOAD_FILE_NOT_FOUND_MSG = "The requested file was not found on the server.";
     private static final String DOWNLOAD_FAILURE_MSG = "File download failed. Please try again.";
-    private static final String DOWNLOAD_ERROR_WRITING_FILE = "An error occurred while saving the downloaded file.";
 
     // Delete
     private static final String DELETE_PROMPT_FILENAME = "Enter the name of the file to delete:";
@@ -135,9 +137,12 @@ public class FileSystemClient {
         }
 
         try {
-            System.out.println("Connecting to RMI registry on localhost:1099...");
-            Registry registry = LocateRegistry.getRegistry("localhost", 1099);
-            coordinator = (ICoordinator) registry.lookup("CoordinatorFileSystem");
+            coordinator = connectRpc();
+            if (coordinator == null) {
+                System.out.println("Connecting to RMI registry on localhost:1099...");
+                Registry registry = LocateRegistry.getRegistry("localhost", 1099);
+                coordinator = (ICoordinator) registry.lookup("CoordinatorFileSystem");
+            }
             System.out.println("Successfully connected to server coordinator.");
 
             SwingUtilities.invokeLater(() -> {
@@ -271,6 +276,7 @@ public class FileSystemClient {
                 token = coordinator.signIn(username, password);
                 if (token != null) {
                     System.out.println("Login successful for user: " + username);
+                    fileClient = new FileClient(coordinator, token);
                     currentFrame.dispose();
                     showHomeWindow();
                 } else {
@@ -303,7 +309,7 @@ public class FileSystemClient {
         System.out.println("Displaying home window for user: " + username);
 
         currentFrame = new JFrame(HOME_WINDOW_TITLE_PREFIX + username);
-        currentFrame.setSize(600, 550);
+        currentFrame.setSize(600, 720);
         currentFrame.setLocationRelativeTo(null);
         currentFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         currentFrame.setResizable(true); // Allow resizing for home window
@@ -360,12 +366,24 @@ public class FileSystemClient {
 
         mainPanel.add(buttonPanel, BorderLayout.CENTER);
 
+        // Transfers run in the background and report here
+        transferQueue = new TransferQueuePanel(FONT_LABEL, COLOR_SUCCESS, COLOR_DANGER);
+        JScrollPane transferScroll = new JScrollPane(transferQueue);
+        transferScroll.setPreferredSize(new Dimension(0, 170));
+        transferScroll.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(COLOR_TEXT_FIELD_BORDER), HOME_TRANSFERS_TITLE));
+        transferScroll.getViewport().setBackground(COLOR_BACKGROUND_LIGHT);
+
         // Footer
         JLabel footerLabel = new JLabel(HOME_FOOTER_LOGGED_IN_AS + username, JLabel.CENTER);
         footerLabel.setFont(FONT_FOOTER);
         footerLabel.setForeground(COLOR_SECONDARY);
         footerLabel.setBorder(new EmptyBorder(20, 0, 0, 0));
-        mainPanel.add(footerLabel, BorderLayout.SOUTH);
+
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.setBackground(COLOR_BACKGROUND_LIGHT);
+        southPanel.add(transferScroll, BorderLayout.CENTER);
+        southPanel.add(footerLabel, BorderLayout.SOUTH);
+        mainPanel.add(southPanel, BorderLayout.SOUTH);
 
         currentFrame.add(mainPanel);
         currentFrame.setVisible(true);
@@ -409,57 +427,40 @@ public class FileSystemClient {
         System.out.println("File upload process initiated by: " + username);
         JFileChooser chooser = new JFileChooser();
         chooser.setDialogTitle(UPLOAD_DIALOG_TITLE);
+        chooser.setMultiSelectionEnabled(true);
         int result = chooser.showOpenDialog(currentFrame);
 
         if (result == JFileChooser.APPROVE_OPTION) {
-            File fileToUpload = chooser.getSelectedFile();
-            System.out.println("Selected file for upload: " + fileToUpload.getAbsolutePath());
-
-            String storageFilename = JOptionPane.showInputDialog(currentFrame, UPLOAD_PROMPT_FILENAME_STORAGE, MSG_CONFIRMATION_TITLE, JOptionPane.PLAIN_MESSAGE);
-            if (storageFilename == null || storageFilename.trim().isEmpty()) {
-                System.out.println(MSG_OPERATION_CANCELLED + " (No storage filename provided)");
-                return;
-            }
-            storageFilename = storageFilename.trim();
-
-            try (FileInputStream fis = new FileInputStream(fileToUpload)) {
-                byte[] fileData = new byte[(int) fileToUpload.length()];
-                int bytesRead = fis.read(fileData);
-                if (bytesRead != fileToUpload.length()) {
-                    System.err.println("Could not read the entire file: " + fileToUpload.getName());
-                    JOptionPane.showMessageDialog(currentFrame, UPLOAD_ERROR_READING_FILE, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
+            File[] filesToUpload = chooser.getSelectedFiles();
+            if (filesToUpload.length == 1) {
+                File fileToUpload = filesToUpload[0];
+                System.out.println("Selected file for upload: " + fileToUpload.getAbsolutePath());
+
+                String storageFilename = (String) JOptionPane.showInputDialog(currentFrame, UPLOAD_PROMPT_FILENAME_STORAGE, MSG_CONFIRMATION_TITLE, JOptionPane.PLAIN_MESSAGE, null, null, fileToUpload.getName());
+                if (storageFilename == null || storageFilename.trim().isEmpty()) {
+                    System.out.println(MSG_OPERATION_CANCELLED + " (No storage filename provided)");
                     return;
                 }
-
-                System.out.println("Uploading file '" + storageFilename + "' to server...");
-                boolean success = coordinator.saveFile(token, storageFilename, fileData);
-
-                if (success) {
-                    System.out.println("File upload successful: " + storageFilename);
-                    JOptionPane.showMessageDialog(currentFrame, UPLOAD_SUCCESS_MSG, MSG_SUCCESS_TITLE, JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    System.out.println("File upload failed on server: " + storageFilename);
-                    JOptionPane.showMessageDialog(currentFrame, UPLOAD_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
+                queueUpload(fileToUpload, storageFilename.trim());
+            } else {
+                // Several files at once keep their own names on the server
+                System.out.println("Selected " + filesToUpload.length + " files for upload");
+                for (File fileToUpload : filesToUpload) {
+                    queueUpload(fileToUpload, fileToUpload.getName());
                 }
-            } catch (FileNotFoundException fnfEx) {
-                System.err.println("Upload Action Error - File not found: " + fileToUpload.getAbsolutePath() + " - " + fnfEx.getMessage());
-                JOptionPane.showMessageDialog(currentFrame, MSG_FILE_NOT_FOUND_LOCAL + fileToUpload.getName(), MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-            }
-            catch (IOException ioEx) {
-                System.err.println("Upload Action Error - IO: " + ioEx.getMessage());
-                ioEx.printStackTrace();
-                JOptionPane.showMessageDialog(currentFrame, UPLOAD_ERROR_READING_FILE, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-            }
-            catch (Exception ex) {
-                System.err.println("Upload Action Error - General: " + ex.getMessage());
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(currentFrame, UPLOAD_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
             }
         } else {
             System.out.println(MSG_OPERATION_CANCELLED + " (File chooser closed or cancelled)");
         }
     }
 
+    private static void queueUpload(File fileToUpload, String storageFilename) {
+        System.out.println("Queueing upload of '" + storageFilename + "' from " + fileToUpload.getAbsolutePath());
+        TransferQueuePanel.Row row = transferQueue.add("⬆ " + storageFilename);
+        fileClient.upload(fileToUpload, storageFilename, row).whenComplete((success, error) ->
+                finishTransfer(row, "Upload", storageFilename, success, error, UPLOAD_SUCCESS_MSG, UPLOAD_FAILURE_MSG));
+    }
+
     private static void deleteFile() {
         System.out.println("File deletion process initiated by: " + username);
         String filenameToDelete = JOptionPane.showInputDialog(currentFrame, DELETE_PROMPT_FILENAME, MSG_CONFIRMATION_TITLE, JOptionPane.PLAIN_MESSAGE);
@@ -467,23 +468,21 @@ public class FileSystemClient {
             System.out.println(MSG_OPERATION_CANCELLED + " (No filename entered for deletion)");
             return;
         }
-        filenameToDelete = filenameToDelete.trim();
+        String filename = filenameToDelete.trim();
 
-        System.out.println("Attempting to delete file: " + filenameToDelete);
-        try {
-            boolean success = coordinator.removeFile(token, filenameToDelete);
-            if (success) {
-                System.out.println("File deletion successful: " + filenameToDelete);
+        System.out.println("Attempting to delete file: " + filename);
+        fileClient.delete(filename).whenComplete((success, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                System.err.println("Deletion Action Error: " + error.getMessage());
+                JOptionPane.showMessageDialog(currentFrame, DELETE_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
+            } else if (success) {
+                System.out.println("File deletion successful: " + filename);
                 JOptionPane.showMessageDialog(currentFrame, DELETE_SUCCESS_MSG, MSG_SUCCESS_TITLE, JOptionPane.INFORMATION_MESSAGE);
             } else {
-                System.out.println("File deletion failed on server: " + filenameToDelete);
+                System.out.println("File deletion failed on server: " + filename);
                 JOptionPane.showMessageDialog(currentFrame, DELETE_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
             }
-        } catch (Exception ex) {
-            System.err.println("Deletion Action Error: " + ex.getMessage());
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(currentFrame, DELETE_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-        }
+        }));
     }
 
     private static void editFile() {
@@ -501,41 +500,12 @@ public class FileSystemClient {
                 System.out.println(MSG_OPERATION_CANCELLED + " (No server filename provided for update)");
                 return;
             }
-            serverFilename = serverFilename.trim();
-
-            try (FileInputStream fis = new FileInputStream(fileToEditWith)) {
-                byte[] fileData = new byte[(int) fileToEditWith.length()];
-                int bytesRead = fis.read(fileData);
-                if (bytesRead != fileToEditWith.length()) {
-                    System.err.println("Could not read the entire file: " + fileToEditWith.getName());
-                    JOptionPane.showMessageDialog(currentFrame, UPLOAD_ERROR_READING_FILE, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE); // Re-use upload error message
-                    return;
-                }
+            String filename = serverFilename.trim();
 
-                System.out.println("Updating file '" + serverFilename + "' on server with content from '" + fileToEditWith.getName() + "'");
-                boolean success = coordinator.updateFile(token, serverFilename, fileData);
-
-                if (success) {
-                    System.out.println("File update successful: " + serverFilename);
-                    JOptionPane.showMessageDialog(currentFrame, EDIT_SUCCESS_MSG, MSG_SUCCESS_TITLE, JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                    System.out.println("File update failed on server: " + serverFilename);
-                    JOptionPane.showMessageDialog(currentFrame, EDIT_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-                }
-            } catch (FileNotFoundException fnfEx) {
-                System.err.println("Edit Action Error - File not found: " + fileToEditWith.getAbsolutePath() + " - " + fnfEx.getMessage());
-                JOptionPane.showMessageDialog(currentFrame, MSG_FILE_NOT_FOUND_LOCAL + fileToEditWith.getName(), MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-            }
-            catch (IOException ioEx) {
-                System.err.println("Edit Action Error - IO: " + ioEx.getMessage());
-                ioEx.printStackTrace();
-                JOptionPane.showMessageDialog(currentFrame, UPLOAD_ERROR_READING_FILE, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE); // Re-use upload error
-            }
-            catch (Exception ex) {
-                System.err.println("Edit Action Error - General: " + ex.getMessage());
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(currentFrame, EDIT_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-            }
+            System.out.println("Queueing update of '" + filename + "' with content from '" + fileToEditWith.getName() + "'");
+            TransferQueuePanel.Row row = transferQueue.add("✎ " + filename);
+            fileClient.update(fileToEditWith, filename, row).whenComplete((success, error) ->
+                    finishTransfer(row, "Update", filename, success, error, EDIT_SUCCESS_MSG, EDIT_FAILURE_MSG));
         } else {
             System.out.println(MSG_OPERATION_CANCELLED + " (File chooser closed or cancelled for edit)");
         }
@@ -548,43 +518,53 @@ public class FileSystemClient {
             System.out.println(MSG_OPERATION_CANCELLED + " (No filename entered for download)");
             return;
         }
-        filenameToDownload = filenameToDownload.trim();
+        String filename = filenameToDownload.trim();
+
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle(DOWNLOAD_DIALOG_TITLE);
+        chooser.setSelectedFile(new File(filename)); // Suggest original filename
+        if (chooser.showSaveDialog(currentFrame) != JFileChooser.APPROVE_OPTION) {
+            System.out.println(MSG_OPERATION_CANCELLED + " (Save dialog closed or cancelled)");
+            return;
+        }
+        File outputFile = chooser.getSelectedFile();
+
+        System.out.println("Queueing download of '" + filename + "' to " + outputFile.getAbsolutePath());
+        TransferQueuePanel.Row row = transferQueue.add("⬇ " + filename);
+        fileClient.download(filename, outputFile, row).whenComplete((found, error) ->
+                finishTransfer(row, "Download", filename, found, error,
+                        DOWNLOAD_SUCCESS_MSG_PREFIX + outputFile.getAbsolutePath(),
+                        error == null ? DOWNLOAD_FILE_NOT_FOUND_MSG : DOWNLOAD_FAILURE_MSG));
+    }
+
+    // Logs how a queued transfer ended and shows it on its row; runs on the transfer thread.
+    private static void finishTransfer(TransferQueuePanel.Row row, String action, String filename, Boolean success,
+                                       Throwable error, String successMessage, String failureMessage) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            System.err.println(action + " Action Error - '" + filename + "': " + cause.getMessage());
+            row.finish(false, cause instanceof FileNotFoundException
+                    ? MSG_FILE_NOT_FOUND_LOCAL + cause.getMessage()
+                    : failureMessage + " (" + cause.getMessage() + ")");
+        } else if (success) {
+            System.out.println(action + " successful: " + filename);
+            row.finish(true, successMessage);
+        } else {
+            System.out.println(action + " failed on server: " + filename);
+            row.finish(false, failureMessage);
+        }
+    }
 
-        System.out.println("Attempting to download file: " + filenameToDownload);
+    // The coordinator's binary RPC port unless -Dclient.transport=rmi; null means use RMI instead.
+    private static ICoordinator connectRpc() {
+        if (!"rpc".equals(System.getProperty("client.transport", "rpc"))) return null;
+        int port = Integer.getInteger("client.rpcPort", 1100);
         try {
-            byte[] fileData = coordinator.getFile(token, filenameToDownload);
-            if (fileData != null && fileData.length > 0) {
-                JFileChooser chooser = new JFileChooser();
-                chooser.setDialogTitle(DOWNLOAD_DIALOG_TITLE);
-                chooser.setSelectedFile(new File(filenameToDownload)); // Suggest original filename
-                int saveResult = chooser.showSaveDialog(currentFrame);
-
-                if (saveResult == JFileChooser.APPROVE_OPTION) {
-                    File outputFile = chooser.getSelectedFile();
-                    if (outputFile.getParentFile() != null) {
-                        outputFile.getParentFile().mkdirs(); // Ensure parent directory exists
-                    }
-                    try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                        fos.write(fileData);
-                        String successMessage = DOWNLOAD_SUCCESS_MSG_PREFIX + outputFile.getAbsolutePath();
-                        System.out.println(successMessage);
-                        JOptionPane.showMessageDialog(currentFrame, successMessage, MSG_SUCCESS_TITLE, JOptionPane.INFORMATION_MESSAGE);
-                    } catch (IOException ioEx) {
-                        System.err.println("Download Action Error - Writing file: " + ioEx.getMessage());
-                        ioEx.printStackTrace();
-                        JOptionPane.showMessageDialog(currentFrame, DOWNLOAD_ERROR_WRITING_FILE, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
-                    }
-                } else {
-                    System.out.println(MSG_OPERATION_CANCELLED + " (Save dialog closed or cancelled)");
-                }
-            } else {
-                System.out.println("File not found on server or is empty: " + filenameToDownload);
-                JOptionPane.showMessageDialog(currentFrame, DOWNLOAD_FILE_NOT_FOUND_MSG, MSG_WARNING_TITLE, JOptionPane.WARNING_MESSAGE);
-            }
-        } catch (Exception ex) {
-            System.err.println("Download Action Error: " + ex.getMessage());
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(currentFrame, DOWNLOAD_FAILURE_MSG, MSG_ERROR_TITLE, JOptionPane.ERROR_MESSAGE);
+            System.out.println("Connecting to coordinator RPC on localhost:" + port + "...");
+            return new RpcClient("localhost", port);
+        } catch (IOException e) {
+            System.out.println("Coordinator RPC unavailable (" + e.getMessage() + "), falling back to RMI");
+            return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package client;
+
+/** Told how far a transfer has got; {@code total} is -1 while the size is not known. */
+@FunctionalInterface
+public interface ProgressListener {
+    ProgressListener NONE = (transferred, total) -> { };
+
+    void progress(long transferred, long total);
+}
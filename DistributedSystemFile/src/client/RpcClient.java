@@ -0,0 +1,360 @@
+package client;
+
+import coordinator.ICoordinator;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.BlockDelta;
+import utils.ChunkedTransfer;
+import utils.RpcProtocol;
+import utils.TransferPlan;
+import utils.User;
+import utils.VersionedFile;
+
+/**
+ * {@link ICoordinator} over the coordinator's binary RPC port instead of RMI. All calls share
+ * one connection: every thread can have calls in flight at the same time, and a reader thread
+ * completes each one when its response arrives. {@link #callAsync} exposes that directly.
+ *
+ * A broken connection fails the calls pending on it and is reopened by the next call. A call
+ * that gets no response within the timeout fails on its own, and a request larger than
+ * {@link RpcProtocol#MAX_REQUEST_FRAME} fails before it is sent; neither closes the connection.
+ * {@link #saveFile} sends files over one chunk through an upload session instead.
+ */
+public class RpcClient implements ICoordinator, Closeable {
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final long CALL_TIMEOUT_MS = Long.getLong("client.rpcTimeoutMillis", 120_000);
+
+    private final String host;
+    private final int port;
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    private volatile Connection connection;
+
+    public RpcClient(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.connection = new Connection(); // fail early if the port is not served
+    }
+
+    /** Sends a call without waiting for it; the future holds the return value, or times out. */
+    public CompletableFuture<Object> callAsync(String method, Object... args) {
+        int methodId = RpcProtocol.METHODS.indexOf(method);
+        if (methodId < 0) throw new IllegalArgumentException("Not an RPC method: " + method);
+        try {
+            return connection().send(nextCallId.incrementAndGet(), methodId, args);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T call(String method, Object... args) throws RemoteException {
+        try {
+            return (T) callAsync(method, args).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TimeoutException) throw new RemoteException("RPC call " + method + " timed out");
+            throw cause instanceof RemoteException ? (RemoteException) cause
+                    : new RemoteException("RPC call " + method + " failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted during RPC call " + method);
+        }
+    }
+
+    private Connection connection() throws IOException {
+        Connection current = connection;
+        if (current.isOpen()) return current;
+        synchronized (this) {
+            if (!connection.isOpen()) connection = new Connection();
+            return connection;
+        }
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    @Override
+    public String signIn(String username, String password) throws RemoteException {
+        return call("signIn", username, password);
+    }
+
+    @Override
+    public boolean createUser(User user, String token) throws RemoteException {
+        return call("createUser", user, token);
+    }
+
+    @Override
+    public boolean saveFile(String token, String filename, byte[] data) throws RemoteException {
+        if (data.length <= ChunkedTransfer.CHUNK_SIZE) return call("saveFile", token, filename, data);
+
+        // Too large for one request frame: the same upload, a chunk per call
+        String sessionId = beginUpload(token, filename);
+        if (sessionId == null) return false;
+        for (int offset = 0; offset < data.length; offset += ChunkedTransfer.CHUNK_SIZE) {
+            byte[] chunk = Arrays.copyOfRange(data, offset, Math.min(offset + ChunkedTransfer.CHUNK_SIZE, data.length));
+            if (!uploadChunk(sessionId, chunk)) return false; // the coordinator drops the session itself
+        }
+        return finishUpload(sessionId);
+    }
+
+    @Override
+    public byte[] getFile(String token, String filename) throws RemoteException {
+        return call("getFile", token, filename);
+    }
+
+    @Override
+    public boolean removeFile(String token, String filename) throws RemoteException {
+        return call("removeFile", token, filename);
+    }
+
+    @Override
+    public boolean updateFile(String token, String filename, byte[] updateData) throws RemoteException {
+        return call("updateFile", token, filename, updateData);
+    }
+
+    @Override
+    public boolean linkFile(String token, String filename, String checksum, long size) throws RemoteException {
+        return call("linkFile", token, filename, checksum, size);
+    }
+
+    @Override
+    public String beginUpload(String token, String filename) throws RemoteException {
+        return call("beginUpload", token, filename);
+    }
+
+    @Override
+    public boolean uploadChunk(String sessionId, byte[] chunk) throws RemoteException {
+        return call("uploadChunk", sessionId, chunk);
+    }
+
+    @Override
+    public long uploadChunkAt(String sessionId, long offset, byte[] chunk) throws RemoteException {
+        return call("uploadChunkAt", sessionId, offset, chunk);
+    }
+
+    @Override
+    public long getUploadOffset(String sessionId) throws RemoteException {
+        return call("getUploadOffset", sessionId);
+    }
+
+    @Override
+    public boolean finishUpload(String sessionId) throws RemoteException {
+        return call("finishUpload", sessionId);
+    }
+
+    @Override
+    public void abortUpload(String sessionId) throws RemoteException {
+        call("abortUpload", sessionId);
+    }
+
+    @Override
+    public String beginDownload(String token, String filename) throws RemoteException {
+        return call("beginDownload", token, filename);
+    }
+
+    @Override
+    public byte[] downloadChunk(String sessionId) throws RemoteException {
+        return call("downloadChunk", sessionId);
+    }
+
+    @Override
+    public void endDownload(String sessionId) throws RemoteException {
+        call("endDownload", sessionId);
+    }
+
+    @Override
+    public VersionedFile getFileRange(String token, String filename, long offset, int length) throws RemoteException {
+        return call("getFileRange", token, filename, offset, length);
+    }
+
+    @Override
+    public BlockDelta.Signature getFileSignature(String token, String filename) throws RemoteException {
+        return call("getFileSignature", token, filename);
+    }
+
+    @Override
+    public boolean updateFileDelta(String token, String filename, BlockDelta.Delta delta) throws RemoteException {
+        return call("updateFileDelta", token, filename, delta);
+    }
+
+    @Override
+    public long getFileVersion(String token, String filename) throws RemoteException {
+        return call("getFileVersion", token, filename);
+    }
+
+    @Override
+    public VersionedFile getFileWithVersion(String token, String filename) throws RemoteException {
+        return call("getFileWithVersion", token, filename);
+    }
+
+    @Override
+    public long updateFileIfVersion(String token, String filename, long expectedVersion, byte[] data) throws RemoteException {
+        return call("updateFileIfVersion", token, filename, expectedVersion, data);
+    }
+
+    @Override
+    public TransferPlan planUpload(String token, String filename) throws RemoteException {
+        return call("planUpload", token, filename);
+    }
+
+    @Override
+    public boolean commitUpload(String token, TransferPlan plan, List<String> storedOn) throws RemoteException {
+        return call("commitUpload", token, plan, storedOn);
+    }
+
+    @Override
+    public TransferPlan planDownload(String token, String filename) throws RemoteException {
+        return call("planDownload", token, filename);
+    }
+
+    @Override
+    public Map<String, Boolean> saveFiles(String token, Map<String, byte[]> files) throws RemoteException {
+        // Split to fit request frames; a name costs at most 3 bytes a char plus its value tags
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        long batchBytes = 0;
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            long size = file.getValue().length + 3L * file.getKey().length() + 16;
+            if (size > ChunkedTransfer.CHUNK_SIZE) {
+                results.put(file.getKey(), saveFile(token, file.getKey(), file.getValue()));
+                continue;
+            }
+            if (batchBytes + size > ChunkedTransfer.CHUNK_SIZE) {
+                results.putAll(call("saveFiles", token, batch));
+                batch = new LinkedHashMap<>();
+                batchBytes = 0;
+            }
+            batch.put(file.getKey(), file.getValue());
+            batchBytes += size;
+        }
+        if (!batch.isEmpty()) results.putAll(call("saveFiles", token, batch));
+
+        Map<String, Boolean> ordered = new LinkedHashMap<>();
+        files.keySet().forEach(filename -> ordered.put(filename, results.get(filename)));
+        return ordered;
+    }
+
+    @Override
+    public Map<String, byte[]> getFiles(String token, List<String> filenames) throws RemoteException {
+        return call("getFiles", token, filenames);
+    }
+
+    @Override
+    public Map<String, Boolean> removeFiles(String token, List<String> filenames) throws RemoteException {
+        return call("removeFiles", token, filenames);
+    }
+
+    @Override
+    public String getStatistics(String token) throws RemoteException {
+        return call("getStatistics", token);
+    }
+
+    private class Connection {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+        private volatile boolean open = true;
+
+        Connection() throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+
+            Thread reader = new Thread(this::readResponses, "rpc-reader-" + host + ":" + port);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        CompletableFuture<Object> send(int callId, int methodId, Object[] args) throws IOException {
+            // Encoded off the lock, so threads only queue up for the socket write itself
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream frame = new DataOutputStream(bytes);
+            frame.writeInt(callId);
+            frame.writeByte(methodId);
+            frame.writeByte(args.length);
+            for (Object arg : args) {
+                RpcProtocol.writeValue(frame, arg);
+            }
+            if (bytes.size() > RpcProtocol.MAX_REQUEST_FRAME) {
+                throw new IOException("RPC request of " + bytes.size() + " bytes is over the "
+                        + RpcProtocol.MAX_REQUEST_FRAME + " byte limit");
+            }
+
+            CompletableFuture<Object> response = new CompletableFuture<>();
+            pending.put(callId, response);
+            response.orTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .whenComplete((value, error) -> pending.remove(callId));
+            if (!open) {
+                pending.remove(callId);
+                throw new IOException("RPC connection to " + host + ":" + port + " is closed");
+            }
+            try {
+                synchronized (out) {
+                    out.writeInt(bytes.size());
+                    bytes.writeTo(out);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                pending.remove(callId);
+                fail(e);
+                throw e;
+            }
+            return response;
+        }
+
+        private void readResponses() {
+            try {
+                while (open) {
+                    int length = in.readInt();
+                    if (length < 5 || length > RpcProtocol.MAX_FRAME) {
+                        throw new IOException("Invalid response frame length: " + length);
+                    }
+                    int callId = in.readInt();
+                    byte status = in.readByte();
+                    CompletableFuture<Object> response = pending.remove(callId);
+                    if (status == RpcProtocol.STATUS_OK) {
+                        Object value = RpcProtocol.readValue(in);
+                        if (response != null) response.complete(value);
+                    } else {
+                        String message = in.readUTF();
+                        if (response != null) response.completeExceptionally(new RemoteException(message));
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException cause) {
+            if (open) System.err.println("RPC connection closed: " + cause.getMessage());
+            close();
+            pending.values().forEach(f -> f.completeExceptionally(cause));
+            pending.clear();
+        }
+
+        void close() {
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package client;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+
+/**
+ * The transfers of this session, newest first: one row per file with a progress bar that the
+ * transfer threads update and the outcome once it is done. Rows are added on the event thread;
+ * everything else may be called from any thread.
+ */
+class TransferQueuePanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    private final Font font;
+    private final Color successColor;
+    private final Color failureColor;
+
+    TransferQueuePanel(Font font, Color successColor, Color failureColor) {
+        this.font = font;
+        this.successColor = successColor;
+        this.failureColor = failureColor;
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setOpaque(false);
+    }
+
+    /** Adds a row for a transfer that is about to be queued. */
+    Row add(String description) {
+        Row row = new Row(description);
+        add(row.panel, 0);
+        revalidate();
+        repaint();
+        return row;
+    }
+
+    class Row implements ProgressListener {
+        private final JPanel panel = new JPanel(new BorderLayout(10, 0));
+        private final JProgressBar bar = new JProgressBar(0, 100);
+        private final JLabel status = new JLabel("Queued");
+        private volatile int shownPercent = -1; // written by the transfer thread only
+
+        Row(String description) {
+            JLabel name = new JLabel(description);
+            name.setFont(font);
+            status.setFont(font);
+            bar.setStringPainted(true);
+            bar.setString("");
+            panel.setOpaque(false);
+            panel.setBorder(new EmptyBorder(4, 0, 4, 0));
+            panel.setMaximumSize(new Dimension(Integer.MAX_VALUE, 34));
+            panel.add(name, BorderLayout.WEST);
+            panel.add(bar, BorderLayout.CENTER);
+            panel.add(status, BorderLayout.EAST);
+        }
+
+        @Override
+        public void progress(long transferred, long total) {
+            // Only a change of the shown value reaches the event thread
+            int percent = total > 0 ? (int) (transferred * 100 / total) : total == 0 ? 100 : -2;
+            if (percent == shownPercent && percent != -2) return;
+            shownPercent = percent;
+            SwingUtilities.invokeLater(() -> {
+                status.setText("Transferring");
+                if (percent >= 0) {
+                    bar.setIndeterminate(false);
+                    bar.setValue(percent);
+                    bar.setString(percent + "%");
+                } else {
+                    bar.setIndeterminate(true);
+                    bar.setString(transferred / 1024 + " KB");
+                }
+            });
+        }
+
+        void finish(boolean succeeded, String message) {
+            SwingUtilities.invokeLater(() -> {
+                bar.setIndeterminate(false);
+                if (succeeded) {
+                    bar.setValue(100);
+                    bar.setString("100%");
+                }
+                status.setText(succeeded ? "Done" : "Failed");
+                status.setForeground(succeeded ? successColor : failureColor);
+                status.setToolTipText(message);
+                panel.setToolTipText(message);
+            });
+        }
+    }
+}
@@ -1,16 +1,29 @@
 package coordinator;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import utils.ClusterConfig;
 
 public class CoordinatorServer {
     public static void main(String[] args) {
+        ClusterConfig.warnIfNoSecret();
         try {
             CoordinatorService coordinator = new CoordinatorService();
             Registry registry = LocateRegistry.createRegistry(1099);
             registry.rebind("CoordinatorFileSystem", coordinator);
+            registry.rebind("CoordinatorMembership", coordinator.getMembership());
+
+            // Binary protocol for clients that want lower per-call overhead than RMI; 0 turns it off
+            int rpcPort = Integer.getInteger("coordinator.rpcPort", 1100);
+            if (rpcPort > 0) {
+                Thread rpcServer = new Thread(new RpcServer(coordinator, rpcPort), "rpc-server");
+                rpcServer.setDaemon(true);
+                rpcServer.start();
+            }
             System.out.println("✅ Successfully started");
             System.out.println("📡 Listening on port 1099");
             System.out.println("🔗 Service bound as 'CoordinatorService'");
+            System.out.println("🔗 Node membership bound as 'CoordinatorMembership'");
+            if (rpcPort > 0) System.out.println("⚡ Binary RPC listening on port " + rpcPort);
         } catch (Exception e) {
             System.err.println("\n❌ Failed to start coordinator:");
             System.err.println("Error: " + e.getMessage());
@@ -3,18 +3,71 @@ import java.rmi.server.UnicastRemoteObject;
 import java.rmi.RemoteException;
 import java.util.*;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.concurrent.*;
+import java.nio.ByteBuffer;
+import utils.AccessTicket;
+import utils.BlockDelta;
+import utils.Checksums;
+import utils.ChunkedTransfer;
+import utils.ClusterConfig;
+import utils.LatencyHistogram;
+import utils.NodeProtocol;
+import utils.ThreadPools;
 import utils.User;
 import utils.Token;
+import utils.TransferPlan;
+import utils.VersionClock;
+import utils.VersionedFile;
 
 public class CoordinatorService extends UnicastRemoteObject implements ICoordinator {
     private final Map<String, String> credentials = new HashMap<>(); // username -> password
     private final Map<String, User> userProfiles = new HashMap<>();  // username -> User object
-    private final Map<String, Integer> nodeLoadMap = new ConcurrentHashMap<>();
-    private final List<String> storageNodes = Arrays.asList("127.0.0.1:3001", "127.0.0.1:3002", "127.0.0.1:3003");
+    private final MembershipService membership;
+    private final HintedHandoff hintedHandoff;
+    private static final long CACHE_BYTES = Long.getLong("coordinator.cacheBytes", 64L * 1024 * 1024);
+    private final NodeConnectionPool nodePool = new NodeConnectionPool();
+    private final ReplicaRepair replicaRepair = new ReplicaRepair(nodePool);
+    private final Set<String> readRepairsInFlight = ConcurrentHashMap.newKeySet();
+    private final VersionClock versionClock = new VersionClock();
+    private final FileCache fileCache = new FileCache(CACHE_BYTES, CACHE_BYTES / 16);
+    private final ReadScheduler readScheduler = new ReadScheduler(nodePool,
+            !"failover".equals(System.getProperty("coordinator.readMode", "hedged")),
+            Integer.getInteger("coordinator.maxConcurrentReads", 64));
+
+    // Write latency until W replicas acknowledged, and until every replica finished
+    private final LatencyHistogram uploadQuorumLatency = new LatencyHistogram("upload.quorum");
+    private final LatencyHistogram uploadAllLatency = new LatencyHistogram("upload.allReplicas");
+    private final LatencyHistogram deleteQuorumLatency = new LatencyHistogram("delete.quorum");
+    private final LatencyHistogram deleteAllLatency = new LatencyHistogram("delete.allReplicas");
+    private final ExecutorService replicaWriters = Optional.ofNullable(ThreadPools.newVirtualThreadExecutor())
+            .orElseGet(() -> Executors.newCachedThreadPool(ThreadPools.daemonFactory("replica-writer")));
+
+    // Streamed transfers in progress, keyed by session id
+    private static final long SESSION_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final long READ_QUORUM_TIMEOUT_MS = 10_000;
+    private static final int NODE_CONNECT_TIMEOUT_MS = 5_000;
+    // getFiles stops reading once its reply holds this much; the rest go the single-file way
+    private static final long BATCH_REPLY_BYTES = 4L * ChunkedTransfer.CHUNK_SIZE;
+    private static final long TICKET_TTL_MS = Long.getLong("coordinator.ticketMillis", 5 * 60 * 1000);
+    // Share of reads followed by a replica check; reads that already saw replicas disagree always repair
+    private static final double READ_REPAIR_CHANCE =
+            Double.parseDouble(System.getProperty("coordinator.readRepairChance", "0.1"));
+    private final Map<String, UploadSession> uploadSessions = new ConcurrentHashMap<>();
+    private final Map<String, DownloadSession> downloadSessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sessionReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public CoordinatorService() throws RemoteException {
+        membership = new MembershipService();
+        hintedHandoff = new HintedHandoff(new File(System.getProperty("coordinator.hintsFile", "coordinator-hints.dat")),
+                membership, replicaRepair, this::placementOf);
+        sessionReaper.scheduleAtFixedRate(this::reapIdleSessions, 1, 1, TimeUnit.MINUTES);
+        System.out.println("Placement: " + ClusterConfig.describe());
         credentials.put("admin", "admin123");
         credentials.put("yassen", "12345678");
         userProfiles.put("admin", new User("manager", "admin", "System"));
@@ -45,37 +98,296 @@ public class CoordinatorService extends UnicastRemoteObject implements ICoordina
         User user = Token.validateToken(authToken);
         if (user == null) return false;
 
+        fileCache.invalidate(filename);
+        try {
+            long version = versionClock.next();
+            if (fileData.length > NodeProtocol.MUX_INLINE_LIMIT
+                    && linkOnReplicas(user.getDepartment(), filename,
+                            Checksums.sha256(fileData), fileData.length, version)) {
+                return true;
+            }
+            return storeFile(user.getDepartment(), filename, fileData, version, NodeProtocol.ANY_VERSION,
+                    writeReplicas(user.getDepartment(), filename), writeQuorum());
+        } finally {
+            fileCache.invalidate(filename); // drop anything read back while the write was in flight
+        }
+    }
+
+    @Override
+    public boolean linkFile(String authToken, String filename, String checksum, long size) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || !Checksums.isChecksum(checksum) || size < 0) return false;
+
+        fileCache.invalidate(filename);
+        try {
+            return linkOnReplicas(user.getDepartment(), filename, checksum, size, versionClock.next());
+        } finally {
+            fileCache.invalidate(filename);
+        }
+    }
+
+    /**
+     * Writes the file to one node, the file's primary in the ring, only if its current version is
+     * the expected one. That replica's file lock orders competing writers, so of two updates from
+     * the same version exactly one wins without any cluster-wide lock. The primary is never
+     * stood in for: another replica may not have seen the latest winner, so while the primary is
+     * suspected no update applies. The winner's version then goes to the other replicas
+     * unconditionally. Returns the version stored, or {@link NodeProtocol#UPDATE_CONFLICT},
+     * {@link NodeProtocol#UPDATE_UNAVAILABLE}, {@link NodeProtocol#UPDATE_REJECTED}, or
+     * {@link NodeProtocol#UPDATE_PARTIAL} when the primary stored it but fewer than W replicas did.
+     */
+    @Override
+    public long updateFileIfVersion(String authToken, String filename, long expectedVersion,
+                                    byte[] fileData) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || expectedVersion < NodeProtocol.NO_VERSION) return NodeProtocol.UPDATE_REJECTED;
+
         String department = user.getDepartment();
-        int successCount = 0;
-        int quorum = Math.max(1, storageNodes.size() / 2 + 1);
-
-        for (String nodeAddress : storageNodes) {
-            String[] parts = nodeAddress.split(":");
-            String host = parts[0];
-            int port = Integer.parseInt(parts[1]);
-
-            try (
-                    Socket socket = new Socket(host, port);
-                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-                    DataInputStream in = new DataInputStream(socket.getInputStream())
-            ) {
-                out.writeUTF("upload");
-                out.writeUTF(department);
-                out.writeUTF(filename);
-                out.writeInt(fileData.length);
-                out.write(fileData);
+        List<String> placement = placementOf(filename);
+        List<String> replicas = writeReplicas(department, filename);
+        if (placement.isEmpty() || !replicas.contains(placement.get(0)) || replicas.size() < writeQuorum()) {
+            return NodeProtocol.UPDATE_UNAVAILABLE;
+        }
+        String primary = placement.get(0);
+        fileCache.invalidate(filename);
+        try {
+            long version = versionClock.next();
+            if (!storeFile(department, filename, fileData, version, expectedVersion, List.of(primary), 1)) {
+                System.out.println("Conditional update not applied: " + filename);
+                return primaryHasVersion(primary, department, filename, expectedVersion)
+                        ? NodeProtocol.UPDATE_UNAVAILABLE : NodeProtocol.UPDATE_CONFLICT;
+            }
+            List<String> others = new ArrayList<>(replicas);
+            others.remove(primary);
+            // With W = 1 the primary alone would do, but one more copy is still waited for
+            boolean replicated = others.isEmpty() || storeFile(department, filename, fileData, version,
+                    NodeProtocol.ANY_VERSION, others, Math.max(1, writeQuorum() - 1));
+            return replicated ? version : NodeProtocol.UPDATE_PARTIAL;
+        } finally {
+            fileCache.invalidate(filename);
+        }
+    }
 
-                if ("OK".equals(in.readUTF())) {
-                    successCount++;
-                    System.out.println("File saved to node: " + nodeAddress);
-                }
-            } catch (IOException e) {
-                System.out.println("Node unreachable: " + nodeAddress);
+    // Tells a write the primary refused from one that failed on the way; unreachable counts as the latter
+    private boolean primaryHasVersion(String primary, String department, String filename, long expectedVersion) {
+        try {
+            return replicaRepair.stat(primary, department, filename)
+                    .get(READ_QUORUM_TIMEOUT_MS, TimeUnit.MILLISECONDS).version == expectedVersion;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return true;
+        }
+    }
+
+    /**
+     * The newest version any live replica holds of the file in the caller's department, or
+     * {@link NodeProtocol#NO_VERSION} if none has it. Replicas that disagree are repaired.
+     */
+    @Override
+    public long getFileVersion(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return NodeProtocol.NO_VERSION;
+
+        List<ReplicaRepair.Version> versions = statNodes(replicasOf(filename), user.getDepartment(), filename);
+        ReplicaRepair.Version newest = ReplicaRepair.newest(versions);
+        if (newest == null) return NodeProtocol.NO_VERSION;
+        if (versions.stream().anyMatch(version -> !newest.isSameAs(version))) repairInBackground(filename);
+        return newest.version;
+    }
+
+    /**
+     * Plans an upload the client streams to the replicas itself: the live replicas in pipeline
+     * order, the version to store and a ticket the nodes accept for it. Null if fewer than W
+     * replicas are up, or if no cluster secret is set and the nodes would refuse the ticket.
+     */
+    @Override
+    public TransferPlan planUpload(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || !ClusterConfig.SECRET_CONFIGURED) return null;
+
+        String department = user.getDepartment();
+        List<String> replicas = writeReplicas(department, filename);
+        if (replicas.size() < writeQuorum()) return null;
+        fileCache.invalidate(filename);
+        long version = versionClock.next();
+        return new TransferPlan(department, filename, version, replicas, writeQuorum(),
+                AccessTicket.issue(AccessTicket.PUT, department, filename, version, TICKET_TTL_MS));
+    }
+
+    /**
+     * Takes note of where a direct upload was stored. The plan and {@code storedOn} come from
+     * the client, so neither is trusted: the file's replicas are asked which of them hold the
+     * planned version, replicas that do not and have nothing newer get a hint, and the upload
+     * counts only if at least W of them hold it.
+     */
+    @Override
+    public boolean commitUpload(String authToken, TransferPlan plan, List<String> storedOn) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || !user.getDepartment().equals(plan.getDepartment())) return false;
+
+        String department = plan.getDepartment();
+        String filename = plan.getFilename();
+        fileCache.invalidate(filename);
+        List<String> placement = placementOf(filename);
+        Set<String> stored = new HashSet<>();
+        Set<String> superseded = new HashSet<>();
+        for (ReplicaRepair.Version version : statNodes(placement, department, filename)) {
+            if (!version.present || !department.equals(version.department)) continue;
+            if (version.version == plan.getVersion()) stored.add(version.nodeAddress);
+            if (version.version > plan.getVersion()) superseded.add(version.nodeAddress);
+        }
+        for (String nodeAddress : placement) {
+            if (!stored.contains(nodeAddress) && !superseded.contains(nodeAddress)) {
+                hintedHandoff.add(nodeAddress, department, filename);
+            }
+        }
+        if (!stored.containsAll(storedOn)) {
+            System.out.println("Direct upload of " + filename + " not found on all the nodes the client named: " + storedOn);
+        }
+        return stored.size() >= writeQuorum();
+    }
+
+    /**
+     * Plans a download the client reads from a node itself: the nodes holding the newest
+     * version of the file, in the order to try them, and a ticket. Null if no node has it, or
+     * if no cluster secret is set; the client then reads through the coordinator.
+     */
+    @Override
+    public TransferPlan planDownload(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || !ClusterConfig.SECRET_CONFIGURED) return null;
+
+        List<ReplicaRepair.Version> versions = statNodes(replicasOf(filename), "all", filename);
+        ReplicaRepair.Version newest = ReplicaRepair.newest(versions);
+        if (newest == null) {
+            // Copies left on former replicas after the ring changed
+            versions = statNodes(formerReplicas(filename), "all", filename);
+            newest = ReplicaRepair.newest(versions);
+            if (newest == null) return null;
+        }
+        List<String> holders = new ArrayList<>();
+        for (ReplicaRepair.Version version : versions) {
+            if (newest.isSameAs(version)) holders.add(version.nodeAddress);
+        }
+        if (holders.size() < versions.size()) repairInBackground(filename);
+        return new TransferPlan("all", filename, newest.version, holders, 1,
+                AccessTicket.issue(AccessTicket.GET, "all", filename, 0, TICKET_TTL_MS));
+    }
+
+    // Asks the nodes for their version of the file in parallel; nodes that do not answer are left out
+    private List<ReplicaRepair.Version> statNodes(List<String> nodes, String department, String filename) {
+        List<CompletableFuture<ReplicaRepair.Version>> stats = new ArrayList<>();
+        for (String nodeAddress : nodes) {
+            stats.add(replicaRepair.stat(nodeAddress, department, filename));
+        }
+        List<ReplicaRepair.Version> versions = new ArrayList<>();
+        for (CompletableFuture<ReplicaRepair.Version> stat : stats) {
+            try {
+                versions.add(stat.get(READ_QUORUM_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                // an unreachable node does not count
             }
+        }
+        return versions;
+    }
 
-            if (successCount >= quorum) return true; // Quorum achieved
+    /** Stores the file as {@code version} on the given nodes and waits for {@code quorum} of them. */
+    private boolean storeFile(String department, String filename, byte[] fileData, long version,
+                              long expectedVersion, List<String> nodes, int quorum) {
+        if (fileData.length <= NodeProtocol.MUX_INLINE_LIMIT) {
+            return saveSmallFile(department, filename, fileData, version, expectedVersion, nodes, quorum);
+        }
+        try (UploadSession session = newUploadSession(department, filename, version, expectedVersion, nodes, quorum)) {
+            for (int offset = 0; offset < fileData.length; offset += ChunkedTransfer.CHUNK_SIZE) {
+                int length = Math.min(ChunkedTransfer.CHUNK_SIZE, fileData.length - offset);
+                if (!session.write(fileData, offset, length)) return false;
+            }
+            return finishUploadSession(session);
         }
-        return false;
+    }
+
+    // Small files go as a single request over the pooled node connections
+    private boolean saveSmallFile(String department, String filename, byte[] fileData, long version,
+                                  long expectedVersion, List<String> nodes, int quorum) {
+        byte[] body = uploadBody(fileData, version, expectedVersion);
+        QuorumWrite write = new QuorumWrite("Upload of " + filename, quorum, uploadQuorumLatency, uploadAllLatency);
+        List<CompletableFuture<Boolean>> replicaWrites = new ArrayList<>();
+        for (String nodeAddress : nodes) {
+            CompletableFuture<Boolean> replicaWrite = nodePool.send(nodeAddress, "upload", department, filename, body)
+                    .thenApply(response -> {
+                        String status = readStatus(response);
+                        boolean stored = "OK".equals(status);
+                        if (stored) System.out.println("File saved to node: " + nodeAddress);
+                        if ("VersionMismatch".equals(status)) System.out.println("Version changed on node: " + nodeAddress);
+                        return stored;
+                    })
+                    .exceptionally(e -> {
+                        System.out.println("Node unreachable: " + nodeAddress);
+                        return false;
+                    });
+            // A conditional write that did not apply has nothing to hand off
+            replicaWrites.add(expectedVersion == NodeProtocol.ANY_VERSION
+                    ? hintOnFailure(nodeAddress, department, filename, replicaWrite) : replicaWrite);
+        }
+        return write.await(replicaWrites);
+    }
+
+    // Body of an "upload" request that carries the whole file
+    private static byte[] uploadBody(byte[] fileData, long version, long expectedVersion) {
+        try {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(fileData.length + 24);
+            DataOutputStream bodyOut = new DataOutputStream(bodyBytes);
+            bodyOut.writeLong(version);
+            bodyOut.writeLong(expectedVersion);
+            if (fileData.length > 0) ChunkedTransfer.writeChunk(bodyOut, fileData, 0, fileData.length);
+            ChunkedTransfer.writeEnd(bodyOut);
+            return bodyBytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Asks every live replica to store the file from content it already holds, so re-uploading
+     * something the cluster has seen moves no data; suspected replicas get a hint instead. True
+     * if at least W could; the others then get a hint and are repaired from them. Otherwise
+     * the caller sends the data, which stores the same version over the linked copies.
+     */
+    private boolean linkOnReplicas(String department, String filename, String checksum, long size, long version) {
+        byte[] body;
+        try {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+            DataOutputStream bodyOut = new DataOutputStream(bodyBytes);
+            bodyOut.writeUTF(checksum);
+            bodyOut.writeLong(size);
+            bodyOut.writeLong(version);
+            body = bodyBytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<String> replicas = writeReplicas(department, filename);
+        if (replicas.size() < writeQuorum()) return false;
+        Map<String, CompletableFuture<Boolean>> links = new LinkedHashMap<>();
+        for (String nodeAddress : replicas) {
+            links.put(nodeAddress, nodePool.send(nodeAddress, "link", department, filename, body)
+                    .thenApply(response -> "OK".equals(readStatus(response)))
+                    .exceptionally(e -> false));
+        }
+        List<String> missed = new ArrayList<>();
+        links.forEach((nodeAddress, link) -> {
+            if (!link.join()) missed.add(nodeAddress);
+        });
+        if (replicas.size() - missed.size() < writeQuorum()) return false;
+
+        missed.forEach(nodeAddress -> hintedHandoff.add(nodeAddress, department, filename));
+        System.out.println("File already stored on " + (replicas.size() - missed.size()) + " replicas, linked: " + filename);
+        return true;
     }
 
     @Override
@@ -83,66 +395,413 @@ public class CoordinatorService extends UnicastRemoteObject implements ICoordina
         User user = Token.validateToken(authToken);
         if (user == null) return null;
 
-        // Initialize node loads if missing
-        synchronized (nodeLoadMap) {
-            for (String nodeAddress : storageNodes) {
-                nodeLoadMap.putIfAbsent(nodeAddress, 0);
+        byte[] cached = fileCache.get(filename);
+        if (cached != null) return cached;
+
+        long stamp = fileCache.stamp(filename);
+        byte[] fileData = readWhole(readReplicas(filename), formerReplicas(filename), filename);
+        scheduleReadRepair(filename);
+        if (fileData != null) fileCache.put(filename, fileData, stamp);
+        return fileData;
+    }
+
+    /**
+     * Reads up to {@code length} bytes from {@code offset}, at most {@link NodeProtocol#MUX_INLINE_LIMIT};
+     * a negative offset counts back from the end of the file. The data is shorter at the end of
+     * the file, and comes with the version it belongs to so that ranges read one after another
+     * can be checked to come from the same file. Null if the file does not exist.
+     */
+    @Override
+    public VersionedFile getFileRange(String authToken, String filename, long offset, int length) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || length < 0) return null;
+
+        return readScheduler.readRange(readReplicas(filename), formerReplicas(filename), filename, offset,
+                Math.min(length, NodeProtocol.MUX_INLINE_LIMIT));
+    }
+
+    /**
+     * Reads the file from the replica conditional updates are decided on, with the version it
+     * holds, so a read-modify-write cycle never starts from a stale copy. Null if it is absent,
+     * or while that replica is suspected.
+     */
+    @Override
+    public VersionedFile getFileWithVersion(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return null;
+
+        for (int attempt = 0; attempt < 3; attempt++) {
+            List<String> placement = placementOf(filename);
+            if (placement.isEmpty() || !membership.isAvailable(placement.get(0))) return null;
+            String primary = placement.get(0);
+            ReplicaRepair.Version version;
+            try {
+                version = replicaRepair.stat(primary, user.getDepartment(), filename)
+                        .get(READ_QUORUM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            }
+            if (!version.present) return null;
+            byte[] fileData = readWhole(List.of(primary), Collections.emptyList(), filename);
+            // A write between the stat and the read changes the content; ask again
+            if (fileData != null && Checksums.sha256(fileData).equals(version.checksum)) {
+                return new VersionedFile(version.version, fileData);
+            }
+        }
+        return null;
+    }
+
+    // Reads a file into memory, streaming it over a dedicated connection when it is too large to return inline
+    private byte[] readWhole(List<String> replicas, List<String> fallback, String filename) {
+        byte[] inline = readScheduler.readInline(replicas, fallback, filename);
+        if (inline != ReadScheduler.TOO_LARGE) return inline;
+
+        DownloadSession session = readScheduler.openStream(replicas, fallback, filename);
+        if (session == null) return null;
+        try {
+            if (session.getSize() > Integer.MAX_VALUE - 8) {
+                System.out.println("File too large for getFile, use a download session: " + filename);
+                return null;
             }
+            ByteArrayOutputStream fileData = new ByteArrayOutputStream((int) session.getSize());
+            byte[] chunk;
+            while ((chunk = session.next()) != null) {
+                fileData.write(chunk);
+            }
+            return fileData.toByteArray();
+        } catch (IOException e) {
+            System.out.println("Node failed during read: " + session.getNodeAddress());
+            return null;
+        } finally {
+            releaseDownloadSession(session);
+        }
+    }
+
+    @Override
+    public String beginUpload(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return null;
+
+        fileCache.invalidate(filename);
+        UploadSession session = newUploadSession(user.getDepartment(), filename, versionClock.next(),
+                NodeProtocol.ANY_VERSION, writeReplicas(user.getDepartment(), filename), writeQuorum());
+        if (!session.isViable()) {
+            session.close();
+            return null;
         }
+        String sessionId = UUID.randomUUID().toString();
+        uploadSessions.put(sessionId, session);
+        return sessionId;
+    }
 
-        // Prioritize nodes with the least load
-        List<String> prioritizedNodes = new ArrayList<>(storageNodes);
-        prioritizedNodes.sort(Comparator.comparingInt(nodeLoadMap::get));
+    @Override
+    public boolean uploadChunk(String sessionId, byte[] chunk) throws RemoteException {
+        UploadSession session = uploadSessions.get(sessionId);
+        if (session == null) return false;
+        if (chunk.length > ChunkedTransfer.CHUNK_SIZE || !session.write(chunk, 0, chunk.length)) {
+            abortUpload(sessionId);
+            return false;
+        }
+        return true;
+    }
 
-        ExecutorService executor = Executors.newFixedThreadPool(storageNodes.size());
-        CompletionService<byte[]> completionService = new ExecutorCompletionService<>(executor);
+    /**
+     * Like {@link #uploadChunk}, but for the chunk at {@code offset} of the file. Bytes the session
+     * already has are skipped, so a chunk resent after a lost reply is stored once. Returns the
+     * offset to send next, or -1 if the session is gone or the upload failed.
+     */
+    @Override
+    public long uploadChunkAt(String sessionId, long offset, byte[] chunk) throws RemoteException {
+        UploadSession session = uploadSessions.get(sessionId);
+        if (session == null) return -1;
+        long committed = chunk.length > ChunkedTransfer.CHUNK_SIZE ? -1 : session.writeAt(offset, chunk);
+        if (committed < 0) abortUpload(sessionId);
+        return committed;
+    }
 
-        for (String nodeAddress : prioritizedNodes) {
-            completionService.submit(() -> {
-                nodeLoadMap.compute(nodeAddress, (k, v) -> v + 1);
+    /** Bytes the upload session has taken, where a client that lost track of it continues; -1 if it is gone. */
+    @Override
+    public long getUploadOffset(String sessionId) throws RemoteException {
+        UploadSession session = uploadSessions.get(sessionId);
+        return session == null ? -1 : session.getReceived();
+    }
 
-                String[] parts = nodeAddress.split(":");
-                String host = parts[0];
-                int port = Integer.parseInt(parts[1]);
+    @Override
+    public boolean finishUpload(String sessionId) throws RemoteException {
+        UploadSession session = uploadSessions.remove(sessionId);
+        if (session == null) return false;
+        try {
+            return finishUploadSession(session);
+        } finally {
+            session.close();
+            fileCache.invalidate(session.getFilename());
+        }
+    }
 
-                try (
-                        Socket socket = new Socket(host, port);
-                        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-                        DataInputStream in = new DataInputStream(socket.getInputStream())
-                ) {
-                    out.writeUTF("read");
-                    out.writeUTF("all");
-                    out.writeUTF(filename);
+    @Override
+    public void abortUpload(String sessionId) throws RemoteException {
+        UploadSession session = uploadSessions.remove(sessionId);
+        if (session != null) session.close();
+    }
 
-                    int fileSize = in.readInt();
-                    if (fileSize == -1) return null; // File not found
+    @Override
+    public String beginDownload(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return null;
 
-                    byte[] fileData = new byte[fileSize];
-                    in.readFully(fileData);
-                    return fileData;
-                } catch (IOException e) {
-                    return null;
-                } finally {
-                    nodeLoadMap.compute(nodeAddress, (k, v) -> v - 1); // Decrement load
-                }
-            });
+        DownloadSession session;
+        byte[] cached = fileCache.get(filename);
+        if (cached != null) {
+            session = DownloadSession.inMemory(cached);
+        } else {
+            long stamp = fileCache.stamp(filename);
+            List<String> replicas = readReplicas(filename);
+            List<String> fallback = formerReplicas(filename);
+            byte[] inline = readScheduler.readInline(replicas, fallback, filename);
+            scheduleReadRepair(filename);
+            if (inline == null) return null;
+            if (inline != ReadScheduler.TOO_LARGE) {
+                fileCache.put(filename, inline, stamp);
+                session = DownloadSession.inMemory(inline);
+            } else {
+                session = readScheduler.openStream(replicas, fallback, filename);
+                if (session == null) return null;
+            }
         }
+        String sessionId = UUID.randomUUID().toString();
+        downloadSessions.put(sessionId, session);
+        return sessionId;
+    }
+
+    @Override
+    public byte[] downloadChunk(String sessionId) throws RemoteException {
+        DownloadSession session = downloadSessions.get(sessionId);
+        if (session == null) return null;
         try {
-            for (int i = 0; i < prioritizedNodes.size(); i++) {
-                byte[] result = completionService.take().get();
-                if (result != null) {
-                    executor.shutdownNow();
-                    return result;
-                }
+            return session.next();
+        } catch (IOException e) {
+            System.out.println("Node failed during read: " + session.getNodeAddress());
+            endDownload(sessionId);
+            throw new RemoteException("Download interrupted", e);
+        }
+    }
+
+    @Override
+    public void endDownload(String sessionId) throws RemoteException {
+        DownloadSession session = downloadSessions.remove(sessionId);
+        if (session != null) releaseDownloadSession(session);
+    }
+
+    private void releaseDownloadSession(DownloadSession session) {
+        readScheduler.release(session);
+    }
+
+    private void reapIdleSessions() {
+        uploadSessions.entrySet().removeIf(entry -> {
+            if (!entry.getValue().isIdleFor(SESSION_IDLE_TIMEOUT_MS)) return false;
+            System.out.println("Expiring idle upload session for: " + entry.getValue().getFilename());
+            entry.getValue().close();
+            return true;
+        });
+        downloadSessions.entrySet().removeIf(entry -> {
+            if (!entry.getValue().isIdleFor(SESSION_IDLE_TIMEOUT_MS)) return false;
+            releaseDownloadSession(entry.getValue());
+            return true;
+        });
+    }
+
+    private UploadSession newUploadSession(String department, String filename, long version, long expectedVersion,
+                                           List<String> nodes, int quorum) {
+        QuorumWrite write = new QuorumWrite("Upload of " + filename, quorum, uploadQuorumLatency, uploadAllLatency);
+        return new UploadSession(department, filename, version, expectedVersion, nodes, quorum, write, replicaWriters);
+    }
+
+    public MembershipService getMembership() {
+        return membership;
+    }
+
+    /** The N nodes a file is placed on, in ring order. */
+    private List<String> placementOf(String filename) {
+        return membership.getRing().replicasFor(filename, ClusterConfig.REPLICATION_FACTOR);
+    }
+
+    /** The file's replicas that are not suspected; requests skip the others without trying them. */
+    private List<String> replicasOf(String filename) {
+        return membership.available(placementOf(filename));
+    }
+
+    /**
+     * Live nodes the previous ring placed the file on and the current one does not, tried last
+     * by reads: the file may not have moved to its new replicas yet. Nodes drop such copies
+     * once the new replicas hold them.
+     */
+    private List<String> formerReplicas(String filename) {
+        List<String> former = membership.getPreviousRing().replicasFor(filename, ClusterConfig.REPLICATION_FACTOR);
+        former.retainAll(membership.getMembers());
+        former.removeAll(placementOf(filename));
+        return membership.available(former);
+    }
+
+    /**
+     * Replicas a read is served from. With a read quorum R above one, the first R replicas
+     * to report their version decide which one is newest, and only replicas holding it are
+     * read from, and a disagreement among them is repaired right away. The repair invalidates
+     * the file, so callers take their cache stamp first and a read that saw one is not cached.
+     */
+    private List<String> readReplicas(String filename) {
+        List<String> replicas = replicasOf(filename);
+        if (ClusterConfig.READ_QUORUM <= 1) return replicas;
+
+        BlockingQueue<CompletableFuture<ReplicaRepair.Version>> answers = new LinkedBlockingQueue<>();
+        for (String nodeAddress : replicas) {
+            CompletableFuture<ReplicaRepair.Version> stat = replicaRepair.stat(nodeAddress, "all", filename);
+            stat.whenComplete((version, e) -> answers.add(stat));
+        }
+
+        List<ReplicaRepair.Version> versions = new ArrayList<>();
+        int answered = 0;
+        long deadline = System.currentTimeMillis() + READ_QUORUM_TIMEOUT_MS;
+        try {
+            while (versions.size() < ClusterConfig.READ_QUORUM && answered < replicas.size()) {
+                CompletableFuture<ReplicaRepair.Version> answer =
+                        answers.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                if (answer == null) break;
+                answered++;
+                if (!answer.isCompletedExceptionally()) versions.add(answer.join());
             }
-        } catch (InterruptedException | ExecutionException e) {
+        } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-        } finally {
-            executor.shutdown();
         }
-        return null;
+
+        ReplicaRepair.Version newest = ReplicaRepair.newest(versions);
+        if (newest == null) return replicas;
+        List<String> current = new ArrayList<>();
+        for (ReplicaRepair.Version version : versions) {
+            if (newest.isSameAs(version)) current.add(version.nodeAddress);
+        }
+        if (current.size() < versions.size()) repairInBackground(filename);
+        return current;
+    }
+
+    /** Compares the file's replicas after a sampled share of reads and repairs stale ones. */
+    private void scheduleReadRepair(String filename) {
+        if (ThreadLocalRandom.current().nextDouble() < READ_REPAIR_CHANCE) repairInBackground(filename);
+    }
+
+    /**
+     * Compares the file's replicas and repairs stale ones, off the caller's thread. The cached
+     * copy may be the stale content, and a read started before the repair may still cache it,
+     * so the file is invalidated both when the repair starts and when it is done.
+     */
+    private void repairInBackground(String filename) {
+        if (!readRepairsInFlight.add(filename)) return;
+        fileCache.invalidate(filename);
+        replicaWriters.execute(() -> {
+            try {
+                replicaRepair.repair("all", filename, replicasOf(filename));
+            } finally {
+                fileCache.invalidate(filename);
+                readRepairsInFlight.remove(filename);
+            }
+        });
+    }
+
+    // Read repair for many files, with the replica stats sent as one batch per node
+    private void scheduleReadRepair(List<String> filenames) {
+        List<String> sampled = new ArrayList<>();
+        for (String filename : filenames) {
+            if (ThreadLocalRandom.current().nextDouble() < READ_REPAIR_CHANCE && readRepairsInFlight.add(filename)) {
+                sampled.add(filename);
+            }
+        }
+        if (sampled.isEmpty()) return;
+        sampled.forEach(fileCache::invalidate);
+        replicaWriters.execute(() -> {
+            try {
+                Map<String, NodeBatch> batches = new HashMap<>();
+                Map<String, List<CompletableFuture<ReplicaRepair.Version>>> stats = new LinkedHashMap<>();
+                for (String filename : sampled) {
+                    List<CompletableFuture<ReplicaRepair.Version>> fileStats = new ArrayList<>();
+                    for (String nodeAddress : replicasOf(filename)) {
+                        fileStats.add(batches.computeIfAbsent(nodeAddress, NodeBatch::new).add("stat", "all", filename,
+                                new byte[0], response -> ReplicaRepair.Version.read(nodeAddress, response)));
+                    }
+                    stats.put(filename, fileStats);
+                }
+                batches.values().forEach(batch -> batch.send(nodePool));
+                for (Map.Entry<String, List<CompletableFuture<ReplicaRepair.Version>>> file : stats.entrySet()) {
+                    List<ReplicaRepair.Version> versions = new ArrayList<>();
+                    for (CompletableFuture<ReplicaRepair.Version> stat : file.getValue()) {
+                        try {
+                            versions.add(stat.get(READ_QUORUM_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                        } catch (ExecutionException | TimeoutException e) {
+                            break; // left for a later read or anti-entropy
+                        }
+                    }
+                    if (versions.size() == file.getValue().size()) replicaRepair.repairFrom("all", file.getKey(), versions);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                sampled.forEach(fileCache::invalidate);
+                sampled.forEach(readRepairsInFlight::remove);
+            }
+        });
     }
 
+    /** Live replicas a write goes to; suspected ones get a hint right away instead. */
+    private List<String> writeReplicas(String department, String filename) {
+        List<String> placement = placementOf(filename);
+        List<String> live = membership.available(placement);
+        for (String nodeAddress : placement) {
+            if (!live.contains(nodeAddress)) hintedHandoff.add(nodeAddress, department, filename);
+        }
+        return live;
+    }
+
+    /** Leaves a hint for the replica if its write does not go through. */
+    private CompletableFuture<Boolean> hintOnFailure(String nodeAddress, String department, String filename,
+                                                     CompletableFuture<Boolean> replicaWrite) {
+        replicaWrite.whenComplete((stored, e) -> {
+            if (!Boolean.TRUE.equals(stored) || e != null) hintedHandoff.add(nodeAddress, department, filename);
+        });
+        return replicaWrite;
+    }
+
+    private boolean finishUploadSession(UploadSession session) {
+        if (!session.isConditional()) {
+            session.getReplicaWrites().forEach((nodeAddress, replicaWrite) ->
+                    hintOnFailure(nodeAddress, session.getDepartment(), session.getFilename(), replicaWrite));
+        }
+        return session.finish();
+    }
+
+    private static String readStatus(DataInputStream response) {
+        try {
+            return response.readUTF();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int writeQuorum() {
+        return ClusterConfig.WRITE_QUORUM;
+    }
+
+    static Socket openNodeSocket(String nodeAddress) throws IOException {
+        String[] parts = nodeAddress.split(":");
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])), NODE_CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
 
     @Override
     public boolean removeFile(String authToken, String filename) throws RemoteException {
@@ -150,38 +809,373 @@ public class CoordinatorService extends UnicastRemoteObject implements ICoordina
         if (user == null) return false;
 
         String department = user.getDepartment();
-        int successCount = 0;
-        int quorum = Math.max(1, storageNodes.size() / 2 + 1);
-
-        for (String nodeAddress : storageNodes) {
-            String[] parts = nodeAddress.split(":");
-            String host = parts[0];
-            int port = Integer.parseInt(parts[1]);
-
-            try (
-                    Socket socket = new Socket(host, port);
-                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-                    DataInputStream in = new DataInputStream(socket.getInputStream())
-            ) {
-                out.writeUTF("delete");
-                out.writeUTF(department);
-                out.writeUTF(filename);
+        fileCache.invalidate(filename);
+        QuorumWrite write = new QuorumWrite("Delete of " + filename, writeQuorum(), deleteQuorumLatency, deleteAllLatency);
+        List<CompletableFuture<Boolean>> replicaWrites = new ArrayList<>();
+        CompletableFuture<Boolean> anyDeleted = new CompletableFuture<>();
+        for (String nodeAddress : writeReplicas(department, filename)) {
+            replicaWrites.add(hintOnFailure(nodeAddress, department, filename,
+                    nodePool.send(nodeAddress, "delete", department, filename, new byte[0])
+                    .thenApply(response -> {
+                        // A replica may already have applied the delete from another node's change log
+                        String status = readStatus(response);
+                        if ("Deleted".equals(status)) {
+                            System.out.println("File deleted from node: " + nodeAddress);
+                            anyDeleted.complete(true);
+                        }
+                        return "Deleted".equals(status) || "Not Found".equals(status);
+                    })
+                    .exceptionally(e -> {
+                        System.out.println("Failed to delete from node: " + nodeAddress);
+                        return false;
+                    })));
+        }
+        CompletableFuture.allOf(replicaWrites.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> anyDeleted.complete(false));
+        try {
+            // The file must have existed somewhere, otherwise this is a delete of a missing file
+            return write.await(replicaWrites) && anyDeleted.get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        } finally {
+            fileCache.invalidate(filename);
+        }
+    }
+
+    /**
+     * Saves many files at once. Files up to {@link NodeProtocol#MUX_INLINE_LIMIT} are grouped by
+     * replica into a few "batch" requests per node; each file still needs W replicas and misses
+     * leave hints as with {@link #saveFile}. Larger files are saved one by one.
+     */
+    @Override
+    public Map<String, Boolean> saveFiles(String authToken, Map<String, byte[]> files) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        files.keySet().forEach(filename -> results.put(filename, false));
+        if (user == null) return results;
+
+        String department = user.getDepartment();
+        Map<String, NodeBatch> batches = new HashMap<>();
+        Map<String, List<CompletableFuture<Boolean>>> pending = new LinkedHashMap<>();
+        List<String> large = new ArrayList<>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String filename = file.getKey();
+            if (file.getValue().length > NodeProtocol.MUX_INLINE_LIMIT) {
+                large.add(filename);
+                continue;
+            }
+            fileCache.invalidate(filename);
+            byte[] body = uploadBody(file.getValue(), versionClock.next(), NodeProtocol.ANY_VERSION);
+            List<CompletableFuture<Boolean>> replicaWrites = new ArrayList<>();
+            for (String nodeAddress : writeReplicas(department, filename)) {
+                CompletableFuture<Boolean> stored = batches.computeIfAbsent(nodeAddress, NodeBatch::new)
+                        .add("upload", department, filename, body, CoordinatorService::readStatus)
+                        .thenApply("OK"::equals)
+                        .exceptionally(e -> false);
+                replicaWrites.add(hintOnFailure(nodeAddress, department, filename, stored));
+            }
+            pending.put(filename, replicaWrites);
+        }
+        batches.values().forEach(batch -> batch.send(nodePool));
 
-                if ("Deleted".equals(in.readUTF())) {
-                    successCount++;
-                    System.out.println("File deleted from node: " + nodeAddress);
+        // Large files go out while the batches are in flight
+        for (String filename : large) {
+            results.put(filename, saveFile(authToken, filename, files.get(filename)));
+        }
+        int saved = 0;
+        for (Map.Entry<String, List<CompletableFuture<Boolean>>> file : pending.entrySet()) {
+            boolean stored = new QuorumWrite("Upload of " + file.getKey(), writeQuorum(),
+                    uploadQuorumLatency, uploadAllLatency).await(file.getValue());
+            fileCache.invalidate(file.getKey());
+            results.put(file.getKey(), stored);
+            if (stored) saved++;
+        }
+        System.out.printf("Batch upload: %d of %d files saved in %d node batches%n",
+                saved + large.stream().filter(results::get).count(), files.size(), batches.size());
+        return results;
+    }
+
+    /**
+     * Reads many files at once, grouped into "batch" requests to one replica of each; reads that
+     * did not fit in a batch reply go again in the next round. A file the chosen replica misses
+     * is looked for on the others. The value is null for a file that does not exist, and also for
+     * one over {@link NodeProtocol#MUX_INLINE_LIMIT}, which has to be read with {@link #getFile}
+     * or a download session.
+     */
+    @Override
+    public Map<String, byte[]> getFiles(String authToken, List<String> filenames) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return null;
+
+        Map<String, byte[]> results = new LinkedHashMap<>();
+        Map<String, String> readFrom = new LinkedHashMap<>();
+        Map<String, Long> stamps = new HashMap<>();
+        long replyBytes = 0;
+        for (String filename : filenames) {
+            if (results.containsKey(filename) || readFrom.containsKey(filename)) continue;
+            if (replyBytes >= BATCH_REPLY_BYTES) {
+                results.put(filename, null);
+                continue;
+            }
+            byte[] cached = fileCache.get(filename);
+            if (cached != null) {
+                results.put(filename, cached);
+                replyBytes += cached.length;
+                continue;
+            }
+            // Stamped before the versions are compared: a disagreement invalidates the file
+            long stamp = fileCache.stamp(filename);
+            List<String> replicas = readReplicas(filename);
+            if (replicas.isEmpty()) {
+                results.put(filename, null);
+                continue;
+            }
+            readFrom.put(filename, replicas.get(0));
+            stamps.put(filename, stamp);
+        }
+
+        List<String> toRead = new ArrayList<>(readFrom.keySet());
+        while (!toRead.isEmpty()) {
+            if (replyBytes >= BATCH_REPLY_BYTES) {
+                toRead.forEach(filename -> results.put(filename, null));
+                break;
+            }
+            Map<String, NodeBatch> batches = new HashMap<>();
+            Map<String, CompletableFuture<byte[]>> pending = new LinkedHashMap<>();
+            for (String filename : toRead) {
+                pending.put(filename, batches.computeIfAbsent(readFrom.get(filename), NodeBatch::new)
+                        .add("read", "all", filename, new byte[0], ReadScheduler::parseInlineRead)
+                        .exceptionally(e -> null));
+            }
+            batches.values().forEach(batch -> batch.send(nodePool));
+
+            // The first read of every batch always fits, so each round gets further
+            toRead = new ArrayList<>();
+            for (Map.Entry<String, CompletableFuture<byte[]>> file : pending.entrySet()) {
+                String filename = file.getKey();
+                byte[] fileData = file.getValue().join();
+                if (fileData == ReadScheduler.DEFERRED) {
+                    toRead.add(filename);
+                    continue;
                 }
-            } catch (IOException e) {
-                System.out.println("Failed to delete from node: " + nodeAddress);
+                if (fileData == null) {
+                    // Missed or unreachable on the batched replica; the others may still have it
+                    List<String> others = replicasOf(filename);
+                    others.remove(readFrom.get(filename));
+                    fileData = readScheduler.readInline(others, formerReplicas(filename), filename);
+                }
+                if (fileData == ReadScheduler.TOO_LARGE) fileData = null;
+                if (fileData != null) {
+                    fileCache.put(filename, fileData, stamps.get(filename));
+                    replyBytes += fileData.length;
+                }
+                results.put(filename, fileData);
+            }
+        }
+        scheduleReadRepair(new ArrayList<>(readFrom.keySet()));
+
+        Map<String, byte[]> ordered = new LinkedHashMap<>();
+        filenames.forEach(filename -> ordered.put(filename, results.get(filename)));
+        return ordered;
+    }
+
+    /** Deletes many files at once, grouped into "batch" requests per node, with the outcome of {@link #removeFile} for each. */
+    @Override
+    public Map<String, Boolean> removeFiles(String authToken, List<String> filenames) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        filenames.forEach(filename -> results.put(filename, false));
+        if (user == null) return results;
+
+        String department = user.getDepartment();
+        Map<String, NodeBatch> batches = new HashMap<>();
+        Map<String, List<CompletableFuture<String>>> pending = new LinkedHashMap<>();
+        for (String filename : results.keySet()) {
+            fileCache.invalidate(filename);
+            List<CompletableFuture<String>> statuses = new ArrayList<>();
+            for (String nodeAddress : writeReplicas(department, filename)) {
+                CompletableFuture<String> status = batches.computeIfAbsent(nodeAddress, NodeBatch::new)
+                        .add("delete", department, filename, new byte[0], CoordinatorService::readStatus)
+                        .exceptionally(e -> "Failed");
+                // A replica may already have applied the delete from another node's change log
+                hintOnFailure(nodeAddress, department, filename,
+                        status.thenApply(s -> "Deleted".equals(s) || "Not Found".equals(s)));
+                statuses.add(status);
             }
+            pending.put(filename, statuses);
+        }
+        batches.values().forEach(batch -> batch.send(nodePool));
 
-            if (successCount >= quorum) return true;
+        for (Map.Entry<String, List<CompletableFuture<String>>> file : pending.entrySet()) {
+            List<CompletableFuture<Boolean>> replicaWrites = new ArrayList<>();
+            CompletableFuture<Boolean> anyDeleted = new CompletableFuture<>();
+            for (CompletableFuture<String> status : file.getValue()) {
+                replicaWrites.add(status.thenApply(s -> {
+                    if ("Deleted".equals(s)) anyDeleted.complete(true);
+                    return "Deleted".equals(s) || "Not Found".equals(s);
+                }));
+            }
+            CompletableFuture.allOf(replicaWrites.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((ignored, e) -> anyDeleted.complete(false));
+            boolean reached = new QuorumWrite("Delete of " + file.getKey(), writeQuorum(),
+                    deleteQuorumLatency, deleteAllLatency).await(replicaWrites);
+            try {
+                // The file must have existed somewhere, otherwise this is a delete of a missing file
+                results.put(file.getKey(), reached && anyDeleted.get(30, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                // counted as not deleted
+            } finally {
+                fileCache.invalidate(file.getKey());
+            }
         }
-        return false;
+        return results;
+    }
+
+    @Override
+    public String getStatistics(String authToken) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null || !"admin".equals(user.getRole())) return null;
+
+        StringBuilder report = new StringBuilder();
+        for (LatencyHistogram histogram : Arrays.asList(uploadQuorumLatency, uploadAllLatency,
+                deleteQuorumLatency, deleteAllLatency)) {
+            report.append(histogram).append('\n');
+        }
+        report.append(readScheduler.report()).append('\n');
+        report.append(fileCache.report()).append('\n');
+        report.append(membership.report()).append('\n');
+        report.append(hintedHandoff.report()).append('\n');
+        report.append(replicaRepair.report()).append('\n');
+        for (String nodeAddress : membership.available(membership.getMembers())) {
+            try {
+                String nodeReport = nodePool.send(nodeAddress, "stats", "", "", new byte[0])
+                        .thenApply(CoordinatorService::readStatus)
+                        .get(READ_QUORUM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                report.append("node ").append(nodeAddress).append(":\n  ")
+                        .append(nodeReport.replace("\n", "\n  ")).append('\n');
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                report.append("node ").append(nodeAddress).append(": unreachable\n");
+            }
+        }
+        return report.toString();
     }
 
     @Override
     public boolean updateFile(String authToken, String filename, byte[] updatedData) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return false;
+
+        // Large files that mostly match the stored version only ship the changed blocks to the nodes
+        if (updatedData.length > NodeProtocol.MUX_INLINE_LIMIT) {
+            BlockDelta.Signature signature = fetchSignature(user.getDepartment(), filename);
+            if (signature != null) {
+                try {
+                    BlockDelta.Delta delta = BlockDelta.compute(signature, ByteBuffer.wrap(updatedData));
+                    if (worthPatching(delta) && applyDelta(user.getDepartment(), filename, delta)) return true;
+                } catch (IOException e) {
+                    System.out.println("Delta update failed, sending the whole file: " + e.getMessage());
+                }
+            }
+        }
         return saveFile(authToken, filename, updatedData);
     }
+
+    @Override
+    public BlockDelta.Signature getFileSignature(String authToken, String filename) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return null;
+        return fetchSignature(user.getDepartment(), filename);
+    }
+
+    @Override
+    public boolean updateFileDelta(String authToken, String filename, BlockDelta.Delta delta) throws RemoteException {
+        User user = Token.validateToken(authToken);
+        if (user == null) return false;
+        return applyDelta(user.getDepartment(), filename, delta);
+    }
+
+    // Streamed on its own connection: the signature of a large file does not fit a multiplexed response
+    private BlockDelta.Signature fetchSignature(String department, String filename) {
+        for (String nodeAddress : replicasOf(filename)) {
+            try (Socket socket = openNodeSocket(nodeAddress);
+                 DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+                out.writeUTF("signature");
+                out.writeUTF(department);
+                out.writeUTF(filename);
+                out.flush();
+                if (in.readLong() < 0) continue;
+                return BlockDelta.Signature.readFrom(in);
+            } catch (IOException e) {
+                System.out.println("Node unreachable for signature: " + nodeAddress);
+            }
+        }
+        return null;
+    }
+
+    private static boolean worthPatching(BlockDelta.Delta delta) {
+        return delta.getLiteralBytes() <= delta.getResultSize() / 2;
+    }
+
+    /**
+     * Sends the delta to every replica, which patches its copy. Replicas holding a different
+     * base version answer "BaseMismatch" and are brought up to date by log replication and
+     * hinted handoff from the replicas that did patch; the write fails if fewer than W could patch.
+     */
+    private boolean applyDelta(String department, String filename, BlockDelta.Delta delta) {
+        fileCache.invalidate(filename);
+        long version = versionClock.next();
+        QuorumWrite write = new QuorumWrite("Patch of " + filename, writeQuorum(), uploadQuorumLatency, uploadAllLatency);
+        List<CompletableFuture<Boolean>> replicaWrites = new ArrayList<>();
+        for (String nodeAddress : writeReplicas(department, filename)) {
+            replicaWrites.add(hintOnFailure(nodeAddress, department, filename, CompletableFuture.supplyAsync(
+                    () -> patchReplica(nodeAddress, department, filename, delta, version), replicaWriters)));
+        }
+        try {
+            return write.await(replicaWrites);
+        } finally {
+            fileCache.invalidate(filename);
+        }
+    }
+
+    private boolean patchReplica(String nodeAddress, String department, String filename, BlockDelta.Delta delta,
+                                 long version) {
+        try (Socket socket = openNodeSocket(nodeAddress);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(socket.getInputStream())) {
+            out.writeUTF("patch");
+            out.writeUTF(department);
+            out.writeUTF(filename);
+            out.writeUTF(delta.getBaseChecksum());
+            out.writeUTF(delta.getResultChecksum());
+            out.writeLong(delta.getResultSize());
+            out.writeInt(delta.getBlockSize());
+            out.writeLong(version);
+            out.flush();
+            String status = in.readUTF();
+            if ("Ready".equals(status)) {
+                out.write(delta.getInstructions());
+                out.flush();
+                status = in.readUTF();
+            }
+            if ("OK".equals(status)) {
+                System.out.println("File patched on node: " + nodeAddress);
+                return true;
+            }
+            System.out.println("Patch not applied on node " + nodeAddress + ": " + status);
+            return false;
+        } catch (IOException e) {
+            System.out.println("Node unreachable: " + nodeAddress);
+            return false;
+        }
+    }
 }
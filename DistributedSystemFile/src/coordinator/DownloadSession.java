@@ -0,0 +1,73 @@
+package coordinator;
+
+import java.io.*;
+import java.net.Socket;
+import utils.ChunkedTransfer;
+
+/**
+ * A streamed download handed out to the client one chunk at a time, either from a
+ * single node or from a copy already in memory (cache hit or small pooled read).
+ */
+public class DownloadSession extends TransferSession {
+    private final String nodeAddress;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final long size;
+    private long remaining;
+
+    private DownloadSession(String nodeAddress, Socket socket, DataInputStream in, long size) {
+        this.nodeAddress = nodeAddress;
+        this.socket = socket;
+        this.in = in;
+        this.size = size;
+        this.remaining = size;
+    }
+
+    /** Serves data the coordinator already holds; it has no node connection. */
+    public static DownloadSession inMemory(byte[] data) {
+        return new DownloadSession(null, null, new DataInputStream(new ByteArrayInputStream(data)), data.length);
+    }
+
+    /** Asks the node for the file; returns null if the node does not have it. */
+    public static DownloadSession open(String nodeAddress, String filename) throws IOException {
+        Socket socket = CoordinatorService.openNodeSocket(nodeAddress);
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeUTF("read");
+            out.writeUTF("all");
+            out.writeUTF(filename);
+            out.flush();
+
+            long size = in.readLong();
+            if (size == -1) {
+                socket.close();
+                return null; // File not found
+            }
+            return new DownloadSession(nodeAddress, socket, in, size);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /** Node the data comes from, or null for an in-memory session. */
+    public String getNodeAddress() { return nodeAddress; }
+    public long getSize() { return size; }
+
+    /** Returns the next chunk, or null once the whole file has been handed out. */
+    public synchronized byte[] next() throws IOException {
+        touch();
+        if (remaining == 0) return null;
+
+        byte[] chunk = new byte[(int) Math.min(ChunkedTransfer.CHUNK_SIZE, remaining)];
+        in.readFully(chunk);
+        remaining -= chunk.length;
+        return chunk;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (socket != null) closeQuietly(socket);
+    }
+}
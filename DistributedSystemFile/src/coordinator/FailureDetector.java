@@ -0,0 +1,99 @@
+package coordinator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi-accrual failure detector. For each node it keeps the recent intervals between
+ * heartbeats and reports how unlikely the current silence is under a normal distribution
+ * fitted to them, as phi = -log10(probability). A node is suspected once phi passes the
+ * threshold, so the timeout adapts to how regularly each node actually reports.
+ */
+public class FailureDetector {
+    private static final int WINDOW = 100;
+    private static final double MIN_STD_DEVIATION_MS = 100;
+
+    private final double threshold;
+    private final long expectedIntervalMs;
+    private final long graceMs;
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, History> histories = new ConcurrentHashMap<>();
+
+    private static class History {
+        final Deque<Long> intervals = new ArrayDeque<>();
+        long sum;
+        long sumOfSquares;
+        long lastMillis;
+
+        History(long nowMillis, long expectedIntervalMs) {
+            lastMillis = nowMillis;
+            // Seed with the expected interval so the first silence is judged sensibly
+            add(expectedIntervalMs);
+        }
+
+        void add(long interval) {
+            intervals.addLast(interval);
+            sum += interval;
+            sumOfSquares += interval * interval;
+            if (intervals.size() > WINDOW) {
+                long dropped = intervals.removeFirst();
+                sum -= dropped;
+                sumOfSquares -= dropped * dropped;
+            }
+        }
+
+        double phi(long nowMillis) {
+            int count = intervals.size();
+            double mean = (double) sum / count;
+            double variance = (double) sumOfSquares / count - mean * mean;
+            double deviation = Math.max(MIN_STD_DEVIATION_MS, Math.sqrt(Math.max(0, variance)));
+            double elapsed = nowMillis - lastMillis;
+
+            // Logistic approximation of the normal CDF
+            double y = (elapsed - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            double tail = elapsed > mean ? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e);
+            return -Math.log10(Math.max(tail, Double.MIN_VALUE));
+        }
+    }
+
+    /**
+     * @param graceMs how long after startup a node that never reported still counts as available
+     */
+    public FailureDetector(double threshold, long expectedIntervalMs, long graceMs) {
+        this.threshold = threshold;
+        this.expectedIntervalMs = expectedIntervalMs;
+        this.graceMs = graceMs;
+    }
+
+    public void heartbeat(String node) {
+        long now = System.currentTimeMillis();
+        History history = histories.get(node);
+        if (history == null) {
+            histories.put(node, new History(now, expectedIntervalMs));
+            return;
+        }
+        synchronized (history) {
+            history.add(now - history.lastMillis);
+            history.lastMillis = now;
+        }
+    }
+
+    public void remove(String node) {
+        histories.remove(node);
+    }
+
+    public double phi(String node) {
+        History history = histories.get(node);
+        if (history == null) return System.currentTimeMillis() - startMillis < graceMs ? 0 : Double.POSITIVE_INFINITY;
+        synchronized (history) {
+            return history.phi(System.currentTimeMillis());
+        }
+    }
+
+    public boolean isAvailable(String node) {
+        return phi(node) < threshold;
+    }
+}
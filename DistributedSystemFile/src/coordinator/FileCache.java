@@ -0,0 +1,90 @@
+package coordinator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory LRU cache of file contents on the coordinator, bounded by total bytes.
+ *
+ * Writes invalidate the filename. A read that started before an invalidation must not
+ * put its (possibly old) result back, so callers take a {@link #stamp} before going to
+ * the nodes and pass it to {@link #put}; invalidations are tracked per key stripe.
+ */
+public class FileCache {
+    private static final int STRIPES = 64;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final AtomicLongArray stripeVersions = new AtomicLongArray(STRIPES);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public FileCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+    }
+
+    public byte[] get(String filename) {
+        byte[] data;
+        synchronized (this) {
+            data = entries.get(filename);
+        }
+        (data != null ? hits : misses).incrementAndGet();
+        return data;
+    }
+
+    public boolean accepts(long size) {
+        return size <= maxEntryBytes;
+    }
+
+    /** Version of the key's stripe; take it before reading from the nodes. */
+    public long stamp(String filename) {
+        return stripeVersions.get(stripeOf(filename));
+    }
+
+    public void put(String filename, byte[] data, long stamp) {
+        if (!accepts(data.length)) return;
+        synchronized (this) {
+            if (stripeVersions.get(stripeOf(filename)) != stamp) return; // written since the read began
+
+            byte[] previous = entries.put(filename, data);
+            if (previous != null) currentBytes -= previous.length;
+            currentBytes += data.length;
+
+            Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                currentBytes -= eldest.next().getValue().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidate(String filename) {
+        synchronized (this) {
+            stripeVersions.incrementAndGet(stripeOf(filename));
+            byte[] removed = entries.remove(filename);
+            if (removed != null) {
+                currentBytes -= removed.length;
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private static int stripeOf(String filename) {
+        return (filename.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    public synchronized String report() {
+        return String.format("cache: entries=%d bytes=%d/%d hits=%d misses=%d evictions=%d invalidations=%d",
+                entries.size(), currentBytes, maxBytes, hits.get(), misses.get(), evictions.get(), invalidations.get());
+    }
+}
@@ -0,0 +1,174 @@
+package coordinator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Replica writes that did not go through, remembered until the replica is back. Hints are
+ * kept in a file so they survive a coordinator restart; the file is rewritten by the replay
+ * thread rather than on the write path, so hints from the last interval can be lost with the
+ * coordinator, to be caught up by anti-entropy instead. In the background, every hinted file
+ * on a node that is available again is reconciled with its other replicas through
+ * {@link ReplicaRepair}; the hint is dropped once that succeeds.
+ */
+public class HintedHandoff {
+    private static final int MAX_HINTS = Integer.getInteger("coordinator.maxHints", 100_000);
+    private static final long REPLAY_INTERVAL_MS = Long.getLong("coordinator.hintReplayMillis", 2_000);
+
+    private static class Hint {
+        final String nodeAddress;
+        final String department;
+        final String filename;
+
+        Hint(String nodeAddress, String department, String filename) {
+            this.nodeAddress = nodeAddress;
+            this.department = department;
+            this.filename = filename;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Hint)) return false;
+            Hint hint = (Hint) other;
+            return nodeAddress.equals(hint.nodeAddress) && department.equals(hint.department)
+                    && filename.equals(hint.filename);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nodeAddress, department, filename);
+        }
+    }
+
+    private final File file;
+    private final MembershipService membership;
+    private final ReplicaRepair repair;
+    private final Function<String, List<String>> placement;
+    private final Set<Hint> hints = new LinkedHashSet<>();
+    private boolean dirty;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ScheduledExecutorService replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hint-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** @param placement the replicas a file is placed on, suspected or not */
+    public HintedHandoff(File file, MembershipService membership, ReplicaRepair repair,
+                         Function<String, List<String>> placement) {
+        this.file = file;
+        this.membership = membership;
+        this.repair = repair;
+        this.placement = placement;
+        load();
+        replayer.scheduleWithFixedDelay(this::replay, REPLAY_INTERVAL_MS, REPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void add(String nodeAddress, String department, String filename) {
+        if (hints.size() >= MAX_HINTS) {
+            dropped.incrementAndGet(); // anti-entropy between the nodes still catches it up
+            return;
+        }
+        if (hints.add(new Hint(nodeAddress, department, filename))) {
+            System.out.println("Hint stored for " + nodeAddress + ": " + department + "/" + filename);
+            dirty = true;
+        }
+    }
+
+    public synchronized String report() {
+        return String.format("hints: pending=%d delivered=%d dropped=%d", hints.size(), delivered.get(), dropped.get());
+    }
+
+    private void replay() {
+        deliver();
+        flush();
+    }
+
+    private void deliver() {
+        List<Hint> due = new ArrayList<>();
+        synchronized (this) {
+            for (Hint hint : hints) {
+                if (membership.isAvailable(hint.nodeAddress)) due.add(hint);
+            }
+        }
+        if (due.isEmpty()) return;
+
+        List<Hint> done = new ArrayList<>();
+        for (Hint hint : due) {
+            List<String> replicas = placement.apply(hint.filename);
+            if (!replicas.contains(hint.nodeAddress)) {
+                done.add(hint); // the ring moved on; the node no longer holds this file
+                continue;
+            }
+            if (repair.repair(hint.department, hint.filename, membership.available(replicas))) {
+                done.add(hint);
+                delivered.incrementAndGet();
+            }
+        }
+        synchronized (this) {
+            if (done.isEmpty()) return;
+            hints.removeAll(done);
+            dirty = true;
+        }
+        System.out.println("Replayed " + done.size() + " hints, " + hints.size() + " pending");
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                hints.add(new Hint(in.readUTF(), in.readUTF(), in.readUTF()));
+            }
+            System.out.println("Loaded " + hints.size() + " pending hints");
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable hints file " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Only the replay thread writes the file, from a copy taken under the monitor
+    private void flush() {
+        List<Hint> snapshot;
+        synchronized (this) {
+            if (!dirty) return;
+            snapshot = new ArrayList<>(hints);
+            dirty = false;
+        }
+        if (!save(snapshot)) {
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    private boolean save(List<Hint> snapshot) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(snapshot.size());
+            for (Hint hint : snapshot) {
+                out.writeUTF(hint.nodeAddress);
+                out.writeUTF(hint.department);
+                out.writeUTF(hint.filename);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write hints file " + file + ": " + e.getMessage());
+            return false;
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to replace hints file " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
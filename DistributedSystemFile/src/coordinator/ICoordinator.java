@@ -1,8 +1,15 @@
 package coordinator;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import utils.BlockDelta;
+import utils.TransferPlan;
 import utils.User;
+import utils.VersionedFile;
 
+// Over the binary RPC port a request carries at most RpcProtocol.MAX_REQUEST_FRAME bytes, about
+// one chunk; larger data goes through the chunked transfers below, or over RMI.
 public interface ICoordinator extends Remote {
     String signIn(String username, String password) throws RemoteException;
     boolean createUser(User user, String token) throws RemoteException;
@@ -10,4 +17,52 @@ public interface ICoordinator extends Remote {
     byte[] getFile(String token, String filename) throws RemoteException;
     boolean removeFile(String token, String filename) throws RemoteException;
     boolean updateFile(String token, String filename, byte[] updateData) throws RemoteException;
+    // Deduplication: stores the file from content every replica already has under this SHA-256,
+    // so a large re-upload moves no data. False means the content has to be uploaded.
+    boolean linkFile(String token, String filename, String checksum, long size) throws RemoteException;
+
+    // Chunked transfers: files of any size move in pieces of at most ChunkedTransfer.CHUNK_SIZE
+    String beginUpload(String token, String filename) throws RemoteException;
+    boolean uploadChunk(String sessionId, byte[] chunk) throws RemoteException;
+    // Resumable form: returns the offset to continue from, -1 if the session is gone. The offset
+    // counts the bytes the coordinator has taken, not what the replicas have stored, and sessions
+    // are only kept in coordinator memory: a coordinator restart, or dropping stalled replicas
+    // (30 s without taking a chunk) until fewer than W remain, ends the session and the upload
+    // has to start over in a new one.
+    long uploadChunkAt(String sessionId, long offset, byte[] chunk) throws RemoteException;
+    long getUploadOffset(String sessionId) throws RemoteException;
+    boolean finishUpload(String sessionId) throws RemoteException;
+    void abortUpload(String sessionId) throws RemoteException;
+    String beginDownload(String token, String filename) throws RemoteException;
+    byte[] downloadChunk(String sessionId) throws RemoteException;
+    void endDownload(String sessionId) throws RemoteException;
+
+    // Range reads: at most 1 MB from an offset (negative: from the end), with the file's version
+    VersionedFile getFileRange(String token, String filename, long offset, int length) throws RemoteException;
+
+    // Delta updates: send only the blocks that changed since the stored version
+    BlockDelta.Signature getFileSignature(String token, String filename) throws RemoteException;
+    boolean updateFileDelta(String token, String filename, BlockDelta.Delta delta) throws RemoteException;
+
+    // Versioned writes: -1 is the version of a file that does not exist. The update only
+    // applies if the stored version is still the expected one; it returns the version stored,
+    // or one of the negative NodeProtocol.UPDATE_* outcomes.
+    long getFileVersion(String token, String filename) throws RemoteException;
+    VersionedFile getFileWithVersion(String token, String filename) throws RemoteException;
+    long updateFileIfVersion(String token, String filename, long expectedVersion, byte[] data) throws RemoteException;
+
+    // Direct transfers: the coordinator plans and signs, the data moves between the client and the nodes
+    TransferPlan planUpload(String token, String filename) throws RemoteException;
+    boolean commitUpload(String token, TransferPlan plan, List<String> storedOn) throws RemoteException;
+    TransferPlan planDownload(String token, String filename) throws RemoteException;
+
+    // Batches: many small files per call, sent to each node in a few requests. Results are per
+    // file, in request order. getFiles stops reading once its reply holds about 4 MB and returns
+    // null for the files it left out, for absent files and for ones over 1 MB; those are for getFile
+    Map<String, Boolean> saveFiles(String token, Map<String, byte[]> files) throws RemoteException;
+    Map<String, byte[]> getFiles(String token, List<String> filenames) throws RemoteException;
+    Map<String, Boolean> removeFiles(String token, List<String> filenames) throws RemoteException;
+
+    // Admin only: latency and counter report, null for other users
+    String getStatistics(String token) throws RemoteException;
 }
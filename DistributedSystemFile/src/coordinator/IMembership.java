@@ -0,0 +1,11 @@
+package coordinator;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+// Storage nodes register here and report liveness; every call answers with the current member list
+public interface IMembership extends Remote {
+    List<String> join(String nodeAddress) throws RemoteException;
+    List<String> heartbeat(String nodeAddress) throws RemoteException;
+    void leave(String nodeAddress) throws RemoteException;
+}
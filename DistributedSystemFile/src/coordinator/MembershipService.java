@@ -0,0 +1,102 @@
+package coordinator;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import utils.ClusterConfig;
+import utils.HashRing;
+
+/**
+ * Cluster membership kept by the coordinator. It starts from the configured nodes; nodes
+ * join and leave at runtime and heartbeat while they are up. Joining or leaving changes the
+ * hash ring, while a node that merely stops reporting keeps its place on the ring and is
+ * only skipped by requests until it is heard from again.
+ */
+public class MembershipService extends UnicastRemoteObject implements IMembership {
+    private static final long serialVersionUID = 1L;
+    private static final long HEARTBEAT_MS = Long.getLong("coordinator.heartbeatMillis", 1000);
+    private static final double PHI_THRESHOLD = Double.parseDouble(System.getProperty("coordinator.phiThreshold", "8"));
+    private static final long STARTUP_GRACE_MS = Long.getLong("coordinator.membershipGraceMillis", 5000);
+
+    private final Set<String> members = new LinkedHashSet<>(ClusterConfig.NODES);
+    private final FailureDetector detector = new FailureDetector(PHI_THRESHOLD, HEARTBEAT_MS, STARTUP_GRACE_MS);
+    private volatile List<String> memberList = List.copyOf(members);
+    private volatile HashRing ring = ClusterConfig.newRing();
+    private volatile HashRing previousRing = ring;
+
+    public MembershipService() throws RemoteException {
+    }
+
+    @Override
+    public List<String> join(String nodeAddress) throws RemoteException {
+        detector.heartbeat(nodeAddress);
+        synchronized (this) {
+            if (members.add(nodeAddress)) {
+                membersChanged();
+                System.out.println("Node joined: " + nodeAddress + " (" + members.size() + " members)");
+            }
+            return memberList;
+        }
+    }
+
+    @Override
+    public List<String> heartbeat(String nodeAddress) throws RemoteException {
+        // A node we do not know (for instance after a coordinator restart) rejoins implicitly
+        if (!memberList.contains(nodeAddress)) return join(nodeAddress);
+        detector.heartbeat(nodeAddress);
+        return memberList;
+    }
+
+    @Override
+    public void leave(String nodeAddress) throws RemoteException {
+        synchronized (this) {
+            if (members.remove(nodeAddress)) {
+                membersChanged();
+                System.out.println("Node left: " + nodeAddress + " (" + members.size() + " members)");
+            }
+        }
+        detector.remove(nodeAddress);
+    }
+
+    public HashRing getRing() {
+        return ring;
+    }
+
+    /** The ring before the last join or leave; files may still sit where it placed them. */
+    public HashRing getPreviousRing() {
+        return previousRing;
+    }
+
+    public List<String> getMembers() {
+        return memberList;
+    }
+
+    public boolean isAvailable(String nodeAddress) {
+        return detector.isAvailable(nodeAddress);
+    }
+
+    /** The given nodes without the suspected ones, in the same order. */
+    public List<String> available(List<String> nodes) {
+        List<String> available = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            if (isAvailable(node)) available.add(node);
+        }
+        return available;
+    }
+
+    public String report() {
+        StringBuilder report = new StringBuilder("membership:");
+        for (String node : memberList) {
+            double phi = detector.phi(node);
+            report.append(String.format(" %s=%s(phi %.1f)", node, phi < PHI_THRESHOLD ? "up" : "suspected",
+                    Math.max(0, Math.min(phi, 99.9))));
+        }
+        return report.toString();
+    }
+
+    private void membersChanged() {
+        memberList = List.copyOf(members);
+        previousRing = ring;
+        ring = new HashRing(memberList, ClusterConfig.VIRTUAL_NODES);
+    }
+}
@@ -0,0 +1,103 @@
+package coordinator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import utils.NodeProtocol;
+
+/**
+ * Requests for one node, sent together as "batch" requests over its pooled connection
+ * instead of one round trip each. Requests are split into batches that fit a multiplexed
+ * request, and each request's future completes with its reply, parsed by the reader it
+ * was added with. A batch that fails fails all of its requests.
+ */
+class NodeBatch {
+    private static final int MAX_BATCH_BYTES = NodeProtocol.MUX_INLINE_LIMIT;
+
+    private final String nodeAddress;
+    private final List<Pending<?>> pending = new ArrayList<>();
+
+    private static class Pending<T> {
+        final byte[] request;
+        final Function<DataInputStream, T> reader;
+        final CompletableFuture<T> reply = new CompletableFuture<>();
+
+        Pending(byte[] request, Function<DataInputStream, T> reader) {
+            this.request = request;
+            this.reader = reader;
+        }
+
+        void complete(DataInputStream response) {
+            reply.complete(reader.apply(response));
+        }
+    }
+
+    NodeBatch(String nodeAddress) {
+        this.nodeAddress = nodeAddress;
+    }
+
+    <T> CompletableFuture<T> add(String command, String department, String filename, byte[] body,
+                                 Function<DataInputStream, T> reader) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 64);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(command);
+            out.writeUTF(department);
+            out.writeUTF(filename);
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Pending<T> request = new Pending<>(bytes.toByteArray(), reader);
+        pending.add(request);
+        return request.reply;
+    }
+
+    /** Sends everything added so far; the futures complete as the node answers. */
+    void send(NodeConnectionPool nodePool) {
+        int start = 0;
+        while (start < pending.size()) {
+            int end = start;
+            long size = 4;
+            do {
+                size += pending.get(end).request.length;
+                end++;
+            } while (end < pending.size() && end - start < NodeProtocol.BATCH_MAX_REQUESTS
+                    && size + pending.get(end).request.length <= MAX_BATCH_BYTES);
+            sendBatch(nodePool, new ArrayList<>(pending.subList(start, end)));
+            start = end;
+        }
+        pending.clear();
+    }
+
+    private void sendBatch(NodeConnectionPool nodePool, List<Pending<?>> requests) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(requests.size());
+            for (Pending<?> request : requests) {
+                out.write(request.request);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        nodePool.send(nodeAddress, "batch", "", "", bytes.toByteArray()).whenComplete((response, error) -> {
+            Throwable failure = error;
+            for (Pending<?> request : requests) {
+                if (failure != null) {
+                    request.reply.completeExceptionally(failure);
+                    continue;
+                }
+                try {
+                    request.complete(response);
+                } catch (RuntimeException e) {
+                    failure = e; // the rest of the reply cannot be parsed past a broken one
+                    request.reply.completeExceptionally(e);
+                }
+            }
+        });
+    }
+}
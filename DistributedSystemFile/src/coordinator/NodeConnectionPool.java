@@ -0,0 +1,173 @@
+package coordinator;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import utils.NodeProtocol;
+
+/**
+ * Keeps one long-lived multiplexed connection per storage node. Requests carry an id,
+ * so any number of them can be in flight on the same connection; a reader thread per
+ * connection completes the matching future when the node answers. A broken connection
+ * fails its pending requests and is replaced on the next call. A request the node does not
+ * answer within {@link #REQUEST_TIMEOUT_MS} fails on its own.
+ */
+public class NodeConnectionPool implements Closeable {
+    private static final long REQUEST_TIMEOUT_MS = 30_000;
+
+    private final Map<String, MuxConnection> connections = new ConcurrentHashMap<>();
+    // One lock per node, so connecting to a node that does not answer holds up no other node
+    private final Map<String, Object> connectLocks = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+
+    /** Sends a request and returns a future for the response body; it fails if the node does not answer in time. */
+    public CompletableFuture<DataInputStream> send(String nodeAddress, String command, String department,
+                                                   String filename, byte[] body) {
+        try {
+            return connectionTo(nodeAddress).send(nextRequestId.incrementAndGet(), command, department, filename, body);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /** Blocking variant of {@link #send} for callers that talk to one node at a time. */
+    public DataInputStream request(String nodeAddress, String command, String department,
+                                   String filename, byte[] body) throws IOException {
+        try {
+            return send(nodeAddress, command, department, filename, body)
+                    .get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) throw new IOException("Node did not answer in time: " + nodeAddress);
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Node did not answer in time: " + nodeAddress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private MuxConnection connectionTo(String nodeAddress) throws IOException {
+        MuxConnection connection = connections.get(nodeAddress);
+        if (connection != null && connection.isOpen()) return connection;
+
+        synchronized (connectLocks.computeIfAbsent(nodeAddress, address -> new Object())) {
+            connection = connections.get(nodeAddress);
+            if (connection == null || !connection.isOpen()) {
+                connection = new MuxConnection(nodeAddress);
+                connections.put(nodeAddress, connection);
+            }
+            return connection;
+        }
+    }
+
+    @Override
+    public void close() {
+        connections.values().forEach(MuxConnection::close);
+        connections.clear();
+    }
+
+    private static class MuxConnection {
+        private final String nodeAddress;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final Map<Long, CompletableFuture<DataInputStream>> pending = new ConcurrentHashMap<>();
+        private volatile boolean open = true;
+
+        MuxConnection(String nodeAddress) throws IOException {
+            this.nodeAddress = nodeAddress;
+            this.socket = CoordinatorService.openNodeSocket(nodeAddress);
+            socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.writeUTF(NodeProtocol.MUX);
+            out.writeUTF("");
+            out.writeUTF("");
+            out.flush();
+
+            Thread reader = new Thread(this::readResponses, "mux-reader-" + nodeAddress);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        CompletableFuture<DataInputStream> send(long requestId, String command, String department,
+                                                String filename, byte[] body) throws IOException {
+            CompletableFuture<DataInputStream> response = new CompletableFuture<>();
+            pending.put(requestId, response);
+            // Registered after the put, so a timeout that fires right away still clears the entry
+            response.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .whenComplete((reply, error) -> pending.remove(requestId));
+            if (!open) {
+                pending.remove(requestId);
+                throw new IOException("Connection to " + nodeAddress + " is closed");
+            }
+            try {
+                synchronized (out) {
+                    out.writeLong(requestId);
+                    out.writeUTF(command);
+                    out.writeUTF(department);
+                    out.writeUTF(filename);
+                    out.writeInt(body.length);
+                    out.write(body);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                pending.remove(requestId);
+                fail(e);
+                throw e;
+            }
+            return response;
+        }
+
+        private void readResponses() {
+            try {
+                while (open) {
+                    long requestId = in.readLong();
+                    int length = in.readInt();
+                    if (length == NodeProtocol.MUX_FAILED) {
+                        CompletableFuture<DataInputStream> response = pending.remove(requestId);
+                        if (response != null) response.completeExceptionally(new IOException("Request failed on " + nodeAddress));
+                        continue;
+                    }
+                    if (length < 0 || length > NodeProtocol.MUX_MAX_BODY) {
+                        throw new IOException("Invalid response body length: " + length);
+                    }
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+
+                    CompletableFuture<DataInputStream> response = pending.remove(requestId);
+                    if (response != null) {
+                        response.complete(new DataInputStream(new ByteArrayInputStream(body)));
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException cause) {
+            if (open) {
+                System.out.println("Pooled connection to " + nodeAddress + " closed: " + cause.getMessage());
+            }
+            close();
+            pending.values().forEach(f -> f.completeExceptionally(cause));
+            pending.clear();
+        }
+
+        void close() {
+            open = false;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
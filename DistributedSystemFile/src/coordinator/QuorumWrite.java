@@ -0,0 +1,66 @@
+package coordinator;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.LatencyHistogram;
+
+/**
+ * Tracks a write that was sent to every replica in parallel. The caller is released as
+ * soon as W replicas acknowledged (or W can no longer be reached); the rest keep going
+ * in the background and their completion is recorded separately.
+ */
+public class QuorumWrite {
+    private static final long QUORUM_TIMEOUT_MS = 60_000;
+
+    private final String description;
+    private final int quorum;
+    private final long startNanos = System.nanoTime();
+    private final LatencyHistogram quorumLatency;
+    private final LatencyHistogram allReplicasLatency;
+
+    public QuorumWrite(String description, int quorum,
+                       LatencyHistogram quorumLatency, LatencyHistogram allReplicasLatency) {
+        this.description = description;
+        this.quorum = quorum;
+        this.quorumLatency = quorumLatency;
+        this.allReplicasLatency = allReplicasLatency;
+    }
+
+    /** Blocks until the outcome is decided; each future completes with true when its replica stored the write. */
+    public boolean await(List<CompletableFuture<Boolean>> replicaWrites) {
+        CompletableFuture<Boolean> decided = new CompletableFuture<>();
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        int allowedFailures = replicaWrites.size() - quorum;
+
+        if (allowedFailures < 0) decided.complete(false);
+        for (CompletableFuture<Boolean> replicaWrite : replicaWrites) {
+            replicaWrite.whenComplete((stored, error) -> {
+                if (Boolean.TRUE.equals(stored) && error == null) {
+                    if (successes.incrementAndGet() == quorum) decided.complete(true);
+                } else if (failures.incrementAndGet() > allowedFailures) {
+                    decided.complete(false);
+                }
+            });
+        }
+
+        CompletableFuture.allOf(replicaWrites.toArray(new CompletableFuture<?>[0])).whenComplete((v, e) -> {
+            allReplicasLatency.recordSince(startNanos);
+            if (successes.get() < replicaWrites.size()) {
+                System.out.printf("%s reached %d of %d replicas%n", description, successes.get(), replicaWrites.size());
+            }
+        });
+
+        try {
+            boolean reached = decided.get(QUORUM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (reached) quorumLatency.recordSince(startNanos);
+            return reached;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
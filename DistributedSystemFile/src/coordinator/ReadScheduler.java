@@ -0,0 +1,230 @@
+package coordinator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import utils.LatencyHistogram;
+import utils.NodeProtocol;
+import utils.ThreadPools;
+import utils.VersionedFile;
+
+/**
+ * Coordinator-wide scheduler for reads. A read goes to the least-loaded node first;
+ * a miss or failure moves on to the next node right away. In hedged mode a second
+ * node is also tried when the first has not answered within the current p95 read
+ * latency, and whichever answers first wins. Blocking work runs on one shared pool.
+ * Nodes outside a file's replica set are only tried once all of its replicas missed,
+ * which finds copies left on former replicas after the ring changed.
+ */
+public class ReadScheduler {
+    private static final long READ_TIMEOUT_MS = 30_000;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 50;
+    private static final long MIN_HEDGE_DELAY_MS = 2;
+    private static final int MIN_SAMPLES_FOR_HEDGING = 20;
+
+    /** Marker result: the node has the file but it is too large to return inline. */
+    static final byte[] TOO_LARGE = new byte[0];
+    /** Marker result: the read did not fit in its batch reply and has to be sent again. */
+    static final byte[] DEFERRED = new byte[0];
+
+    private final NodeConnectionPool nodePool;
+    private final boolean hedged;
+    private final ExecutorService readWorkers;
+    private final Map<String, Integer> nodeLoadMap = new ConcurrentHashMap<>();
+    private final LatencyHistogram readLatency = new LatencyHistogram("read.firstResponse");
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    public ReadScheduler(NodeConnectionPool nodePool, boolean hedged, int maxConcurrentReads) {
+        this.nodePool = nodePool;
+        this.hedged = hedged;
+        this.readWorkers = Optional.ofNullable(ThreadPools.newVirtualThreadExecutor())
+                .orElseGet(() -> ThreadPools.newBoundedPool("read-worker", maxConcurrentReads, maxConcurrentReads * 4));
+    }
+
+    /** Reads a small file over the pooled connections; returns null if no node has it, or {@link #TOO_LARGE}. */
+    public byte[] readInline(List<String> replicas, List<String> fallback, String filename) {
+        return schedule(replicas, fallback, nodeAddress -> nodePool.send(nodeAddress, "read", "all", filename, new byte[0])
+                .thenApply(ReadScheduler::parseInlineRead), data -> { });
+    }
+
+    /**
+     * Reads up to {@link NodeProtocol#MUX_INLINE_LIMIT} bytes of a file over the pooled connections,
+     * with the version they belong to; null if no node has it.
+     */
+    public VersionedFile readRange(List<String> replicas, List<String> fallback, String filename,
+                                   long offset, int length) {
+        byte[] body = ByteBuffer.allocate(16).putLong(offset).putLong(length).array();
+        return schedule(replicas, fallback, nodeAddress -> nodePool.send(nodeAddress, "readRange", "all", filename, body)
+                .thenApply(ReadScheduler::parseRangeRead), data -> { });
+    }
+
+    /** Opens a streaming download on the first node that has the file, or returns null. */
+    public DownloadSession openStream(List<String> replicas, List<String> fallback, String filename) {
+        return schedule(replicas, fallback, nodeAddress -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return DownloadSession.open(nodeAddress, filename);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, readWorkers), DownloadSession::close);
+    }
+
+    /** Must be called once the caller is done with a session returned by {@link #openStream}. */
+    public void release(DownloadSession session) {
+        session.close();
+        if (session.getNodeAddress() == null) return;
+        nodeLoadMap.computeIfPresent(session.getNodeAddress(), (k, v) -> v - 1);
+    }
+
+    public String report() {
+        return readLatency + "\n" + String.format("read.hedges: mode=%s sent=%d won=%d delay=%dms",
+                hedged ? "hedged" : "failover", hedgesSent.get(), hedgesWon.get(), hedgeDelayMs());
+    }
+
+    private long hedgeDelayMs() {
+        if (readLatency.getCount() < MIN_SAMPLES_FOR_HEDGING) return DEFAULT_HEDGE_DELAY_MS;
+        return Math.max(MIN_HEDGE_DELAY_MS, readLatency.percentileMicros(95) / 1000);
+    }
+
+    static byte[] parseInlineRead(DataInputStream response) {
+        try {
+            long size = response.readLong();
+            if (size == NodeProtocol.READ_TOO_LARGE) return TOO_LARGE;
+            if (size == NodeProtocol.READ_DEFERRED) return DEFERRED;
+            if (size < 0) return null;
+            byte[] fileData = new byte[(int) size];
+            response.readFully(fileData);
+            return fileData;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static VersionedFile parseRangeRead(DataInputStream response) {
+        try {
+            if (response.readLong() < 0) return null;
+            long version = response.readLong();
+            byte[] data = new byte[(int) response.readLong()];
+            response.readFully(data);
+            return new VersionedFile(version, data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Outcome<T> {
+        final String nodeAddress;
+        final T result;
+        final long startNanos;
+
+        Outcome(String nodeAddress, T result, long startNanos) {
+            this.nodeAddress = nodeAddress;
+            this.result = result;
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * Runs {@code attempt} against the replicas in least-loaded order, then the fallback nodes,
+     * until one returns a non-null result. Results that arrive after a winner was chosen are
+     * passed to {@code discard}.
+     */
+    private <T> T schedule(List<String> replicas, List<String> fallback,
+                           Function<String, CompletableFuture<T>> attempt, Consumer<T> discard) {
+        for (String nodeAddress : replicas) {
+            nodeLoadMap.putIfAbsent(nodeAddress, 0);
+        }
+        List<String> order = new ArrayList<>(replicas);
+        order.sort(Comparator.comparingInt(node -> nodeLoadMap.getOrDefault(node, 0)));
+        order.addAll(fallback);
+        if (order.isEmpty()) return null;
+
+        Object lock = new Object();
+        BlockingQueue<Outcome<T>> outcomes = new LinkedBlockingQueue<>();
+        boolean[] decided = {false};
+        int launched = 0;
+        int finished = 0;
+        int hedges = 0;
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT_MS;
+        long hedgeDelay = hedged ? hedgeDelayMs() : Long.MAX_VALUE;
+
+        launch(order.get(launched++), attempt, outcomes, lock, decided, discard);
+        Outcome<T> winner = null;
+        try {
+            while (finished < launched) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                boolean canHedge = launched < order.size() && hedgeDelay != Long.MAX_VALUE;
+                Outcome<T> outcome = outcomes.poll(canHedge ? Math.min(hedgeDelay, remaining) : remaining,
+                        TimeUnit.MILLISECONDS);
+
+                if (outcome == null) {
+                    if (canHedge) {
+                        hedgesSent.incrementAndGet();
+                        hedges++;
+                        launch(order.get(launched++), attempt, outcomes, lock, decided, discard);
+                    }
+                    continue;
+                }
+                finished++;
+                if (outcome.result != null) {
+                    winner = outcome;
+                    break;
+                }
+                // Miss or failure: move on to the next node without waiting for the hedge timer
+                if (launched < order.size()) {
+                    launch(order.get(launched++), attempt, outcomes, lock, decided, discard);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            decided[0] = true;
+            for (Outcome<T> late : outcomes) {
+                if (late.result != null) release(late.nodeAddress, late.result, discard);
+            }
+            outcomes.clear();
+        }
+        if (winner == null) return null;
+
+        readLatency.recordSince(winner.startNanos);
+        if (hedges > 0 && !winner.nodeAddress.equals(order.get(0))) hedgesWon.incrementAndGet();
+        return winner.result;
+    }
+
+    private <T> void launch(String nodeAddress, Function<String, CompletableFuture<T>> attempt,
+                            BlockingQueue<Outcome<T>> outcomes, Object lock, boolean[] decided,
+                            Consumer<T> discard) {
+        nodeLoadMap.compute(nodeAddress, (k, v) -> v == null ? 1 : v + 1);
+        long startNanos = System.nanoTime();
+        attempt.apply(nodeAddress).whenComplete((result, error) -> {
+            T value = error == null ? result : null;
+            boolean keep = value instanceof DownloadSession;
+            synchronized (lock) {
+                if (!decided[0]) {
+                    outcomes.add(new Outcome<>(nodeAddress, value, startNanos));
+                    // Streams keep counting as load until they are released by the caller
+                    if (!keep) nodeLoadMap.computeIfPresent(nodeAddress, (k, v) -> v - 1);
+                    return;
+                }
+            }
+            // Answered after a winner was chosen
+            if (value != null) discard.accept(value);
+            nodeLoadMap.computeIfPresent(nodeAddress, (k, v) -> v - 1);
+        });
+    }
+
+    private <T> void release(String nodeAddress, T result, Consumer<T> discard) {
+        discard.accept(result);
+        if (result instanceof DownloadSession) {
+            nodeLoadMap.computeIfPresent(nodeAddress, (k, v) -> v - 1);
+        }
+    }
+}
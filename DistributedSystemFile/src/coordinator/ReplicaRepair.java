@@ -0,0 +1,171 @@
+package coordinator;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import utils.NodeProtocol;
+
+/**
+ * Reconciles the copies of one file across its replicas. Every replica reports its version
+ * and the newest one is pulled node to node by the replicas that are behind. A replica
+ * without a copy that remembers deleting the file after the newest write makes the delete
+ * win instead, and the remaining copies are removed.
+ */
+public class ReplicaRepair {
+    private static final long STAT_TIMEOUT_MS = 10_000;
+
+    private final NodeConnectionPool nodePool;
+    private final AtomicLong repairedReplicas = new AtomicLong();
+    private final AtomicLong repairedDeletes = new AtomicLong();
+
+    /** A replica's answer to "stat". */
+    static class Version {
+        final String nodeAddress;
+        final boolean present;
+        final long modifiedMillis;
+        final String checksum;
+        final String department;
+        final long version;
+        final long deletedMillis;
+
+        private Version(String nodeAddress, boolean present, long modifiedMillis, String checksum,
+                        String department, long version, long deletedMillis) {
+            this.nodeAddress = nodeAddress;
+            this.present = present;
+            this.modifiedMillis = modifiedMillis;
+            this.checksum = checksum;
+            this.department = department;
+            this.version = version;
+            this.deletedMillis = deletedMillis;
+        }
+
+        static Version read(String nodeAddress, DataInputStream response) {
+            try {
+                if (response.readLong() < 0) {
+                    return new Version(nodeAddress, false, 0, null, null, NodeProtocol.NO_VERSION, response.readLong());
+                }
+                long modifiedMillis = response.readLong();
+                String checksum = response.readUTF();
+                String department = response.readUTF();
+                return new Version(nodeAddress, true, modifiedMillis, checksum, department, response.readLong(), 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Same rule the nodes use to reconcile copies: higher version, then last writer, then checksum
+        boolean isNewerThan(Version other) {
+            if (version != other.version) return version > other.version;
+            if (modifiedMillis != other.modifiedMillis) return modifiedMillis > other.modifiedMillis;
+            return checksum.compareTo(other.checksum) > 0;
+        }
+
+        boolean isSameAs(Version other) {
+            return present && other.present && version == other.version && checksum.equals(other.checksum);
+        }
+    }
+
+    public ReplicaRepair(NodeConnectionPool nodePool) {
+        this.nodePool = nodePool;
+    }
+
+    CompletableFuture<Version> stat(String nodeAddress, String department, String filename) {
+        return nodePool.send(nodeAddress, "stat", department, filename, new byte[0])
+                .thenApply(response -> Version.read(nodeAddress, response));
+    }
+
+    /** The newest present version, or null if no replica has a copy. */
+    static Version newest(Collection<Version> versions) {
+        Version newest = null;
+        for (Version version : versions) {
+            if (version.present && (newest == null || version.isNewerThan(newest))) newest = version;
+        }
+        return newest;
+    }
+
+    /**
+     * Brings the given replicas of a file to the newest version among them. Returns false if
+     * a replica could not be reached or repaired, so the caller can try again later.
+     */
+    public boolean repair(String department, String filename, List<String> replicas) {
+        try {
+            return repairFrom(department, filename, statAll(department, filename, replicas));
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Same, from the replicas' answers to "stat" the caller already has. */
+    boolean repairFrom(String department, String filename, List<Version> versions) {
+        try {
+            Version newest = newest(versions);
+            if (newest == null) return true;
+
+            String fileDepartment = newest.department;
+            long deletedMillis = 0;
+            for (Version version : versions) {
+                if (version.present) continue;
+                // Tombstones are per department, which a lookup by name alone does not know yet
+                long deleted = department.equals(fileDepartment) ? version.deletedMillis
+                        : stat(version.nodeAddress, fileDepartment, filename)
+                                .get(STAT_TIMEOUT_MS, TimeUnit.MILLISECONDS).deletedMillis;
+                deletedMillis = Math.max(deletedMillis, deleted);
+            }
+
+            boolean repaired = true;
+            if (deletedMillis >= newest.modifiedMillis) {
+                for (Version version : versions) {
+                    if (!version.present) continue;
+                    String status = requestStatus(version.nodeAddress, "delete", fileDepartment, filename, new byte[0]);
+                    if ("Deleted".equals(status)) repairedDeletes.incrementAndGet();
+                    repaired &= "Deleted".equals(status) || "Not Found".equals(status);
+                }
+                return repaired;
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            new DataOutputStream(body).writeUTF(newest.nodeAddress);
+            for (Version version : versions) {
+                if (newest.isSameAs(version)) continue;
+                String status = requestStatus(version.nodeAddress, "repair", fileDepartment, filename, body.toByteArray());
+                if ("Repaired".equals(status)) {
+                    repairedReplicas.incrementAndGet();
+                    System.out.println("Repaired stale replica of " + filename + " on " + version.nodeAddress);
+                }
+                repaired &= "Repaired".equals(status) || "Current".equals(status);
+            }
+            return repaired;
+        } catch (IOException | ExecutionException | TimeoutException | UncheckedIOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public String report() {
+        return String.format("repair: replicas=%d deletes=%d", repairedReplicas.get(), repairedDeletes.get());
+    }
+
+    private List<Version> statAll(String department, String filename, List<String> replicas)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        List<CompletableFuture<Version>> stats = new ArrayList<>();
+        for (String nodeAddress : replicas) {
+            stats.add(stat(nodeAddress, department, filename));
+        }
+        List<Version> versions = new ArrayList<>();
+        for (CompletableFuture<Version> stat : stats) {
+            versions.add(stat.get(STAT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+        return versions;
+    }
+
+    private String requestStatus(String nodeAddress, String command, String department, String filename,
+                                 byte[] body) throws IOException {
+        return nodePool.request(nodeAddress, command, department, filename, body).readUTF();
+    }
+}
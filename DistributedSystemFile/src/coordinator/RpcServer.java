@@ -0,0 +1,267 @@
+package coordinator;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.RpcProtocol;
+import utils.ThreadPools;
+
+/**
+ * Serves the {@link ICoordinator} API over {@link RpcProtocol} next to the RMI binding.
+ * One selector thread does all socket I/O: it cuts complete frames out of what arrives,
+ * hands each call to a worker and writes responses back as the workers finish them, so
+ * a connection can have many calls in flight and a slow call does not hold up the rest.
+ *
+ * A connection with {@link #MAX_IN_FLIGHT} calls pending is not read from until some
+ * complete, which keeps a client that only sends from piling up work here. Requests are
+ * limited to {@link RpcProtocol#MAX_REQUEST_FRAME}, and a frame's buffer grows with the bytes
+ * that arrive rather than with the length it announces, since no token is checked before a
+ * whole frame is in.
+ */
+public class RpcServer implements Runnable {
+    private static final int MAX_IN_FLIGHT = 256;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte SIGN_IN = (byte) RpcProtocol.METHODS.indexOf("signIn");
+
+    private final ICoordinator coordinator;
+    private final int port;
+    private final Method[] methods;
+    private final ExecutorService workers = Optional.ofNullable(ThreadPools.newVirtualThreadExecutor())
+            .orElseGet(() -> ThreadPools.newBoundedPool("rpc-worker", 64, 4096));
+    private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+    public RpcServer(ICoordinator coordinator, int port) {
+        this.coordinator = coordinator;
+        this.port = port;
+        this.methods = new Method[RpcProtocol.METHODS.size()];
+        for (Method method : ICoordinator.class.getMethods()) {
+            int id = RpcProtocol.METHODS.indexOf(method.getName());
+            if (id >= 0) methods[id] = method;
+        }
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             Selector selector = Selector.open()) {
+            this.selector = selector;
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true) {
+                selector.select(key -> onReady(key, serverChannel));
+                Connection connection;
+                while ((connection = changed.poll()) != null) {
+                    connection.updateInterest();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("RPC server stopped: " + e.getMessage());
+        }
+    }
+
+    private void onReady(SelectionKey key, ServerSocketChannel serverChannel) {
+        try {
+            if (key.isAcceptable()) {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                }
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) connection.read();
+            if (key.isValid() && key.isWritable()) connection.write();
+            if (key.isValid()) connection.updateInterest();
+        } catch (IOException | CancelledKeyException e) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) ((Connection) attachment).close();
+        }
+    }
+
+    /** Runs one call on a worker thread and returns the response frame. */
+    private ByteBuffer invoke(byte[] frame) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int callId = in.readInt();
+            out.writeInt(0); // frame length, filled in below
+            out.writeInt(callId);
+            try {
+                int methodId = in.readUnsignedByte();
+                Method method = methodId < methods.length ? methods[methodId] : null;
+                int argCount = in.readUnsignedByte();
+                if (method == null || argCount != method.getParameterCount()) {
+                    throw new IOException("Unknown method " + methodId + " with " + argCount + " arguments");
+                }
+                Object[] args = new Object[argCount];
+                for (int i = 0; i < argCount; i++) {
+                    args[i] = RpcProtocol.readValue(in);
+                }
+                Object result = method.invoke(coordinator, args);
+                out.writeByte(RpcProtocol.STATUS_OK);
+                RpcProtocol.writeValue(out, result);
+            } catch (Exception e) {
+                Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+                bytes.reset();
+                out.writeInt(0);
+                out.writeInt(callId);
+                out.writeByte(RpcProtocol.STATUS_ERROR);
+                out.writeUTF(String.valueOf(cause.getMessage()));
+                System.err.println("RPC call failed: " + cause);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // only a truncated call id gets here
+        }
+        ByteBuffer response = ByteBuffer.wrap(bytes.toByteArray());
+        response.putInt(0, response.capacity() - 4);
+        return response;
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Queue<ByteBuffer> responses = new ArrayDeque<>(); // guarded by this
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private ByteBuffer partialFrame; // a frame larger than the read buffer, being filled
+        private int partialLength;
+        private SelectionKey key;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(input);
+            if (read < 0) {
+                close();
+                return;
+            }
+            input.flip();
+            while (true) {
+                if (partialFrame != null) {
+                    int length = Math.min(input.remaining(), partialLength - partialFrame.position());
+                    if (partialFrame.remaining() < length) {
+                        int capacity = Math.max(partialFrame.capacity() * 2, partialFrame.position() + length);
+                        ByteBuffer grown = ByteBuffer.allocate(Math.min(capacity, partialLength));
+                        grown.put(partialFrame.flip());
+                        partialFrame = grown;
+                    }
+                    partialFrame.put(partialFrame.position(), input, input.position(), length);
+                    partialFrame.position(partialFrame.position() + length);
+                    input.position(input.position() + length);
+                    if (partialFrame.position() < partialLength) break;
+                    dispatch(partialFrame.array());
+                    partialFrame = null;
+                }
+                if (input.remaining() < 4) break;
+                int length = input.getInt(input.position());
+                if (length < 5 || length > RpcProtocol.MAX_REQUEST_FRAME) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (input.remaining() - 4 >= length) {
+                    input.position(input.position() + 4);
+                    byte[] frame = new byte[length];
+                    input.get(frame);
+                    dispatch(frame);
+                } else if (length + 4 > input.capacity()) {
+                    input.position(input.position() + 4);
+                    partialFrame = ByteBuffer.allocate(input.capacity());
+                    partialLength = length;
+                } else {
+                    break; // the rest of the frame fits once more arrives
+                }
+            }
+            input.compact();
+        }
+
+        private void dispatch(byte[] frame) {
+            inFlight.incrementAndGet();
+            Runnable call = () -> {
+                ByteBuffer response;
+                try {
+                    response = invoke(frame);
+                } catch (RuntimeException e) {
+                    System.err.println("Dropping malformed RPC call: " + e.getMessage());
+                    close();
+                    return;
+                }
+                // Exactly one worker sees the count drop below the limit and resumes reading
+                respond(response, inFlight.decrementAndGet() == MAX_IN_FLIGHT - 1);
+            };
+            if (frame.length > 4 && frame[4] == SIGN_IN) {
+                call.run(); // answered from memory, not worth a thread hand-off
+            } else {
+                workers.execute(call);
+            }
+        }
+
+        // The worker writes its response itself when nothing is queued ahead of it; the selector
+        // thread only steps in when the socket cannot take it all at once
+        private void respond(ByteBuffer response, boolean resumeReading) {
+            synchronized (this) {
+                if (responses.isEmpty()) {
+                    try {
+                        channel.write(response);
+                    } catch (IOException e) {
+                        close();
+                        return;
+                    }
+                    if (!response.hasRemaining()) {
+                        if (!resumeReading) return;
+                        response = null;
+                    }
+                }
+                if (response != null) responses.add(response);
+            }
+            changed.add(this);
+            selector.wakeup();
+        }
+
+        synchronized void write() throws IOException {
+            ByteBuffer response;
+            while ((response = responses.peek()) != null) {
+                channel.write(response);
+                if (response.hasRemaining()) return; // socket buffer full, wait for OP_WRITE
+                responses.poll();
+            }
+        }
+
+        // Called on the selector thread only
+        void updateInterest() {
+            if (!key.isValid()) return;
+            try {
+                if (!responses.isEmpty()) write();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            int ops;
+            synchronized (this) {
+                ops = responses.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+            }
+            if (inFlight.get() < MAX_IN_FLIGHT) ops |= SelectionKey.OP_READ;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
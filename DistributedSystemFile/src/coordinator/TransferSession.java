@@ -0,0 +1,28 @@
+package coordinator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+
+/** Base for the upload/download sessions the coordinator keeps between RMI calls. */
+public abstract class TransferSession implements Closeable {
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    protected void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public boolean isIdleFor(long millis) {
+        return System.currentTimeMillis() - lastAccess > millis;
+    }
+
+    protected static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public abstract void close();
+}
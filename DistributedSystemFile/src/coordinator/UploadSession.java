@@ -0,0 +1,235 @@
+package coordinator;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import utils.ChunkedTransfer;
+import utils.NodeProtocol;
+
+/**
+ * A streamed upload written to every replica in parallel. Each replica has its own
+ * writer and a short queue of chunks, so the coordinator holds at most a few chunks
+ * per replica and a slow node does not slow down the others until its queue fills.
+ * A replica that stays full past the stall timeout is dropped from the write.
+ *
+ * The session counts the bytes it has taken, so a client that lost a reply can ask where to
+ * continue and resend from there ({@link #writeAt}).
+ */
+public class UploadSession extends TransferSession {
+    private static final int REPLICA_QUEUE_DEPTH = 4;
+    private static final long REPLICA_STALL_TIMEOUT_MS = 30_000;
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+
+    private static final Chunk END = new Chunk(new byte[0], 0, 0);
+    private static final Chunk ABORT = new Chunk(new byte[0], 0, 0);
+
+    private final String department;
+    private final String filename;
+    private final long version;
+    private final long expectedVersion;
+    private final QuorumWrite quorumWrite;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final int quorum;
+    private long received;
+    private boolean finished;
+
+    private static class Chunk {
+        final byte[] data;
+        final int offset;
+        final int length;
+
+        Chunk(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private class Replica implements Runnable {
+        final String nodeAddress;
+        final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(REPLICA_QUEUE_DEPTH);
+        final CompletableFuture<Boolean> connected = new CompletableFuture<>();
+        final CompletableFuture<Boolean> stored = new CompletableFuture<>();
+        volatile Socket socket;
+        volatile boolean failed;
+
+        Replica(String nodeAddress) {
+            this.nodeAddress = nodeAddress;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = CoordinatorService.openNodeSocket(nodeAddress)) {
+                this.socket = socket;
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                out.writeUTF("upload");
+                out.writeUTF(department);
+                out.writeUTF(filename);
+                out.writeLong(version);
+                out.writeLong(expectedVersion);
+                connected.complete(true);
+
+                while (true) {
+                    Chunk chunk = queue.poll(1, TimeUnit.SECONDS);
+                    if (chunk == null) {
+                        if (failed) return; // dropped from the write while idle
+                        continue;
+                    }
+                    if (chunk == ABORT) {
+                        ChunkedTransfer.writeAbort(out);
+                        stored.complete(false);
+                        return;
+                    }
+                    if (chunk == END) {
+                        ChunkedTransfer.writeEnd(out);
+                        String status = in.readUTF();
+                        boolean ok = "OK".equals(status);
+                        if (ok) System.out.println("File saved to node: " + nodeAddress);
+                        if ("VersionMismatch".equals(status)) System.out.println("Version changed on node: " + nodeAddress);
+                        stored.complete(ok);
+                        return;
+                    }
+                    ChunkedTransfer.writeChunk(out, chunk.data, chunk.offset, chunk.length);
+                }
+            } catch (IOException e) {
+                System.out.println((connected.isDone() ? "Lost node during upload: " : "Node unreachable: ") + nodeAddress);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                failed = true;
+                connected.complete(false);
+                stored.complete(false);
+            }
+        }
+
+        boolean offer(Chunk chunk) throws InterruptedException {
+            if (failed) return false;
+            if (queue.offer(chunk, REPLICA_STALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return true;
+            System.out.println("Dropping stalled replica from upload: " + nodeAddress);
+            failed = true;
+            Socket current = socket;
+            if (current != null) closeQuietly(current); // unblocks the writer
+            return false;
+        }
+    }
+
+    /**
+     * Every replica stores the file as {@code version}; with an {@code expectedVersion} other than
+     * {@link NodeProtocol#ANY_VERSION} only if its current version is the expected one.
+     */
+    public UploadSession(String department, String filename, long version, long expectedVersion,
+                         List<String> nodes, int quorum, QuorumWrite quorumWrite, ExecutorService replicaWriters) {
+        this.department = department;
+        this.filename = filename;
+        this.version = version;
+        this.expectedVersion = expectedVersion;
+        this.quorum = quorum;
+        this.quorumWrite = quorumWrite;
+
+        for (String nodeAddress : nodes) {
+            Replica replica = new Replica(nodeAddress);
+            replicas.add(replica);
+            replicaWriters.execute(replica);
+        }
+        // Connect to all replicas in parallel before the first chunk arrives
+        for (Replica replica : replicas) {
+            try {
+                replica.connected.get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                replica.failed = true;
+            }
+        }
+    }
+
+    public String getFilename() { return filename; }
+    public String getDepartment() { return department; }
+    public boolean isConditional() { return expectedVersion != NodeProtocol.ANY_VERSION; }
+
+    /** Completes per replica with whether it stored the file. */
+    public Map<String, CompletableFuture<Boolean>> getReplicaWrites() {
+        Map<String, CompletableFuture<Boolean>> writes = new LinkedHashMap<>();
+        for (Replica replica : replicas) {
+            writes.put(replica.nodeAddress, replica.stored);
+        }
+        return writes;
+    }
+
+    /** True while enough replicas are still attached to reach quorum on finish. */
+    public synchronized boolean isViable() {
+        return replicas.stream().filter(r -> !r.failed).count() >= quorum;
+    }
+
+    public synchronized boolean write(byte[] chunk, int offset, int length) {
+        touch();
+        if (length == 0) return isViable();
+
+        Chunk frame = new Chunk(chunk, offset, length);
+        try {
+            for (Replica replica : replicas) {
+                replica.offer(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        received += length;
+        return isViable();
+    }
+
+    /**
+     * Writes the part of {@code chunk}, which starts at {@code fileOffset} of the file, that the
+     * session does not have yet. A chunk past the end of what it has is not taken. Returns the
+     * number of bytes taken so far, or -1 once the write can no longer reach quorum.
+     */
+    public synchronized long writeAt(long fileOffset, byte[] chunk) {
+        touch();
+        if (fileOffset <= received && fileOffset + chunk.length > received) {
+            int skip = (int) (received - fileOffset);
+            if (!write(chunk, skip, chunk.length - skip)) return -1;
+        }
+        return isViable() ? received : -1;
+    }
+
+    /** Bytes of the file taken so far. */
+    public synchronized long getReceived() {
+        touch();
+        return received;
+    }
+
+    /**
+     * Ends the stream on every replica and returns as soon as a quorum stored the file;
+     * replicas still draining their queue finish in the background.
+     */
+    public synchronized boolean finish() {
+        touch();
+        finished = true;
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        try {
+            for (Replica replica : replicas) {
+                replica.offer(END);
+                writes.add(replica.stored);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return quorumWrite.await(writes);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (finished) return; // lagging replicas are allowed to complete
+        finished = true;
+        for (Replica replica : replicas) {
+            if (!replica.failed && !replica.queue.offer(ABORT)) {
+                Socket current = replica.socket;
+                if (current != null) closeQuietly(current);
+            }
+        }
+        System.out.println("Upload aborted: " + department + "/" + filename);
+    }
+}
@@ -0,0 +1,196 @@
+package node;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Append-only log of the uploads and deletes applied on this node, numbered by sequence.
+ * Peers tail it from their last sequence to pick up writes within seconds.
+ *
+ * Only the most recent changes are retained; a peer that falls further behind, or that
+ * tails a log with a different epoch (the log was recreated), has to fall back to a full
+ * anti-entropy round. The file is compacted down to the retained changes as it grows.
+ * Deletes in the retained window double as tombstones, so a missing file can be told apart
+ * from one that was deleted.
+ */
+public class ChangeLog {
+    public static final byte PUT = 1;
+    public static final byte DELETE = 2;
+
+    public static class Change {
+        private final long sequence;
+        private final byte operation;
+        private final String department;
+        private final String filename;
+        private final long modifiedMillis;
+        private final String checksum;
+        private final long version;
+
+        public Change(long sequence, byte operation, String department, String filename,
+                      long modifiedMillis, String checksum, long version) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.department = department;
+            this.filename = filename;
+            this.modifiedMillis = modifiedMillis;
+            this.checksum = checksum;
+            this.version = version;
+        }
+
+        public long getSequence() { return sequence; }
+        public byte getOperation() { return operation; }
+        public String getDepartment() { return department; }
+        public String getFilename() { return filename; }
+        public long getModifiedMillis() { return modifiedMillis; }
+        public String getChecksum() { return checksum; }
+        public long getVersion() { return version; }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(sequence);
+            out.writeByte(operation);
+            out.writeUTF(department);
+            out.writeUTF(filename);
+            out.writeLong(modifiedMillis);
+            out.writeUTF(checksum);
+            out.writeLong(version);
+        }
+
+        public static Change readFrom(DataInputStream in) throws IOException {
+            return new Change(in.readLong(), in.readByte(), in.readUTF(), in.readUTF(), in.readLong(), in.readUTF(),
+                    in.readLong());
+        }
+    }
+
+    private final File file;
+    private final int retained;
+    private final ArrayDeque<Change> recent = new ArrayDeque<>();
+    private final Map<String, Change> tombstones = new HashMap<>(); // department/filename -> last delete
+    private long epoch;
+    private long lastSequence;
+    private int recordsInFile;
+    private DataOutputStream out;
+
+    public ChangeLog(File file, int retained) {
+        this.file = file;
+        this.retained = retained;
+    }
+
+    /** Loads the existing log, or starts a new epoch if there is none. */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                epoch = in.readLong();
+                while (true) {
+                    Change change;
+                    try {
+                        change = Change.readFrom(in);
+                    } catch (EOFException e) {
+                        break; // end of log, or a record torn by a crash
+                    }
+                    remember(change);
+                }
+            } catch (EOFException e) {
+                epoch = 0; // header missing
+            }
+        }
+        if (epoch == 0) {
+            epoch = new Random().nextLong() & Long.MAX_VALUE | 1;
+        }
+        compact();
+    }
+
+    public synchronized long getEpoch() { return epoch; }
+    public synchronized long getLastSequence() { return lastSequence; }
+
+    /** When the file was last deleted, or 0 if no delete is retained. */
+    public synchronized long deletedAt(String department, String filename) {
+        Change delete = tombstones.get(department + "/" + filename);
+        return delete == null ? 0 : delete.getModifiedMillis();
+    }
+
+    public void recordPut(NamespaceIndex.FileEntry entry) {
+        append(PUT, entry.getDepartment(), entry.getFilename(), entry.getModifiedMillis(), entry.getChecksum(),
+                entry.getVersion());
+    }
+
+    public void recordDelete(String department, String filename, long deletedMillis) {
+        append(DELETE, department, filename, deletedMillis, "", 0);
+    }
+
+    private synchronized void append(byte operation, String department, String filename,
+                                     long modifiedMillis, String checksum, long version) {
+        Change change = new Change(++lastSequence, operation, department, filename, modifiedMillis, checksum, version);
+        remember(change);
+        try {
+            change.writeTo(out);
+            out.flush();
+            if (++recordsInFile > 2 * retained) compact();
+        } catch (IOException e) {
+            // Peers still see the change from memory; it is only lost if this node restarts
+            System.err.println("Failed to append to change log " + file + ": " + e.getMessage());
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns up to {@code max} changes after {@code afterSequence}, waiting up to
+     * {@code waitMillis} for one to arrive. Returns null when the caller cannot catch up
+     * from the log: the epoch differs or the changes it needs were already dropped.
+     */
+    public synchronized List<Change> readAfter(long callerEpoch, long afterSequence, int max, long waitMillis)
+            throws InterruptedException {
+        if (callerEpoch != epoch || afterSequence > lastSequence) return null;
+        if (!recent.isEmpty() && afterSequence < recent.peekFirst().getSequence() - 1) return null;
+        if (recent.isEmpty() && afterSequence < lastSequence) return null;
+
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (lastSequence == afterSequence) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return Collections.emptyList();
+            wait(remaining);
+        }
+
+        List<Change> changes = new ArrayList<>();
+        for (Change change : recent) {
+            if (change.getSequence() <= afterSequence) continue;
+            changes.add(change);
+            if (changes.size() == max) break;
+        }
+        return changes;
+    }
+
+    private void remember(Change change) {
+        recent.addLast(change);
+        lastSequence = change.getSequence();
+        String key = change.getDepartment() + "/" + change.getFilename();
+        if (change.getOperation() == DELETE) {
+            tombstones.put(key, change);
+        } else {
+            tombstones.remove(key);
+        }
+        while (recent.size() > retained) {
+            Change dropped = recent.removeFirst();
+            tombstones.remove(dropped.getDepartment() + "/" + dropped.getFilename(), dropped);
+        }
+    }
+
+    /** Rewrites the file with only the retained changes and reopens it for appending. */
+    private void compact() throws IOException {
+        if (out != null) out.close();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream compacted = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            compacted.writeLong(epoch);
+            for (Change change : recent) {
+                change.writeTo(compacted);
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordsInFile = recent.size();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+}
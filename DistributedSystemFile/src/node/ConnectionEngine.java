@@ -0,0 +1,27 @@
+package node;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.function.Function;
+
+/**
+ * Strategy for accepting node connections and running a handler for each one.
+ * Selected with -Dnode.engine=selector|virtual, see {@link #create(String, int)}.
+ */
+public interface ConnectionEngine {
+
+    /** Serves connections from the bound channel until it is closed. Blocks the caller. */
+    void serve(ServerSocketChannel serverChannel, Function<Socket, Runnable> handlerFactory) throws IOException;
+
+    static ConnectionEngine create(String name, int maxConcurrentRequests) {
+        switch (name) {
+            case "virtual":
+                return new VirtualThreadEngine(maxConcurrentRequests);
+            case "selector":
+                return new SelectorEngine(maxConcurrentRequests);
+            default:
+                throw new IllegalArgumentException("Unknown connection engine: " + name);
+        }
+    }
+}
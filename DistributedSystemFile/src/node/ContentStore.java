@@ -0,0 +1,169 @@
+package node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import utils.Checksums;
+
+/**
+ * Content-addressed storage behind the department directories. Every distinct content is
+ * kept once as a blob named by its SHA-256 under a hidden directory, and each department
+ * file is a hard link to its blob, so identical files across departments share disk space
+ * while reads still see ordinary contiguous files (sendfile and mmap keep working).
+ *
+ * Blobs are reference counted by the index entries that point at them and are removed
+ * when the last one goes. On file systems without hard links files are stored as plain
+ * copies, as before.
+ */
+public class ContentStore {
+    private final File blobDir;
+    private final Map<String, Integer> references = new HashMap<>();
+    private boolean linksSupported;
+
+    public ContentStore(File blobDir) {
+        this.blobDir = blobDir;
+    }
+
+    /**
+     * Links every indexed file to its blob, replacing duplicate copies by links, and drops
+     * blobs nothing refers to. Called once at startup, before the node serves requests.
+     */
+    public synchronized int adopt(NamespaceIndex namespace) throws IOException {
+        linksSupported = probeLinks();
+        if (!linksSupported) {
+            System.out.println("  - Hard links not supported, files are stored without deduplication");
+            return 0;
+        }
+
+        int shared = 0;
+        for (String department : namespace.getDepartments()) {
+            for (NamespaceIndex.FileEntry entry : namespace.list(department)) {
+                File file = namespace.fileOf(entry);
+                File blob = blobOf(entry.getChecksum());
+                if (!blob.exists()) {
+                    Files.createDirectories(blob.getParentFile().toPath());
+                    Files.createLink(blob.toPath(), file.toPath());
+                } else if (!Files.isSameFile(blob.toPath(), file.toPath())) {
+                    linkInto(blob, file);
+                    shared++;
+                }
+                retain(entry.getChecksum());
+            }
+        }
+
+        File[] prefixes = blobDir.listFiles(File::isDirectory);
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                File[] blobs = prefix.listFiles();
+                if (blobs == null) continue;
+                for (File blob : blobs) {
+                    if (!references.containsKey(blob.getName())) blob.delete();
+                }
+            }
+        }
+        return shared;
+    }
+
+    /** Whether content with this checksum is already stored here. */
+    public synchronized boolean contains(String checksum) {
+        return linksSupported && Checksums.isChecksum(checksum) && blobOf(checksum).exists();
+    }
+
+    /** Size of the stored content with this checksum, or -1 if it is not stored. */
+    public synchronized long sizeOf(String checksum) {
+        if (!linksSupported || !Checksums.isChecksum(checksum)) return -1;
+        File blob = blobOf(checksum);
+        return blob.exists() ? blob.length() : -1;
+    }
+
+    /**
+     * Puts freshly written content in place at {@code target}. If the same content is already
+     * stored the temp file is dropped and the target just links to the existing blob.
+     * Caller holds the target's file lock.
+     */
+    public synchronized void install(File tempFile, File target, String checksum) throws IOException {
+        if (!linksSupported) {
+            Files.move(tempFile.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        File blob = blobOf(checksum);
+        if (blob.exists()) {
+            tempFile.delete();
+        } else {
+            Files.createDirectories(blob.getParentFile().toPath());
+            Files.move(tempFile.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        linkInto(blob, target);
+    }
+
+    /** Links {@code target} to stored content without any transfer; false if it is not stored. */
+    public synchronized boolean installExisting(File target, String checksum) throws IOException {
+        if (!contains(checksum)) return false;
+        linkInto(blobOf(checksum), target);
+        return true;
+    }
+
+    /**
+     * Sets the file's modification time. Linked copies share it, so a shared blob only
+     * ever moves forward in time.
+     */
+    public synchronized void stamp(File target, String checksum, long modifiedMillis) {
+        if (references.getOrDefault(checksum, 0) <= 1 || target.lastModified() < modifiedMillis) {
+            target.setLastModified(modifiedMillis);
+        }
+    }
+
+    public synchronized void retain(String checksum) {
+        if (linksSupported) references.merge(checksum, 1, Integer::sum);
+    }
+
+    public synchronized void release(String checksum) {
+        if (!linksSupported) return;
+        Integer remaining = references.computeIfPresent(checksum, (k, count) -> count > 1 ? count - 1 : null);
+        if (remaining == null) blobOf(checksum).delete();
+    }
+
+    public synchronized int getBlobCount() {
+        return references.size();
+    }
+
+    // Checksums also arrive in requests, so one that is not hex never becomes a path
+    private File blobOf(String checksum) {
+        if (!Checksums.isChecksum(checksum)) throw new IllegalArgumentException("Not a checksum: " + checksum);
+        return new File(new File(blobDir, checksum.substring(0, 2)), checksum);
+    }
+
+    // Replaces target with a link to blob in one atomic rename
+    private void linkInto(File blob, File target) throws IOException {
+        if (target.exists() && Files.isSameFile(target.toPath(), blob.toPath())) return;
+        File link = new File(target.getParentFile(), "." + target.getName() + "." + UUID.randomUUID() + ".link");
+        Files.createLink(link.toPath(), blob.toPath());
+        try {
+            Files.move(link.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            link.delete();
+            throw e;
+        }
+    }
+
+    private boolean probeLinks() {
+        File probe = new File(blobDir, ".probe");
+        File probeLink = new File(blobDir, ".probe.link");
+        try {
+            Files.createDirectories(blobDir.toPath());
+            probe.createNewFile();
+            Files.createLink(probeLink.toPath(), probe.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        } finally {
+            probeLink.delete();
+            probe.delete();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package node;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import utils.LatencyHistogram;
+
+/**
+ * Per-file reader-writer locks of one node. Reads of a file share its lock and only writes
+ * exclude each other and readers. Entries are reference counted and dropped when the last
+ * holder lets go, so the table only holds files that are being accessed right now.
+ *
+ * Taking the lock of a file nobody is using inserts its entry and releasing it removes it
+ * again; a file already in use only costs a count update. Time spent waiting for a held lock
+ * is recorded per mode. Callers release in a finally block, as with any {@link Lock}.
+ */
+public class FileLocks {
+    /** A held lock. */
+    public interface Held {
+        void release();
+    }
+
+    private static class Entry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final AtomicInteger users = new AtomicInteger(1); // -1 once removed from the table
+
+        boolean retain() {
+            while (true) {
+                int current = users.get();
+                if (current <= 0) return false;
+                if (users.compareAndSet(current, current + 1)) return true;
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LatencyHistogram readWaits = new LatencyHistogram("lock.readWait");
+    private final LatencyHistogram writeWaits = new LatencyHistogram("lock.writeWait");
+    private final LongAdder readsAcquired = new LongAdder();
+    private final LongAdder writesAcquired = new LongAdder();
+
+    public Held read(String department, String filename) {
+        return acquire(department + "/" + filename, false);
+    }
+
+    public Held write(String department, String filename) {
+        return acquire(department + "/" + filename, true);
+    }
+
+    private Held acquire(String key, boolean exclusive) {
+        Entry entry = retainEntry(key);
+        Lock lock = exclusive ? entry.lock.writeLock() : entry.lock.readLock();
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            (exclusive ? writeWaits : readWaits).recordSince(start);
+        }
+        (exclusive ? writesAcquired : readsAcquired).increment();
+        return () -> {
+            lock.unlock();
+            if (entry.users.decrementAndGet() == 0 && entry.users.compareAndSet(0, -1)) {
+                entries.remove(key, entry);
+            }
+        };
+    }
+
+    private Entry retainEntry(String key) {
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                Entry created = new Entry();
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) return created;
+            }
+            if (entry.retain()) return entry;
+            entries.remove(key, entry); // released by its last holder, not yet removed
+        }
+    }
+
+    public String report() {
+        return String.format("locks: held=%d reads=%d writes=%d%n  %s%n  %s",
+                entries.size(), readsAcquired.sum(), writesAcquired.sum(), readWaits, writeWaits);
+    }
+}
@@ -0,0 +1,108 @@
+package node;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-local tier for popular files, keyed by "department/filename" and bounded by a
+ * byte budget. A file is admitted on its second read; after that it is served from a
+ * read-only memory mapping (or an off-heap copy on Windows, where a mapped file cannot
+ * be replaced) without opening, locking or reading the file again.
+ *
+ * Callers hold the file's read lock around {@link #load} and its write lock around
+ * {@link #invalidate} so a reader cannot install a mapping of a file that an upload has
+ * just replaced.
+ */
+public class HotFileCache {
+    private static final boolean MAP_FILES = !System.getProperty("os.name", "").startsWith("Windows");
+    private static final int MAX_DOORKEEPER_ENTRIES = 10_000;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Boolean> seenOnce = new ConcurrentHashMap<>();
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public HotFileCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+    }
+
+    public static String key(String department, String filename) {
+        return department + "/" + filename;
+    }
+
+    /** Returns a private view of the cached contents, or null. */
+    public ByteBuffer get(String key) {
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = entries.get(key);
+        }
+        if (buffer == null) return null;
+        hits.incrementAndGet();
+        return buffer.duplicate();
+    }
+
+    /**
+     * Caches the open file if it has been read before and fits the budget.
+     * Returns a private view of the new entry, or null if the file was not admitted.
+     */
+    public ByteBuffer load(String key, FileChannel channel, long size) throws IOException {
+        if (maxBytes <= 0 || size > maxEntryBytes) return null;
+        if (seenOnce.remove(key) == null) {
+            if (seenOnce.size() >= MAX_DOORKEEPER_ENTRIES) seenOnce.clear();
+            seenOnce.put(key, Boolean.TRUE);
+            return null;
+        }
+
+        ByteBuffer buffer;
+        if (MAP_FILES) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } else {
+            buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+                // keep reading until full
+            }
+            buffer.flip();
+        }
+        loads.incrementAndGet();
+
+        synchronized (this) {
+            ByteBuffer previous = entries.put(key, buffer);
+            if (previous != null) currentBytes -= previous.capacity();
+            currentBytes += buffer.capacity();
+
+            // Evicted mappings are released by the GC once no reader holds a view of them
+            Iterator<Map.Entry<String, ByteBuffer>> eldest = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, ByteBuffer> entry = eldest.next();
+                if (entry.getKey().equals(key)) continue;
+                currentBytes -= entry.getValue().capacity();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return buffer.duplicate();
+    }
+
+    public void invalidate(String key) {
+        seenOnce.remove(key);
+        synchronized (this) {
+            ByteBuffer removed = entries.remove(key);
+            if (removed != null) currentBytes -= removed.capacity();
+        }
+    }
+
+    public synchronized String report() {
+        return String.format("hot files: entries=%d bytes=%d/%d hits=%d loads=%d evictions=%d",
+                entries.size(), currentBytes, maxBytes, hits.get(), loads.get(), evictions.get());
+    }
+}
@@ -0,0 +1,86 @@
+package node;
+
+import coordinator.IMembership;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one node registered with the coordinator: joins on start, heartbeats at a fixed
+ * rate and leaves on shutdown. Every answer carries the member list; when it changes the
+ * callback re-places files on the new ring and adjusts replication to the new peers.
+ */
+public class MembershipAgent {
+    private static final String COORDINATOR_HOST = System.getProperty("node.coordinatorHost", "localhost");
+    private static final int COORDINATOR_PORT = Integer.getInteger("node.coordinatorPort", 1099);
+    private static final long HEARTBEAT_MS = Long.getLong("node.heartbeatMillis", 1000);
+
+    private final NodeContext context;
+    private final Consumer<List<String>> onMembersChanged;
+    private final ScheduledExecutorService heartbeats;
+    private IMembership membership;
+    private boolean joined;
+    private boolean reachable = true;
+    private List<String> members;
+
+    public MembershipAgent(NodeContext context, Consumer<List<String>> onMembersChanged) {
+        this.context = context;
+        this.onMembersChanged = onMembersChanged;
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "heartbeat-" + context.getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        heartbeats.scheduleAtFixedRate(this::beat, 0, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Deregisters so the coordinator moves this node's files to the remaining members. */
+    public void leave() {
+        heartbeats.shutdownNow();
+        try {
+            if (membership == null) membership = lookup();
+            membership.leave(context.getAddress());
+            System.out.printf("👋 [Node %d] Left the cluster\n", context.getPort());
+        } catch (RemoteException | NotBoundException e) {
+            System.err.printf("⚠️ [Node %d] Could not leave the cluster: %s\n", context.getPort(), e.getMessage());
+        }
+    }
+
+    private void beat() {
+        try {
+            if (membership == null) membership = lookup();
+            List<String> current = joined ? membership.heartbeat(context.getAddress())
+                    : membership.join(context.getAddress());
+            if (!joined) System.out.printf("🤝 [Node %d] Joined the cluster\n", context.getPort());
+            joined = true;
+            reachable = true;
+            if (!current.equals(members)) {
+                members = current;
+                onMembersChanged.accept(current);
+            }
+        } catch (RemoteException | NotBoundException e) {
+            if (reachable) {
+                System.err.printf("⚠️ [Node %d] Coordinator unreachable, retrying: %s\n",
+                        context.getPort(), e.getMessage());
+            }
+            reachable = false;
+            membership = null;
+            joined = false;
+        } catch (RuntimeException e) {
+            System.err.printf("❌ [Node %d] Membership update failed: %s\n", context.getPort(), e);
+        }
+    }
+
+    private static IMembership lookup() throws RemoteException, NotBoundException {
+        return (IMembership) LocateRegistry.getRegistry(COORDINATOR_HOST, COORDINATOR_PORT)
+                .lookup("CoordinatorMembership");
+    }
+}
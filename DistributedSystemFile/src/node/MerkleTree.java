@@ -0,0 +1,80 @@
+package node;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import utils.Checksums;
+
+/**
+ * Hash tree over one department's files for anti-entropy. Files fall into a fixed set of
+ * buckets by name; a bucket's hash covers the names and content checksums it holds, and
+ * the root covers all bucket hashes. Two nodes with equal roots hold the same files, and
+ * comparing bucket hashes narrows a difference down to a handful of files.
+ *
+ * Bucket hashes are recomputed lazily, only for buckets that changed since the last call.
+ */
+public class MerkleTree {
+    public static final int BUCKETS = 256;
+    public static final int HASH_BYTES = 32;
+
+    private final List<TreeMap<String, String>> buckets = new ArrayList<>(BUCKETS);
+    private final byte[][] bucketHashes = new byte[BUCKETS][];
+    private byte[] root;
+
+    public MerkleTree() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.add(new TreeMap<>());
+        }
+    }
+
+    public static int bucketOf(String filename) {
+        return (filename.hashCode() & 0x7fffffff) % BUCKETS;
+    }
+
+    public synchronized void put(String filename, String checksum) {
+        int bucket = bucketOf(filename);
+        buckets.get(bucket).put(filename, checksum);
+        bucketHashes[bucket] = null;
+        root = null;
+    }
+
+    public synchronized void remove(String filename) {
+        int bucket = bucketOf(filename);
+        if (buckets.get(bucket).remove(filename) != null) {
+            bucketHashes[bucket] = null;
+            root = null;
+        }
+    }
+
+    public synchronized byte[] root() {
+        if (root == null) {
+            MessageDigest digest = Checksums.newDigest();
+            for (byte[] leaf : leaves()) {
+                digest.update(leaf);
+            }
+            root = digest.digest();
+        }
+        return root.clone();
+    }
+
+    public synchronized byte[][] leaves() {
+        byte[][] result = new byte[BUCKETS][];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (bucketHashes[bucket] == null) {
+                MessageDigest digest = Checksums.newDigest();
+                for (Map.Entry<String, String> file : buckets.get(bucket).entrySet()) {
+                    digest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                    digest.update(file.getValue().getBytes(StandardCharsets.US_ASCII));
+                }
+                bucketHashes[bucket] = digest.digest();
+            }
+            result[bucket] = bucketHashes[bucket];
+        }
+        return result;
+    }
+
+    public synchronized List<String> filenamesIn(int bucket) {
+        return new ArrayList<>(buckets.get(bucket).keySet());
+    }
+}
@@ -0,0 +1,213 @@
+package node;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import utils.Checksums;
+
+/**
+ * In-memory view of what a node stores: department, filename, size, modification time,
+ * SHA-256 checksum and version of every file. It is built from disk once at startup and then
+ * kept current by uploads, deletes and sync, so lookups never scan directories. Versions
+ * are kept on disk in small sidecar files under the metadata directory.
+ *
+ * Reads are lock-free. Callers update it while holding the file's lock so the index
+ * and the disk change together.
+ */
+public class NamespaceIndex {
+
+    public static class FileEntry {
+        private final String department;
+        private final String filename;
+        private final long size;
+        private final long modifiedMillis;
+        private final String checksum;
+        private final long version;
+
+        public FileEntry(String department, String filename, long size, long modifiedMillis, String checksum,
+                         long version) {
+            this.department = department;
+            this.filename = filename;
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.checksum = checksum;
+            this.version = version;
+        }
+
+        public String getDepartment() { return department; }
+        public String getFilename() { return filename; }
+        public long getSize() { return size; }
+        public long getModifiedMillis() { return modifiedMillis; }
+        public String getChecksum() { return checksum; }
+        public long getVersion() { return version; }
+    }
+
+    private final String storageRoot;
+    private final File versionDir;
+    private final Map<String, ConcurrentSkipListMap<String, FileEntry>> departments = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> departmentsByName = new ConcurrentHashMap<>();
+    private final Map<String, MerkleTree> trees = new ConcurrentHashMap<>();
+
+    public NamespaceIndex(String storageRoot) {
+        this.storageRoot = storageRoot;
+        this.versionDir = new File(storageRoot, ".meta/versions");
+    }
+
+    /** Scans the storage root; returns the number of files indexed. */
+    public synchronized int rebuild() throws IOException {
+        departments.clear();
+        departmentsByName.clear();
+        trees.clear();
+        File[] departmentDirs = new File(storageRoot).listFiles(File::isDirectory);
+        if (departmentDirs == null) return 0;
+
+        int count = 0;
+        for (File departmentDir : departmentDirs) {
+            if (departmentDir.getName().startsWith(".")) continue; // node metadata
+            departments.computeIfAbsent(departmentDir.getName(), k -> new ConcurrentSkipListMap<>());
+            trees.computeIfAbsent(departmentDir.getName(), k -> new MerkleTree());
+            File[] files = departmentDir.listFiles(File::isFile);
+            if (files == null) continue;
+            for (File file : files) {
+                if (file.getName().startsWith(".")) continue; // in-flight upload temp files
+                put(new FileEntry(departmentDir.getName(), file.getName(), file.length(),
+                        file.lastModified(), Checksums.sha256(file),
+                        readVersion(departmentDir.getName(), file.getName())));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public File fileOf(FileEntry entry) {
+        return fileOf(entry.getDepartment(), entry.getFilename());
+    }
+
+    /**
+     * Where the file is stored, whether or not it exists yet. Every path a node opens is built
+     * here, so a name that would leave the department directory, or hide among the metadata
+     * and temp files, is refused in one place.
+     */
+    public File fileOf(String department, String filename) {
+        if (!isPlainName(department) || !isPlainName(filename)) {
+            throw new IllegalArgumentException("Not a plain file name: " + department + "/" + filename);
+        }
+        return new File(storageRoot + "/" + department + "/" + filename);
+    }
+
+    private static boolean isPlainName(String name) {
+        return !name.isEmpty() && !name.startsWith(".") && name.indexOf('/') < 0 && name.indexOf('\\') < 0
+                && name.indexOf('\0') < 0;
+    }
+
+    public FileEntry lookup(String department, String filename) {
+        Map<String, FileEntry> files = departments.get(department);
+        return files == null ? null : files.get(filename);
+    }
+
+    /** Finds the file in whichever department holds it, or returns null. */
+    public FileEntry find(String filename) {
+        Set<String> holders = departmentsByName.get(filename);
+        if (holders == null) return null;
+        for (String department : holders) {
+            FileEntry entry = lookup(department, filename);
+            if (entry != null) return entry;
+        }
+        return null;
+    }
+
+    public Set<String> getDepartments() {
+        return Collections.unmodifiableSet(departments.keySet());
+    }
+
+    /** Files of one department in name order; empty if the department is unknown. */
+    public Collection<FileEntry> list(String department) {
+        Map<String, FileEntry> files = departments.get(department);
+        return files == null ? Collections.emptyList() : Collections.unmodifiableCollection(files.values());
+    }
+
+    /** Files of one department that sort after {@code filename}, in name order. */
+    public Collection<FileEntry> listAfter(String department, String filename) {
+        ConcurrentSkipListMap<String, FileEntry> files = departments.get(department);
+        return files == null ? Collections.emptyList()
+                : Collections.unmodifiableCollection(files.tailMap(filename, false).values());
+    }
+
+    /** Hash tree of one department; an unknown department has the tree of an empty one. */
+    public MerkleTree tree(String department) {
+        MerkleTree tree = trees.get(department);
+        return tree != null ? tree : new MerkleTree();
+    }
+
+    /** Adds or replaces an entry; returns the one it replaced, if any. */
+    public synchronized FileEntry put(FileEntry entry) {
+        FileEntry previous = departments.computeIfAbsent(entry.getDepartment(), k -> new ConcurrentSkipListMap<>())
+                .put(entry.getFilename(), entry);
+        departmentsByName.computeIfAbsent(entry.getFilename(), k -> new ConcurrentSkipListSet<>())
+                .add(entry.getDepartment());
+        // The version is hashed too, so copies that only differ in version are found by sync
+        trees.computeIfAbsent(entry.getDepartment(), k -> new MerkleTree())
+                .put(entry.getFilename(), entry.getChecksum() + ":" + entry.getVersion());
+        return previous;
+    }
+
+    public synchronized FileEntry remove(String department, String filename) {
+        Map<String, FileEntry> files = departments.get(department);
+        FileEntry removed = files == null ? null : files.remove(filename);
+        Set<String> holders = departmentsByName.get(filename);
+        if (holders != null) {
+            holders.remove(department);
+            if (holders.isEmpty()) departmentsByName.remove(filename);
+        }
+        MerkleTree tree = trees.get(department);
+        if (tree != null) tree.remove(filename);
+        return removed;
+    }
+
+    /** Records the entry's version next to the file; caller holds the file lock. */
+    public void saveVersion(FileEntry entry) throws IOException {
+        File sidecar = versionFileOf(entry.getDepartment(), entry.getFilename());
+        if (entry.getVersion() == 0) {
+            sidecar.delete();
+            return;
+        }
+        Files.createDirectories(sidecar.getParentFile().toPath());
+        File tempFile = new File(sidecar.getParentFile(), "." + sidecar.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+            out.writeLong(entry.getVersion());
+        }
+        Files.move(tempFile.toPath(), sidecar.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void deleteVersion(String department, String filename) {
+        versionFileOf(department, filename).delete();
+    }
+
+    // Files written before versions existed, or whose sidecar was lost, are version 0
+    private long readVersion(String department, String filename) {
+        File sidecar = versionFileOf(department, filename);
+        if (!sidecar.isFile()) return 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(sidecar))) {
+            return in.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private File versionFileOf(String department, String filename) {
+        return new File(new File(versionDir, department), filename);
+    }
+
+    public int size() {
+        int count = 0;
+        for (Map<String, FileEntry> files : departments.values()) {
+            count += files.size();
+        }
+        return count;
+    }
+}
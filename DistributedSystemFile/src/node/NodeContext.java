@@ -0,0 +1,56 @@
+package node;
+
+import java.io.File;
+import utils.ClusterConfig;
+import utils.HashRing;
+
+/** State shared by every connection and background task of one storage node. */
+public class NodeContext {
+    private static final long HOT_CACHE_BYTES = Long.getLong("node.hotCacheBytes", 256L * 1024 * 1024);
+    private static final long HOT_CACHE_MAX_FILE_BYTES = Long.getLong("node.hotCacheMaxFileBytes", 64L * 1024 * 1024);
+    private static final int CHANGE_LOG_RETAINED = Integer.getInteger("node.changeLogRetained", 100_000);
+    private static final long SYNC_BYTES_PER_SECOND = Long.getLong("node.syncBytesPerSecond", 50L * 1024 * 1024);
+    private static final int SYNC_CONCURRENCY = Integer.getInteger("node.syncConcurrency", 4);
+
+    private final String storageRoot;
+    private final String address;
+    private final int port;
+    private volatile HashRing ring;
+    private final HotFileCache hotFiles = new HotFileCache(HOT_CACHE_BYTES, HOT_CACHE_MAX_FILE_BYTES);
+    private final NamespaceIndex namespace;
+    private final ChangeLog changeLog;
+    private final SyncEngine syncEngine;
+    private final ContentStore contentStore;
+    private final FileLocks fileLocks = new FileLocks();
+
+    public NodeContext(String storageRoot, String address, HashRing ring) {
+        this.storageRoot = storageRoot;
+        this.address = address;
+        this.port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+        this.ring = ring;
+        this.namespace = new NamespaceIndex(storageRoot);
+        this.changeLog = new ChangeLog(new File(getMetadataDir(), "changes-v2.log"), CHANGE_LOG_RETAINED);
+        this.syncEngine = new SyncEngine(this, SYNC_BYTES_PER_SECOND, SYNC_CONCURRENCY);
+        this.contentStore = new ContentStore(new File(getMetadataDir(), "blobs"));
+    }
+
+    public String getStorageRoot() { return storageRoot; }
+    public String getAddress() { return address; }
+    public int getPort() { return port; }
+    public HashRing getRing() { return ring; }
+    public void setRing(HashRing ring) { this.ring = ring; }
+    public HotFileCache getHotFiles() { return hotFiles; }
+    public NamespaceIndex getNamespace() { return namespace; }
+    public ChangeLog getChangeLog() { return changeLog; }
+    public SyncEngine getSyncEngine() { return syncEngine; }
+    public ContentStore getContentStore() { return contentStore; }
+    public FileLocks getFileLocks() { return fileLocks; }
+
+    /** Whether this node is one of the N replicas the ring assigns the file to. */
+    public boolean isReplicaOf(String filename) {
+        return ring.isReplica(address, filename, ClusterConfig.REPLICATION_FACTOR);
+    }
+
+    /** Node-private state; hidden from listings because its name starts with a dot. */
+    public File getMetadataDir() { return new File(storageRoot, ".meta"); }
+}
@@ -1,71 +1,166 @@
 package node;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-
-import static node.NodeService.synchronizeNodeFiles;
+import utils.ClusterConfig;
+import utils.HashRing;
 
 public class NodeServer {
-    private static final int NODE_COUNT = 3;
-    private static final int BASE_PORT = 3001;
-    private static final String[] NODE_ADDRESSES = {"127.0.0.1:3001", "127.0.0.1:3002", "127.0.0.1:3003"};
+    private static final List<String> NODE_ADDRESSES = ClusterConfig.NODES;
+    private static final String ENGINE = System.getProperty("node.engine", "selector");
+    private static final int MAX_CONCURRENT_REQUESTS = Integer.getInteger("node.maxConcurrentRequests", 256);
+    private static final int ACCEPT_BACKLOG = 4096;
     private static final int SYNC_INTERVAL_DAILY = 24 * 60 * 60 * 1000; // 24 hours in milliseconds
+    private static final boolean LEAVE_ON_SHUTDOWN = Boolean.getBoolean("node.leaveOnShutdown");
+    private static final long MOVED_COPY_CLEANUP_MS = Long.getLong("node.movedCopyCleanupMillis", 10 * 60 * 1000);
 
+    /**
+     * Starts the nodes given as arguments, each "host:port" or "host:port=storageDir", or every
+     * configured node when there are none. Nodes register with the coordinator and follow its
+     * member list, so nodes can be added to or removed from a running cluster.
+     */
     public static void main(String[] args) {
         System.out.println("=== Starting Distributed Node Cluster ===");
+        System.out.println("Placement: " + ClusterConfig.describe());
+        ClusterConfig.warnIfNoSecret();
 
-        for (int i = 0; i < NODE_COUNT; i++) {
+        List<String> nodeSpecs = args.length > 0 ? Arrays.asList(args) : NODE_ADDRESSES;
+        HashRing ring = ClusterConfig.newRing();
+        List<NodeContext> nodes = new ArrayList<>();
+        for (int i = 0; i < nodeSpecs.size(); i++) {
             final int nodeId = i + 1;
-            final int port = BASE_PORT + i;
-            final String storageRoot = "folder" + nodeId;
+            final String[] specParts = nodeSpecs.get(i).split("=", 2);
+            final String address = specParts[0];
+            final String storageRoot = specParts.length > 1 ? specParts[1] : defaultStorageRoot(address);
 
             System.out.printf("\n🚀 Initializing Node %d:\n", nodeId);
-            System.out.printf("  - Port: %d\n", port);
+            System.out.printf("  - Address: %s\n", address);
             System.out.printf("  - Storage: %s\n", storageRoot);
 
-            startNodeServer(port, storageRoot);
-            scheduleDailySync(storageRoot, port);
+            NodeContext context = new NodeContext(storageRoot, address, ring);
+            openStorage(context);
+            startNodeServer(context);
+            scheduleDailySync(context);
+            scheduleMovedCopyCleanup(context);
+            nodes.add(context);
+        }
+
+        // Every node tails every peer's change log; a first contact runs a full sync
+        List<MembershipAgent> agents = new ArrayList<>();
+        for (NodeContext context : nodes) {
+            Map<String, Thread> followers = new HashMap<>();
+            followPeers(context, NODE_ADDRESSES, followers);
+            MembershipAgent agent = new MembershipAgent(context, members -> {
+                boolean ringChanged = !context.getRing().getNodes().equals(members);
+                context.setRing(new HashRing(members, ClusterConfig.VIRTUAL_NODES));
+                followPeers(context, members, followers);
+                System.out.printf("🧭 [Node %d] Members: %s\n", context.getPort(), members);
+                if (!ringChanged) return;
+                // Pull the files the new ring places here; their old copies are dropped once they are
+                Thread rebalance = new Thread(() -> context.getSyncEngine().synchronizeAll(members),
+                        "rebalance-" + context.getPort());
+                rebalance.setDaemon(true);
+                rebalance.start();
+            });
+            agent.start();
+            agents.add(agent);
+        }
+        if (LEAVE_ON_SHUTDOWN) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> agents.forEach(MembershipAgent::leave)));
         }
 
         System.out.println("\n✅ All nodes initialized and running");
     }
 
-    private static void startNodeServer(int port, String storageRoot) {
+    private static String defaultStorageRoot(String address) {
+        int index = NODE_ADDRESSES.indexOf(address);
+        return index >= 0 ? "folder" + (index + 1) : "folder-" + address.substring(address.lastIndexOf(':') + 1);
+    }
+
+    private static void openStorage(NodeContext context) {
+        try {
+            int indexed = context.getNamespace().rebuild();
+            int shared = context.getContentStore().adopt(context.getNamespace());
+            context.getChangeLog().open();
+            System.out.printf("  - Indexed: %d files (%d distinct contents, %d duplicates linked), change log at sequence %d\n",
+                    indexed, context.getContentStore().getBlobCount(), shared, context.getChangeLog().getLastSequence());
+        } catch (IOException e) {
+            System.err.printf("❌ Failed to index %s: %s\n", context.getStorageRoot(), e.getMessage());
+        }
+    }
+
+    /** Starts a follower for every new peer and stops the followers of peers that left. */
+    private static void followPeers(NodeContext context, List<String> members, Map<String, Thread> followers) {
+        followers.entrySet().removeIf(follower -> {
+            if (members.contains(follower.getKey())) return false;
+            follower.getValue().interrupt();
+            return true;
+        });
+        for (String peerAddress : members) {
+            if (peerAddress.equals(context.getAddress()) || followers.containsKey(peerAddress)) continue;
+            String[] addressParts = peerAddress.split(":");
+            int peerPort = Integer.parseInt(addressParts[1]);
+
+            Thread follower = new Thread(new ReplicationFollower(context, addressParts[0], peerPort),
+                    "replication-" + context.getPort() + "-from-" + peerPort);
+            follower.setDaemon(true);
+            follower.start();
+            followers.put(peerAddress, follower);
+        }
+    }
+
+    private static void startNodeServer(NodeContext context) {
+        int port = context.getPort();
+        ConnectionEngine engine = ConnectionEngine.create(ENGINE, MAX_CONCURRENT_REQUESTS);
         new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
-                System.out.printf("🔄 Node on port %d listening for connections...\n", port);
-                while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.printf("🔗 New connection received on port %d\n", port);
-                    new Thread(new NodeService(clientSocket, storageRoot)).start(); }
+            // Accept through a channel so NodeService can hand file bodies to the socket with transferTo
+            try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+                serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+                System.out.printf("🔄 Node on port %d listening for connections (%s engine)...\n", port, ENGINE);
+                engine.serve(serverChannel, clientSocket -> new NodeService(clientSocket, context));
             } catch (IOException e) {
                 System.err.printf("❌ Node on port %d failed: %s\n", port, e.getMessage());
                 e.printStackTrace();
             }
-        }).start();
+        }, "node-" + port).start();
     }
 
-        private static void scheduleDailySync(String storageRoot, int port) {
+        private static void scheduleDailySync(NodeContext context) {
+            String storageRoot = context.getStorageRoot();
             long initialDelay = calculateInitialSyncDelay();
             System.out.printf("⏰ Scheduled daily sync for node %s starting in %d minutes\n",
                     storageRoot, initialDelay / (60 * 1000));
     
-            synchronizeNodeFiles(storageRoot, port, Arrays.asList(NODE_ADDRESSES));
-    
-            new Timer().schedule(new TimerTask() {
+            // Replication keeps nodes current; the daily full round repairs anything it missed
+            new Timer("daily-sync-" + context.getPort(), true).schedule(new TimerTask() {
                 @Override
                 public void run() {
                     System.out.printf("\n🔄 Starting daily synchronization for node %s...\n", storageRoot);
+                    context.getSyncEngine().synchronizeAll(context.getRing().getNodes());
                     System.out.printf("✅ Completed synchronization for node %s\n", storageRoot);
                 }
             }, initialDelay, SYNC_INTERVAL_DAILY);
         }
 
+    // The first round waits a full interval, so the node has the current member list by then
+    private static void scheduleMovedCopyCleanup(NodeContext context) {
+        new Timer("moved-copy-cleanup-" + context.getPort(), true).schedule(new TimerTask() {
+            @Override
+            public void run() {
+                context.getSyncEngine().dropMovedCopies();
+            }
+        }, MOVED_COPY_CLEANUP_MS, MOVED_COPY_CLEANUP_MS);
+    }
+
     private static long calculateInitialSyncDelay() {
         Calendar now = Calendar.getInstance();
         Calendar syncTime = Calendar.getInstance();
@@ -2,26 +2,33 @@ package node;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.channels.SocketChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import utils.AccessTicket;
+import utils.BlockDelta;
+import utils.Checksums;
+import utils.ChunkedTransfer;
+import utils.FileListing;
+import utils.NodeProtocol;
+import utils.ThreadPools;
+import utils.VersionClock;
 
 public class NodeService implements Runnable {
-    private static final Map<String, Object> FILE_LOCKS = new ConcurrentHashMap<>();
+    private static final ExecutorService MUX_WORKERS = Optional.ofNullable(ThreadPools.newVirtualThreadExecutor())
+            .orElseGet(() -> ThreadPools.newBoundedPool("mux-worker", 64, 1024));
 
     private final Socket clientSocket;
-    private final String nodeStoragePath;
+    private final NodeContext context;
 
-    public NodeService(Socket clientSocket, String nodeStoragePath) {
+    public NodeService(Socket clientSocket, NodeContext context) {
         this.clientSocket = clientSocket;
-        this.nodeStoragePath = nodeStoragePath;
-    }
-
-    public static Object getFileLock(String filePath) {
-        return FILE_LOCKS.computeIfAbsent(filePath, k -> new Object());
+        this.context = context;
     }
 
     @Override
@@ -33,26 +40,10 @@ public class NodeService implements Runnable {
             String department = input.readUTF();
             String filename = input.readUTF();
 
-            switch (command) {
-                case "upload":
-                    handleFileUpload(input, output, department, filename);
-                    break;
-
-                case "read":
-                    handleFileRead(output, department, filename);
-                    break;
-
-                case "delete":
-                    handleFileDeletion(output, department, filename);
-                    break;
-
-                case "depFiles":
-                    sendDepartmentFilesList(output);
-                    break;
-
-                default:
-                    output.writeUTF("Invalid command");
-                    System.err.println("Received invalid command: " + command);
+            if (NodeProtocol.MUX.equals(command)) {
+                serveMultiplexed(new DataInputStream(new BufferedInputStream(input)), output);
+            } else {
+                handleCommand(command, department, filename, input, output, false);
             }
         } catch (IOException e) {
             System.err.println("Client connection error: " + e.getMessage());
@@ -60,216 +51,886 @@ public class NodeService implements Runnable {
         }
     }
 
+    private void handleCommand(String command, String department, String filename,
+                               DataInputStream input, DataOutputStream output,
+                               boolean multiplexed) throws IOException {
+        switch (command) {
+            case "upload":
+                handleFileUpload(input, output, department, filename);
+                break;
+
+            case "read":
+                handleFileRead(output, department, filename, multiplexed);
+                break;
+
+            case "readRange":
+                handleRangeRead(input, output, department, filename, multiplexed);
+                break;
+
+            case "putDirect":
+                handleDirectUpload(input, output, department, filename);
+                break;
+
+            case "getDirect":
+                handleDirectRead(input, output, department, filename, multiplexed);
+                break;
+
+            case "readBatch":
+                handleBatchRead(input, output, multiplexed);
+                break;
+
+            case "batch":
+                handleBatch(input, output);
+                break;
+
+            case "delete":
+                handleFileDeletion(output, department, filename);
+                break;
+
+            case "stat":
+                sendFileStat(output, department, filename);
+                break;
+
+            case "signature":
+                sendFileSignature(output, department, filename);
+                break;
+
+            case "patch":
+                handleFilePatch(input, output, department, filename);
+                break;
+
+            case "link":
+                handleFileLink(input, output, department, filename);
+                break;
+
+            case "repair":
+                handleFileRepair(input, output, department, filename);
+                break;
+
+            case "list":
+                sendFileListing(input, output, department, filename);
+                break;
+
+            case "changes":
+                ReplicationFollower.serveChanges(context.getChangeLog(), input, output);
+                break;
+
+            case "stats":
+                output.writeUTF(context.getHotFiles().report() + "\n" + context.getFileLocks().report());
+                break;
+
+            case "merkleRoots":
+                sendMerkleRoots(output);
+                break;
+
+            case "merkleLeaves":
+                sendMerkleLeaves(output, department);
+                break;
+
+            case "merkleBucket":
+                sendMerkleBucket(output, department, filename);
+                break;
+
+            default:
+                output.writeUTF("Invalid command");
+                System.err.println("Received invalid command: " + command);
+        }
+    }
+
+    /**
+     * Long-lived connection carrying many requests tagged with request ids. Each request is
+     * run on a worker so a slow one does not hold up the others; responses are written back
+     * in completion order. Every request gets a response, {@link NodeProtocol#MUX_FAILED} if
+     * its handler failed, so the sender never waits for one that will not come.
+     */
+    private void serveMultiplexed(DataInputStream input, DataOutputStream output) throws IOException {
+        DataOutputStream bufferedOutput = new DataOutputStream(new BufferedOutputStream(output));
+        while (true) {
+            long requestId;
+            try {
+                requestId = input.readLong();
+            } catch (EOFException e) {
+                return; // peer closed the connection
+            }
+            String command = input.readUTF();
+            String department = input.readUTF();
+            String filename = input.readUTF();
+            int bodyLength = input.readInt();
+            if (bodyLength < 0 || bodyLength > NodeProtocol.MUX_MAX_BODY) {
+                throw new IOException("Invalid request body length: " + bodyLength);
+            }
+            byte[] body = new byte[bodyLength];
+            input.readFully(body);
+
+            MUX_WORKERS.execute(() -> {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                boolean failed = false;
+                try {
+                    handleCommand(command, department, filename,
+                            new DataInputStream(new ByteArrayInputStream(body)),
+                            new DataOutputStream(response), true);
+                } catch (IOException | RuntimeException e) {
+                    failed = true;
+                    System.err.println("Multiplexed request failed: " + command + " " + filename + ": " + e);
+                }
+                if (!failed && response.size() > NodeProtocol.MUX_MAX_BODY) {
+                    failed = true; // the peer would drop the connection over a frame this large
+                    System.err.println("Multiplexed response too large: " + command + " " + filename + " (" + response.size() + " bytes)");
+                }
+                try {
+                    synchronized (bufferedOutput) {
+                        bufferedOutput.writeLong(requestId);
+                        if (failed) {
+                            bufferedOutput.writeInt(NodeProtocol.MUX_FAILED);
+                        } else {
+                            bufferedOutput.writeInt(response.size());
+                            response.writeTo(bufferedOutput);
+                        }
+                        bufferedOutput.flush();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to send multiplexed response: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Body: [long version][long expectedVersion] and the chunks. Unless the expected version is
+     * {@link NodeProtocol#ANY_VERSION}, the file is only stored if its current version matches
+     * ({@link NodeProtocol#NO_VERSION}: it must not exist); otherwise the reply is "VersionMismatch".
+     * A write older than the stored version is acknowledged without replacing it.
+     */
     private void handleFileUpload(DataInputStream input, DataOutputStream output,
                                   String department, String filename) throws IOException {
-        File targetFile = new File(nodeStoragePath + "/" + department + "/" + filename);
+        long version = input.readLong();
+        long expectedVersion = input.readLong();
+        output.writeUTF(receiveUpload(input, department, filename, version, expectedVersion, null));
+    }
+
+    /**
+     * Upload sent by a client with an {@link AccessTicket}, stored here and passed on down a
+     * pipeline of the remaining replicas at the same time. Body: [UTF ticket][long version]
+     * [int count][UTF node]* naming the replicas after this one. Replies "Ready", or "Denied" for a
+     * bad ticket, before the chunks are sent; then [UTF status][int count][UTF node]* listing
+     * every node of the pipeline that stored the file.
+     */
+    private void handleDirectUpload(DataInputStream input, DataOutputStream output,
+                                    String department, String filename) throws IOException {
+        String ticket = input.readUTF();
+        long version = input.readLong();
+        int count = input.readInt();
+        if (count < 0 || count > 64) throw new IOException("Invalid pipeline length: " + count);
+        List<String> downstream = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            downstream.add(input.readUTF());
+        }
+        if (!AccessTicket.verify(ticket, AccessTicket.PUT, department, filename, version)) {
+            output.writeUTF("Denied");
+            System.err.println("Rejected direct upload with an invalid or expired ticket: " + department + "/" + filename);
+            return;
+        }
+
+        ReplicaPipeline pipeline = ReplicaPipeline.connect(department, filename, ticket, version, downstream);
+        output.writeUTF("Ready"); // the sender holds the data back until the whole pipeline is set up
+        output.flush();
+        String status;
+        try {
+            status = receiveUpload(input, department, filename, version, NodeProtocol.ANY_VERSION, pipeline);
+        } catch (IOException e) {
+            if (pipeline != null) pipeline.abort();
+            throw e;
+        }
+
+        List<String> storedOn = new ArrayList<>();
+        if ("OK".equals(status)) storedOn.add(context.getAddress());
+        if (pipeline != null) {
+            if ("Aborted".equals(status)) {
+                pipeline.abort();
+            } else {
+                storedOn.addAll(pipeline.finish());
+            }
+        }
+        output.writeUTF(status);
+        output.writeInt(storedOn.size());
+        for (String nodeAddress : storedOn) {
+            output.writeUTF(nodeAddress);
+        }
+    }
+
+    /**
+     * Streams the chunks into a temp file, copying them to {@code pipeline} too if there is one,
+     * and moves the file into place. Returns the reply status: "OK", "VersionMismatch",
+     * "Aborted" or "Failed".
+     */
+    private String receiveUpload(DataInputStream input, String department, String filename, long version,
+                                 long expectedVersion, OutputStream pipeline) throws IOException {
+        File targetFile = context.getNamespace().fileOf(department, filename);
         targetFile.getParentFile().mkdirs();
-        int fileSize = input.readInt();
-        byte[] fileData = new byte[fileSize];
-        input.readFully(fileData);
-
-        Object fileLock = getFileLock(targetFile.getAbsolutePath());
-        synchronized (fileLock) {
-            try (RandomAccessFile file = new RandomAccessFile(targetFile, "rw");
-                 FileChannel channel = file.getChannel();
-                 FileLock lock = channel.lock()) {
-
-                file.setLength(0);
-                file.write(fileData);
-                output.writeUTF("OK");
-                System.out.println("Successfully uploaded file: " + targetFile.getPath());
+
+        // Stream the chunks into a temp file first so memory stays bounded and readers
+        // never see a half-written file.
+        File tempFile = File.createTempFile("." + filename + ".", ".part", targetFile.getParentFile());
+        MessageDigest digest = Checksums.newDigest();
+        long received;
+        try (OutputStream fileOut = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)), digest)) {
+            OutputStream sink = pipeline == null ? fileOut : new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] data, int offset, int length) throws IOException {
+                    fileOut.write(data, offset, length);
+                    pipeline.write(data, offset, length);
+                }
+            };
+            received = ChunkedTransfer.readChunks(input, sink);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        if (received < 0) {
+            tempFile.delete();
+            System.out.println("Upload aborted by sender: " + targetFile.getPath());
+            return "Aborted";
+        }
+
+        FileLocks.Held held = context.getFileLocks().write(department, filename);
+        try {
+            NamespaceIndex.FileEntry current = context.getNamespace().lookup(department, filename);
+            long currentVersion = current == null ? NodeProtocol.NO_VERSION : current.getVersion();
+            if (expectedVersion != NodeProtocol.ANY_VERSION && expectedVersion != currentVersion) {
+                tempFile.delete();
+                System.out.println("Conditional upload rejected, version is " + currentVersion + ": " + targetFile.getPath());
+                return "VersionMismatch";
+            }
+            if (current != null && currentVersion > version) {
+                tempFile.delete(); // superseded by a later write that got here first
+                return "OK";
+            }
+            try {
+                installStoredFile(context, tempFile, new NamespaceIndex.FileEntry(department, filename, received,
+                        VersionClock.millisOf(version, System.currentTimeMillis()),
+                        Checksums.toHex(digest.digest()), version));
+                System.out.println("Successfully uploaded file: " + targetFile.getPath() + " (" + received + " bytes)");
+                return "OK";
             } catch (IOException e) {
-                output.writeUTF("Failed");
+                tempFile.delete();
                 System.err.println("Failed to upload file: " + targetFile.getPath());
                 e.printStackTrace();
+                return "Failed";
             }
+        } finally {
+            held.release();
         }
     }
 
-    private void handleFileRead(DataOutputStream output, String department,
-                                String filename) throws IOException {
-        File targetFile = locateTargetFile(department, filename);
-
-        if (targetFile == null || !targetFile.exists()) {
-            output.writeInt(-1);
-            System.out.println("File not found: " + filename + " in department: " + department);
+    /**
+     * Range read sent by a client with an {@link AccessTicket}. Body: [UTF ticket] and the body of
+     * "readRange", whose reply it gives.
+     */
+    private void handleDirectRead(DataInputStream input, DataOutputStream output, String department,
+                                  String filename, boolean multiplexed) throws IOException {
+        if (!AccessTicket.verify(input.readUTF(), AccessTicket.GET, department, filename, 0)) {
+            output.writeLong(NodeProtocol.READ_DENIED);
+            System.err.println("Rejected direct read with an invalid or expired ticket: " + department + "/" + filename);
             return;
         }
+        handleRangeRead(input, output, department, filename, multiplexed);
+    }
 
-        Object fileLock = getFileLock(targetFile.getAbsolutePath());
-        synchronized (fileLock) {
-            try (RandomAccessFile file = new RandomAccessFile(targetFile, "r");
-                 FileChannel channel = file.getChannel();
-                 FileLock lock = channel.lock(0L, Long.MAX_VALUE, true)) {
+    /**
+     * Reads part of a file. Body: [long offset][long length]; a negative offset counts back from
+     * the end and a negative length reads to the end. Replies [long fileSize][long version]
+     * [long length] and the bytes, shorter or empty at the end of the file, or a negative size
+     * like "read". The version tells a reader resuming at an offset whether the file changed.
+     */
+    private void handleRangeRead(DataInputStream input, DataOutputStream output, String department,
+                                 String filename, boolean multiplexed) throws IOException {
+        long offset = input.readLong();
+        long length = input.readLong();
+        NamespaceIndex.FileEntry entry = locateTargetFile(department, filename);
+        if (entry == null) {
+            output.writeLong(NodeProtocol.READ_NOT_FOUND);
+            return;
+        }
 
-                byte[] fileData = new byte[(int) file.length()];
-                file.readFully(fileData);
-                output.writeInt(fileData.length);
-                output.write(fileData);
-                System.out.println("Successfully served file: " + targetFile.getPath());
+        // Entry and file are taken under the lock so the version given is the one of the bytes sent
+        FileLocks.Held held = context.getFileLocks().read(entry.getDepartment(), filename);
+        try {
+            entry = context.getNamespace().lookup(entry.getDepartment(), filename);
+            if (entry == null) {
+                output.writeLong(NodeProtocol.READ_NOT_FOUND);
+                return;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(context.getNamespace().fileOf(entry), "r");
+                 FileChannel channel = file.getChannel()) {
+                long fileSize = channel.size();
+                long start = offset < 0 ? Math.max(0, fileSize + offset) : Math.min(offset, fileSize);
+                long rangeLength = length < 0 ? fileSize - start : Math.min(length, fileSize - start);
+                if (multiplexed && rangeLength > NodeProtocol.MUX_INLINE_LIMIT) {
+                    output.writeLong(NodeProtocol.READ_TOO_LARGE);
+                    return;
+                }
+                output.writeLong(fileSize);
+                output.writeLong(entry.getVersion());
+                output.writeLong(rangeLength);
+                sendFileContents(channel, start, rangeLength, output, multiplexed);
             }
+        } finally {
+            held.release();
         }
     }
 
-    private File locateTargetFile(String department, String filename) {
-        if (department.equals("all")) {
-            File rootDir = new File(nodeStoragePath);
-            File[] departmentDirs = rootDir.listFiles(File::isDirectory);
-
-            if (departmentDirs != null) {
-                for (File dir : departmentDirs) {
-                    File candidateFile = new File(dir, filename);
-                    if (candidateFile.exists()) {
-                        return candidateFile;
+    /**
+     * Runs many small requests sent as one: [int count], then for each [UTF command][UTF department]
+     * [UTF filename] and the body that command takes. Only "upload", "read", "delete" and "stat"
+     * may be batched. The reply is each request's own reply, in order; a read that would take the
+     * reply past {@link NodeProtocol#MUX_INLINE_LIMIT} answers READ_DEFERRED instead, unless it is
+     * the first reply, so that every file that fits on its own is read eventually.
+     */
+    private void handleBatch(DataInputStream input, DataOutputStream output) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > NodeProtocol.BATCH_MAX_REQUESTS) throw new IOException("Invalid batch size: " + count);
+
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        DataOutputStream replyOut = new DataOutputStream(reply);
+        long replyBytes = 0;
+        for (int i = 0; i < count; i++) {
+            String command = input.readUTF();
+            String department = input.readUTF();
+            String filename = input.readUTF();
+            reply.reset();
+            switch (command) {
+                case "upload":
+                    handleFileUpload(input, replyOut, department, filename);
+                    break;
+                case "delete":
+                    handleFileDeletion(replyOut, department, filename);
+                    break;
+                case "read":
+                    handleFileRead(replyOut, department, filename, true);
+                    if (replyBytes > 0 && replyBytes + reply.size() > NodeProtocol.MUX_INLINE_LIMIT) {
+                        reply.reset();
+                        replyOut.writeLong(NodeProtocol.READ_DEFERRED);
                     }
-                }
+                    break;
+                case "stat":
+                    sendFileStat(replyOut, department, filename);
+                    break;
+                default:
+                    throw new IOException("Command cannot be batched: " + command);
             }
-            return null;
+            replyBytes += reply.size();
+            reply.writeTo(output);
         }
-        return new File(nodeStoragePath + "/" + department + "/" + filename);
     }
 
-    private void handleFileDeletion(DataOutputStream output,
-                                    String department, String filename) throws IOException {
-        File targetFile = new File(nodeStoragePath + "/" + department + "/" + filename);
-
-        if (targetFile.exists() && targetFile.delete()) {
-            output.writeUTF("Deleted");
-            System.out.println("Successfully deleted file: " + targetFile.getPath());
-        } else {
-            output.writeUTF("Not Found");
-            System.err.println("Failed to delete file: " + targetFile.getPath());
+    /** Replies with the file size (-1 if absent) and the block signature deltas are computed against. */
+    private void sendFileSignature(DataOutputStream output, String department, String filename) throws IOException {
+        NamespaceIndex.FileEntry entry;
+        InputStream fileIn;
+        File targetFile = context.getNamespace().fileOf(department, filename);
+        FileLocks.Held held = context.getFileLocks().read(department, filename);
+        try {
+            entry = context.getNamespace().lookup(department, filename);
+            if (entry == null) {
+                output.writeLong(NodeProtocol.READ_NOT_FOUND);
+                return;
+            }
+            // The open stream keeps reading this version even if an upload replaces the file
+            fileIn = new BufferedInputStream(new FileInputStream(targetFile), 64 * 1024);
+        } finally {
+            held.release();
+        }
+        try (InputStream in = fileIn) {
+            BlockDelta.Signature signature = BlockDelta.signature(in, entry.getSize(), entry.getChecksum());
+            output.writeLong(entry.getSize());
+            signature.writeTo(output);
         }
     }
 
-    private void sendDepartmentFilesList(DataOutputStream output) throws IOException {
-        File rootDir = new File(nodeStoragePath);
-        Map<String, List<String>> departmentFiles = new HashMap<>();
-
-        for (File departmentDir : rootDir.listFiles(File::isDirectory)) {
-            List<String> files = new ArrayList<>();
-            for (File file : departmentDir.listFiles()) {
-                files.add(file.getName());
+    /**
+     * Rebuilds a file from its current version and a {@link BlockDelta} instruction stream
+     * into a temp file (copy-on-write), checks the result against the expected checksum and
+     * moves it into place. Replies "BaseMismatch" when this node holds a different version
+     * than the delta was computed against. The header is answered "Ready" or "BaseMismatch"
+     * before the instructions are sent, so a delta that cannot apply is not sent at all.
+     */
+    private void handleFilePatch(DataInputStream input, DataOutputStream output,
+                                 String department, String filename) throws IOException {
+        String baseChecksum = input.readUTF();
+        String resultChecksum = input.readUTF();
+        long resultSize = input.readLong();
+        int blockSize = input.readInt();
+        long version = input.readLong();
+
+        File targetFile = context.getNamespace().fileOf(department, filename);
+        RandomAccessFile base;
+        FileLocks.Held readLock = context.getFileLocks().read(department, filename);
+        try {
+            NamespaceIndex.FileEntry entry = context.getNamespace().lookup(department, filename);
+            if (entry == null || !entry.getChecksum().equals(baseChecksum)) {
+                output.writeUTF("BaseMismatch");
+                return;
             }
-            departmentFiles.put(departmentDir.getName(), files);
+            base = new RandomAccessFile(targetFile, "r");
+        } finally {
+            readLock.release();
+        }
+        output.writeUTF("Ready");
+        output.flush();
+
+        File tempFile = File.createTempFile("." + filename + ".", ".part", targetFile.getParentFile());
+        MessageDigest digest = Checksums.newDigest();
+        long written;
+        try (RandomAccessFile baseFile = base;
+             OutputStream fileOut = new DigestOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tempFile)), digest)) {
+            written = BlockDelta.apply(input, baseFile, blockSize, fileOut);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
         }
 
-        try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-             ObjectOutputStream objectStream = new ObjectOutputStream(byteStream)) {
+        String checksum = Checksums.toHex(digest.digest());
+        if (written != resultSize || !checksum.equals(resultChecksum)) {
+            tempFile.delete();
+            output.writeUTF("Failed");
+            System.err.println("Patched file does not match the expected checksum: " + targetFile.getPath());
+            return;
+        }
 
-            objectStream.writeObject(departmentFiles);
-            objectStream.flush();
-            byte[] serializedData = byteStream.toByteArray();
+        FileLocks.Held writeLock = context.getFileLocks().write(department, filename);
+        try {
+            NamespaceIndex.FileEntry entry = context.getNamespace().lookup(department, filename);
+            if (entry == null || !entry.getChecksum().equals(baseChecksum)) {
+                tempFile.delete(); // another write replaced the base while we were patching
+                output.writeUTF("BaseMismatch");
+                return;
+            }
+            try {
+                installStoredFile(context, tempFile, new NamespaceIndex.FileEntry(department, filename, written,
+                        VersionClock.millisOf(version, System.currentTimeMillis()), checksum, version));
+            } catch (IOException e) {
+                tempFile.delete();
+                throw e;
+            }
+        } finally {
+            writeLock.release();
+        }
+        output.writeUTF("OK");
+        System.out.println("Successfully patched file: " + targetFile.getPath() + " (" + written + " bytes)");
+    }
 
-            output.writeInt(serializedData.length);
-            output.write(serializedData);
-            System.out.println("Sent department files list");
+    /**
+     * Stores a file whose content this node already holds under another name, so a duplicate
+     * upload moves no data. Body: [UTF checksum][long size][long version]. Replies "OK" or "Missing".
+     */
+    private void handleFileLink(DataInputStream input, DataOutputStream output,
+                                String department, String filename) throws IOException {
+        String checksum = input.readUTF();
+        long size = input.readLong();
+        long version = input.readLong();
+
+        File targetFile = context.getNamespace().fileOf(department, filename);
+        boolean linked;
+        FileLocks.Held held = context.getFileLocks().write(department, filename);
+        try {
+            targetFile.getParentFile().mkdirs();
+            linked = installStoredFile(context, null, new NamespaceIndex.FileEntry(department, filename, size,
+                    VersionClock.millisOf(version, System.currentTimeMillis()), checksum, version));
+        } finally {
+            held.release();
         }
+        output.writeUTF(linked ? "OK" : "Missing");
+        if (linked) System.out.println("Linked file to stored content: " + targetFile.getPath());
     }
-    private static Map<String, List<String>> deserializeFileMap(byte[] data)
-            throws IOException, ClassNotFoundException {
-        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(data))) {
-            return (Map<String, List<String>>) inputStream.readObject();
+
+    private void handleFileRead(DataOutputStream output, String department,
+                                String filename, boolean multiplexed) throws IOException {
+        NamespaceIndex.FileEntry entry = locateTargetFile(department, filename);
+
+        if (entry == null) {
+            output.writeLong(NodeProtocol.READ_NOT_FOUND);
+            System.out.println("File not found: " + filename + " in department: " + department);
+            return;
+        }
+        File targetFile = context.getNamespace().fileOf(entry);
+
+        // Popular files are served from memory without touching the file at all
+        String cacheKey = HotFileCache.key(entry.getDepartment(), filename);
+        ByteBuffer hot = context.getHotFiles().get(cacheKey);
+        if (hot != null) {
+            if (multiplexed && hot.remaining() > NodeProtocol.MUX_INLINE_LIMIT) {
+                output.writeLong(NodeProtocol.READ_TOO_LARGE);
+                return;
+            }
+            output.writeLong(hot.remaining());
+            sendBuffer(hot, output, multiplexed);
+            return;
+        }
+
+        // Readers of a file share its lock, so a popular file is served on many threads at once
+        FileLocks.Held held = context.getFileLocks().read(entry.getDepartment(), filename);
+        try {
+            // Writes replace files by rename and never modify them in place, so an open channel
+            // stays consistent without an OS file lock (which the JVM does not let readers share)
+            try (RandomAccessFile file = new RandomAccessFile(targetFile, "r");
+                 FileChannel channel = file.getChannel()) {
+
+                long fileSize = channel.size();
+                if (multiplexed && fileSize > NodeProtocol.MUX_INLINE_LIMIT) {
+                    output.writeLong(NodeProtocol.READ_TOO_LARGE); // caller streams it on its own connection
+                    return;
+                }
+                output.writeLong(fileSize);
+                ByteBuffer loaded = context.getHotFiles().load(cacheKey, channel, fileSize);
+                if (loaded != null) {
+                    sendBuffer(loaded, output, multiplexed);
+                } else {
+                    sendFileContents(channel, 0, fileSize, output, multiplexed);
+                }
+                System.out.println("Successfully served file: " + targetFile.getPath());
+            }
+        } finally {
+            held.release();
         }
     }
-    public static void synchronizeNodeFiles(String localNodePath, int localNodePort,
-                                            List<String> peerNodes) {
-        System.out.printf("\n🔁 [Node %d] Starting file synchronization\n", localNodePort);
 
-        for (String peerAddress : peerNodes) {
+    /**
+     * Serves many files over one connection for peer sync: the request lists department and
+     * filename pairs, and each reply is the size (-1 if absent), the mtime, the version and the body, in
+     * request order. Bodies go out with transferTo like single reads.
+     */
+    private void handleBatchRead(DataInputStream input, DataOutputStream output,
+                                 boolean multiplexed) throws IOException {
+        if (multiplexed) throw new IOException("readBatch is not served on multiplexed connections");
+        int count = input.readInt();
+        if (count < 0 || count > SyncEngine.MAX_BATCH_FILES) throw new IOException("Invalid batch size: " + count);
+        String[][] files = new String[count][];
+        for (int i = 0; i < count; i++) {
+            files[i] = new String[]{input.readUTF(), input.readUTF()};
+        }
+
+        for (String[] file : files) {
+            File targetFile = context.getNamespace().fileOf(file[0], file[1]);
+            NamespaceIndex.FileEntry entry;
+            RandomAccessFile randomAccessFile;
+            // Only the lookup and the open happen under the lock; the peer may be rate limited, and
+            // the open file keeps this version even if a write replaces it meanwhile
+            FileLocks.Held held = context.getFileLocks().read(file[0], file[1]);
             try {
-                String[] addressParts = peerAddress.split(":");
-                String peerHost = addressParts[0];
-                int peerPort = Integer.parseInt(addressParts[1]);
+                entry = context.getNamespace().lookup(file[0], file[1]);
+                randomAccessFile = entry == null ? null : new RandomAccessFile(targetFile, "r");
+            } finally {
+                held.release();
+            }
+            if (entry == null) {
+                output.writeLong(NodeProtocol.READ_NOT_FOUND);
+                continue;
+            }
+            try (RandomAccessFile opened = randomAccessFile;
+                 FileChannel channel = opened.getChannel()) {
+                long fileSize = channel.size();
+                output.writeLong(fileSize);
+                output.writeLong(entry.getModifiedMillis());
+                output.writeLong(entry.getVersion());
+                sendFileContents(channel, 0, fileSize, output, false);
+            }
+        }
+        output.flush();
+    }
 
-                if (peerPort == localNodePort) {
-                    System.out.printf("⏩ [Node %d] Skipping self\n", localNodePort);
-                    continue;
-                }
+    private void sendBuffer(ByteBuffer buffer, DataOutputStream output, boolean multiplexed) throws IOException {
+        output.flush();
+        SocketChannel socketChannel = clientSocket.getChannel();
+        if (!multiplexed && socketChannel != null && socketChannel.isBlocking()) {
+            while (buffer.hasRemaining()) {
+                socketChannel.write(buffer);
+            }
+            return;
+        }
+
+        byte[] copyBuffer = new byte[Math.min(64 * 1024, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(copyBuffer.length, buffer.remaining());
+            buffer.get(copyBuffer, 0, length);
+            output.write(copyBuffer, 0, length);
+        }
+        output.flush();
+    }
 
-                System.out.printf("🔗 [Node %d] Connecting to peer node at %s:%d\n",
-                        localNodePort, peerHost, peerPort);
+    /**
+     * Sends {@code length} bytes of the file from {@code start} straight from the page cache to
+     * the socket with transferTo (sendfile on Linux) when the connection has a channel, so no
+     * bytes pass through the heap.
+     */
+    private void sendFileContents(FileChannel channel, long start, long length, DataOutputStream output,
+                                  boolean multiplexed) throws IOException {
+        output.flush();
+        SocketChannel socketChannel = clientSocket.getChannel();
+        if (multiplexed || socketChannel == null || !socketChannel.isBlocking()) {
+            channel.position(start);
+            ChunkedTransfer.copy(Channels.newInputStream(channel), output, length);
+            output.flush();
+            return;
+        }
 
-                synchronizeWithPeerNode(localNodePath, localNodePort, peerHost, peerPort);
-            } catch (Exception e) {
-                System.err.printf("❌ [Node %d] Error with peer %s: %s\n",
-                        localNodePort, peerAddress, e.getMessage());
+        long end = start + length;
+        long position = start;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, socketChannel);
+            if (sent <= 0 && channel.size() < end) {
+                throw new EOFException("File shrank while being served");
             }
+            position += sent;
         }
-        System.out.printf("✅ [Node %d] Synchronization completed\n", localNodePort);
     }
 
-    private static void synchronizeWithPeerNode(String localNodePath, int localNodePort,
-                                                String peerHost, int peerPort) {
-        try (Socket peerSocket = new Socket(peerHost, peerPort);
-             DataOutputStream out = new DataOutputStream(peerSocket.getOutputStream());
-             DataInputStream in = new DataInputStream(peerSocket.getInputStream())) {
+    private NamespaceIndex.FileEntry locateTargetFile(String department, String filename) {
+        if (department.equals("all")) {
+            return context.getNamespace().find(filename);
+        }
+        return context.getNamespace().lookup(department, filename);
+    }
 
-            out.writeUTF("depFiles");
-            out.writeUTF("");
-            out.writeUTF("");
+    /**
+     * Replies [long size][long mtime][UTF checksum][UTF department][long version], or for a missing file
+     * [long -1][long deletedMillis] with 0 when no delete of it is retained.
+     */
+    private void sendFileStat(DataOutputStream output, String department, String filename) throws IOException {
+        NamespaceIndex.FileEntry entry = locateTargetFile(department, filename);
+        if (entry == null) {
+            output.writeLong(NodeProtocol.READ_NOT_FOUND);
+            output.writeLong(context.getChangeLog().deletedAt(department, filename));
+            return;
+        }
+        output.writeLong(entry.getSize());
+        output.writeLong(entry.getModifiedMillis());
+        output.writeUTF(entry.getChecksum());
+        output.writeUTF(entry.getDepartment());
+        output.writeLong(entry.getVersion());
+    }
 
-            System.out.printf("📋 [Node %d] Requesting file list from %s:%d\n",
-                    localNodePort, peerHost, peerPort);
+    /**
+     * Brings one file in line with a peer's copy, pulling it if the peer's version wins here.
+     * Body: [UTF peerAddress]. Replies "Repaired", "Current", or "Missing" if the peer has no copy.
+     */
+    private void handleFileRepair(DataInputStream input, DataOutputStream output,
+                                  String department, String filename) throws IOException {
+        String[] peer = input.readUTF().split(":");
+        String peerHost = peer[0];
+        int peerPort = Integer.parseInt(peer[1]);
+
+        SyncEngine.Pull pull = SyncEngine.askPeer(peerHost, peerPort, "stat", department, filename, in -> {
+            if (in.readLong() < 0) return null;
+            long modifiedMillis = in.readLong();
+            String checksum = in.readUTF();
+            in.readUTF(); // department
+            return new SyncEngine.Pull(department, filename, in.readLong(), modifiedMillis, checksum);
+        });
+        String status;
+        if (pull == null) {
+            status = "Missing";
+        } else if (!SyncEngine.peerCopyWins(context.getNamespace().lookup(department, filename),
+                pull.version, pull.modifiedMillis, pull.checksum)) {
+            status = "Current";
+        } else {
+            status = context.getSyncEngine().pull(peerHost, peerPort, List.of(pull)) > 0 ? "Repaired" : "Current";
+        }
+        output.writeUTF(status);
+        if ("Repaired".equals(status)) {
+            System.out.println("Repaired file from " + peerHost + ":" + peerPort + ": " + department + "/" + filename);
+        }
+    }
 
-            int dataSize = in.readInt();
-            byte[] serializedData = new byte[dataSize];
-            in.readFully(serializedData);
+    private void handleFileDeletion(DataOutputStream output,
+                                    String department, String filename) throws IOException {
+        File targetFile = context.getNamespace().fileOf(department, filename);
 
-            Map<String, List<String>> peerFiles = deserializeFileMap(serializedData);
-            System.out.printf("📥 [Node %d] Received %d departments from %s:%d\n",
-                    localNodePort, peerFiles.size(), peerHost, peerPort);
+        if (deleteStoredFile(context, department, filename, Long.MAX_VALUE)) {
+            output.writeUTF("Deleted");
+            System.out.println("Successfully deleted file: " + targetFile.getPath());
+        } else {
+            output.writeUTF("Not Found");
+            System.err.println("Failed to delete file: " + targetFile.getPath());
+        }
+    }
 
-            for (Map.Entry<String, List<String>> entry : peerFiles.entrySet()) {
-                String department = entry.getKey();
-                for (String filename : entry.getValue()) {
-                    File localFile = Paths.get(localNodePath, department, filename).toFile();
+    /**
+     * Streams one page of the index in {@link FileListing} format. The department header
+     * restricts the listing to one department ("" lists all of them), the filename header
+     * is the cursor returned by the previous page, and the body carries the page size.
+     */
+    private void sendFileListing(DataInputStream input, DataOutputStream output,
+                                 String department, String cursor) throws IOException {
+        int pageSize = input.readInt();
+        if (pageSize <= 0 || pageSize > FileListing.MAX_PAGE_SIZE) pageSize = FileListing.DEFAULT_PAGE_SIZE;
+
+        String cursorDepartment = "";
+        String cursorFilename = null;
+        if (!cursor.isEmpty()) {
+            int separator = cursor.indexOf('/');
+            cursorDepartment = cursor.substring(0, separator);
+            cursorFilename = cursor.substring(separator + 1);
+        }
 
-                    if (!localFile.exists()) {
-                        System.out.printf("⬇️ [Node %d] Downloading %s/%s from %s:%d\n",
-                                localNodePort, department, filename, peerHost, peerPort);
-                        downloadFileFromPeer(peerHost, peerPort, department, filename, localNodePath);
-                    }
+        NamespaceIndex namespace = context.getNamespace();
+        Collection<String> departments = department.isEmpty()
+                ? new TreeSet<>(namespace.getDepartments())
+                : Collections.singletonList(department);
+
+        FileListing.Writer writer = new FileListing.Writer(
+                new DataOutputStream(new BufferedOutputStream(output, 64 * 1024)));
+        int sent = 0;
+        for (String listedDepartment : departments) {
+            if (cursorFilename != null && listedDepartment.compareTo(cursorDepartment) < 0) continue;
+            Collection<NamespaceIndex.FileEntry> files = listedDepartment.equals(cursorDepartment) && cursorFilename != null
+                    ? namespace.listAfter(listedDepartment, cursorFilename)
+                    : namespace.list(listedDepartment);
+
+            writer.department(listedDepartment);
+            String lastFilename = null;
+            for (NamespaceIndex.FileEntry entry : files) {
+                if (sent == pageSize) {
+                    writer.end(FileListing.cursorOf(listedDepartment, lastFilename != null ? lastFilename
+                            : listedDepartment.equals(cursorDepartment) ? cursorFilename : ""));
+                    return;
                 }
+                writer.file(entry.getFilename(), entry.getSize(), entry.getModifiedMillis(), entry.getChecksum(),
+                        entry.getVersion());
+                lastFilename = entry.getFilename();
+                sent++;
             }
-            System.out.printf("✔️ [Node %d] Sync complete with %s:%d\n",
-                    localNodePort, peerHost, peerPort);
-        } catch (Exception e) {
+        }
+        writer.end("");
+    }
 
+    private void sendMerkleRoots(DataOutputStream output) throws IOException {
+        NamespaceIndex namespace = context.getNamespace();
+        List<String> departments = new ArrayList<>(namespace.getDepartments());
+        output.writeInt(departments.size());
+        for (String department : departments) {
+            output.writeUTF(department);
+            output.write(namespace.tree(department).root());
         }
     }
-    private static void downloadFileFromPeer(String peerHost, int peerPort,
-                                             String department, String filename,
-                                             String localPath) {
-        try (Socket socket = new Socket(peerHost, peerPort);
-             DataOutputStream out = new DataOutputStream(socket.getOutputStream());
-             DataInputStream in = new DataInputStream(socket.getInputStream())) {
-
-            out.writeUTF("read");
-            out.writeUTF(department);
-            out.writeUTF(filename);
-
-            int fileSize = in.readInt();
-            if (fileSize == -1) {
-                System.err.printf("⚠️ File %s/%s not found on %s:%d\n",
-                        department, filename, peerHost, peerPort);
-                return;
-            }
 
-            byte[] fileData = new byte[fileSize];
-            in.readFully(fileData);
+    private void sendMerkleLeaves(DataOutputStream output, String department) throws IOException {
+        for (byte[] leaf : context.getNamespace().tree(department).leaves()) {
+            output.write(leaf);
+        }
+    }
 
-            File targetFile = Paths.get(localPath, department, filename).toFile();
-            Files.createDirectories(targetFile.getParentFile().toPath());
+    /** The bucket index comes in the filename field; anything but a valid index is answered "Invalid bucket". */
+    private void sendMerkleBucket(DataOutputStream output, String department, String bucketIndex) throws IOException {
+        int bucket;
+        try {
+            bucket = Integer.parseInt(bucketIndex);
+        } catch (NumberFormatException e) {
+            bucket = -1;
+        }
+        if (bucket < 0 || bucket >= MerkleTree.BUCKETS) {
+            output.writeUTF("Invalid bucket");
+            System.err.println("Received invalid Merkle bucket: " + bucketIndex);
+            return;
+        }
 
-            try (FileOutputStream fileOut = new FileOutputStream(targetFile)) {
-                fileOut.write(fileData);
-                System.out.printf("💾 Saved %s/%s (%d bytes) from %s:%d\n",
-                        department, filename, fileSize, peerHost, peerPort);
+        NamespaceIndex namespace = context.getNamespace();
+        FileListing.Writer writer = new FileListing.Writer(
+                new DataOutputStream(new BufferedOutputStream(output, 64 * 1024)));
+        writer.department(department);
+        for (String filename : namespace.tree(department).filenamesIn(bucket)) {
+            NamespaceIndex.FileEntry entry = namespace.lookup(department, filename);
+            if (entry != null) {
+                writer.file(filename, entry.getSize(), entry.getModifiedMillis(), entry.getChecksum(),
+                        entry.getVersion());
             }
-        } catch (IOException e) {
-            System.err.printf("❌ Failed to download %s/%s from %s:%d: %s\n",
-                    department, filename, peerHost, peerPort, e.getMessage());
         }
+        writer.end("");
+    }
+
+    /**
+     * Deletes a file unless it was written after {@code notAfterMillis}, so a replicated
+     * delete cannot remove a newer upload. Returns whether a file was deleted.
+     */
+    static boolean deleteStoredFile(NodeContext context, String department, String filename,
+                                            long notAfterMillis) {
+        File targetFile = context.getNamespace().fileOf(department, filename);
+        FileLocks.Held held = context.getFileLocks().write(department, filename);
+        try {
+            NamespaceIndex.FileEntry entry = context.getNamespace().lookup(department, filename);
+            if (entry != null && entry.getModifiedMillis() > notAfterMillis) return false;
+
+            boolean deleted = targetFile.exists() && targetFile.delete();
+            context.getHotFiles().invalidate(HotFileCache.key(department, filename));
+            NamespaceIndex.FileEntry removed = context.getNamespace().remove(department, filename);
+            if (removed != null) context.getContentStore().release(removed.getChecksum());
+            context.getNamespace().deleteVersion(department, filename);
+            if (deleted) {
+                context.getChangeLog().recordDelete(department, filename,
+                        notAfterMillis == Long.MAX_VALUE ? System.currentTimeMillis() : notAfterMillis);
+            }
+            return deleted;
+        } finally {
+            held.release();
+        }
+    }
+
+    /**
+     * Removes this node's copy of a file the ring has placed elsewhere, if it is still the
+     * version the new replicas were checked to hold. Nothing goes to the change log: the file
+     * still exists, only not here. Returns whether the copy was dropped.
+     */
+    static boolean dropMovedCopy(NodeContext context, NamespaceIndex.FileEntry checked) {
+        String department = checked.getDepartment();
+        String filename = checked.getFilename();
+        File targetFile = context.getNamespace().fileOf(department, filename);
+        FileLocks.Held held = context.getFileLocks().write(department, filename);
+        try {
+            NamespaceIndex.FileEntry entry = context.getNamespace().lookup(department, filename);
+            if (entry == null || entry.getVersion() != checked.getVersion()
+                    || !entry.getChecksum().equals(checked.getChecksum()) || context.isReplicaOf(filename)) {
+                return false;
+            }
+            boolean dropped = targetFile.delete();
+            context.getHotFiles().invalidate(HotFileCache.key(department, filename));
+            NamespaceIndex.FileEntry removed = context.getNamespace().remove(department, filename);
+            if (removed != null) context.getContentStore().release(removed.getChecksum());
+            context.getNamespace().deleteVersion(department, filename);
+            return dropped;
+        } finally {
+            held.release();
+        }
+    }
+
+    /**
+     * Puts a new version of a file in place through the content store and records it in the
+     * index and the change log. With a null {@code tempFile} the content must already be
+     * stored on this node; returns false if it is not. Caller holds the file's write lock.
+     */
+    static boolean installStoredFile(NodeContext context, File tempFile, NamespaceIndex.FileEntry entry)
+            throws IOException {
+        ContentStore contentStore = context.getContentStore();
+        File targetFile = context.getNamespace().fileOf(entry);
+        if (tempFile != null) {
+            contentStore.install(tempFile, targetFile, entry.getChecksum());
+        } else if (!contentStore.installExisting(targetFile, entry.getChecksum())) {
+            return false;
+        }
+
+        context.getHotFiles().invalidate(HotFileCache.key(entry.getDepartment(), entry.getFilename()));
+        context.getNamespace().saveVersion(entry);
+        NamespaceIndex.FileEntry previous = context.getNamespace().put(entry);
+        contentStore.retain(entry.getChecksum());
+        if (previous != null) contentStore.release(previous.getChecksum());
+        contentStore.stamp(targetFile, entry.getChecksum(), entry.getModifiedMillis());
+        context.getChangeLog().recordPut(entry);
+        return true;
     }
-}
\ No newline at end of file
+}
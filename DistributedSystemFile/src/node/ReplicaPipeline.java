@@ -0,0 +1,126 @@
+package node;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import utils.ChunkedTransfer;
+
+/**
+ * Downstream end of a replica write pipeline. A node that receives a direct upload forwards
+ * every piece to the next replica as it arrives, that replica forwards it to the one after,
+ * and so on, so the client sends each byte once and every link carries the file once.
+ *
+ * Losing the downstream node is not fatal: forwarding stops, the upload still completes here,
+ * and the nodes that did store the file are reported back so the rest can be repaired later.
+ */
+class ReplicaPipeline extends OutputStream {
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+
+    private final String nodeAddress;
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private boolean failed;
+
+    private ReplicaPipeline(String nodeAddress, Socket socket) throws IOException {
+        this.nodeAddress = nodeAddress;
+        this.socket = socket;
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        this.in = new DataInputStream(socket.getInputStream());
+    }
+
+    /**
+     * Opens the pipeline to the first reachable node of {@code downstream}, handing it the nodes
+     * after it. Returns null when there is no node left to forward to.
+     */
+    static ReplicaPipeline connect(String department, String filename, String ticket, long version,
+                                   List<String> downstream) {
+        for (int i = 0; i < downstream.size(); i++) {
+            String nodeAddress = downstream.get(i);
+            String[] parts = nodeAddress.split(":");
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])), CONNECT_TIMEOUT_MS);
+                ReplicaPipeline pipeline = new ReplicaPipeline(nodeAddress, socket);
+                pipeline.out.writeUTF("putDirect");
+                pipeline.out.writeUTF(department);
+                pipeline.out.writeUTF(filename);
+                pipeline.out.writeUTF(ticket);
+                pipeline.out.writeLong(version);
+                List<String> rest = downstream.subList(i + 1, downstream.size());
+                pipeline.out.writeInt(rest.size());
+                for (String next : rest) {
+                    pipeline.out.writeUTF(next);
+                }
+                pipeline.out.flush();
+                if ("Ready".equals(pipeline.in.readUTF())) return pipeline;
+                System.err.println("Pipeline node refused the ticket: " + nodeAddress);
+                closeQuietly(socket);
+                return null; // the others would refuse the same ticket
+            } catch (IOException e) {
+                System.err.println("Pipeline node unreachable, skipping it: " + nodeAddress);
+                closeQuietly(socket);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        if (failed) return;
+        try {
+            ChunkedTransfer.writeChunk(out, data, offset, length);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Ends the stream downstream and returns the nodes past this one that stored the file. */
+    List<String> finish() {
+        List<String> storedOn = new ArrayList<>();
+        if (failed) return storedOn;
+        try {
+            ChunkedTransfer.writeEnd(out);
+            in.readUTF(); // the next node's own status, implied by the list
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                storedOn.add(in.readUTF());
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            closeQuietly(socket);
+        }
+        return storedOn;
+    }
+
+    void abort() {
+        try {
+            if (!failed) ChunkedTransfer.writeAbort(out);
+        } catch (IOException ignored) {
+            // the node drops the partial file when the connection goes
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        closeQuietly(socket);
+        System.err.println("Lost pipeline node " + nodeAddress + ": " + e.getMessage());
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
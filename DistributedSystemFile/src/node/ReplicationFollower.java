@@ -0,0 +1,152 @@
+package node;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tails one peer's {@link ChangeLog} and applies its uploads and deletes here. Polls wait
+ * on the peer until a change arrives, so a write reaches this node within one round trip
+ * while an idle cluster costs one request per poll interval.
+ *
+ * The peer's epoch and the last applied sequence are persisted, so a restart resumes where
+ * it left off. When the peer can no longer serve that position, one full anti-entropy
+ * round is run and tailing resumes from the peer's current end of log.
+ */
+public class ReplicationFollower implements Runnable {
+    private static final int BATCH_SIZE = 500;
+    private static final int POLL_WAIT_MS = 10_000;
+    private static final long RETRY_DELAY_MS = 2_000;
+    private static final byte STATUS_OK = 0;
+
+    private final NodeContext context;
+    private final String peerHost;
+    private final int peerPort;
+    private final File offsetFile;
+    private long peerEpoch;
+    private long appliedSequence;
+
+    public ReplicationFollower(NodeContext context, String peerHost, int peerPort) {
+        this.context = context;
+        this.peerHost = peerHost;
+        this.peerPort = peerPort;
+        this.offsetFile = new File(context.getMetadataDir(), "offset-" + peerHost + "-" + peerPort);
+    }
+
+    @Override
+    public void run() {
+        loadOffset();
+        boolean peerReachable = true;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                pollOnce();
+                peerReachable = true;
+            } catch (IOException e) {
+                if (peerReachable) {
+                    System.err.printf("⚠️ [Node %d] Replication from %s:%d paused: %s\n",
+                            context.getPort(), peerHost, peerPort, e.getMessage());
+                }
+                peerReachable = false;
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void pollOnce() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(peerHost, peerPort), 5_000);
+            socket.setSoTimeout(POLL_WAIT_MS + 20_000);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.writeUTF("changes");
+            out.writeUTF("");
+            out.writeUTF("");
+            out.writeLong(peerEpoch);
+            out.writeLong(appliedSequence);
+            out.writeInt(BATCH_SIZE);
+            out.writeInt(POLL_WAIT_MS);
+            out.flush();
+
+            long epoch = in.readLong();
+            long lastSequence = in.readLong();
+            if (in.readByte() != STATUS_OK) {
+                System.out.printf("🔁 [Node %d] Cannot resume log of %s:%d, running a full sync\n",
+                        context.getPort(), peerHost, peerPort);
+                context.getSyncEngine().synchronizeWithPeer(peerHost, peerPort);
+                peerEpoch = epoch;
+                appliedSequence = lastSequence;
+                saveOffset();
+                return;
+            }
+
+            int count = in.readInt();
+            List<ChangeLog.Change> changes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                changes.add(ChangeLog.Change.readFrom(in));
+            }
+            if (changes.isEmpty()) return;
+
+            context.getSyncEngine().applyChanges(peerHost, peerPort, changes);
+            appliedSequence = changes.get(changes.size() - 1).getSequence();
+            saveOffset();
+        }
+    }
+
+    /** Handles a "changes" request on the serving side; see {@link #pollOnce} for the format. */
+    static void serveChanges(ChangeLog changeLog, DataInputStream input, DataOutputStream output) throws IOException {
+        long callerEpoch = input.readLong();
+        long afterSequence = input.readLong();
+        int max = Math.max(1, Math.min(input.readInt(), BATCH_SIZE));
+        long waitMillis = Math.max(0, Math.min(input.readInt(), POLL_WAIT_MS));
+
+        List<ChangeLog.Change> changes;
+        try {
+            changes = changeLog.readAfter(callerEpoch, afterSequence, max, waitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for changes");
+        }
+
+        DataOutputStream buffered = new DataOutputStream(new BufferedOutputStream(output));
+        buffered.writeLong(changeLog.getEpoch());
+        buffered.writeLong(changeLog.getLastSequence());
+        if (changes == null) {
+            buffered.writeByte(1);
+        } else {
+            buffered.writeByte(STATUS_OK);
+            buffered.writeInt(changes.size());
+            for (ChangeLog.Change change : changes) {
+                change.writeTo(buffered);
+            }
+        }
+        buffered.flush();
+    }
+
+    private void loadOffset() {
+        if (!offsetFile.exists()) return;
+        try {
+            String[] parts = new String(Files.readAllBytes(offsetFile.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+            peerEpoch = Long.parseLong(parts[0]);
+            appliedSequence = Long.parseLong(parts[1]);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable replication offset " + offsetFile + ": " + e.getMessage());
+        }
+    }
+
+    private void saveOffset() throws IOException {
+        File tempFile = new File(offsetFile.getPath() + ".tmp");
+        Files.write(tempFile.toPath(), (peerEpoch + " " + appliedSequence).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile.toPath(), offsetFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
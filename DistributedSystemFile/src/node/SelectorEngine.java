@@ -0,0 +1,120 @@
+package node;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import utils.ThreadPools;
+
+/**
+ * Non-blocking event loop: one selector thread accepts connections and parks them
+ * until their first request bytes arrive, so idle or slow connections cost no thread.
+ * A readable connection is switched back to blocking mode and handed to a bounded
+ * worker pool. When every worker is busy, ready connections queue here; once that
+ * queue is full the loop stops accepting and new clients wait in the kernel backlog.
+ */
+public class SelectorEngine implements ConnectionEngine {
+    private static final int MAX_PARKED_PER_WORKER = 16;
+    // Closing the server channel does not wake the selector, so the loop looks at it this often
+    private static final long CLOSE_CHECK_MS = 1000;
+
+    private final int maxConcurrentRequests;
+    private final Semaphore permits;
+    private final ExecutorService workers;
+    private final Deque<SocketChannel> waiting = new ArrayDeque<>();
+    private final List<SocketChannel> handoffs = new ArrayList<>();
+    private Selector selector;
+
+    public SelectorEngine(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.permits = new Semaphore(maxConcurrentRequests);
+        ExecutorService virtualThreads = ThreadPools.newVirtualThreadExecutor();
+        this.workers = virtualThreads != null ? virtualThreads
+                : ThreadPools.newBoundedPool("node-worker", maxConcurrentRequests, maxConcurrentRequests);
+    }
+
+    @Override
+    public void serve(ServerSocketChannel serverChannel, Function<Socket, Runnable> handlerFactory) throws IOException {
+        selector = Selector.open();
+        serverChannel.configureBlocking(false);
+        SelectionKey acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        try {
+            while (serverChannel.isOpen()) {
+                selector.select(key -> onReady(key, serverChannel), CLOSE_CHECK_MS);
+
+                // Cancelled keys are only deregistered by the next select, and a channel
+                // cannot go back to blocking mode while it is still registered.
+                while (!handoffs.isEmpty()) {
+                    List<SocketChannel> batch = new ArrayList<>(handoffs);
+                    handoffs.clear();
+                    selector.selectNow(key -> onReady(key, serverChannel));
+                    waiting.addAll(batch);
+                }
+
+                dispatchWaiting(handlerFactory);
+                if (!serverChannel.isOpen()) break; // closing the channel cancelled its key
+
+                boolean saturated = waiting.size() >= maxConcurrentRequests * MAX_PARKED_PER_WORKER;
+                acceptKey.interestOps(saturated ? 0 : SelectionKey.OP_ACCEPT);
+            }
+        } finally {
+            selector.close();
+        }
+    }
+
+    private void onReady(SelectionKey key, ServerSocketChannel serverChannel) {
+        try {
+            if (key.isAcceptable()) {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                key.cancel();
+                handoffs.add((SocketChannel) key.channel());
+            }
+        } catch (IOException e) {
+            System.err.println("Selector error: " + e.getMessage());
+            key.cancel();
+        }
+    }
+
+    private void dispatchWaiting(Function<Socket, Runnable> handlerFactory) {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            SocketChannel channel = waiting.poll();
+            try {
+                channel.configureBlocking(true);
+            } catch (IOException e) {
+                permits.release();
+                closeQuietly(channel);
+                continue;
+            }
+
+            Runnable handler = handlerFactory.apply(channel.socket());
+            try {
+                workers.execute(() -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        permits.release();
+                        selector.wakeup(); // let the loop hand out the freed permit
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package node;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import utils.Checksums;
+import utils.ClusterConfig;
+import utils.FileListing;
+import utils.HashRing;
+import utils.NodeProtocol;
+import utils.RateLimiter;
+import utils.ThreadPools;
+
+/**
+ * Pulls files from peers for anti-entropy rounds and log replication. Rounds with different
+ * peers run concurrently, and the files of a round are fetched in batches that each stream
+ * back-to-back over one "readBatch" connection. A node-wide byte rate and a cap on
+ * concurrent batch transfers keep a node that is catching up from starving foreground reads.
+ * Content this node already stores under another name is linked locally instead of fetched.
+ * Copies the ring has moved to other nodes are dropped once those nodes hold them.
+ */
+public class SyncEngine {
+    public static final int MAX_BATCH_FILES = 1024;
+    private static final int BATCH_FILES = 64;
+
+    private final NodeContext context;
+    private final RateLimiter bandwidth;
+    private final ExecutorService transfers;
+    private final ExecutorService peerRounds;
+
+    /** A file to fetch, with the peer version it was announced at. */
+    public static class Pull {
+        final String department;
+        final String filename;
+        final long version;
+        final long modifiedMillis;
+        final String checksum;
+
+        public Pull(String department, String filename, long version, long modifiedMillis, String checksum) {
+            this.department = department;
+            this.filename = filename;
+            this.version = version;
+            this.modifiedMillis = modifiedMillis;
+            this.checksum = checksum;
+        }
+    }
+
+    public SyncEngine(NodeContext context, long bytesPerSecond, int maxConcurrentTransfers) {
+        this.context = context;
+        this.bandwidth = new RateLimiter(bytesPerSecond);
+        this.transfers = ThreadPools.newBoundedPool("sync-transfer-" + context.getPort(),
+                maxConcurrentTransfers, MAX_BATCH_FILES);
+        this.peerRounds = ThreadPools.newBoundedPool("sync-peer-" + context.getPort(), 4, 64);
+    }
+
+    /** Full anti-entropy round with every peer at once; returns when all are done. */
+    public void synchronizeAll(List<String> peerNodes) {
+        int localNodePort = context.getPort();
+        System.out.printf("\n🔁 [Node %d] Starting file synchronization\n", localNodePort);
+
+        List<Future<?>> rounds = new ArrayList<>();
+        for (String peerAddress : peerNodes) {
+            String[] addressParts = peerAddress.split(":");
+            String peerHost = addressParts[0];
+            int peerPort = Integer.parseInt(addressParts[1]);
+            if (peerPort == localNodePort) continue;
+            rounds.add(peerRounds.submit(() -> synchronizeWithPeer(peerHost, peerPort)));
+        }
+        for (Future<?> round : rounds) {
+            try {
+                round.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                System.err.printf("❌ [Node %d] Sync round failed: %s\n", localNodePort, e.getCause());
+            }
+        }
+        System.out.printf("✅ [Node %d] Synchronization completed\n", localNodePort);
+    }
+
+    /**
+     * Anti-entropy round with one peer: compare department roots, then bucket hashes of the
+     * departments that differ, then the files of the buckets that differ. Only files this
+     * node is a replica of and that are missing here, or whose peer copy is newer, are pulled.
+     */
+    public void synchronizeWithPeer(String peerHost, int peerPort) {
+        int localNodePort = context.getPort();
+        NamespaceIndex namespace = context.getNamespace();
+        try {
+            Map<String, byte[]> peerRoots = askPeer(peerHost, peerPort, "merkleRoots", "", "", in -> {
+                Map<String, byte[]> roots = new HashMap<>();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String department = in.readUTF();
+                    byte[] root = new byte[MerkleTree.HASH_BYTES];
+                    in.readFully(root);
+                    roots.put(department, root);
+                }
+                return roots;
+            });
+
+            List<Pull> staleFiles = new ArrayList<>();
+            int differingBuckets = 0;
+            FileListing.Visitor collector = new FileListing.Visitor() {
+                @Override
+                public void department(String department) { }
+
+                @Override
+                public void file(String department, String filename, long size, long modifiedMillis, String checksum,
+                                 long version) {
+                    if (context.isReplicaOf(filename) && peerCopyWins(namespace.lookup(department, filename),
+                            version, modifiedMillis, checksum)) {
+                        staleFiles.add(new Pull(department, filename, version, modifiedMillis, checksum));
+                    }
+                }
+            };
+
+            for (Map.Entry<String, byte[]> peerRoot : peerRoots.entrySet()) {
+                String department = peerRoot.getKey();
+                MerkleTree localTree = namespace.tree(department);
+                if (Arrays.equals(localTree.root(), peerRoot.getValue())) continue;
+
+                byte[][] peerLeaves = askPeer(peerHost, peerPort, "merkleLeaves", department, "", in -> {
+                    byte[][] leaves = new byte[MerkleTree.BUCKETS][MerkleTree.HASH_BYTES];
+                    for (byte[] leaf : leaves) {
+                        in.readFully(leaf);
+                    }
+                    return leaves;
+                });
+                byte[][] localLeaves = localTree.leaves();
+                for (int bucket = 0; bucket < MerkleTree.BUCKETS; bucket++) {
+                    if (Arrays.equals(localLeaves[bucket], peerLeaves[bucket])) continue;
+                    differingBuckets++;
+                    askPeer(peerHost, peerPort, "merkleBucket", department, String.valueOf(bucket),
+                            in -> FileListing.read(in, collector));
+                }
+            }
+
+            System.out.printf("📥 [Node %d] %d differing buckets, %d files to pull from %s:%d\n",
+                    localNodePort, differingBuckets, staleFiles.size(), peerHost, peerPort);
+            int stored = pull(peerHost, peerPort, staleFiles);
+            System.out.printf("✔️ [Node %d] Sync complete with %s:%d (%d files stored)\n",
+                    localNodePort, peerHost, peerPort, stored);
+        } catch (IOException e) {
+            System.err.printf("❌ [Node %d] Sync with %s:%d failed: %s\n",
+                    localNodePort, peerHost, peerPort, e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a batch of changes from a peer's log in order. Consecutive uploads of files this
+     * node is a replica of are pulled together; pending pulls are finished before a delete so
+     * the order is kept. Deletes apply everywhere, so copies on former replicas go too.
+     * Throws if the peer could not be reached, so the caller retries the batch.
+     */
+    public void applyChanges(String peerHost, int peerPort, List<ChangeLog.Change> changes) throws IOException {
+        List<Pull> pending = new ArrayList<>();
+        for (ChangeLog.Change change : changes) {
+            String department = change.getDepartment();
+            String filename = change.getFilename();
+            if (change.getOperation() == ChangeLog.DELETE) {
+                pull(peerHost, peerPort, pending);
+                pending.clear();
+                if (NodeService.deleteStoredFile(context, department, filename, change.getModifiedMillis())) {
+                    System.out.printf("🗑️ [Node %d] Replicated delete of %s/%s from %s:%d\n",
+                            context.getPort(), department, filename, peerHost, peerPort);
+                }
+            } else if (context.isReplicaOf(filename) && peerCopyWins(context.getNamespace().lookup(department, filename),
+                    change.getVersion(), change.getModifiedMillis(), change.getChecksum())) {
+                pending.add(new Pull(department, filename, change.getVersion(), change.getModifiedMillis(),
+                        change.getChecksum()));
+            }
+        }
+        pull(peerHost, peerPort, pending);
+    }
+
+    /** Fetches the files in concurrent batches; returns how many were stored. */
+    public int pull(String peerHost, int peerPort, List<Pull> files) throws IOException {
+        int stored = 0;
+        List<Pull> toFetch = new ArrayList<>();
+        for (Pull file : files) {
+            if (linkStoredContent(file)) {
+                stored++;
+            } else {
+                toFetch.add(file);
+            }
+        }
+        if (toFetch.isEmpty()) return stored;
+
+        List<Future<Integer>> batches = new ArrayList<>();
+        for (int start = 0; start < toFetch.size(); start += BATCH_FILES) {
+            List<Pull> batch = toFetch.subList(start, Math.min(toFetch.size(), start + BATCH_FILES));
+            batches.add(transfers.submit(() -> fetchBatch(peerHost, peerPort, batch)));
+        }
+
+        IOException failure = null;
+        for (Future<Integer> batch : batches) {
+            try {
+                stored += batch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while pulling from peer");
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            }
+        }
+        if (failure != null) throw failure;
+        return stored;
+    }
+
+    private int fetchBatch(String peerHost, int peerPort, List<Pull> batch) throws IOException {
+        try (Socket socket = new Socket(peerHost, peerPort);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+
+            out.writeUTF("readBatch");
+            out.writeUTF("");
+            out.writeUTF("");
+            out.writeInt(batch.size());
+            for (Pull file : batch) {
+                out.writeUTF(file.department);
+                out.writeUTF(file.filename);
+            }
+            out.flush();
+
+            int stored = 0;
+            for (Pull file : batch) {
+                long fileSize = in.readLong();
+                if (fileSize == NodeProtocol.READ_NOT_FOUND) {
+                    System.err.printf("⚠️ File %s/%s not found on %s:%d\n",
+                            file.department, file.filename, peerHost, peerPort);
+                    continue;
+                }
+                long modifiedMillis = in.readLong();
+                long version = in.readLong();
+                if (storePulledFile(file, in, fileSize, version, modifiedMillis)) {
+                    System.out.printf("💾 Saved %s/%s (%d bytes) from %s:%d\n",
+                            file.department, file.filename, fileSize, peerHost, peerPort);
+                    stored++;
+                }
+            }
+            return stored;
+        }
+    }
+
+    /** Stores the announced version from a local blob of the same content; false if there is none. */
+    private boolean linkStoredContent(Pull file) throws IOException {
+        long size = context.getContentStore().sizeOf(file.checksum);
+        if (size < 0) return false;
+
+        File targetFile = context.getNamespace().fileOf(file.department, file.filename);
+        Files.createDirectories(targetFile.getParentFile().toPath());
+        FileLocks.Held held = context.getFileLocks().write(file.department, file.filename);
+        try {
+            if (!peerCopyWins(context.getNamespace().lookup(file.department, file.filename),
+                    file.version, file.modifiedMillis, file.checksum)) {
+                return false;
+            }
+            if (!NodeService.installStoredFile(context, null, new NamespaceIndex.FileEntry(file.department,
+                    file.filename, size, file.modifiedMillis, file.checksum, file.version))) {
+                return false;
+            }
+        } finally {
+            held.release();
+        }
+        System.out.printf("🔗 [Node %d] Linked %s/%s to content already stored here\n",
+                context.getPort(), file.department, file.filename);
+        return true;
+    }
+
+    /**
+     * Spools one file body to a temp file at the allowed rate, then moves it into place
+     * unless a newer write landed here in the meantime.
+     */
+    private boolean storePulledFile(Pull file, DataInputStream in, long fileSize, long version,
+                                    long modifiedMillis) throws IOException {
+        File targetFile = context.getNamespace().fileOf(file.department, file.filename);
+        Files.createDirectories(targetFile.getParentFile().toPath());
+        File tempFile = File.createTempFile("." + file.filename + ".", ".part", targetFile.getParentFile());
+
+        MessageDigest digest = Checksums.newDigest();
+        try (OutputStream fileOut = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)), digest)) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = fileSize;
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                bandwidth.acquire(length);
+                in.readFully(buffer, 0, length);
+                fileOut.write(buffer, 0, length);
+                remaining -= length;
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        } catch (InterruptedException e) {
+            tempFile.delete();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while pulling " + file.filename);
+        }
+
+        String checksum = Checksums.toHex(digest.digest());
+        FileLocks.Held held = context.getFileLocks().write(file.department, file.filename);
+        try {
+            if (!peerCopyWins(context.getNamespace().lookup(file.department, file.filename),
+                    version, modifiedMillis, checksum)) {
+                tempFile.delete(); // a newer write landed here while we were downloading
+                return false;
+            }
+            try {
+                // Keeps the writer's version and timestamp for last-writer-wins
+                NodeService.installStoredFile(context, tempFile, new NamespaceIndex.FileEntry(file.department,
+                        file.filename, fileSize, modifiedMillis, checksum, version));
+            } catch (IOException e) {
+                tempFile.delete();
+                throw e;
+            }
+        } finally {
+            held.release();
+        }
+        return true;
+    }
+
+    /**
+     * The higher version wins, so every replica ends up with the version the last write was
+     * issued. Between equal versions (files stored before versions existed) the last writer wins
+     * by timestamp, and equal timestamps are broken by checksum so both sides agree.
+     */
+    static boolean peerCopyWins(NamespaceIndex.FileEntry local, long peerVersion, long peerModifiedMillis,
+                                String peerChecksum) {
+        if (local == null) return true;
+        if (peerVersion != local.getVersion()) return peerVersion > local.getVersion();
+        if (local.getChecksum().equals(peerChecksum)) return false;
+        if (peerModifiedMillis != local.getModifiedMillis()) return peerModifiedMillis > local.getModifiedMillis();
+        return peerChecksum.compareTo(local.getChecksum()) > 0;
+    }
+
+    /**
+     * Drops the copies of files the ring no longer places on this node, once every one of their
+     * current replicas answers "stat" with the same version or a newer one. Replicas are asked
+     * in one "batch" request per node and up to {@link NodeProtocol#BATCH_MAX_REQUESTS} files.
+     * Returns how many copies were dropped.
+     */
+    public int dropMovedCopies() {
+        HashRing ring = context.getRing();
+        if (!ring.getNodes().contains(context.getAddress())) return 0; // not on the ring yet
+
+        NamespaceIndex namespace = context.getNamespace();
+        List<NamespaceIndex.FileEntry> moved = new ArrayList<>();
+        Map<String, List<NamespaceIndex.FileEntry>> byReplica = new HashMap<>();
+        Map<NamespaceIndex.FileEntry, Integer> replicaCounts = new IdentityHashMap<>();
+        for (String department : namespace.getDepartments()) {
+            for (NamespaceIndex.FileEntry entry : namespace.list(department)) {
+                List<String> replicas = ring.replicasFor(entry.getFilename(), ClusterConfig.REPLICATION_FACTOR);
+                if (replicas.contains(context.getAddress())) continue;
+                moved.add(entry);
+                replicaCounts.put(entry, replicas.size());
+                for (String replica : replicas) {
+                    byReplica.computeIfAbsent(replica, k -> new ArrayList<>()).add(entry);
+                }
+            }
+        }
+        if (moved.isEmpty()) return 0;
+
+        Map<NamespaceIndex.FileEntry, Integer> confirmed = new IdentityHashMap<>();
+        for (Map.Entry<String, List<NamespaceIndex.FileEntry>> replica : byReplica.entrySet()) {
+            String[] addressParts = replica.getKey().split(":");
+            List<NamespaceIndex.FileEntry> entries = replica.getValue();
+            for (int start = 0; start < entries.size(); start += NodeProtocol.BATCH_MAX_REQUESTS) {
+                List<NamespaceIndex.FileEntry> batch =
+                        entries.subList(start, Math.min(entries.size(), start + NodeProtocol.BATCH_MAX_REQUESTS));
+                try {
+                    askPeer(addressParts[0], Integer.parseInt(addressParts[1]), "batch", "", "", out -> {
+                        out.writeInt(batch.size());
+                        for (NamespaceIndex.FileEntry entry : batch) {
+                            out.writeUTF("stat");
+                            out.writeUTF(entry.getDepartment());
+                            out.writeUTF(entry.getFilename());
+                        }
+                    }, in -> {
+                        for (NamespaceIndex.FileEntry entry : batch) {
+                            if (holdsCopy(in, entry)) confirmed.merge(entry, 1, Integer::sum);
+                        }
+                        return null;
+                    });
+                } catch (IOException e) {
+                    // Its files stay here until a later round reaches it
+                    System.err.printf("❌ [Node %d] Could not check moved files on %s: %s\n",
+                            context.getPort(), replica.getKey(), e.getMessage());
+                }
+            }
+        }
+
+        int dropped = 0;
+        for (NamespaceIndex.FileEntry entry : moved) {
+            if (replicaCounts.get(entry).equals(confirmed.get(entry)) && NodeService.dropMovedCopy(context, entry)) {
+                dropped++;
+            }
+        }
+        System.out.printf("🧹 [Node %d] Dropped %d of %d copies the ring moved away\n",
+                context.getPort(), dropped, moved.size());
+        return dropped;
+    }
+
+    // Reads one "stat" reply; true if the replica holds this version of the file or a newer one
+    private static boolean holdsCopy(DataInputStream in, NamespaceIndex.FileEntry local) throws IOException {
+        if (in.readLong() < 0) {
+            in.readLong(); // when it was deleted there
+            return false;
+        }
+        long modifiedMillis = in.readLong();
+        String checksum = in.readUTF();
+        in.readUTF();
+        long version = in.readLong();
+        return (version == local.getVersion() && checksum.equals(local.getChecksum()))
+                || peerCopyWins(local, version, modifiedMillis, checksum);
+    }
+
+    interface PeerRequest {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    interface PeerReply<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    static <T> T askPeer(String peerHost, int peerPort, String command, String department,
+                        String filename, PeerReply<T> reply) throws IOException {
+        return askPeer(peerHost, peerPort, command, department, filename, out -> { }, reply);
+    }
+
+    static <T> T askPeer(String peerHost, int peerPort, String command, String department,
+                        String filename, PeerRequest body, PeerReply<T> reply) throws IOException {
+        try (Socket socket = new Socket(peerHost, peerPort);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            out.writeUTF(command);
+            out.writeUTF(department);
+            out.writeUTF(filename);
+            body.write(out);
+            out.flush();
+            return reply.read(in);
+        }
+    }
+}
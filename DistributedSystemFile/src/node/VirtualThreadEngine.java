@@ -0,0 +1,59 @@
+package node;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import utils.ThreadPools;
+
+/**
+ * Blocking accept loop that runs each connection on a virtual thread (JDK 21+),
+ * or on a bounded platform pool on older runtimes. A semaphore caps the number of
+ * connections being served; once it is exhausted the loop stops accepting and new
+ * connections wait in the kernel backlog.
+ */
+public class VirtualThreadEngine implements ConnectionEngine {
+    private final Semaphore permits;
+    private final ExecutorService workers;
+
+    public VirtualThreadEngine(int maxConcurrentRequests) {
+        this.permits = new Semaphore(maxConcurrentRequests);
+        ExecutorService virtualThreads = ThreadPools.newVirtualThreadExecutor();
+        if (virtualThreads == null) {
+            System.out.println("⚠️ Virtual threads unavailable on this JVM, using a bounded thread pool");
+            this.workers = ThreadPools.newBoundedPool("node-worker", maxConcurrentRequests, maxConcurrentRequests);
+        } else {
+            this.workers = virtualThreads;
+        }
+    }
+
+    @Override
+    public void serve(ServerSocketChannel serverChannel, Function<Socket, Runnable> handlerFactory) throws IOException {
+        while (serverChannel.isOpen()) {
+            permits.acquireUninterruptibly();
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                permits.release();
+                return; // closed while waiting for a connection
+            } catch (IOException e) {
+                permits.release();
+                throw e;
+            }
+
+            Runnable handler = handlerFactory.apply(channel.socket());
+            workers.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Short-lived permission for a client to move one file's data directly to or from the
+ * storage nodes. The coordinator signs the operation, department, filename, version and
+ * expiry time with the cluster secret (-Dcluster.secret), and nodes check the signature
+ * before serving, so a ticket cannot be reused for another file or after it expired.
+ *
+ * A ticket is "expiresMillis:hex HMAC-SHA256".
+ */
+public class AccessTicket {
+    public static final String PUT = "put";
+    public static final String GET = "get";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    public static String issue(String operation, String department, String filename, long version, long ttlMillis) {
+        long expiresMillis = System.currentTimeMillis() + ttlMillis;
+        return expiresMillis + ":" + sign(operation, department, filename, version, expiresMillis);
+    }
+
+    public static boolean verify(String ticket, String operation, String department, String filename, long version) {
+        int separator = ticket.indexOf(':');
+        if (separator < 0) return false;
+        long expiresMillis;
+        try {
+            expiresMillis = Long.parseLong(ticket.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expiresMillis < System.currentTimeMillis()) return false;
+        String expected = sign(operation, department, filename, version, expiresMillis);
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                ticket.substring(separator + 1).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String sign(String operation, String department, String filename, long version, long expiresMillis) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(ClusterConfig.SECRET.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+            String signed = operation + "\n" + department + "\n" + filename + "\n" + version + "\n" + expiresMillis;
+            return Checksums.toHex(mac.doFinal(signed.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        }
+    }
+}
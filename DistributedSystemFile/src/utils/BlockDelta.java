@@ -0,0 +1,314 @@
+package utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * rsync-style deltas. The holder of the old file sends a {@link Signature}: a weak rolling
+ * checksum and a strong hash for every fixed-size block. The holder of the new file slides
+ * over it byte by byte, and every window that matches an old block becomes a COPY of that
+ * block; everything else is sent as LITERAL bytes. Only changed regions cross the wire.
+ *
+ * Instructions are a stream of [byte COPY][int firstBlock][int blockCount],
+ * [byte LITERAL][int length][bytes] and a final [byte END].
+ */
+public class BlockDelta {
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 128 * 1024;
+    private static final int STRONG_BYTES = 16;
+
+    private static final byte END = 0;
+    private static final byte COPY = 1;
+    private static final byte LITERAL = 2;
+
+    /** Block hashes of the file a delta will be computed against. */
+    public static class Signature implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String baseChecksum;
+        private final long fileSize;
+        private final int blockSize;
+        private final int[] weak;
+        private final byte[] strong; // STRONG_BYTES per block
+
+        Signature(String baseChecksum, long fileSize, int blockSize, int[] weak, byte[] strong) {
+            this.baseChecksum = baseChecksum;
+            this.fileSize = fileSize;
+            this.blockSize = blockSize;
+            this.weak = weak;
+            this.strong = strong;
+        }
+
+        public String getBaseChecksum() { return baseChecksum; }
+        public long getFileSize() { return fileSize; }
+        public int getBlockSize() { return blockSize; }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeUTF(baseChecksum);
+            out.writeLong(fileSize);
+            out.writeInt(blockSize);
+            out.writeInt(weak.length);
+            for (int i = 0; i < weak.length; i++) {
+                out.writeInt(weak[i]);
+                out.write(strong, i * STRONG_BYTES, STRONG_BYTES);
+            }
+        }
+
+        public static Signature readFrom(DataInputStream in) throws IOException {
+            String baseChecksum = in.readUTF();
+            long fileSize = in.readLong();
+            int blockSize = in.readInt();
+            int blocks = in.readInt();
+            if (blocks < 0 || (long) blocks * blockSize > fileSize + blockSize) {
+                throw new IOException("Invalid signature block count: " + blocks);
+            }
+            int[] weak = new int[blocks];
+            byte[] strong = new byte[blocks * STRONG_BYTES];
+            for (int i = 0; i < blocks; i++) {
+                weak[i] = in.readInt();
+                in.readFully(strong, i * STRONG_BYTES, STRONG_BYTES);
+            }
+            return new Signature(baseChecksum, fileSize, blockSize, weak, strong);
+        }
+    }
+
+    /** Instructions that turn the file with {@code baseChecksum} into the one with {@code resultChecksum}. */
+    public static class Delta implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String baseChecksum;
+        private final String resultChecksum;
+        private final long resultSize;
+        private final int blockSize;
+        private final byte[] instructions;
+        private final long literalBytes;
+
+        Delta(String baseChecksum, String resultChecksum, long resultSize, int blockSize,
+              byte[] instructions, long literalBytes) {
+            this.baseChecksum = baseChecksum;
+            this.resultChecksum = resultChecksum;
+            this.resultSize = resultSize;
+            this.blockSize = blockSize;
+            this.instructions = instructions;
+            this.literalBytes = literalBytes;
+        }
+
+        public String getBaseChecksum() { return baseChecksum; }
+        public String getResultChecksum() { return resultChecksum; }
+        public long getResultSize() { return resultSize; }
+        public int getBlockSize() { return blockSize; }
+        public byte[] getInstructions() { return instructions; }
+        public long getLiteralBytes() { return literalBytes; }
+    }
+
+    public static int blockSizeFor(long fileSize) {
+        long sqrt = (long) Math.sqrt((double) fileSize);
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, Long.highestOneBit(Math.max(1, sqrt))));
+    }
+
+    /** Hashes every block of a file of {@code fileSize} bytes read from {@code in}. */
+    public static Signature signature(InputStream in, long fileSize, String baseChecksum) throws IOException {
+        int blockSize = blockSizeFor(fileSize);
+        int blocks = (int) ((fileSize + blockSize - 1) / blockSize);
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_BYTES];
+        MessageDigest digest = Checksums.newDigest();
+        byte[] block = new byte[blockSize];
+
+        for (int i = 0; i < blocks; i++) {
+            int length = (int) Math.min(blockSize, fileSize - (long) i * blockSize);
+            int read = in.readNBytes(block, 0, length);
+            if (read < length) throw new EOFException("File shrank while computing its signature");
+            weak[i] = weakChecksum(block, 0, length);
+            digest.update(block, 0, length);
+            System.arraycopy(digest.digest(), 0, strong, i * STRONG_BYTES, STRONG_BYTES);
+        }
+        return new Signature(baseChecksum, fileSize, blockSize, weak, strong);
+    }
+
+    /** Computes the delta from the signed file to {@code data} (read from position 0 to its limit). */
+    public static Delta compute(Signature signature, ByteBuffer data) throws IOException {
+        int blockSize = signature.blockSize;
+        Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+        for (int i = 0; i < signature.weak.length; i++) {
+            // Only whole blocks can match a full window; a short last block is sent as literal
+            if ((long) (i + 1) * blockSize <= signature.fileSize) {
+                blocksByWeak.computeIfAbsent(signature.weak[i], k -> new ArrayList<>(1)).add(i);
+            }
+        }
+
+        InstructionWriter writer = new InstructionWriter(data);
+        MessageDigest digest = Checksums.newDigest();
+        byte[] window = new byte[blockSize];
+        int size = data.limit();
+        int position = 0;
+        int literalStart = 0;
+        int a = 0;
+        int b = 0;
+        boolean windowValid = false;
+
+        while (position + blockSize <= size) {
+            if (!windowValid) {
+                int[] sums = sums(data, position, blockSize);
+                a = sums[0];
+                b = sums[1];
+                windowValid = true;
+            }
+            List<Integer> candidates = blocksByWeak.get((b << 16) | a);
+            int matched = -1;
+            if (candidates != null) {
+                for (int offset = 0; offset < blockSize; offset++) {
+                    window[offset] = data.get(position + offset);
+                }
+                digest.update(window);
+                byte[] hash = digest.digest();
+                for (int block : candidates) {
+                    if (Arrays.equals(hash, 0, STRONG_BYTES, signature.strong,
+                            block * STRONG_BYTES, (block + 1) * STRONG_BYTES)) {
+                        matched = block;
+                        break;
+                    }
+                }
+            }
+
+            if (matched >= 0) {
+                writer.literal(literalStart, position);
+                writer.copy(matched);
+                position += blockSize;
+                literalStart = position;
+                windowValid = false;
+                continue;
+            }
+
+            // Roll the window one byte forward
+            if (position + blockSize < size) {
+                int out = data.get(position) & 0xff;
+                int in = data.get(position + blockSize) & 0xff;
+                a = (a - out + in) & 0xffff;
+                b = (b - blockSize * out + a) & 0xffff;
+            }
+            position++;
+        }
+        writer.literal(literalStart, size);
+
+        MessageDigest resultDigest = Checksums.newDigest();
+        ByteBuffer whole = data.duplicate();
+        whole.position(0);
+        resultDigest.update(whole);
+        return new Delta(signature.baseChecksum, Checksums.toHex(resultDigest.digest()), size, blockSize,
+                writer.finish(), writer.literalBytes);
+    }
+
+    /**
+     * Rebuilds the new file into {@code out} from {@code base} and the instruction stream.
+     * Returns the number of bytes written.
+     */
+    public static long apply(DataInputStream instructions, RandomAccessFile base, int blockSize,
+                             OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long written = 0;
+        while (true) {
+            byte tag = instructions.readByte();
+            if (tag == END) return written;
+            if (tag == COPY) {
+                long offset = (long) instructions.readInt() * blockSize;
+                long length = Math.min((long) instructions.readInt() * blockSize, base.length() - offset);
+                if (offset < 0 || length < 0) throw new IOException("COPY outside the base file");
+                base.seek(offset);
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = base.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) throw new EOFException("Base file ended inside a COPY");
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                written += length;
+            } else if (tag == LITERAL) {
+                int length = instructions.readInt();
+                if (length < 0 || length > ChunkedTransfer.CHUNK_SIZE) throw new IOException("Invalid literal length: " + length);
+                ChunkedTransfer.copy(instructions, out, length);
+                written += length;
+            } else {
+                throw new IOException("Unknown delta instruction: " + tag);
+            }
+        }
+    }
+
+    private static int weakChecksum(byte[] block, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = block[offset + i] & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return ((b & 0xffff) << 16) | (a & 0xffff);
+    }
+
+    private static int[] sums(ByteBuffer data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = data.get(offset + i) & 0xff;
+            a += value;
+            b += (length - i) * value;
+        }
+        return new int[]{a & 0xffff, b & 0xffff};
+    }
+
+    /** Encodes instructions, merging runs of consecutive blocks into one COPY. */
+    private static class InstructionWriter {
+        private final ByteBuffer data;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int copyStart = -1;
+        private int copyCount;
+        private long literalBytes;
+
+        InstructionWriter(ByteBuffer data) {
+            this.data = data;
+        }
+
+        void copy(int block) throws IOException {
+            if (copyStart >= 0 && copyStart + copyCount == block) {
+                copyCount++;
+                return;
+            }
+            flushCopy();
+            copyStart = block;
+            copyCount = 1;
+        }
+
+        void literal(int from, int to) throws IOException {
+            if (from >= to) return;
+            flushCopy();
+            byte[] piece = new byte[Math.min(ChunkedTransfer.CHUNK_SIZE, to - from)];
+            for (int start = from; start < to; start += piece.length) {
+                int length = Math.min(piece.length, to - start);
+                ByteBuffer slice = data.duplicate();
+                slice.position(start);
+                slice.get(piece, 0, length);
+                out.writeByte(LITERAL);
+                out.writeInt(length);
+                out.write(piece, 0, length);
+            }
+            literalBytes += to - from;
+        }
+
+        byte[] finish() throws IOException {
+            flushCopy();
+            out.writeByte(END);
+            return bytes.toByteArray();
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyStart < 0) return;
+            out.writeByte(COPY);
+            out.writeInt(copyStart);
+            out.writeInt(copyCount);
+            copyStart = -1;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package utils;
+
+import java.io.*;
+
+/**
+ * Chunk framing shared by the coordinator and the storage nodes.
+ * A stream is a sequence of [int length][bytes] frames closed by a zero-length
+ * frame; a negative length tells the receiver the sender gave up.
+ */
+public class ChunkedTransfer {
+    public static final int CHUNK_SIZE = 1024 * 1024; // 1 MB per frame / RMI call
+    public static final int END_OF_STREAM = 0;
+    public static final int ABORTED = -1;
+
+    public static void writeChunk(DataOutputStream out, byte[] data, int offset, int length) throws IOException {
+        out.writeInt(length);
+        out.write(data, offset, length);
+    }
+
+    public static void writeEnd(DataOutputStream out) throws IOException {
+        out.writeInt(END_OF_STREAM);
+        out.flush();
+    }
+
+    public static void writeAbort(DataOutputStream out) throws IOException {
+        out.writeInt(ABORTED);
+        out.flush();
+    }
+
+    /**
+     * Copies chunk frames from {@code in} to {@code sink} using a single reusable buffer.
+     * Returns the number of bytes copied, or -1 if the sender aborted the stream.
+     */
+    public static long readChunks(DataInputStream in, OutputStream sink) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        while (true) {
+            int length = in.readInt();
+            if (length == END_OF_STREAM) return total;
+            if (length < 0) return -1;
+            if (length > CHUNK_SIZE) throw new IOException("Chunk too large: " + length);
+
+            int remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                if (read < 0) throw new EOFException("Stream ended inside a chunk");
+                sink.write(buffer, 0, read);
+                remaining -= read;
+            }
+            total += length;
+        }
+    }
+
+    /** Copies exactly {@code length} raw bytes from {@code in} to {@code sink}. */
+    public static void copy(InputStream in, OutputStream sink, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) throw new EOFException("Stream ended after " + (length - remaining) + " of " + length + " bytes");
+            sink.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package utils;
+
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * Cluster layout shared by the coordinator and the nodes, set with -Dcluster.* properties:
+ * the node addresses, the replication factor N, the write and read quorums W and R, the
+ * number of virtual nodes per node on the hash ring, and the secret access tickets are signed with.
+ */
+public class ClusterConfig {
+    public static final List<String> NODES = Collections.unmodifiableList(Arrays.asList(
+            System.getProperty("cluster.nodes", "127.0.0.1:3001,127.0.0.1:3002,127.0.0.1:3003").split(",")));
+    public static final int VIRTUAL_NODES = Integer.getInteger("cluster.virtualNodes", 128);
+    public static final int REPLICATION_FACTOR = clamp(Integer.getInteger("cluster.replicationFactor", 3), NODES.size());
+    public static final int WRITE_QUORUM = clamp(Integer.getInteger("cluster.writeQuorum", REPLICATION_FACTOR / 2 + 1),
+            REPLICATION_FACTOR);
+    public static final int READ_QUORUM = clamp(Integer.getInteger("cluster.readQuorum", 1), REPLICATION_FACTOR);
+    // Signs the access tickets clients present to nodes; set the same value on every process.
+    // Without one each process makes up its own, and no ticket is issued that a node would accept.
+    public static final boolean SECRET_CONFIGURED = !System.getProperty("cluster.secret", "").isEmpty();
+    public static final String SECRET = SECRET_CONFIGURED ? System.getProperty("cluster.secret") : randomSecret();
+
+    public static HashRing newRing() {
+        return new HashRing(NODES, VIRTUAL_NODES);
+    }
+
+    public static String describe() {
+        return String.format("nodes=%d N=%d W=%d R=%d", NODES.size(), REPLICATION_FACTOR, WRITE_QUORUM, READ_QUORUM);
+    }
+
+    /** Warns on the process's error output when direct transfers are off for lack of a secret. */
+    public static void warnIfNoSecret() {
+        if (SECRET_CONFIGURED) return;
+        System.err.println("⚠️ -Dcluster.secret is not set: direct client-to-node transfers are disabled. "
+                + "Set the same secret on the coordinator and every node to enable them.");
+    }
+
+    private static String randomSecret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Checksums.toHex(bytes);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(1, Math.min(value, max));
+    }
+}
@@ -0,0 +1,106 @@
+package utils;
+
+import java.io.*;
+
+/**
+ * Versioned binary encoding of a node's file listing, written and read as a stream so
+ * neither side holds the whole listing in memory:
+ *
+ *   [byte version]
+ *   [byte DEPARTMENT][UTF department]                               starts a department
+ *   [byte FILE][UTF filename][long size][long mtime][32-byte SHA-256][long version]
+ *                                                                   belongs to the last department
+ *   [byte END][UTF cursor]                                          empty cursor: nothing left
+ *
+ * A listing is one page; passing the returned cursor to the next "list" request resumes
+ * right after the last file sent.
+ */
+public class FileListing {
+    public static final byte VERSION = 2;
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int MAX_PAGE_SIZE = 100_000;
+
+    private static final byte END = 0;
+    private static final byte FILE = 1;
+    private static final byte DEPARTMENT = 2;
+    private static final int CHECKSUM_BYTES = 32;
+
+    /** Receives the entries of a listing in the order they were written. */
+    public interface Visitor {
+        void department(String department) throws IOException;
+        void file(String department, String filename, long size, long modifiedMillis, String checksum,
+                  long version) throws IOException;
+    }
+
+    public static String cursorOf(String department, String filename) {
+        return department + "/" + filename;
+    }
+
+    public static class Writer {
+        private final DataOutputStream out;
+
+        public Writer(DataOutputStream out) throws IOException {
+            this.out = out;
+            out.writeByte(VERSION);
+        }
+
+        public void department(String department) throws IOException {
+            out.writeByte(DEPARTMENT);
+            out.writeUTF(department);
+        }
+
+        public void file(String filename, long size, long modifiedMillis, String checksum,
+                         long version) throws IOException {
+            out.writeByte(FILE);
+            out.writeUTF(filename);
+            out.writeLong(size);
+            out.writeLong(modifiedMillis);
+            out.write(fromHex(checksum));
+            out.writeLong(version);
+        }
+
+        public void end(String cursor) throws IOException {
+            out.writeByte(END);
+            out.writeUTF(cursor);
+            out.flush();
+        }
+    }
+
+    /** Reads one page, passing every entry to {@code visitor}; returns the cursor for the next page. */
+    public static String read(DataInputStream in, Visitor visitor) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported listing version: " + version);
+
+        String department = null;
+        byte[] checksum = new byte[CHECKSUM_BYTES];
+        while (true) {
+            byte tag = in.readByte();
+            switch (tag) {
+                case END:
+                    return in.readUTF();
+                case DEPARTMENT:
+                    department = in.readUTF();
+                    visitor.department(department);
+                    break;
+                case FILE:
+                    if (department == null) throw new IOException("File entry outside a department");
+                    String filename = in.readUTF();
+                    long size = in.readLong();
+                    long modifiedMillis = in.readLong();
+                    in.readFully(checksum);
+                    visitor.file(department, filename, size, modifiedMillis, Checksums.toHex(checksum), in.readLong());
+                    break;
+                default:
+                    throw new IOException("Unknown listing entry: " + tag);
+            }
+        }
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[CHECKSUM_BYTES];
+        for (int i = 0; i < CHECKSUM_BYTES && 2 * i + 1 < hex.length(); i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
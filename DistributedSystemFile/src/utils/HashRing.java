@@ -0,0 +1,64 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Consistent-hash ring deciding which nodes hold a file. Every node is placed at many
+ * points (virtual nodes) so keys spread evenly, and adding or removing a node only moves
+ * the keys next to its points. The replicas of a key are the first distinct nodes found
+ * walking clockwise from the key's hash.
+ */
+public class HashRing {
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final List<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /** The {@code count} nodes responsible for {@code key}, in preference order. */
+    public List<String> replicasFor(String key, int count) {
+        int wanted = Math.min(count, nodes.size());
+        List<String> replicas = new ArrayList<>(wanted);
+        if (wanted == 0) return replicas;
+
+        long position = hash(key);
+        for (String node : points.tailMap(position, true).values()) {
+            if (!replicas.contains(node) && replicas.add(node) && replicas.size() == wanted) return replicas;
+        }
+        for (String node : points.headMap(position, false).values()) {
+            if (!replicas.contains(node) && replicas.add(node) && replicas.size() == wanted) return replicas;
+        }
+        return replicas;
+    }
+
+    /** Whether {@code node} is one of the {@code count} replicas of {@code key}. */
+    public boolean isReplica(String node, String key, int count) {
+        return replicasFor(key, count).contains(node);
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package utils;
+
+/**
+ * Constants of the node wire protocol shared by the coordinator and the nodes.
+ *
+ * A connection opened with the "mux" command stays open and carries many requests:
+ *   request  frame: [long requestId][UTF command][UTF department][UTF filename][int bodyLength][body]
+ *   response frame: [long requestId][int bodyLength][body]
+ * A body holds exactly the bytes the one-shot protocol exchanges after its header. A body
+ * length of {@link #MUX_FAILED} and no body answers a request the node could not serve.
+ */
+public class NodeProtocol {
+    public static final String MUX = "mux";
+
+    // Reads over a multiplexed connection return the file inline only up to this size
+    public static final int MUX_INLINE_LIMIT = ChunkedTransfer.CHUNK_SIZE;
+    public static final int MUX_MAX_BODY = MUX_INLINE_LIMIT + 64 * 1024;
+    public static final int MUX_FAILED = -1;
+
+    // Requests in one "batch" request; together they stay within MUX_INLINE_LIMIT
+    public static final int BATCH_MAX_REQUESTS = 1024;
+
+    // Size prefixes of a read response that are not sizes
+    public static final long READ_NOT_FOUND = -1;
+    public static final long READ_TOO_LARGE = -2;
+    public static final long READ_DENIED = -3;
+    public static final long READ_DEFERRED = -4; // did not fit in this batch reply; ask again
+
+    // Expected versions of a conditional upload: a file that must not exist, and no condition
+    public static final long NO_VERSION = -1;
+    public static final long ANY_VERSION = -2;
+
+    // Outcomes of a conditional update that did not apply everywhere, next to the stored version
+    public static final long UPDATE_CONFLICT = -1;    // the stored version is not the expected one
+    public static final long UPDATE_REJECTED = -2;    // invalid token or expected version
+    public static final long UPDATE_UNAVAILABLE = -3; // primary suspected or unreachable, or fewer than W replicas up
+    public static final long UPDATE_PARTIAL = -4;     // applied on the primary but not on W replicas
+}
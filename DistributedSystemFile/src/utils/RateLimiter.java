@@ -0,0 +1,41 @@
+package utils;
+
+/**
+ * Token bucket shared by the transfers it throttles. Tokens are bytes, refilled
+ * continuously at the configured rate with up to one second of burst. A rate of
+ * zero or less disables the limit.
+ */
+public class RateLimiter {
+    private final long bytesPerSecond;
+    private double available;
+    private long lastRefillNanos = System.nanoTime();
+
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = Math.max(0, bytesPerSecond);
+    }
+
+    /** Blocks until {@code bytes} may be sent; larger requests than the burst are paid off over time. */
+    public void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) return;
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            available -= bytes;
+            waitNanos = available >= 0 ? 0 : (long) (-available * 1_000_000_000L / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(bytesPerSecond, available + (now - lastRefillNanos) * bytesPerSecond / 1e9);
+        lastRefillNanos = now;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,211 @@
+package utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary protocol of the coordinator API next to RMI. A connection carries any number of
+ * calls at once; responses come back as the calls complete, matched by id:
+ *   request  frame: [int length][int callId][byte method][byte argCount][value]*
+ *   response frame: [int length][int callId][byte status][value, or UTF message on error]
+ * Methods are numbered by their position in {@link #METHODS}. Values are tagged; the types the
+ * API passes around are written field by field and anything else as a serialized object.
+ */
+public class RpcProtocol {
+    public static final int MAX_FRAME = 256 * 1024 * 1024;
+    // Requests carry at most a chunk of file data; larger uploads go through an upload session
+    public static final int MAX_REQUEST_FRAME = ChunkedTransfer.CHUNK_SIZE + 64 * 1024;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    /** Callable methods of ICoordinator; append only, the index is the wire id. */
+    public static final List<String> METHODS = List.of(
+            "signIn", "createUser", "saveFile", "getFile", "removeFile", "updateFile",
+            "beginUpload", "uploadChunk", "finishUpload", "abortUpload",
+            "beginDownload", "downloadChunk", "endDownload",
+            "getFileSignature", "updateFileDelta",
+            "getFileVersion", "getFileWithVersion", "updateFileIfVersion",
+            "planUpload", "commitUpload", "planDownload",
+            "getStatistics",
+            "saveFiles", "getFiles", "removeFiles",
+            "getFileRange", "uploadChunkAt", "getUploadOffset",
+            "linkFile");
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte BYTES = 2;
+    private static final byte LONG = 3;
+    private static final byte INT = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte STRING_LIST = 6;
+    private static final byte VERSIONED_FILE = 7;
+    private static final byte TRANSFER_PLAN = 8;
+    private static final byte OBJECT = 9;
+    private static final byte MAP = 10;
+
+    // Serialized values come from the other side of the connection; only API types are accepted
+    private static final ObjectInputFilter OBJECT_FILTER =
+            ObjectInputFilter.Config.createFilter("utils.*;java.lang.*;java.util.*;!*");
+
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof List && isStringList((List<?>) value)) {
+            List<?> list = (List<?>) value;
+            out.writeByte(STRING_LIST);
+            out.writeInt(list.size());
+            for (Object item : list) {
+                writeString(out, (String) item);
+            }
+        } else if (value instanceof VersionedFile) {
+            VersionedFile file = (VersionedFile) value;
+            out.writeByte(VERSIONED_FILE);
+            out.writeLong(file.getVersion());
+            writeValue(out, file.getData());
+        } else if (value instanceof TransferPlan) {
+            TransferPlan plan = (TransferPlan) value;
+            out.writeByte(TRANSFER_PLAN);
+            writeString(out, plan.getDepartment());
+            writeString(out, plan.getFilename());
+            out.writeLong(plan.getVersion());
+            writeValue(out, plan.getNodes());
+            out.writeInt(plan.getQuorum());
+            writeString(out, plan.getTicket());
+        } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, (String) entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(value);
+            }
+            out.writeByte(OBJECT);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    public static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case BYTES:
+                return readBytes(in);
+            case LONG:
+                return in.readLong();
+            case INT:
+                return in.readInt();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING_LIST: {
+                int count = readLength(in);
+                List<String> list = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    list.add(readString(in));
+                }
+                return list;
+            }
+            case VERSIONED_FILE: {
+                long version = in.readLong();
+                return new VersionedFile(version, (byte[]) readValue(in));
+            }
+            case TRANSFER_PLAN: {
+                String department = readString(in);
+                String filename = readString(in);
+                long version = in.readLong();
+                @SuppressWarnings("unchecked")
+                List<String> nodes = (List<String>) readValue(in);
+                int quorum = in.readInt();
+                return new TransferPlan(department, filename, version, nodes, quorum, readString(in));
+            }
+            case MAP: {
+                int count = readLength(in);
+                Map<String, Object> map = new LinkedHashMap<>(Math.min(count, 1024) * 2);
+                for (int i = 0; i < count; i++) {
+                    map.put(readString(in), readValue(in));
+                }
+                return map;
+            }
+            case OBJECT:
+                try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    objects.setObjectInputFilter(OBJECT_FILTER);
+                    return objects.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidClassException(e.getMessage());
+                }
+            default:
+                throw new IOException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static boolean isStringList(List<?> list) {
+        for (Object item : list) {
+            if (!(item instanceof String)) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasStringKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) return false;
+        }
+        return true;
+    }
+
+    // Strings are length-prefixed UTF-8 without the 64 KB limit of writeUTF
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    // Grows with the bytes actually there, so a length prefix alone allocates nothing
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = readLength(in);
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) throw new EOFException("Value cut short: " + bytes.length + " of " + length + " bytes");
+        return bytes;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) throw new IOException("Invalid length: " + length);
+        return length;
+    }
+}
@@ -0,0 +1,36 @@
+package utils;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Executor factories shared by the coordinator and the nodes. */
+public class ThreadPools {
+
+    public static ThreadFactory daemonFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor when the runtime has them (JDK 21+),
+     * or null so callers can fall back to a bounded platform pool.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Fixed-size pool whose queue is bounded; submitters run the task themselves when it is full. */
+    public static ExecutorService newBoundedPool(String name, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonFactory(name),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
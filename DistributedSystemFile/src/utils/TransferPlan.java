@@ -0,0 +1,38 @@
+package utils;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Where a client sends or fetches a file's data itself: the nodes in the order to use them,
+ * the ticket they accept, the version to store (for downloads: the version the nodes hold)
+ * and for uploads how many nodes must store it. Returned by the coordinator, which then stays
+ * out of the data path.
+ */
+public class TransferPlan implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String department;
+    private final String filename;
+    private final long version;
+    private final List<String> nodes;
+    private final int quorum;
+    private final String ticket;
+
+    public TransferPlan(String department, String filename, long version, List<String> nodes, int quorum,
+                        String ticket) {
+        this.department = department;
+        this.filename = filename;
+        this.version = version;
+        this.nodes = nodes;
+        this.quorum = quorum;
+        this.ticket = ticket;
+    }
+
+    public String getDepartment() { return department; }
+    public String getFilename() { return filename; }
+    public long getVersion() { return version; }
+    public List<String> getNodes() { return nodes; }
+    public int getQuorum() { return quorum; }
+    public String getTicket() { return ticket; }
+}
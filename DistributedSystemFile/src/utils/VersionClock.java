@@ -0,0 +1,23 @@
+package utils;
+
+/**
+ * Hybrid logical clock that stamps every write with a version. A version is the wall-clock
+ * millisecond in its high bits and a counter in the low 16, so versions follow real time
+ * across coordinator restarts and still strictly increase when the clock stalls or steps back.
+ * Version 0 is a file stored before versions existed.
+ */
+public class VersionClock {
+    private static final int COUNTER_BITS = 16;
+
+    private long last;
+
+    public synchronized long next() {
+        last = Math.max(System.currentTimeMillis() << COUNTER_BITS, last + 1);
+        return last;
+    }
+
+    /** The wall-clock time a version was issued at, or {@code fallbackMillis} for version 0. */
+    public static long millisOf(long version, long fallbackMillis) {
+        return version > 0 ? version >>> COUNTER_BITS : fallbackMillis;
+    }
+}
@@ -0,0 +1,19 @@
+package utils;
+
+import java.io.Serializable;
+
+/** File contents together with the version they were stored as. */
+public class VersionedFile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final byte[] data;
+
+    public VersionedFile(long version, byte[] data) {
+        this.version = version;
+        this.data = data;
+    }
+
+    public long getVersion() { return version; }
+    public byte[] getData() { return data; }
+}
@@ -0,0 +1,105 @@
+package client;
+
+import static utils.TestSupport.*;
+
+import coordinator.CoordinatorService;
+import coordinator.LocalCluster;
+import java.io.*;
+import java.util.*;
+import node.LocalNode;
+import node.NamespaceIndex;
+import utils.AccessTicket;
+import utils.TransferPlan;
+
+public class DirectTransferTest {
+    public static void main(String[] args) throws Exception {
+        try (LocalCluster cluster = LocalCluster.start(3)) {
+            CoordinatorService coordinator = cluster.getCoordinator();
+            String token = cluster.signIn();
+            byte[] data = new byte[300_000];
+            new Random(7).nextBytes(data);
+
+            run("a ticket is only good for its own operation, file and version until it expires", () -> {
+                String ticket = AccessTicket.issue(AccessTicket.PUT, "System", "a.txt", 5, 60_000);
+                check(AccessTicket.verify(ticket, AccessTicket.PUT, "System", "a.txt", 5), "valid ticket");
+                check(!AccessTicket.verify(ticket, AccessTicket.GET, "System", "a.txt", 5), "other operation");
+                check(!AccessTicket.verify(ticket, AccessTicket.PUT, "Sales", "a.txt", 5), "other department");
+                check(!AccessTicket.verify(ticket, AccessTicket.PUT, "System", "b.txt", 5), "other file");
+                check(!AccessTicket.verify(ticket, AccessTicket.PUT, "System", "a.txt", 6), "other version");
+
+                String expires = ticket.substring(0, ticket.indexOf(':'));
+                String later = (Long.parseLong(expires) + 3_600_000) + ticket.substring(expires.length());
+                check(!AccessTicket.verify(later, AccessTicket.PUT, "System", "a.txt", 5), "extended expiry");
+                char last = ticket.charAt(ticket.length() - 1);
+                String tampered = ticket.substring(0, ticket.length() - 1) + (last == '0' ? '1' : '0');
+                check(!AccessTicket.verify(tampered, AccessTicket.PUT, "System", "a.txt", 5), "changed signature");
+                check(!AccessTicket.verify(AccessTicket.issue(AccessTicket.PUT, "System", "a.txt", 5, -1),
+                        AccessTicket.PUT, "System", "a.txt", 5), "expired ticket");
+                check(!AccessTicket.verify("no separator", AccessTicket.PUT, "System", "a.txt", 5), "malformed ticket");
+            });
+
+            run("an upload goes down the pipeline of replicas and is committed", () -> {
+                TransferPlan plan = coordinator.planUpload(token, "direct.bin");
+                checkEquals(3, plan.getNodes().size(), "nodes planned");
+                List<String> storedOn = DirectTransfer.upload(plan, new ByteArrayInputStream(data));
+                checkEquals(new HashSet<>(plan.getNodes()), new HashSet<>(storedOn), "nodes that stored it");
+                check(coordinator.commitUpload(token, plan, storedOn), "commit");
+                for (LocalNode node : cluster.getNodes()) {
+                    checkEquals(data, node.read("System", "direct.bin"), "copy on " + node.getAddress());
+                    NamespaceIndex.FileEntry entry = node.getContext().getNamespace().lookup("System", "direct.bin");
+                    checkEquals(plan.getVersion(), entry.getVersion(), "version on " + node.getAddress());
+                }
+                checkEquals(data, coordinator.getFile(token, "direct.bin"), "read through the coordinator");
+            });
+
+            run("nodes refuse an upload whose ticket does not match", () -> {
+                TransferPlan plan = coordinator.planUpload(token, "refused.bin");
+                TransferPlan otherVersion = new TransferPlan(plan.getDepartment(), plan.getFilename(),
+                        plan.getVersion() + 1, plan.getNodes(), plan.getQuorum(), plan.getTicket());
+                checkEquals(List.of(), DirectTransfer.upload(otherVersion, new ByteArrayInputStream(data)),
+                        "stored with the ticket of another version");
+                for (LocalNode node : cluster.getNodes()) {
+                    checkEquals(null, node.read("System", "refused.bin"), "copy on " + node.getAddress());
+                }
+            });
+
+            run("a commit counts only the replicas that hold the planned version", () -> {
+                TransferPlan plan = coordinator.planUpload(token, "never-sent.bin");
+                check(!coordinator.commitUpload(token, plan, plan.getNodes()), "commit of data never sent");
+
+                TransferPlan sent = coordinator.planUpload(token, "other-department.bin");
+                List<String> storedOn = DirectTransfer.upload(sent, new ByteArrayInputStream(data));
+                TransferPlan forged = new TransferPlan("Sales", sent.getFilename(), sent.getVersion(), sent.getNodes(),
+                        sent.getQuorum(), sent.getTicket());
+                check(!coordinator.commitUpload(token, forged, storedOn), "commit for another department");
+                check(!coordinator.commitUpload("bad token", sent, storedOn), "commit with a bad token");
+            });
+
+            run("a download is read from the first node that serves it", () -> {
+                TransferPlan plan = coordinator.planDownload(token, "direct.bin");
+                checkEquals(3, plan.getNodes().size(), "nodes holding it");
+                List<String> nodes = new ArrayList<>(List.of("localhost:1"));
+                nodes.addAll(plan.getNodes());
+                TransferPlan unreachableFirst = new TransferPlan(plan.getDepartment(), plan.getFilename(),
+                        plan.getVersion(), nodes, plan.getQuorum(), plan.getTicket());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                check(DirectTransfer.download(unreachableFirst, out), "download");
+                checkEquals(data, out.toByteArray(), "content");
+                checkEquals(null, coordinator.planDownload(token, "missing.bin"), "plan for a missing file");
+            });
+
+            run("nodes refuse a download with an upload ticket", () -> {
+                TransferPlan plan = coordinator.planDownload(token, "direct.bin");
+                TransferPlan forged = new TransferPlan(plan.getDepartment(), plan.getFilename(), plan.getVersion(),
+                        plan.getNodes(), plan.getQuorum(),
+                        AccessTicket.issue(AccessTicket.PUT, "all", "direct.bin", 0, 60_000));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                check(!DirectTransfer.download(forged, out), "download with a forged ticket");
+                checkEquals(0, out.size(), "bytes written");
+            });
+        }
+
+        finish();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,124 @@
+package client;
+
+import static utils.TestSupport.*;
+
+import coordinator.CoordinatorService;
+import coordinator.ICoordinator;
+import coordinator.LocalCluster;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class FileClientTest {
+    public static void main(String[] args) throws Exception {
+        run("operations return at once and at most the given number run together", () -> {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger mostRunning = new AtomicInteger();
+            CountDownLatch release = new CountDownLatch(1);
+            ICoordinator stub = (ICoordinator) Proxy.newProxyInstance(ICoordinator.class.getClassLoader(),
+                    new Class<?>[]{ICoordinator.class}, (proxy, method, callArgs) -> {
+                        if (!method.getName().equals("removeFile")) throw new UnsupportedOperationException();
+                        mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            release.await();
+                            Thread.sleep(20);
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                        return true;
+                    });
+            FileClient client = new FileClient(stub, "token", 3);
+            List<CompletableFuture<Boolean>> deletes = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                deletes.add(client.delete("file-" + i));
+            }
+            check(deletes.stream().noneMatch(CompletableFuture::isDone), "delete finished before the coordinator answered");
+            release.countDown();
+            for (CompletableFuture<Boolean> delete : deletes) {
+                check(delete.get(10, TimeUnit.SECONDS), "delete");
+            }
+            checkEquals(3, mostRunning.get(), "operations running at once");
+            client.close();
+        });
+
+        File local = Files.createTempDirectory("client-test").toFile();
+        try (LocalCluster cluster = LocalCluster.start(3)) {
+            CoordinatorService coordinator = cluster.getCoordinator();
+            FileClient client = new FileClient(coordinator, cluster.signIn());
+            byte[] large = new byte[1_500_000];
+            new Random(3).nextBytes(large);
+
+            run("a file is uploaded and downloaded with progress", () -> {
+                File source = write(local, "large.bin", large);
+                AtomicLong uploaded = new AtomicLong();
+                check(client.upload(source, "large.bin", (done, total) -> uploaded.set(done)).get(), "upload");
+                checkEquals((long) large.length, uploaded.get(), "upload progress");
+
+                File target = new File(local, "downloads/large.bin");
+                AtomicLong downloaded = new AtomicLong();
+                check(client.download("large.bin", target, (done, total) -> downloaded.set(done)).get(), "download");
+                checkEquals(large, Files.readAllBytes(target.toPath()), "downloaded content");
+                checkEquals((long) large.length, downloaded.get(), "download progress");
+                check(!new File(target.getPath() + ".part").exists(), "partial file left behind");
+            });
+
+            run("an update of a few changed bytes replaces the file", () -> {
+                byte[] changed = large.clone();
+                changed[700_000] ^= 1;
+                check(client.update(write(local, "large.bin", changed), "large.bin", ProgressListener.NONE).get(),
+                        "update");
+                checkEquals(changed, coordinator.getFile(cluster.signIn(), "large.bin"), "updated content");
+            });
+
+            run("a missing file is not downloaded", () -> {
+                File target = new File(local, "downloads/missing.bin");
+                check(!client.download("missing.bin", target, ProgressListener.NONE).get(), "download");
+                check(!target.exists() && !new File(target.getPath() + ".part").exists(), "file left behind");
+            });
+
+            run("batches of files are uploaded, downloaded and deleted with a result per file", () -> {
+                Map<String, File> uploads = new LinkedHashMap<>();
+                for (int i = 0; i < 40; i++) {
+                    uploads.put("small-" + i, write(local, "small-" + i, ("small " + i).getBytes()));
+                }
+                uploads.put("large-copy.bin", write(local, "large-copy.bin", large));
+                Map<String, Boolean> saved = client.uploadAll(uploads).get();
+                checkEquals(uploads.keySet(), saved.keySet(), "files with a result");
+                check(!saved.containsValue(false), "failed uploads: " + saved);
+
+                Map<String, File> downloads = new LinkedHashMap<>();
+                uploads.keySet().forEach(name -> downloads.put(name, new File(local, "batch/" + name)));
+                downloads.put("missing", new File(local, "batch/missing"));
+                Map<String, Boolean> fetched = client.downloadAll(downloads).get();
+                checkEquals(false, fetched.remove("missing"), "missing file");
+                check(!fetched.containsValue(false), "failed downloads: " + fetched);
+                checkEquals("small 17", new String(Files.readAllBytes(downloads.get("small-17").toPath())), "small file");
+                checkEquals(large, Files.readAllBytes(downloads.get("large-copy.bin").toPath()), "large file");
+
+                Map<String, Boolean> deleted = client.deleteAll(uploads.keySet()).get();
+                check(!deleted.containsValue(false), "failed deletes: " + deleted);
+                checkEquals(null, coordinator.getFile(cluster.signIn(), "small-3"), "deleted file");
+            });
+            client.close();
+        } finally {
+            try (Stream<Path> paths = Files.walk(local.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        finish();
+        System.exit(0);
+    }
+
+    private static File write(File dir, String name, byte[] data) throws Exception {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+}
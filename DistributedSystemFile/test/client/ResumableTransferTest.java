@@ -0,0 +1,207 @@
+package client;
+
+import static utils.TestSupport.*;
+
+import coordinator.CoordinatorService;
+import coordinator.ICoordinator;
+import coordinator.LocalCluster;
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import node.LocalNode;
+import utils.ChunkedTransfer;
+import utils.NodeProtocol;
+import utils.VersionedFile;
+
+public class ResumableTransferTest {
+    /** Picks the coordinator calls that fail, by method and the number of the call to it, from 0. */
+    private interface Fault {
+        boolean fails(String method, int call);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Through coordinator sessions, which resume, and without linking content the cluster already has
+        System.setProperty("client.directTransfers", "false");
+        System.setProperty("client.linkCheck", "false");
+
+        File local = Files.createTempDirectory("resume-test").toFile();
+        try (LocalCluster cluster = LocalCluster.start(3)) {
+            CoordinatorService coordinator = cluster.getCoordinator();
+            String token = cluster.signIn();
+            byte[] data = new byte[2 * ChunkedTransfer.CHUNK_SIZE + 12_345];
+            new Random(11).nextBytes(data);
+            check(coordinator.saveFile(token, "large.bin", data), "save");
+
+            run("a node reads ranges from an offset, from the end and to the end", () -> {
+                LocalNode node = cluster.replicasOf("large.bin").get(0);
+                checkEquals(Arrays.copyOfRange(data, 1000, 1100), readRange(node, 1000, 100), "middle");
+                checkEquals(Arrays.copyOfRange(data, data.length - 50, data.length), readRange(node, -50, 100), "tail");
+                checkEquals(Arrays.copyOfRange(data, data.length - 10, data.length),
+                        readRange(node, data.length - 10, -1), "to the end");
+                checkEquals(new byte[0], readRange(node, data.length + 5, 100), "past the end");
+            });
+
+            run("the coordinator serves ranges with the version they belong to", () -> {
+                long version = coordinator.getFileVersion(token, "large.bin");
+                VersionedFile middle = coordinator.getFileRange(token, "large.bin", 5000, 256);
+                checkEquals(version, middle.getVersion(), "version");
+                checkEquals(Arrays.copyOfRange(data, 5000, 5256), middle.getData(), "middle");
+                checkEquals(Arrays.copyOfRange(data, data.length - 64, data.length),
+                        coordinator.getFileRange(token, "large.bin", -64, 1000).getData(), "tail");
+                checkEquals(NodeProtocol.MUX_INLINE_LIMIT,
+                        coordinator.getFileRange(token, "large.bin", 0, Integer.MAX_VALUE).getData().length, "capped range");
+                checkEquals(null, coordinator.getFileRange(token, "missing.bin", 0, 10), "missing file");
+                checkEquals(null, coordinator.getFileRange(token, "large.bin", 0, -1), "negative length");
+            });
+
+            run("an upload session takes each byte once and goes on from what it has", () -> {
+                String sessionId = coordinator.beginUpload(token, "session.bin");
+                byte[] first = Arrays.copyOfRange(data, 0, 1000);
+                checkEquals(1000L, coordinator.uploadChunkAt(sessionId, 0, first), "first chunk");
+                checkEquals(1000L, coordinator.uploadChunkAt(sessionId, 0, first), "same chunk again");
+                checkEquals(1000L, coordinator.uploadChunkAt(sessionId, 5000, Arrays.copyOfRange(data, 5000, 6000)),
+                        "chunk past the end of what it has");
+                checkEquals(1000L, coordinator.getUploadOffset(sessionId), "offset");
+                checkEquals(3000L, coordinator.uploadChunkAt(sessionId, 500, Arrays.copyOfRange(data, 500, 3000)),
+                        "overlapping chunk");
+                check(coordinator.finishUpload(sessionId), "finish");
+                checkEquals(Arrays.copyOf(data, 3000), coordinator.getFile(token, "session.bin"), "content");
+                checkEquals(-1L, coordinator.getUploadOffset(sessionId), "offset of a finished session");
+            });
+
+            File source = new File(local, "large.bin");
+            Files.write(source.toPath(), data);
+
+            run("an upload whose replies are lost is resumed and stored once", () -> {
+                // Every other chunk is stored but its reply lost on the way back
+                AtomicInteger lost = new AtomicInteger();
+                ICoordinator flaky = flaky(coordinator, (method, call) -> method.equals("uploadChunkAt") && call % 2 == 1,
+                        true, lost);
+                FileClient client = new FileClient(flaky, token);
+                check(client.upload(source, "resumed.bin", ProgressListener.NONE).get(60, TimeUnit.SECONDS), "upload");
+                check(lost.get() >= 1, "no reply was lost");
+                checkEquals(data, coordinator.getFile(token, "resumed.bin"), "content");
+                client.close();
+            });
+
+            run("an upload that keeps failing without progress gives up and ends its session", () -> {
+                AtomicInteger failed = new AtomicInteger();
+                List<String> sessions = new CopyOnWriteArrayList<>();
+                ICoordinator broken = (ICoordinator) Proxy.newProxyInstance(ICoordinator.class.getClassLoader(),
+                        new Class<?>[]{ICoordinator.class}, (proxy, method, callArgs) -> {
+                            if (method.getName().equals("uploadChunkAt") || method.getName().equals("getUploadOffset")) {
+                                failed.incrementAndGet();
+                                throw new RemoteException("connection reset");
+                            }
+                            Object result = invoke(coordinator, method, callArgs);
+                            if (method.getName().equals("beginUpload")) sessions.add((String) result);
+                            return result;
+                        });
+                FileClient client = new FileClient(broken, token);
+                try {
+                    client.upload(source, "broken.bin", ProgressListener.NONE).get(60, TimeUnit.SECONDS);
+                    throw new AssertionError("upload did not fail");
+                } catch (ExecutionException e) {
+                    check(e.getCause() instanceof RemoteException, "failure: " + e.getCause());
+                }
+                checkEquals(3, failed.get(), "failed calls before giving up");
+                checkEquals(1, sessions.size(), "sessions begun");
+                checkEquals(-1L, coordinator.getUploadOffset(sessions.get(0)), "offset of the abandoned session");
+                checkEquals(null, coordinator.getFile(token, "broken.bin"), "file stored");
+                client.close();
+            });
+
+            run("an interrupted download goes on from the bytes it has", () -> {
+                AtomicInteger lost = new AtomicInteger();
+                ICoordinator flaky = flaky(coordinator, (method, call) -> method.equals("downloadChunk") && call == 1,
+                        false, lost);
+                FileClient client = new FileClient(flaky, token);
+                File target = new File(local, "downloaded.bin");
+                check(client.download("large.bin", target, ProgressListener.NONE).get(60, TimeUnit.SECONDS), "download");
+                checkEquals(1, lost.get(), "interruptions");
+                checkEquals(data, Files.readAllBytes(target.toPath()), "content");
+                client.close();
+            });
+
+            run("a file replaced during an interrupted download is fetched again from the start", () -> {
+                byte[] replacement = Arrays.copyOf(data, data.length - 1000);
+                replacement[0] ^= 1;
+                AtomicInteger lost = new AtomicInteger();
+                ICoordinator flaky = flaky(coordinator, (method, call) -> {
+                    if (!method.equals("downloadChunk") || call != 1) return false;
+                    try {
+                        check(coordinator.saveFile(token, "large.bin", replacement), "replace");
+                    } catch (RemoteException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return true;
+                }, false, lost);
+                FileClient client = new FileClient(flaky, token);
+                File target = new File(local, "replaced.bin");
+                check(client.download("large.bin", target, ProgressListener.NONE).get(60, TimeUnit.SECONDS), "download");
+                checkEquals(replacement, Files.readAllBytes(target.toPath()), "content");
+                client.close();
+            });
+        } finally {
+            for (File file : Objects.requireNonNull(local.listFiles())) {
+                file.delete();
+            }
+            local.delete();
+        }
+
+        finish();
+        System.exit(0);
+    }
+
+    /**
+     * The coordinator, with the calls {@code fault} picks failing as if the connection dropped,
+     * counted in {@code lost}. With {@code afterCall} the call is made first, so only its reply is lost.
+     */
+    private static ICoordinator flaky(ICoordinator coordinator, Fault fault, boolean afterCall, AtomicInteger lost) {
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        return (ICoordinator) Proxy.newProxyInstance(ICoordinator.class.getClassLoader(),
+                new Class<?>[]{ICoordinator.class}, (proxy, method, callArgs) -> {
+                    int call = calls.computeIfAbsent(method.getName(), name -> new AtomicInteger()).getAndIncrement();
+                    boolean fails = fault.fails(method.getName(), call);
+                    if (fails && !afterCall) {
+                        lost.incrementAndGet();
+                        throw new RemoteException("connection reset");
+                    }
+                    Object result = invoke(coordinator, method, callArgs);
+                    if (fails) {
+                        lost.incrementAndGet();
+                        throw new RemoteException("connection reset");
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(ICoordinator coordinator, Method method, Object[] callArgs) throws Throwable {
+        try {
+            return method.invoke(coordinator, callArgs);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static byte[] readRange(LocalNode node, long offset, long length) throws IOException {
+        try (Socket socket = node.open("readRange", "System", "large.bin")) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeLong(offset);
+            out.writeLong(length);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            check(in.readLong() >= 0, "file not found");
+            in.readLong(); // version
+            byte[] range = new byte[(int) in.readLong()];
+            in.readFully(range);
+            return range;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import client.RpcClient;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import node.LocalNode;
+import utils.ChunkedTransfer;
+import utils.NodeProtocol;
+
+public class BatchOperationsTest {
+    public static void main(String[] args) throws Exception {
+        try (LocalCluster cluster = LocalCluster.start(3)) {
+            CoordinatorService coordinator = cluster.getCoordinator();
+            String token = cluster.signIn();
+            byte[] large = new byte[NodeProtocol.MUX_INLINE_LIMIT + 1];
+            new Random(5).nextBytes(large);
+
+            run("a node runs a batch of requests and defers reads past its reply limit", () -> {
+                LocalNode node = cluster.getNodes().get(0);
+                byte[] part = new byte[600_000];
+                node.upload("System", "part-1", part, 1, 64 * 1024);
+                node.upload("System", "part-2", part, 1, 64 * 1024);
+                try (Socket socket = node.open("batch", "", "")) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeInt(5);
+                    writeRequest(out, "upload", "batched.txt");
+                    out.writeLong(1);
+                    out.writeLong(NodeProtocol.ANY_VERSION);
+                    ChunkedTransfer.writeChunk(out, "batched".getBytes(), 0, 7);
+                    ChunkedTransfer.writeEnd(out);
+                    writeRequest(out, "read", "batched.txt");
+                    writeRequest(out, "read", "part-1");
+                    writeRequest(out, "read", "part-2");
+                    writeRequest(out, "delete", "batched.txt");
+                    out.flush();
+
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    checkEquals("OK", in.readUTF(), "upload");
+                    checkEquals(7L, in.readLong(), "size of the first read");
+                    in.readFully(new byte[7]);
+                    checkEquals((long) part.length, in.readLong(), "size of the second read");
+                    in.readFully(new byte[part.length]);
+                    checkEquals(NodeProtocol.READ_DEFERRED, in.readLong(), "read past the limit");
+                    checkEquals("Deleted", in.readUTF(), "delete");
+                }
+            });
+
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            for (int i = 0; i < 200; i++) {
+                files.put("small-" + i, ("small " + i).getBytes());
+            }
+            files.put("large.bin", large);
+
+            run("many files are saved at once with a result for each", () -> {
+                Map<String, Boolean> saved = coordinator.saveFiles(token, files);
+                checkEquals(new ArrayList<>(files.keySet()), new ArrayList<>(saved.keySet()), "files in order");
+                check(!saved.containsValue(false), "failed saves: " + saved);
+                for (LocalNode node : cluster.replicasOf("small-42")) {
+                    checkEquals("small 42", new String(node.read("System", "small-42")), "copy on " + node.getAddress());
+                }
+                checkEquals(large, cluster.replicasOf("large.bin").get(0).read("System", "large.bin"), "large file");
+                check(!coordinator.saveFiles("bad token", files).containsValue(true), "saved with a bad token");
+            });
+
+            run("many files are read at once in the order asked for", () -> {
+                List<String> names = new ArrayList<>(files.keySet());
+                Collections.reverse(names);
+                names.add(3, "missing");
+                Map<String, byte[]> read = coordinator.getFiles(token, names);
+                checkEquals(names, new ArrayList<>(read.keySet()), "files in order");
+                checkEquals("small 0", new String(read.get("small-0")), "first file saved");
+                checkEquals("small 199", new String(read.get("small-199")), "last file saved");
+                check(read.containsKey("missing") && read.get("missing") == null, "missing file");
+                checkEquals(null, read.get("large.bin"), "file over the inline limit");
+                checkEquals(null, coordinator.getFiles("bad token", names), "read with a bad token");
+            });
+
+            run("a batch read stops adding files once its reply is full", () -> {
+                Map<String, byte[]> big = new LinkedHashMap<>();
+                for (int i = 0; i < 8; i++) {
+                    byte[] data = new byte[NodeProtocol.MUX_INLINE_LIMIT - 1024];
+                    Arrays.fill(data, (byte) i);
+                    big.put("big-" + i, data);
+                }
+                check(!coordinator.saveFiles(token, big).containsValue(false), "save");
+                Map<String, byte[]> read = coordinator.getFiles(token, new ArrayList<>(big.keySet()));
+                checkEquals(new ArrayList<>(big.keySet()), new ArrayList<>(read.keySet()), "files in order");
+                long replyBytes = 0;
+                for (Map.Entry<String, byte[]> file : read.entrySet()) {
+                    if (file.getValue() == null) continue;
+                    checkEquals(big.get(file.getKey()), file.getValue(), "content of " + file.getKey());
+                    replyBytes += file.getValue().length;
+                }
+                check(read.containsValue(null), "all " + big.size() + " files returned");
+                // The cap is 4 MB; the round of node batches that passes it adds at most one file per node
+                check(replyBytes > 0 && replyBytes <= 4L * ChunkedTransfer.CHUNK_SIZE + 3L * NodeProtocol.MUX_INLINE_LIMIT,
+                        "reply of " + replyBytes + " bytes");
+            });
+
+            run("many files are deleted at once with a result for each", () -> {
+                List<String> names = new ArrayList<>(files.keySet());
+                names.add("missing");
+                check(!coordinator.removeFiles("bad token", names).containsValue(true), "deleted with a bad token");
+                Map<String, Boolean> removed = coordinator.removeFiles(token, names);
+                checkEquals(false, removed.remove("missing"), "missing file");
+                check(!removed.containsValue(false), "failed deletes: " + removed);
+                for (LocalNode node : cluster.getNodes()) {
+                    checkEquals(null, node.read("System", "small-42"), "copy left on " + node.getAddress());
+                }
+            });
+
+            run("an RPC client splits a batch too large for one request", () -> {
+                int port;
+                try (ServerSocket probe = new ServerSocket(0)) {
+                    port = probe.getLocalPort();
+                }
+                Thread server = new Thread(new RpcServer(coordinator, port), "test-rpc-server");
+                server.setDaemon(true);
+                server.start();
+                Map<String, byte[]> batch = new LinkedHashMap<>();
+                for (int i = 0; i < 12; i++) {
+                    batch.put("rpc-" + i, new byte[300_000]);
+                }
+                batch.put("rpc-large", large);
+                LocalCluster.await(() -> {
+                    try (RpcClient client = new RpcClient("localhost", port)) {
+                        return true;
+                    } catch (IOException e) {
+                        return false;
+                    }
+                }, "RPC server listening");
+                try (RpcClient client = new RpcClient("localhost", port)) {
+                    Map<String, Boolean> saved = client.saveFiles(token, batch);
+                    checkEquals(new ArrayList<>(batch.keySet()), new ArrayList<>(saved.keySet()), "files in order");
+                    check(!saved.containsValue(false), "failed saves: " + saved);
+                }
+                checkEquals(300_000, coordinator.getFile(token, "rpc-11").length, "last file of the batch");
+            });
+        }
+
+        finish();
+        System.exit(0);
+    }
+
+    private static void writeRequest(DataOutputStream out, String command, String filename) throws IOException {
+        out.writeUTF(command);
+        out.writeUTF("System");
+        out.writeUTF(filename);
+    }
+}
@@ -0,0 +1,139 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import node.LocalNode;
+import node.NamespaceIndex;
+import utils.ChunkedTransfer;
+import utils.NodeProtocol;
+import utils.VersionClock;
+import utils.VersionedFile;
+
+public class ConditionalUpdateTest {
+    public static void main(String[] args) throws Exception {
+        run("versions strictly increase and carry the time they were issued at", () -> {
+            VersionClock clock = new VersionClock();
+            long before = System.currentTimeMillis();
+            long last = 0;
+            for (int i = 0; i < 200_000; i++) {
+                long version = clock.next();
+                check(version > last, "version " + version + " after " + last);
+                last = version;
+            }
+            long issuedAt = VersionClock.millisOf(last, 0);
+            check(issuedAt >= before && issuedAt <= System.currentTimeMillis() + 10_000, "issued at " + issuedAt);
+            checkEquals(1234L, VersionClock.millisOf(0, 1234), "time of version 0");
+        });
+
+        try (LocalCluster cluster = LocalCluster.start(3)) {
+            CoordinatorService coordinator = cluster.getCoordinator();
+            String token = cluster.signIn();
+
+            run("a node stores a conditional upload only over the expected version", () -> {
+                LocalNode node = cluster.getNodes().get(0);
+                checkEquals("OK", upload(node, "node.txt", "first", 10, NodeProtocol.NO_VERSION), "create");
+                checkEquals("VersionMismatch", upload(node, "node.txt", "again", 11, NodeProtocol.NO_VERSION),
+                        "create over an existing file");
+                checkEquals("VersionMismatch", upload(node, "node.txt", "stale", 12, 9), "update from another version");
+                checkEquals("OK", upload(node, "node.txt", "second", 12, 10), "update from the stored version");
+                checkEquals("OK", upload(node, "node.txt", "late", 11, NodeProtocol.ANY_VERSION), "older write");
+                checkEquals("second", new String(node.read("System", "node.txt")), "content");
+            });
+
+            run("an update applies only over the version it was based on", () -> {
+                checkEquals(NodeProtocol.NO_VERSION, coordinator.getFileVersion(token, "doc.txt"), "version of a new file");
+                long created = coordinator.updateFileIfVersion(token, "doc.txt", NodeProtocol.NO_VERSION, "v1".getBytes());
+                check(created > 0, "create returned " + created);
+                checkEquals(created, coordinator.getFileVersion(token, "doc.txt"), "version after the create");
+                checkEquals(NodeProtocol.UPDATE_CONFLICT,
+                        coordinator.updateFileIfVersion(token, "doc.txt", NodeProtocol.NO_VERSION, "again".getBytes()),
+                        "second create");
+
+                long updated = coordinator.updateFileIfVersion(token, "doc.txt", created, "v2".getBytes());
+                check(updated > created, "update returned " + updated);
+                checkEquals(NodeProtocol.UPDATE_CONFLICT,
+                        coordinator.updateFileIfVersion(token, "doc.txt", created, "lost".getBytes()), "stale update");
+                VersionedFile read = coordinator.getFileWithVersion(token, "doc.txt");
+                checkEquals(updated, read.getVersion(), "version read");
+                checkEquals("v2", new String(read.getData()), "content read");
+                for (LocalNode node : cluster.replicasOf("doc.txt")) {
+                    LocalCluster.await(() -> versionOn(node, "doc.txt") == updated, "update on " + node.getAddress());
+                }
+            });
+
+            run("of two updates from the same version exactly one wins", () -> {
+                long base = coordinator.updateFileIfVersion(token, "race.txt", NodeProtocol.NO_VERSION, "base".getBytes());
+                ExecutorService writers = Executors.newFixedThreadPool(8);
+                try {
+                    List<Future<Long>> results = new ArrayList<>();
+                    for (int i = 0; i < 8; i++) {
+                        byte[] data = ("writer " + i).getBytes();
+                        results.add(writers.submit(() -> coordinator.updateFileIfVersion(token, "race.txt", base, data)));
+                    }
+                    List<Long> won = new ArrayList<>();
+                    for (Future<Long> result : results) {
+                        long version = result.get();
+                        if (version > 0) {
+                            won.add(version);
+                        } else {
+                            checkEquals(NodeProtocol.UPDATE_CONFLICT, version, "losing update");
+                        }
+                    }
+                    checkEquals(1, won.size(), "winners " + won);
+                    checkEquals(won.get(0), coordinator.getFileVersion(token, "race.txt"), "version after the race");
+                } finally {
+                    writers.shutdownNow();
+                }
+            });
+
+            run("no update applies while the file's primary is suspected", () -> {
+                long version = coordinator.updateFileIfVersion(token, "primary.txt", NodeProtocol.NO_VERSION, "a".getBytes());
+                LocalNode primary = cluster.replicasOf("primary.txt").get(0);
+                cluster.suspect(primary);
+                try {
+                    checkEquals(NodeProtocol.UPDATE_UNAVAILABLE,
+                            coordinator.updateFileIfVersion(token, "primary.txt", version, "b".getBytes()), "update");
+                    checkEquals(null, coordinator.getFileWithVersion(token, "primary.txt"), "read for an update");
+                } finally {
+                    cluster.revive(primary);
+                }
+                check(coordinator.updateFileIfVersion(token, "primary.txt", version, "b".getBytes()) > version,
+                        "update once the primary is back");
+            });
+
+            run("invalid updates are rejected", () -> {
+                checkEquals(NodeProtocol.UPDATE_REJECTED,
+                        coordinator.updateFileIfVersion("bad token", "doc.txt", 1, "x".getBytes()), "bad token");
+                checkEquals(NodeProtocol.UPDATE_REJECTED,
+                        coordinator.updateFileIfVersion(token, "doc.txt", NodeProtocol.ANY_VERSION, "x".getBytes()),
+                        "unconditional update");
+                checkEquals(NodeProtocol.NO_VERSION, coordinator.getFileVersion("bad token", "doc.txt"), "version");
+            });
+        }
+
+        finish();
+        System.exit(0);
+    }
+
+    private static String upload(LocalNode node, String filename, String content, long version, long expectedVersion)
+            throws IOException {
+        try (Socket socket = node.open("upload", "System", filename)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeLong(version);
+            out.writeLong(expectedVersion);
+            byte[] data = content.getBytes();
+            ChunkedTransfer.writeChunk(out, data, 0, data.length);
+            ChunkedTransfer.writeEnd(out);
+            return new DataInputStream(socket.getInputStream()).readUTF();
+        }
+    }
+
+    private static long versionOn(LocalNode node, String filename) {
+        NamespaceIndex.FileEntry entry = node.getContext().getNamespace().lookup("System", filename);
+        return entry == null ? NodeProtocol.NO_VERSION : entry.getVersion();
+    }
+}
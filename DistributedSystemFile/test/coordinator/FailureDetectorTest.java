@@ -0,0 +1,105 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+
+public class FailureDetectorTest {
+    private static final double THRESHOLD = 8;
+    private static final long INTERVAL_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        // Read when MembershipService and ClusterConfig are first used, so set before any case runs
+        System.setProperty("cluster.nodes", "localhost:3001,localhost:3002");
+        System.setProperty("coordinator.heartbeatMillis", String.valueOf(INTERVAL_MS));
+        System.setProperty("coordinator.membershipGraceMillis", "0");
+
+        run("an unknown node is available only during the grace period", () -> {
+            FailureDetector starting = new FailureDetector(THRESHOLD, INTERVAL_MS, 60_000);
+            checkEquals(0.0, starting.phi("localhost:3001"), "phi in grace");
+            check(starting.isAvailable("localhost:3001"), "available in grace");
+
+            FailureDetector started = new FailureDetector(THRESHOLD, INTERVAL_MS, 0);
+            checkEquals(Double.POSITIVE_INFINITY, started.phi("localhost:3001"), "phi after grace");
+            check(!started.isAvailable("localhost:3001"), "available after grace");
+        });
+
+        run("phi grows with silence until the node is suspected", () -> {
+            FailureDetector detector = new FailureDetector(THRESHOLD, INTERVAL_MS, 0);
+            detector.heartbeat("localhost:3001");
+            double fresh = detector.phi("localhost:3001");
+            check(fresh < 1, "phi right after a heartbeat is " + fresh);
+            check(detector.isAvailable("localhost:3001"), "available right after a heartbeat");
+
+            Thread.sleep(300);
+            double late = detector.phi("localhost:3001");
+            check(late > fresh, "phi went from " + fresh + " to " + late);
+
+            // The 100 ms floor on the deviation puts phi 8 near 620 ms of silence
+            Thread.sleep(1000);
+            check(!detector.isAvailable("localhost:3001"),
+                    "still available with phi " + detector.phi("localhost:3001"));
+
+            detector.heartbeat("localhost:3001");
+            check(detector.isAvailable("localhost:3001"), "available again after a heartbeat");
+        });
+
+        run("a regular node tolerates a shorter silence than a slow one", () -> {
+            FailureDetector detector = new FailureDetector(THRESHOLD, INTERVAL_MS, 0);
+            detector.heartbeat("fast");
+            detector.heartbeat("slow");
+            for (int i = 0; i < 10; i++) {
+                Thread.sleep(20);
+                detector.heartbeat("fast");
+            }
+            // "slow" has one 200 ms interval on top of the seeded 100 ms
+            detector.heartbeat("slow");
+            Thread.sleep(400);
+            check(detector.phi("fast") > detector.phi("slow"),
+                    "fast " + detector.phi("fast") + ", slow " + detector.phi("slow"));
+        });
+
+        run("a removed node is forgotten", () -> {
+            FailureDetector detector = new FailureDetector(THRESHOLD, INTERVAL_MS, 0);
+            detector.heartbeat("localhost:3001");
+            detector.remove("localhost:3001");
+            check(!detector.isAvailable("localhost:3001"), "available after removal");
+        });
+
+        MembershipService membership = new MembershipService();
+        try {
+            run("nodes join, rejoin with a heartbeat and leave", () -> {
+                checkEquals(List.of("localhost:3001", "localhost:3002"), membership.getMembers(), "configured members");
+                List<String> joined = membership.join("localhost:3003");
+                checkEquals(List.of("localhost:3001", "localhost:3002", "localhost:3003"), joined, "members after a join");
+                checkEquals(joined, membership.getRing().getNodes(), "ring after a join");
+                checkEquals(List.of("localhost:3001", "localhost:3002"), membership.getPreviousRing().getNodes(),
+                        "previous ring");
+
+                membership.leave("localhost:3003");
+                checkEquals(List.of("localhost:3001", "localhost:3002"), membership.getRing().getNodes(), "ring after leaving");
+                checkEquals(List.of("localhost:3001", "localhost:3002", "localhost:3003"),
+                        membership.heartbeat("localhost:3003"), "members after a heartbeat from a node that left");
+                membership.leave("localhost:3003");
+                membership.leave("localhost:3003");
+                checkEquals(2, membership.getMembers().size(), "members after leaving twice");
+            });
+
+            run("silent members are left out of the available nodes", () -> {
+                for (int i = 0; i < 10; i++) {
+                    membership.heartbeat("localhost:3001");
+                    Thread.sleep(INTERVAL_MS / 2);
+                }
+                checkEquals(List.of("localhost:3001"), membership.available(membership.getMembers()), "available");
+                check(membership.report().contains("localhost:3002=suspected"), membership.report());
+                Thread.sleep(1500);
+                checkEquals(List.of(), membership.available(membership.getMembers()), "available after silence");
+            });
+        } finally {
+            UnicastRemoteObject.unexportObject(membership, true);
+        }
+
+        finish();
+    }
+}
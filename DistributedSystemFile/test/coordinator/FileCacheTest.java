@@ -0,0 +1,66 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+public class FileCacheTest {
+    public static void main(String[] args) {
+        run("the least recently read file is evicted first", () -> {
+            FileCache cache = new FileCache(300, 300);
+            put(cache, "a", 100);
+            put(cache, "b", 100);
+            put(cache, "c", 100);
+            check(cache.get("a") != null, "a cached");
+            put(cache, "d", 100);
+            checkEquals(null, cache.get("b"), "b after eviction");
+            check(cache.get("a") != null && cache.get("c") != null && cache.get("d") != null, "others kept");
+        });
+
+        run("the byte budget holds with files of any size", () -> {
+            FileCache cache = new FileCache(1000, 1000);
+            for (int i = 0; i < 50; i++) {
+                put(cache, "f" + i, 1 + (i * 37) % 400);
+            }
+            long cached = 0;
+            for (int i = 0; i < 50; i++) {
+                byte[] data = cache.get("f" + i);
+                if (data != null) cached += data.length;
+            }
+            check(cached > 0 && cached <= 1000, cached + " bytes cached");
+        });
+
+        run("files over the entry limit are not cached", () -> {
+            FileCache cache = new FileCache(1000, 100);
+            check(cache.accepts(100) && !cache.accepts(101), "entry limit");
+            put(cache, "big", 101);
+            checkEquals(null, cache.get("big"), "big file");
+            check(!new FileCache(50, 100).accepts(51), "entry limit above the budget");
+        });
+
+        run("a read that started before a write is not cached", () -> {
+            FileCache cache = new FileCache(1000, 1000);
+            long stamp = cache.stamp("a");
+            cache.invalidate("a");
+            cache.put("a", new byte[10], stamp);
+            checkEquals(null, cache.get("a"), "stale read");
+
+            cache.put("a", new byte[10], cache.stamp("a"));
+            check(cache.get("a") != null, "read after the write");
+        });
+
+        run("invalidation drops the entry and frees its bytes", () -> {
+            FileCache cache = new FileCache(200, 200);
+            put(cache, "a", 150);
+            cache.invalidate("a");
+            checkEquals(null, cache.get("a"), "invalidated file");
+            put(cache, "b", 150);
+            check(cache.get("b") != null, "room for another file");
+            check(cache.report().contains("invalidations=1"), cache.report());
+        });
+
+        finish();
+    }
+
+    private static void put(FileCache cache, String filename, int size) {
+        cache.put(filename, new byte[size], cache.stamp(filename));
+    }
+}
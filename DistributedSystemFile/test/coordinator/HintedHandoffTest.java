@@ -0,0 +1,116 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import java.io.IOException;
+import node.LocalNode;
+import utils.ClusterConfig;
+
+public class HintedHandoffTest {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("cluster.readQuorum", "3");
+        System.setProperty("coordinator.readRepairChance", "0");
+
+        try (LocalCluster cluster = LocalCluster.start(3)) {
+            CoordinatorService coordinator = cluster.getCoordinator();
+            String token = cluster.signIn();
+
+            run("a write while a replica is suspected leaves a hint that is replayed when it is back", () -> {
+                LocalNode down = cluster.getNodes().get(0);
+                cluster.suspect(down);
+                check(coordinator.saveFile(token, "hinted.txt", "written while down".getBytes()), "save with W of 3 up");
+                checkEquals(null, down.read("System", "hinted.txt"), "copy on the suspected node");
+                check(hints(coordinator, token).contains("pending=1 "), hints(coordinator, token));
+
+                cluster.revive(down);
+                LocalCluster.await(() -> hasContent(down, "hinted.txt", "written while down"), "hint replayed");
+                LocalCluster.await(() -> hints(coordinator, token).contains("pending=0 delivered=1 "), "hint delivered");
+            });
+
+            run("a delete while a replica is suspected reaches it when it is back", () -> {
+                check(coordinator.saveFile(token, "deleted.txt", "to be deleted".getBytes()), "save");
+                LocalNode down = cluster.getNodes().get(1);
+                cluster.suspect(down);
+                check(coordinator.removeFile(token, "deleted.txt"), "delete");
+                check(hasContent(down, "deleted.txt", "to be deleted"), "suspected node changed");
+
+                cluster.revive(down);
+                LocalCluster.await(() -> hasContent(down, "deleted.txt", null), "delete replayed");
+            });
+
+            run("hints outlive the coordinator that stored them", () -> {
+                LocalNode down = cluster.getNodes().get(2);
+                cluster.suspect(down);
+                check(coordinator.saveFile(token, "kept.txt", "kept".getBytes()), "save");
+                // An empty hints file is a bare count of four bytes
+                LocalCluster.await(() -> cluster.getHintsFile().length() > 4, "hint written to the file");
+
+                HintedHandoff reloaded = new HintedHandoff(cluster.getHintsFile(), coordinator.getMembership(),
+                        new ReplicaRepair(new NodeConnectionPool()), filename -> coordinator.getMembership().getRing()
+                                .replicasFor(filename, ClusterConfig.REPLICATION_FACTOR));
+                check(reloaded.report().contains("pending=1 "), reloaded.report());
+                cluster.revive(down);
+                LocalCluster.await(() -> hasContent(down, "kept.txt", "kept"), "hint replayed");
+            });
+
+            run("a read that finds a stale replica serves the newest copy and repairs the stale one", () -> {
+                check(coordinator.saveFile(token, "stale.txt", "older".getBytes()), "save");
+                LocalNode stale = cluster.replicasOf("stale.txt").get(0);
+                // Nodes keep the newer of two versions, so the other replicas move ahead of it instead
+                for (LocalNode node : cluster.replicasOf("stale.txt").subList(1, 3)) {
+                    checkEquals("OK", node.upload("System", "stale.txt", "newest".getBytes(), Long.MAX_VALUE - 1, 64),
+                            "newer copy");
+                }
+                check(hasContent(stale, "stale.txt", "older"), "stale copy");
+
+                checkEquals("newest", new String(coordinator.getFile(token, "stale.txt")), "read");
+                LocalCluster.await(() -> hasContent(stale, "stale.txt", "newest"), "stale replica repaired");
+                checkEquals("newest", new String(coordinator.getFile(token, "stale.txt")), "read after the repair");
+            });
+
+            run("a repair drops the coordinator's cached copy of the file", () -> {
+                check(coordinator.saveFile(token, "cached.txt", "first".getBytes()), "save");
+                checkEquals("first", new String(coordinator.getFile(token, "cached.txt")), "cached read");
+                for (LocalNode node : cluster.replicasOf("cached.txt").subList(1, 3)) {
+                    checkEquals("OK", node.upload("System", "cached.txt", "second".getBytes(), Long.MAX_VALUE - 1, 64),
+                            "newer copy");
+                }
+                // The coordinator does not know of the newer copies until a write or a repair
+                checkEquals("first", new String(coordinator.getFile(token, "cached.txt")), "cached copy");
+                coordinator.getFileVersion(token, "cached.txt");
+                LocalCluster.await(() -> hasContent(cluster.replicasOf("cached.txt").get(0), "cached.txt", "second"),
+                        "replicas repaired");
+                LocalCluster.await(() -> readsAs(coordinator, token, "cached.txt", "second"), "cache invalidated");
+            });
+        }
+
+        finish();
+        System.exit(0);
+    }
+
+    private static String hints(CoordinatorService coordinator, String token) {
+        try {
+            return coordinator.getStatistics(token).lines().filter(line -> line.startsWith("hints:")).findFirst().orElse("");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean hasContent(LocalNode node, String filename, String content) {
+        try {
+            byte[] data = node.read("System", filename);
+            return content == null ? data == null : data != null && content.equals(new String(data));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean readsAs(CoordinatorService coordinator, String token, String filename, String content) {
+        try {
+            byte[] data = coordinator.getFile(token, filename);
+            return data != null && content.equals(new String(data));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package coordinator;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import node.LocalNode;
+import utils.ClusterConfig;
+
+/**
+ * A coordinator and a ring of {@link LocalNode}s on free local ports, for tests that go
+ * through {@link CoordinatorService}. The cluster settings are system properties read once,
+ * so it must be started before anything else loads {@link ClusterConfig}, at most once per
+ * JVM; a test may set other {@code cluster.*} properties before that. Nodes do not run
+ * membership themselves: the cluster heartbeats for them, and a node whose heartbeats are
+ * stopped comes to be suspected while it keeps serving.
+ */
+public class LocalCluster implements Closeable {
+    public static final long HEARTBEAT_MS = 100;
+
+    private final List<LocalNode> nodes;
+    private final CoordinatorService coordinator;
+    private final File hintsFile;
+    private final Set<String> beating = Collections.synchronizedSet(new HashSet<>());
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "test-heartbeats");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private LocalCluster(List<LocalNode> nodes, CoordinatorService coordinator, File hintsFile) {
+        this.nodes = nodes;
+        this.coordinator = coordinator;
+        this.hintsFile = hintsFile;
+        for (LocalNode node : nodes) {
+            beating.add(node.getAddress());
+        }
+        heartbeats.scheduleAtFixedRate(this::heartbeat, 0, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static LocalCluster start(int size) throws IOException {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                addresses.add("localhost:" + probe.getLocalPort());
+            }
+        }
+        File hintsFile = File.createTempFile("hints", ".dat");
+        hintsFile.delete();
+        System.setProperty("cluster.nodes", String.join(",", addresses));
+        System.setProperty("coordinator.hintsFile", hintsFile.getPath());
+        System.setProperty("coordinator.heartbeatMillis", String.valueOf(HEARTBEAT_MS));
+        System.setProperty("coordinator.membershipGraceMillis", "2000");
+        System.getProperties().putIfAbsent("coordinator.hintReplayMillis", "200");
+        System.getProperties().putIfAbsent("cluster.secret", "local-cluster-secret");
+        if (!ClusterConfig.NODES.equals(addresses)) {
+            throw new IllegalStateException("ClusterConfig was loaded before the cluster started");
+        }
+
+        List<LocalNode> nodes = new ArrayList<>();
+        for (String address : addresses) {
+            int port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+            nodes.add(LocalNode.start("selector", port, addresses));
+        }
+        return new LocalCluster(nodes, new CoordinatorService(), hintsFile);
+    }
+
+    public CoordinatorService getCoordinator() { return coordinator; }
+    public List<LocalNode> getNodes() { return nodes; }
+    public File getHintsFile() { return hintsFile; }
+
+    public LocalNode node(String address) {
+        for (LocalNode node : nodes) {
+            if (node.getAddress().equals(address)) return node;
+        }
+        throw new IllegalArgumentException("Not in the cluster: " + address);
+    }
+
+    /** Signs in as the admin, whose files are in the "System" department. */
+    public String signIn() throws IOException {
+        return coordinator.signIn("admin", "admin123");
+    }
+
+    /** The nodes the file is placed on, in ring order. */
+    public List<LocalNode> replicasOf(String filename) {
+        List<LocalNode> replicas = new ArrayList<>();
+        for (String address : coordinator.getMembership().getRing().replicasFor(filename,
+                ClusterConfig.REPLICATION_FACTOR)) {
+            replicas.add(node(address));
+        }
+        return replicas;
+    }
+
+    /** Stops the node's heartbeats and waits until the coordinator suspects it. */
+    public void suspect(LocalNode node) throws InterruptedException {
+        beating.remove(node.getAddress());
+        await(() -> !coordinator.getMembership().isAvailable(node.getAddress()), node.getAddress() + " suspected");
+    }
+
+    /** Resumes the node's heartbeats and waits until the coordinator counts it as available. */
+    public void revive(LocalNode node) throws InterruptedException {
+        beating.add(node.getAddress());
+        await(() -> coordinator.getMembership().isAvailable(node.getAddress()), node.getAddress() + " available");
+    }
+
+    /** Polls {@code condition} for up to ten seconds. */
+    public static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("Timed out waiting for " + what);
+            Thread.sleep(20);
+        }
+    }
+
+    private void heartbeat() {
+        List<String> addresses;
+        synchronized (beating) {
+            addresses = new ArrayList<>(beating);
+        }
+        for (String address : addresses) {
+            try {
+                coordinator.getMembership().heartbeat(address);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        heartbeats.shutdownNow();
+        UnicastRemoteObject.unexportObject(coordinator.getMembership(), true);
+        UnicastRemoteObject.unexportObject(coordinator, true);
+        for (LocalNode node : nodes) {
+            node.close();
+        }
+        hintsFile.delete();
+    }
+}
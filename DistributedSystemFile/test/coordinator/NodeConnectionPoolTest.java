@@ -0,0 +1,206 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import node.LocalNode;
+import utils.NodeProtocol;
+
+public class NodeConnectionPoolTest {
+    public static void main(String[] args) throws IOException {
+        run("requests share one connection and get their own answers in any order", () -> {
+            try (FakeNode node = new FakeNode(); NodeConnectionPool pool = new NodeConnectionPool()) {
+                List<CompletableFuture<DataInputStream>> replies = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    replies.add(pool.send(node.address(), "stat", "System", "file-" + i, new byte[0]));
+                }
+                List<Request> requests = node.take(20);
+                Collections.reverse(requests);
+                for (Request request : requests) {
+                    request.answer(request.filename);
+                }
+                for (int i = 0; i < replies.size(); i++) {
+                    checkEquals("file-" + i, replies.get(i).get(5, TimeUnit.SECONDS).readUTF(), "reply " + i);
+                }
+                checkEquals(1, node.connections.get(), "connections opened");
+            }
+        });
+
+        run("a request the node failed fails alone", () -> {
+            try (FakeNode node = new FakeNode(); NodeConnectionPool pool = new NodeConnectionPool()) {
+                CompletableFuture<DataInputStream> failed = pool.send(node.address(), "stat", "System", "a", new byte[0]);
+                CompletableFuture<DataInputStream> served = pool.send(node.address(), "stat", "System", "b", new byte[0]);
+                List<Request> requests = node.take(2);
+                requests.get(0).fail();
+                requests.get(1).answer("b");
+                checkThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS), "failed request");
+                checkEquals("b", served.get(5, TimeUnit.SECONDS).readUTF(), "other request");
+                checkEquals(1, node.connections.get(), "connections opened");
+            }
+        });
+
+        run("a dropped connection fails pending requests and is replaced", () -> {
+            try (FakeNode node = new FakeNode(); NodeConnectionPool pool = new NodeConnectionPool()) {
+                CompletableFuture<DataInputStream> pending = pool.send(node.address(), "stat", "System", "a", new byte[0]);
+                node.take(1).get(0).socket.close();
+                try {
+                    pending.get(5, TimeUnit.SECONDS);
+                    throw new AssertionError("request on a dropped connection succeeded");
+                } catch (ExecutionException e) {
+                    check(e.getCause() instanceof IOException, "cause is " + e.getCause());
+                }
+
+                CompletableFuture<DataInputStream> retried = pool.send(node.address(), "stat", "System", "a", new byte[0]);
+                node.take(1).get(0).answer("again");
+                checkEquals("again", retried.get(5, TimeUnit.SECONDS).readUTF(), "reply after reconnecting");
+                checkEquals(2, node.connections.get(), "connections opened");
+            }
+        });
+
+        run("an unreachable node fails the request instead of throwing", () -> {
+            int port;
+            try (ServerSocket closed = new ServerSocket(0)) {
+                port = closed.getLocalPort();
+            }
+            try (NodeConnectionPool pool = new NodeConnectionPool()) {
+                CompletableFuture<DataInputStream> reply = pool.send("localhost:" + port, "stat", "System", "a", new byte[0]);
+                check(reply.isCompletedExceptionally(), "request to a closed port did not fail");
+                checkThrows(IOException.class, () -> pool.request("localhost:" + port, "stat", "System", "a", new byte[0]),
+                        "blocking request");
+            }
+        });
+
+        run("concurrent reads from a real node come back intact", () -> {
+            try (LocalNode node = LocalNode.start(); NodeConnectionPool pool = new NodeConnectionPool()) {
+                Random random = new Random(1);
+                Map<String, byte[]> files = new HashMap<>();
+                for (int i = 0; i < 30; i++) {
+                    byte[] data = new byte[random.nextInt(200_000)];
+                    random.nextBytes(data);
+                    files.put("file-" + i, data);
+                    node.upload("System", "file-" + i, data, 1, 64 * 1024);
+                }
+                Map<String, CompletableFuture<DataInputStream>> replies = new HashMap<>();
+                for (int round = 0; round < 3; round++) {
+                    for (String name : files.keySet()) {
+                        replies.put(name + "#" + round, pool.send(node.getAddress(), "read", "System", name, new byte[0]));
+                    }
+                }
+                for (Map.Entry<String, CompletableFuture<DataInputStream>> reply : replies.entrySet()) {
+                    byte[] expected = files.get(reply.getKey().substring(0, reply.getKey().indexOf('#')));
+                    DataInputStream in = reply.getValue().get(10, TimeUnit.SECONDS);
+                    checkEquals((long) expected.length, in.readLong(), "size of " + reply.getKey());
+                    byte[] data = new byte[expected.length];
+                    in.readFully(data);
+                    check(Arrays.equals(expected, data), reply.getKey() + " differs");
+                }
+            }
+        });
+
+        finish();
+    }
+
+    private static class Request {
+        final Socket socket;
+        final DataOutputStream out;
+        final long id;
+        final String filename;
+
+        Request(Socket socket, DataOutputStream out, long id, String filename) {
+            this.socket = socket;
+            this.out = out;
+            this.id = id;
+            this.filename = filename;
+        }
+
+        /** Answers with a body holding one UTF string. */
+        void answer(String value) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            new DataOutputStream(body).writeUTF(value);
+            synchronized (out) {
+                out.writeLong(id);
+                out.writeInt(body.size());
+                body.writeTo(out);
+                out.flush();
+            }
+        }
+
+        void fail() throws IOException {
+            synchronized (out) {
+                out.writeLong(id);
+                out.writeInt(NodeProtocol.MUX_FAILED);
+                out.flush();
+            }
+        }
+    }
+
+    /** Accepts multiplexed connections and queues their requests for the test to answer. */
+    private static class FakeNode implements Closeable {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final AtomicInteger connections = new AtomicInteger();
+        final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+        FakeNode() throws IOException {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        Thread reader = new Thread(() -> readRequests(socket));
+                        reader.setDaemon(true);
+                        reader.start();
+                    }
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        String address() {
+            return "localhost:" + serverSocket.getLocalPort();
+        }
+
+        private void readRequests(Socket socket) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                checkEquals(NodeProtocol.MUX, in.readUTF(), "connection command");
+                in.readUTF();
+                in.readUTF();
+                while (true) {
+                    long id = in.readLong();
+                    in.readUTF();
+                    in.readUTF();
+                    String filename = in.readUTF();
+                    in.readFully(new byte[in.readInt()]);
+                    requests.add(new Request(socket, out, id, filename));
+                }
+            } catch (IOException e) {
+                // connection closed
+            }
+        }
+
+        /** Waits for the next {@code count} requests. */
+        List<Request> take(int count) throws InterruptedException {
+            List<Request> taken = new ArrayList<>();
+            while (taken.size() < count) {
+                Request request = requests.poll(5, TimeUnit.SECONDS);
+                if (request == null) throw new AssertionError("only " + taken.size() + " of " + count + " requests arrived");
+                taken.add(request);
+            }
+            return taken;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
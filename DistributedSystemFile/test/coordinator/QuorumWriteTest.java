@@ -0,0 +1,58 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import utils.LatencyHistogram;
+
+public class QuorumWriteTest {
+    public static void main(String[] args) {
+        run("the caller is released once W replicas stored the write", () -> {
+            LatencyHistogram quorum = new LatencyHistogram("quorum");
+            LatencyHistogram all = new LatencyHistogram("all");
+            CompletableFuture<Boolean> slow = new CompletableFuture<>();
+            List<CompletableFuture<Boolean>> writes = List.of(stored(true), slow, stored(true));
+
+            checkEquals(true, await(new QuorumWrite("write", 2, quorum, all), writes), "outcome");
+            checkEquals(1L, quorum.getCount(), "quorum latencies recorded");
+            checkEquals(0L, all.getCount(), "all-replica latencies recorded before the slow replica");
+            slow.complete(true);
+            checkEquals(1L, all.getCount(), "all-replica latencies recorded after the slow replica");
+        });
+
+        run("the caller is released once W can no longer be reached", () -> {
+            LatencyHistogram quorum = new LatencyHistogram("quorum");
+            List<CompletableFuture<Boolean>> writes = List.of(
+                    stored(false), new CompletableFuture<>(), CompletableFuture.failedFuture(new IOException("down")));
+            checkEquals(false, await(new QuorumWrite("write", 2, quorum, new LatencyHistogram("all")), writes), "outcome");
+            checkEquals(0L, quorum.getCount(), "quorum latencies recorded");
+        });
+
+        run("replies arriving later still decide the outcome", () -> {
+            CompletableFuture<Boolean> first = new CompletableFuture<>();
+            CompletableFuture<Boolean> second = new CompletableFuture<>();
+            CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> first.complete(true));
+            CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS).execute(() -> second.complete(true));
+            QuorumWrite write = new QuorumWrite("write", 2, new LatencyHistogram("quorum"), new LatencyHistogram("all"));
+            checkEquals(true, await(write, List.of(first, stored(false), second)), "outcome");
+        });
+
+        run("a quorum larger than the replica set fails", () -> {
+            QuorumWrite write = new QuorumWrite("write", 3, new LatencyHistogram("quorum"), new LatencyHistogram("all"));
+            checkEquals(false, await(write, List.of(stored(true), stored(true))), "outcome");
+        });
+
+        finish();
+    }
+
+    /** Runs await with a deadline far below the quorum timeout, so a caller left waiting fails the case. */
+    private static boolean await(QuorumWrite write, List<CompletableFuture<Boolean>> writes) throws Exception {
+        return CompletableFuture.supplyAsync(() -> write.await(writes)).get(5, TimeUnit.SECONDS);
+    }
+
+    private static CompletableFuture<Boolean> stored(boolean stored) {
+        return CompletableFuture.completedFuture(stored);
+    }
+}
@@ -0,0 +1,93 @@
+package coordinator;
+
+import static utils.TestSupport.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import node.LocalNode;
+import utils.ChunkedTransfer;
+import utils.ThreadPools;
+import utils.VersionedFile;
+
+public class ReadSchedulerTest {
+    private static final int MAX_CONCURRENT_READS = 4;
+
+    public static void main(String[] args) throws Exception {
+        try (LocalNode empty = LocalNode.start(); LocalNode holder = LocalNode.start();
+             NodeConnectionPool pool = new NodeConnectionPool()) {
+            byte[] small = random(10_000, 1);
+            byte[] large = random(ChunkedTransfer.CHUNK_SIZE + 1, 2);
+            holder.upload("System", "small.bin", small, 3, 4096);
+            holder.upload("System", "large.bin", large, 4, ChunkedTransfer.CHUNK_SIZE);
+            ReadScheduler scheduler = new ReadScheduler(pool, false, MAX_CONCURRENT_READS);
+            List<String> both = List.of(empty.getAddress(), holder.getAddress());
+
+            run("a miss moves on to the next replica", () -> {
+                check(Arrays.equals(small, scheduler.readInline(both, List.of(), "small.bin")), "read through a miss");
+                checkEquals(null, scheduler.readInline(both, List.of(), "missing.bin"), "file no node has");
+                checkEquals(null, scheduler.readInline(List.of(), List.of(), "small.bin"), "no nodes");
+            });
+
+            run("former replicas are tried once every replica missed", () -> {
+                List<String> replicas = List.of(empty.getAddress());
+                check(Arrays.equals(small, scheduler.readInline(replicas, List.of(holder.getAddress()), "small.bin")),
+                        "read from the fallback");
+            });
+
+            run("large files are left to a stream", () -> {
+                check(scheduler.readInline(both, List.of(), "large.bin") == ReadScheduler.TOO_LARGE, "inline read");
+                DownloadSession session = scheduler.openStream(both, List.of(), "large.bin");
+                try {
+                    checkEquals(holder.getAddress(), session.getNodeAddress(), "node streamed from");
+                    checkEquals((long) large.length, session.getSize(), "size");
+                    checkEquals(ChunkedTransfer.CHUNK_SIZE, session.next().length, "first chunk");
+                    checkEquals(1, session.next().length, "last chunk");
+                    checkEquals(null, session.next(), "end of stream");
+                } finally {
+                    scheduler.release(session);
+                }
+            });
+
+            run("ranges come with their version", () -> {
+                VersionedFile range = scheduler.readRange(both, List.of(), "small.bin", 100, 50);
+                checkEquals(3L, range.getVersion(), "version");
+                checkEquals(Arrays.copyOfRange(small, 100, 150), range.getData(), "bytes");
+            });
+
+            run("concurrent streams share the bounded read pool", () -> {
+                ExecutorService callers = Executors.newFixedThreadPool(32);
+                try {
+                    List<Future<Long>> sizes = new ArrayList<>();
+                    for (int i = 0; i < 100; i++) {
+                        sizes.add(callers.submit(() -> {
+                            DownloadSession session = scheduler.openStream(both, List.of(), "small.bin");
+                            try {
+                                return session.getSize();
+                            } finally {
+                                scheduler.release(session);
+                            }
+                        }));
+                    }
+                    for (Future<Long> size : sizes) {
+                        checkEquals((long) small.length, size.get(30, TimeUnit.SECONDS), "streamed size");
+                    }
+                } finally {
+                    callers.shutdownNow();
+                }
+                if (ThreadPools.newVirtualThreadExecutor() == null) {
+                    long readWorkers = Thread.getAllStackTraces().keySet().stream()
+                            .filter(thread -> thread.getName().startsWith("read-worker-")).count();
+                    check(readWorkers <= MAX_CONCURRENT_READS, readWorkers + " read workers");
+                }
+            });
+        }
+
+        finish();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
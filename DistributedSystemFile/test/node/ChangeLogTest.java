@@ -0,0 +1,135 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ChangeLogTest {
+    public static void main(String[] args) throws IOException {
+        run("changes are read back in order, a page at a time", () -> {
+            ChangeLog log = open(100);
+            for (int i = 1; i <= 5; i++) {
+                log.recordPut(entry("file-" + i, i));
+            }
+            checkEquals(5L, log.getLastSequence(), "last sequence");
+            List<ChangeLog.Change> page = log.readAfter(log.getEpoch(), 1, 2, 0);
+            checkEquals(List.of(2L, 3L), sequences(page), "page after 1");
+            checkEquals("file-2", page.get(0).getFilename(), "first change");
+            checkEquals(List.of(4L, 5L), sequences(log.readAfter(log.getEpoch(), 3, 10, 0)), "page after 3");
+        });
+
+        run("a reader that is caught up waits for the next change", () -> {
+            ChangeLog log = open(100);
+            log.recordPut(entry("a", 1));
+            checkEquals(List.of(), log.readAfter(log.getEpoch(), 1, 10, 50), "nothing new");
+            CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> log.recordPut(entry("b", 2)));
+            long start = System.currentTimeMillis();
+            checkEquals(List.of(2L), sequences(log.readAfter(log.getEpoch(), 1, 10, 5000)), "change that arrived");
+            check(System.currentTimeMillis() - start < 4000, "woke up only at the deadline");
+        });
+
+        run("a reader that cannot catch up from the log is told so", () -> {
+            ChangeLog log = open(3);
+            for (int i = 1; i <= 6; i++) {
+                log.recordPut(entry("file-" + i, i));
+            }
+            checkEquals(null, log.readAfter(log.getEpoch() + 1, 6, 10, 0), "other epoch");
+            checkEquals(null, log.readAfter(log.getEpoch(), 7, 10, 0), "sequence from the future");
+            checkEquals(null, log.readAfter(log.getEpoch(), 2, 10, 0), "dropped changes");
+            checkEquals(List.of(4L, 5L, 6L), sequences(log.readAfter(log.getEpoch(), 3, 10, 0)), "retained changes");
+        });
+
+        run("deletes are remembered until the file is written again", () -> {
+            ChangeLog log = open(100);
+            log.recordDelete("System", "a", 1234);
+            checkEquals(1234L, log.deletedAt("System", "a"), "deleted at");
+            checkEquals(0L, log.deletedAt("Sales", "a"), "other department");
+            log.recordPut(entry("a", 1));
+            checkEquals(0L, log.deletedAt("System", "a"), "deleted at after a write");
+        });
+
+        run("a reopened log keeps its epoch, changes and deletes", () -> {
+            File file = File.createTempFile("changes", ".log");
+            file.delete();
+            ChangeLog log = new ChangeLog(file, 100);
+            log.open();
+            log.recordPut(entry("a", 1));
+            log.recordDelete("System", "b", 99);
+            log.recordPut(entry("c", 3));
+
+            // A crash in the middle of the last record leaves it torn
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+            ChangeLog reopened = new ChangeLog(file, 100);
+            reopened.open();
+            checkEquals(log.getEpoch(), reopened.getEpoch(), "epoch");
+            checkEquals(2L, reopened.getLastSequence(), "last sequence");
+            checkEquals(99L, reopened.deletedAt("System", "b"), "deleted at");
+            checkEquals(List.of(1L, 2L), sequences(reopened.readAfter(reopened.getEpoch(), 0, 10, 0)), "changes");
+            file.delete();
+        });
+
+        try (LocalNode leader = LocalNode.start(); LocalNode follower = LocalNode.start()) {
+            Thread replication = new Thread(new ReplicationFollower(follower.getContext(), "localhost",
+                    leader.getContext().getPort()), "test-replication");
+            replication.setDaemon(true);
+            replication.start();
+
+            run("a follower applies a peer's uploads and deletes as they happen", () -> {
+                leader.upload("System", "a.txt", "first".getBytes(), 1, 64);
+                leader.upload("System", "b.txt", "second".getBytes(), 1, 64);
+                awaitContent(follower, "a.txt", "first");
+                awaitContent(follower, "b.txt", "second");
+
+                leader.upload("System", "a.txt", "changed".getBytes(), 2, 64);
+                try (Socket socket = leader.open("delete", "System", "b.txt")) {
+                    checkEquals("Deleted", new DataInputStream(socket.getInputStream()).readUTF(), "delete reply");
+                }
+                awaitContent(follower, "a.txt", "changed");
+                awaitContent(follower, "b.txt", null);
+            });
+            replication.interrupt();
+        }
+
+        finish();
+    }
+
+    private static ChangeLog open(int retained) throws IOException {
+        File file = File.createTempFile("changes", ".log");
+        file.delete();
+        file.deleteOnExit();
+        ChangeLog log = new ChangeLog(file, retained);
+        log.open();
+        return log;
+    }
+
+    private static NamespaceIndex.FileEntry entry(String filename, long version) {
+        return new NamespaceIndex.FileEntry("System", filename, 1, 1000, "0", version);
+    }
+
+    private static List<Long> sequences(List<ChangeLog.Change> changes) {
+        List<Long> sequences = new ArrayList<>();
+        for (ChangeLog.Change change : changes) {
+            sequences.add(change.getSequence());
+        }
+        return sequences;
+    }
+
+    /** Waits for the follower to hold {@code content}, or no file when it is null. */
+    private static void awaitContent(LocalNode node, String filename, String content) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            byte[] data = node.read("System", filename);
+            String actual = data == null ? null : new String(data);
+            if (Objects.equals(content, actual)) return;
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(filename + " on the follower is " + actual + ", expected " + content);
+            }
+            Thread.sleep(50);
+        }
+    }
+}
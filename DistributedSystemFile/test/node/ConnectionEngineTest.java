@@ -0,0 +1,114 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConnectionEngineTest {
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    public static void main(String[] args) {
+        for (String engine : new String[]{"selector", "virtual"}) {
+            run(engine + ": many concurrent clients are all served", () -> {
+                try (ServerSocketChannel channel = serve(engine, new AtomicInteger())) {
+                    ExecutorService clients = Executors.newFixedThreadPool(32);
+                    try {
+                        List<Future<Integer>> replies = new ArrayList<>();
+                        for (int i = 0; i < 200; i++) {
+                            int value = i;
+                            replies.add(clients.submit(() -> call(channel, value)));
+                        }
+                        for (int i = 0; i < replies.size(); i++) {
+                            checkEquals(i + 1, replies.get(i).get(10, TimeUnit.SECONDS), "reply to " + i);
+                        }
+                    } finally {
+                        clients.shutdownNow();
+                    }
+                }
+            });
+        }
+
+        run("selector: idle connections do not hold up busy ones", () -> {
+            AtomicInteger handled = new AtomicInteger();
+            try (ServerSocketChannel channel = serve("selector", handled)) {
+                List<Socket> idle = new ArrayList<>();
+                try {
+                    for (int i = 0; i < 10 * MAX_CONCURRENT_REQUESTS; i++) {
+                        idle.add(connect(channel));
+                    }
+                    checkEquals(8, call(channel, 7), "reply with idle connections open");
+                    checkEquals(1, handled.get(), "connections handed to a worker");
+                } finally {
+                    for (Socket socket : idle) socket.close();
+                }
+            }
+        });
+
+        for (String engine : new String[]{"selector", "virtual"}) {
+            run(engine + ": closing the channel stops serving", () -> {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.bind(new InetSocketAddress("localhost", 0));
+                CompletableFuture<Void> served = CompletableFuture.runAsync(() -> {
+                    try {
+                        ConnectionEngine.create(engine, MAX_CONCURRENT_REQUESTS).serve(channel, socket -> () -> { });
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+                Thread.sleep(200);
+                channel.close();
+                served.get(5, TimeUnit.SECONDS); // throws if serve failed instead of returning
+            });
+        }
+
+        run("an unknown engine is refused", () ->
+                checkThrows(IllegalArgumentException.class, () -> ConnectionEngine.create("threads", 4), "engine name"));
+
+        finish();
+    }
+
+    /** Serves connections that read an int and answer it plus one. */
+    private static ServerSocketChannel serve(String engine, AtomicInteger handled) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress("localhost", 0));
+        ConnectionEngine connectionEngine = ConnectionEngine.create(engine, MAX_CONCURRENT_REQUESTS);
+        Thread server = new Thread(() -> {
+            try {
+                connectionEngine.serve(channel, socket -> () -> {
+                    handled.incrementAndGet();
+                    try (Socket client = socket) {
+                        int value = new DataInputStream(client.getInputStream()).readInt();
+                        new DataOutputStream(client.getOutputStream()).writeInt(value + 1);
+                    } catch (IOException e) {
+                        // the client went away
+                    }
+                });
+            } catch (IOException e) {
+                // closed by the test
+            }
+        }, "engine-test-" + engine);
+        server.setDaemon(true);
+        server.start();
+        return channel;
+    }
+
+    private static Socket connect(ServerSocketChannel channel) throws IOException {
+        Socket socket = new Socket("localhost", channel.socket().getLocalPort());
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private static int call(ServerSocketChannel channel, int value) throws IOException {
+        try (Socket socket = connect(channel)) {
+            new DataOutputStream(socket.getOutputStream()).writeInt(value);
+            return new DataInputStream(socket.getInputStream()).readInt();
+        }
+    }
+}
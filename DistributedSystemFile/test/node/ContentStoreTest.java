@@ -0,0 +1,100 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import utils.Checksums;
+
+public class ContentStoreTest {
+    public static void main(String[] args) throws IOException {
+        run("only lowercase hex SHA-256 strings are checksums", () -> {
+            String checksum = Checksums.sha256("x".getBytes());
+            check(Checksums.isChecksum(checksum), "sha256 of x");
+            check(!Checksums.isChecksum(checksum.toUpperCase()), "upper case");
+            check(!Checksums.isChecksum(checksum.substring(1)), "63 digits");
+            check(!Checksums.isChecksum("../../" + checksum.substring(6)), "path");
+            check(!Checksums.isChecksum(null), "null");
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            ContentStore store = node.getContext().getContentStore();
+            byte[] data = "shared content".getBytes();
+            String checksum = Checksums.sha256(data);
+            File blob = new File(node.getContext().getMetadataDir(), "blobs/" + checksum.substring(0, 2) + "/" + checksum);
+
+            run("identical files in two departments share one copy", () -> {
+                node.upload("System", "a.txt", data, 1, 64);
+                node.upload("Sales", "b.txt", data, 1, 64);
+                check(Files.isSameFile(file(node, "System", "a.txt"), file(node, "Sales", "b.txt")), "not linked");
+                check(Files.isSameFile(file(node, "System", "a.txt"), blob.toPath()), "not linked to the blob");
+                checkEquals(1, store.getBlobCount(), "blobs");
+            });
+
+            run("a duplicate is linked by checksum without sending the data", () -> {
+                checkEquals("OK", link(node, "Other", "c.txt", checksum, data.length), "link of stored content");
+                checkEquals("shared content", new String(node.read("Other", "c.txt")), "linked file");
+                checkEquals("Missing", link(node, "Other", "d.txt", Checksums.sha256(new byte[1]), 1), "unknown content");
+                checkEquals("Missing", link(node, "Other", "e.txt", "../../System/a.txt", 1), "path as checksum");
+                checkEquals(null, node.read("Other", "e.txt"), "file linked through a path");
+            });
+
+            run("the blob goes when its last file does", () -> {
+                node.upload("System", "a.txt", "other content".getBytes(), 2, 64);
+                checkEquals("shared content", new String(node.read("Sales", "b.txt")), "copy of the old content");
+                checkEquals(2, store.getBlobCount(), "blobs after an overwrite");
+                for (String[] file : new String[][]{{"Sales", "b.txt"}, {"Other", "c.txt"}}) {
+                    try (Socket socket = node.open("delete", file[0], file[1])) {
+                        checkEquals("Deleted", new DataInputStream(socket.getInputStream()).readUTF(), "delete reply");
+                    }
+                }
+                check(!blob.exists(), "blob left after its last file was deleted");
+                checkEquals(1, store.getBlobCount(), "blobs after the deletes");
+            });
+        }
+
+        run("a restart replaces duplicate copies by links", () -> {
+            File root = Files.createTempDirectory("content-test").toFile();
+            try {
+                for (String department : new String[]{"System", "Sales", "Other"}) {
+                    new File(root, department).mkdirs();
+                    Files.write(new File(root, department + "/same.txt").toPath(), "same".getBytes());
+                }
+                Files.write(new File(root, "System/unique.txt").toPath(), "unique".getBytes());
+                NamespaceIndex namespace = new NamespaceIndex(root.getPath());
+                namespace.rebuild();
+                ContentStore store = new ContentStore(new File(root, ".meta/blobs"));
+                checkEquals(2, store.adopt(namespace), "duplicates linked");
+                checkEquals(2, store.getBlobCount(), "blobs");
+                check(Files.isSameFile(new File(root, "System/same.txt").toPath(), new File(root, "Other/same.txt").toPath()),
+                        "copies not linked");
+                checkEquals("same", new String(Files.readAllBytes(new File(root, "Sales/same.txt").toPath())), "content");
+            } finally {
+                try (Stream<Path> paths = Files.walk(root.toPath())) {
+                    paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        });
+
+        finish();
+    }
+
+    private static Path file(LocalNode node, String department, String filename) {
+        return node.getContext().getNamespace().fileOf(department, filename).toPath();
+    }
+
+    private static String link(LocalNode node, String department, String filename, String checksum, long size)
+            throws IOException {
+        try (Socket socket = node.open("link", department, filename)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(checksum);
+            out.writeLong(size);
+            out.writeLong(1);
+            return new DataInputStream(socket.getInputStream()).readUTF();
+        }
+    }
+}
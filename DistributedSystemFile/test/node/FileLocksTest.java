@@ -0,0 +1,135 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileLocksTest {
+    public static void main(String[] args) throws Exception {
+        run("readers of a file hold its lock together", () -> {
+            FileLocks locks = new FileLocks();
+            CountDownLatch bothHeld = new CountDownLatch(2);
+            ExecutorService readers = Executors.newFixedThreadPool(2);
+            try {
+                List<Future<?>> reads = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    reads.add(readers.submit(() -> {
+                        FileLocks.Held held = locks.read("System", "a.txt");
+                        try {
+                            bothHeld.countDown();
+                            check(bothHeld.await(5, TimeUnit.SECONDS), "the other reader was shut out");
+                        } finally {
+                            held.release();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> read : reads) {
+                    read.get();
+                }
+            } finally {
+                readers.shutdownNow();
+            }
+            check(locks.report().contains("lock.readWait: no samples"), locks.report());
+        });
+
+        run("a writer shuts out readers and writers of the same file only", () -> {
+            FileLocks locks = new FileLocks();
+            FileLocks.Held write = locks.write("System", "a.txt");
+            ExecutorService others = Executors.newFixedThreadPool(3);
+            try {
+                Future<?> read = others.submit(() -> locks.read("System", "a.txt").release());
+                Future<?> secondWrite = others.submit(() -> locks.write("System", "a.txt").release());
+                others.submit(() -> locks.write("Sales", "a.txt").release()).get(5, TimeUnit.SECONDS);
+                Thread.sleep(200);
+                check(!read.isDone() && !secondWrite.isDone(), "lock taken while a writer held it");
+                write.release();
+                read.get(5, TimeUnit.SECONDS);
+                secondWrite.get(5, TimeUnit.SECONDS);
+            } finally {
+                others.shutdownNow();
+            }
+            String report = locks.report();
+            check(report.contains("reads=1 writes=3"), report);
+            check(report.contains("lock.readWait: count=1") && report.contains("lock.writeWait: count=1"),
+                    "waits not recorded: " + report);
+        });
+
+        run("entries are dropped once nobody holds them", () -> {
+            FileLocks locks = new FileLocks();
+            List<FileLocks.Held> held = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                held.add(locks.read("System", "file-" + i));
+                held.add(locks.read("System", "file-" + i));
+            }
+            check(locks.report().startsWith("locks: held=100 "), locks.report());
+            held.forEach(FileLocks.Held::release);
+            check(locks.report().startsWith("locks: held=0 "), locks.report());
+        });
+
+        run("readers never see a writer and writers never see each other under contention", () -> {
+            FileLocks locks = new FileLocks();
+            AtomicInteger readers = new AtomicInteger();
+            AtomicInteger writers = new AtomicInteger();
+            AtomicInteger violations = new AtomicInteger();
+            ExecutorService threads = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<?>> work = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    work.add(threads.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < 5_000; i++) {
+                            boolean write = random.nextInt(10) == 0;
+                            FileLocks.Held held = write ? locks.write("System", "hot") : locks.read("System", "hot");
+                            try {
+                                int concurrent = (write ? writers : readers).incrementAndGet();
+                                if (writers.get() > 1 || (writers.get() == 1 && readers.get() > 0)) {
+                                    violations.incrementAndGet();
+                                }
+                                if (write && concurrent > 1) violations.incrementAndGet();
+                            } finally {
+                                (write ? writers : readers).decrementAndGet();
+                                held.release();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> done : work) {
+                    done.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                threads.shutdownNow();
+            }
+            checkEquals(0, violations.get(), "exclusion violations");
+            check(locks.report().startsWith("locks: held=0 "), locks.report());
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            run("a node's reads and writes leave no lock entries behind", () -> {
+                byte[] data = new byte[100_000];
+                node.upload("System", "shared.bin", data, 1, 8192);
+                ExecutorService clients = Executors.newFixedThreadPool(8);
+                try {
+                    List<Future<byte[]>> reads = new ArrayList<>();
+                    for (int i = 0; i < 32; i++) {
+                        reads.add(clients.submit(() -> node.read("System", "shared.bin")));
+                    }
+                    node.upload("System", "shared.bin", data, 2, 8192);
+                    for (Future<byte[]> read : reads) {
+                        checkEquals(data.length, read.get().length, "bytes read");
+                    }
+                } finally {
+                    clients.shutdownNow();
+                }
+                check(node.getContext().getFileLocks().report().startsWith("locks: held=0 "),
+                        node.getContext().getFileLocks().report());
+            });
+        }
+
+        finish();
+    }
+}
@@ -0,0 +1,105 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import utils.NodeProtocol;
+
+public class FileServingTest {
+    private static final int[] SIZES = {0, 1, 64 * 1024 + 1, 3 * 1024 * 1024};
+
+    public static void main(String[] args) throws IOException {
+        try (LocalNode node = LocalNode.start()) {
+            run("files are sent whole and exactly", () -> {
+                for (int size : SIZES) {
+                    byte[] data = random(size, size);
+                    checkEquals("OK", node.upload("System", "f" + size, data, 1, 1024 * 1024), "upload of " + size);
+                    check(Arrays.equals(data, node.read("System", "f" + size)), size + " bytes read back differ");
+                }
+                checkEquals(null, node.read("System", "missing"), "missing file");
+            });
+
+            run("ranges are cut from the file", () -> {
+                byte[] data = random(100_000, 7);
+                node.upload("System", "range.bin", data, 5, 8192);
+                checkRange(node, data, 1000, 5000, 1000, 5000);
+                checkRange(node, data, -300, -1, 99_700, 300);
+                checkRange(node, data, 99_000, 10_000, 99_000, 1000);
+                checkRange(node, data, 200_000, 10, 100_000, 0);
+                checkRange(node, data, 0, -1, 0, 100_000);
+            });
+
+            run("a batch read sends every file in request order", () -> {
+                byte[] first = random(70_000, 8);
+                byte[] second = random(10, 9);
+                node.upload("System", "first.bin", first, 3, 8192);
+                node.upload("Other", "second.bin", second, 4, 8192);
+                try (Socket socket = node.open("readBatch", "", "")) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeInt(3);
+                    for (String name : new String[]{"System", "first.bin", "System", "gone.bin", "Other", "second.bin"}) {
+                        out.writeUTF(name);
+                    }
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    checkBatchFile(in, first, 3);
+                    checkEquals(NodeProtocol.READ_NOT_FOUND, in.readLong(), "missing file in the batch");
+                    checkBatchFile(in, second, 4);
+                }
+            });
+
+            run("a multiplexed read leaves large files to their own connection", () -> {
+                try (Socket socket = node.open(NodeProtocol.MUX, "", "")) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeLong(42);
+                    out.writeUTF("read");
+                    out.writeUTF("System");
+                    out.writeUTF("f" + SIZES[3]);
+                    out.writeInt(0);
+                    out.flush();
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    checkEquals(42L, in.readLong(), "request id");
+                    checkEquals(8, in.readInt(), "body length");
+                    checkEquals(NodeProtocol.READ_TOO_LARGE, in.readLong(), "reply");
+                }
+            });
+        }
+
+        finish();
+    }
+
+    private static void checkRange(LocalNode node, byte[] data, long offset, long length,
+                                   int expectedStart, int expectedLength) throws IOException {
+        try (Socket socket = node.open("readRange", "System", "range.bin")) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeLong(offset);
+            out.writeLong(length);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            String range = offset + "+" + length;
+            checkEquals((long) data.length, in.readLong(), "file size of " + range);
+            checkEquals(5L, in.readLong(), "version of " + range);
+            checkEquals((long) expectedLength, in.readLong(), "length of " + range);
+            byte[] bytes = new byte[expectedLength];
+            in.readFully(bytes);
+            check(Arrays.equals(Arrays.copyOfRange(data, expectedStart, expectedStart + expectedLength), bytes),
+                    "bytes of " + range + " differ");
+        }
+    }
+
+    private static void checkBatchFile(DataInputStream in, byte[] data, long version) throws IOException {
+        checkEquals((long) data.length, in.readLong(), "size");
+        in.readLong(); // modified time
+        checkEquals(version, in.readLong(), "version");
+        byte[] bytes = new byte[data.length];
+        in.readFully(bytes);
+        check(Arrays.equals(data, bytes), "batch file differs");
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,110 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HotFileCacheTest {
+    public static void main(String[] args) throws IOException {
+        run("a file is admitted on its second read", () -> {
+            HotFileCache cache = new HotFileCache(1 << 20, 1 << 20);
+            byte[] data = random(5000, 1);
+            checkEquals(null, load(cache, "System/a", data), "first read");
+            checkEquals(null, cache.get("System/a"), "cached after the first read");
+            checkEquals(data, bytesOf(load(cache, "System/a", data)), "second read");
+            checkEquals(data, bytesOf(cache.get("System/a")), "cached copy");
+        });
+
+        run("every reader gets its own view", () -> {
+            HotFileCache cache = new HotFileCache(1 << 20, 1 << 20);
+            byte[] data = random(100, 2);
+            load(cache, "System/a", data);
+            load(cache, "System/a", data);
+            ByteBuffer first = cache.get("System/a");
+            first.position(60);
+            checkEquals(100, cache.get("System/a").remaining(), "remaining in a second view");
+        });
+
+        run("files over the entry limit are never admitted", () -> {
+            HotFileCache cache = new HotFileCache(10_000, 1000);
+            byte[] data = random(1001, 3);
+            load(cache, "System/big", data);
+            checkEquals(null, load(cache, "System/big", data), "second read");
+            checkEquals(null, cache.get("System/big"), "cached copy");
+        });
+
+        run("the byte budget evicts the least recently used files", () -> {
+            HotFileCache cache = new HotFileCache(3000, 3000);
+            for (String key : new String[]{"System/a", "System/b", "System/c"}) {
+                load(cache, key, random(1000, 4));
+                load(cache, key, random(1000, 4));
+            }
+            check(cache.get("System/a") != null, "a cached");
+            load(cache, "System/d", random(1500, 5));
+            check(load(cache, "System/d", random(1500, 5)) != null, "d admitted");
+            checkEquals(null, cache.get("System/b"), "b after eviction");
+            checkEquals(null, cache.get("System/c"), "c after eviction");
+            check(cache.get("System/a") != null, "a kept");
+            check(cache.report().contains("evictions=2"), cache.report());
+        });
+
+        run("invalidation drops the file and its first read", () -> {
+            HotFileCache cache = new HotFileCache(1 << 20, 1 << 20);
+            byte[] data = random(100, 6);
+            load(cache, "System/a", data);
+            load(cache, "System/a", data);
+            cache.invalidate("System/a");
+            checkEquals(null, cache.get("System/a"), "cached copy");
+            checkEquals(null, load(cache, "System/a", data), "first read after invalidation");
+
+            load(cache, "System/b", data);
+            cache.invalidate("System/b");
+            checkEquals(null, load(cache, "System/b", data), "second read after invalidating a first read");
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            run("a node serves a hot file's new content after an upload", () -> {
+                byte[] before = random(20_000, 7);
+                byte[] after = random(30_000, 8);
+                node.upload("System", "hot.bin", before, 1, 8192);
+                for (int i = 0; i < 3; i++) {
+                    check(Arrays.equals(before, node.read("System", "hot.bin")), "read " + i);
+                }
+                check(node.getContext().getHotFiles().get(HotFileCache.key("System", "hot.bin")) != null, "file is hot");
+                node.upload("System", "hot.bin", after, 2, 8192);
+                check(Arrays.equals(after, node.read("System", "hot.bin")), "read after the upload");
+            });
+        }
+
+        finish();
+    }
+
+    private static ByteBuffer load(HotFileCache cache, String key, byte[] data) throws IOException {
+        File file = File.createTempFile("hot", ".bin");
+        try {
+            Files.write(file.toPath(), data);
+            try (RandomAccessFile opened = new RandomAccessFile(file, "r"); FileChannel channel = opened.getChannel()) {
+                return cache.load(key, channel, data.length);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] bytesOf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,120 @@
+package node;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import utils.ChunkedTransfer;
+import utils.ClusterConfig;
+import utils.HashRing;
+import utils.NodeProtocol;
+
+/**
+ * A storage node serving on a free local port from a temp directory, for tests that talk to
+ * a node over its socket protocol. The node is alone on its ring unless given the members of
+ * a cluster, and follows no peers.
+ */
+public class LocalNode implements Closeable {
+    private final File storageRoot;
+    private final ServerSocketChannel serverChannel;
+    private final NodeContext context;
+
+    private LocalNode(File storageRoot, ServerSocketChannel serverChannel, NodeContext context) {
+        this.storageRoot = storageRoot;
+        this.serverChannel = serverChannel;
+        this.context = context;
+    }
+
+    public static LocalNode start() throws IOException {
+        return start("selector");
+    }
+
+    public static LocalNode start(String engine) throws IOException {
+        return start(engine, 0, null);
+    }
+
+    /**
+     * Starts a node on {@code port}, any free one when 0, that places files on the ring of
+     * {@code members}, or on a ring of its own when that is null.
+     */
+    public static LocalNode start(String engine, int port, List<String> members) throws IOException {
+        File storageRoot = Files.createTempDirectory("node-test").toFile();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", port));
+        String address = "localhost:" + serverChannel.socket().getLocalPort();
+
+        NodeContext context = new NodeContext(storageRoot.getPath(), address,
+                new HashRing(members == null ? List.of(address) : members, ClusterConfig.VIRTUAL_NODES));
+        context.getNamespace().rebuild();
+        context.getContentStore().adopt(context.getNamespace());
+        context.getChangeLog().open();
+
+        ConnectionEngine connectionEngine = ConnectionEngine.create(engine, 64);
+        Thread server = new Thread(() -> {
+            try {
+                connectionEngine.serve(serverChannel, socket -> new NodeService(socket, context));
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) e.printStackTrace();
+            }
+        }, "test-node-" + context.getPort());
+        server.setDaemon(true);
+        server.start();
+        return new LocalNode(storageRoot, serverChannel, context);
+    }
+
+    public NodeContext getContext() { return context; }
+    public String getAddress() { return context.getAddress(); }
+    public File getStorageRoot() { return storageRoot; }
+
+    /** Opens a connection and sends the header of a one-shot request. */
+    public Socket open(String command, String department, String filename) throws IOException {
+        Socket socket = new Socket("localhost", context.getPort());
+        socket.setSoTimeout(10_000);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(command);
+        out.writeUTF(department);
+        out.writeUTF(filename);
+        return socket;
+    }
+
+    /** Stores a file with a one-shot "upload" of {@code chunkSize} frames; returns the node's reply. */
+    public String upload(String department, String filename, byte[] data, long version, int chunkSize)
+            throws IOException {
+        try (Socket socket = open("upload", department, filename)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeLong(version);
+            out.writeLong(NodeProtocol.ANY_VERSION);
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                ChunkedTransfer.writeChunk(out, data, offset, Math.min(chunkSize, data.length - offset));
+            }
+            ChunkedTransfer.writeEnd(out);
+            return new DataInputStream(socket.getInputStream()).readUTF();
+        }
+    }
+
+    /** Reads a file with a one-shot "read"; null if the node does not have it. */
+    public byte[] read(String department, String filename) throws IOException {
+        try (Socket socket = open("read", department, filename)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            long size = in.readLong();
+            if (size < 0) return null;
+            byte[] data = new byte[(int) size];
+            in.readFully(data);
+            return data;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        if (!storageRoot.exists()) return; // closed before
+        try (Stream<Path> paths = Files.walk(storageRoot.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import utils.Checksums;
+import utils.FileListing;
+
+public class MerkleTreeTest {
+    public static void main(String[] args) throws IOException {
+        run("trees of the same files have the same root in any order", () -> {
+            MerkleTree forward = new MerkleTree();
+            MerkleTree backward = new MerkleTree();
+            checkEquals(forward.root(), backward.root(), "empty roots");
+            for (int i = 0; i < 500; i++) {
+                forward.put("file-" + i, checksum(i));
+                backward.put("file-" + (499 - i), checksum(499 - i));
+            }
+            checkEquals(forward.root(), backward.root(), "roots");
+            check(!Arrays.equals(forward.root(), new MerkleTree().root()), "root equals the empty root");
+        });
+
+        run("a changed file changes the root and only its own bucket", () -> {
+            MerkleTree tree = filled();
+            MerkleTree changed = filled();
+            changed.put("file-42", checksum(1000));
+            check(!Arrays.equals(tree.root(), changed.root()), "roots are equal");
+            checkEquals(List.of(MerkleTree.bucketOf("file-42")), differingBuckets(tree, changed), "differing buckets");
+            check(changed.filenamesIn(MerkleTree.bucketOf("file-42")).contains("file-42"), "file in its bucket");
+        });
+
+        run("removing a file restores the root without it", () -> {
+            MerkleTree tree = filled();
+            MerkleTree extra = filled();
+            extra.put("extra", checksum(1));
+            extra.remove("extra");
+            extra.remove("never-added");
+            checkEquals(tree.root(), extra.root(), "roots");
+        });
+
+        run("callers cannot change a returned root", () -> {
+            MerkleTree tree = filled();
+            byte[] root = tree.root();
+            root[0] ^= 1;
+            check(!Arrays.equals(root, tree.root()), "root was changed through a returned copy");
+        });
+
+        try (LocalNode source = LocalNode.start(); LocalNode behind = LocalNode.start()) {
+            for (int i = 0; i < 40; i++) {
+                byte[] data = ("file " + i).getBytes();
+                source.upload("System", "file-" + i, data, 10, 64);
+                if (i % 8 != 0) behind.upload("System", "file-" + i, data, i == 1 ? 5 : 10, 64);
+            }
+
+            run("a node answers bucket requests and refuses invalid ones", () -> {
+                int bucket = MerkleTree.bucketOf("file-3");
+                List<String> listed = new ArrayList<>();
+                try (Socket socket = source.open("merkleBucket", "System", String.valueOf(bucket))) {
+                    FileListing.read(new DataInputStream(socket.getInputStream()), new FileListing.Visitor() {
+                        @Override
+                        public void department(String department) { }
+
+                        @Override
+                        public void file(String department, String filename, long size, long modifiedMillis,
+                                         String checksum, long version) {
+                            listed.add(filename);
+                        }
+                    });
+                }
+                checkEquals(source.getContext().getNamespace().tree("System").filenamesIn(bucket), listed, "bucket files");
+                for (String invalid : new String[]{"-1", String.valueOf(MerkleTree.BUCKETS), "x"}) {
+                    try (Socket socket = source.open("merkleBucket", "System", invalid)) {
+                        checkEquals("Invalid bucket", new DataInputStream(socket.getInputStream()).readUTF(), invalid);
+                    }
+                }
+            });
+
+            run("an anti-entropy round pulls missing and older files", () -> {
+                behind.getContext().getSyncEngine().synchronizeWithPeer("localhost", source.getContext().getPort());
+                NamespaceIndex namespace = behind.getContext().getNamespace();
+                checkEquals(source.getContext().getNamespace().tree("System").root(), namespace.tree("System").root(),
+                        "roots after the round");
+                checkEquals(10L, namespace.lookup("System", "file-1").getVersion(), "version of the older file");
+                checkEquals("file 8", new String(behind.read("System", "file-8")), "missing file");
+            });
+        }
+
+        finish();
+    }
+
+    private static MerkleTree filled() {
+        MerkleTree tree = new MerkleTree();
+        for (int i = 0; i < 500; i++) {
+            tree.put("file-" + i, checksum(i));
+        }
+        return tree;
+    }
+
+    private static List<Integer> differingBuckets(MerkleTree a, MerkleTree b) {
+        List<Integer> differing = new ArrayList<>();
+        byte[][] leavesA = a.leaves();
+        byte[][] leavesB = b.leaves();
+        for (int bucket = 0; bucket < MerkleTree.BUCKETS; bucket++) {
+            if (!Arrays.equals(leavesA[bucket], leavesB[bucket])) differing.add(bucket);
+        }
+        return differing;
+    }
+
+    private static String checksum(int i) {
+        return Checksums.sha256(new byte[]{(byte) i, (byte) (i >> 8)});
+    }
+}
@@ -0,0 +1,105 @@
+package node;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+import utils.Checksums;
+
+public class NamespaceIndexTest {
+    public static void main(String[] args) throws IOException {
+        run("a rebuild indexes stored files and skips metadata and temp files", () -> {
+            File root = Files.createTempDirectory("namespace-test").toFile();
+            try {
+                write(new File(root, "System/a.txt"), "alpha");
+                write(new File(root, "System/.a.txt.123.part"), "half");
+                write(new File(root, "Sales/b.txt"), "beta");
+                write(new File(root, ".meta/blobs/x"), "blob");
+                NamespaceIndex seeded = new NamespaceIndex(root.getPath());
+                seeded.saveVersion(new NamespaceIndex.FileEntry("Sales", "b.txt", 4, 0, "", 42));
+
+                NamespaceIndex index = new NamespaceIndex(root.getPath());
+                checkEquals(2, index.rebuild(), "files indexed");
+                checkEquals(2, index.size(), "size");
+                checkEquals(new HashSet<>(List.of("System", "Sales")), index.getDepartments(), "departments");
+                NamespaceIndex.FileEntry entry = index.lookup("System", "a.txt");
+                checkEquals(5L, entry.getSize(), "size of a.txt");
+                checkEquals(Checksums.sha256("alpha".getBytes()), entry.getChecksum(), "checksum of a.txt");
+                checkEquals(0L, entry.getVersion(), "version of a file without a sidecar");
+                checkEquals(42L, index.lookup("Sales", "b.txt").getVersion(), "version from the sidecar");
+                checkEquals(null, index.lookup("System", ".a.txt.123.part"), "temp file");
+            } finally {
+                try (Stream<Path> paths = Files.walk(root.toPath())) {
+                    paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                }
+            }
+        });
+
+        run("lookups follow puts and removes", () -> {
+            NamespaceIndex index = new NamespaceIndex("unused");
+            index.put(entry("System", "shared.txt"));
+            index.put(entry("Sales", "shared.txt"));
+            checkEquals("shared.txt", index.find("shared.txt").getFilename(), "found in some department");
+            index.remove("System", "shared.txt");
+            checkEquals("Sales", index.find("shared.txt").getDepartment(), "found after one removal");
+            index.remove("Sales", "shared.txt");
+            checkEquals(null, index.find("shared.txt"), "found after both removals");
+            checkEquals(null, index.lookup("Nowhere", "shared.txt"), "unknown department");
+        });
+
+        run("listings are in name order and resume after a name", () -> {
+            NamespaceIndex index = new NamespaceIndex("unused");
+            for (String name : new String[]{"c", "a", "d", "b"}) {
+                index.put(entry("System", name));
+            }
+            checkEquals(List.of("a", "b", "c", "d"), names(index.list("System")), "list");
+            checkEquals(List.of("c", "d"), names(index.listAfter("System", "b")), "list after b");
+            checkEquals(List.of("b", "c", "d"), names(index.listAfter("System", "a0")), "list after a missing name");
+            checkEquals(List.of(), names(index.list("Nowhere")), "unknown department");
+        });
+
+        run("paths that leave the department are refused", () -> {
+            NamespaceIndex index = new NamespaceIndex("root");
+            checkEquals(new File("root/System/a.txt"), index.fileOf("System", "a.txt"), "plain name");
+            for (String[] name : new String[][]{{"System", ".."}, {"System", "../a"}, {"..", "a"}, {"System", "a/b"},
+                    {"System", "a\\b"}, {"System", ".hidden"}, {"System", ""}, {".meta", "versions"}}) {
+                checkThrows(IllegalArgumentException.class, () -> index.fileOf(name[0], name[1]),
+                        name[0] + "/" + name[1]);
+            }
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            run("a node refuses to store outside its department directories", () -> {
+                checkThrows(IOException.class, () -> node.upload("System", "../escape.txt", new byte[10], 1, 10),
+                        "upload of ../escape.txt");
+                check(!new File(node.getStorageRoot(), "escape.txt").exists(), "file written outside System");
+                checkEquals(0, node.getContext().getNamespace().size(), "files indexed");
+            });
+        }
+
+        finish();
+    }
+
+    private static NamespaceIndex.FileEntry entry(String department, String filename) {
+        return new NamespaceIndex.FileEntry(department, filename, 1, 0, "0", 1);
+    }
+
+    private static List<String> names(Iterable<NamespaceIndex.FileEntry> entries) {
+        List<String> names = new ArrayList<>();
+        for (NamespaceIndex.FileEntry entry : entries) {
+            names.add(entry.getFilename());
+        }
+        return names;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes());
+    }
+}
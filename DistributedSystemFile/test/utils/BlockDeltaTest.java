@@ -0,0 +1,183 @@
+package utils;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import node.LocalNode;
+
+public class BlockDeltaTest {
+    private static final int BASE_SIZE = 64 * 1024; // 2 KB blocks
+
+    public static void main(String[] args) throws IOException {
+        run("identical content is copied whole", () -> {
+            byte[] base = random(BASE_SIZE, 1);
+            BlockDelta.Delta delta = roundTrip(base, base);
+            checkEquals(0L, delta.getLiteralBytes(), "literal bytes");
+        });
+
+        run("a short last block is sent as literal", () -> {
+            int blockSize = BlockDelta.blockSizeFor(BASE_SIZE);
+            byte[] base = random(3 * blockSize + 100, 2);
+            BlockDelta.Delta delta = roundTrip(base, base);
+            checkEquals(100L, delta.getLiteralBytes(), "literal bytes");
+        });
+
+        run("the rolling checksum finds blocks after an insertion", () -> {
+            byte[] base = random(BASE_SIZE, 3);
+            int blockSize = BlockDelta.blockSizeFor(BASE_SIZE);
+            int at = 5 * blockSize + 123;
+            byte[] changed = new byte[base.length + 7];
+            System.arraycopy(base, 0, changed, 0, at);
+            System.arraycopy(random(7, 4), 0, changed, at, 7);
+            System.arraycopy(base, at, changed, at + 7, base.length - at);
+
+            BlockDelta.Delta delta = roundTrip(base, changed);
+            checkEquals((long) blockSize + 7, delta.getLiteralBytes(), "literal bytes");
+        });
+
+        run("blocks match at offsets that are not block boundaries", () -> {
+            byte[] base = random(BASE_SIZE, 5);
+            byte[] shifted = new byte[base.length + 3];
+            System.arraycopy(base, 0, shifted, 3, base.length);
+            checkEquals(3L, roundTrip(base, shifted).getLiteralBytes(), "literal bytes");
+        });
+
+        run("unrelated content is all literal", () -> {
+            byte[] base = random(BASE_SIZE, 6);
+            byte[] other = random(BASE_SIZE - 10, 7);
+            checkEquals((long) other.length, roundTrip(base, other).getLiteralBytes(), "literal bytes");
+        });
+
+        run("empty files on either side", () -> {
+            roundTrip(new byte[0], random(5000, 8));
+            checkEquals(0L, roundTrip(random(5000, 9), new byte[0]).getResultSize(), "result size");
+        });
+
+        run("the signature survives its wire form", () -> {
+            byte[] base = random(BASE_SIZE + 500, 10);
+            BlockDelta.Signature signature = signature(base);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            signature.writeTo(new DataOutputStream(bytes));
+            BlockDelta.Signature read = BlockDelta.Signature.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+            checkEquals(signature.getFileSize(), read.getFileSize(), "file size");
+            checkEquals(signature.getBlockSize(), read.getBlockSize(), "block size");
+            checkEquals(500L, BlockDelta.compute(read, ByteBuffer.wrap(base)).getLiteralBytes(), "literal bytes");
+        });
+
+        run("a signature with more blocks than the file is rejected", () -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF("base");
+            out.writeLong(4096);
+            out.writeInt(2048);
+            out.writeInt(1_000_000);
+            checkThrows(IOException.class, () -> BlockDelta.Signature.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))), "block count");
+        });
+
+        run("block sizes stay within bounds", () -> {
+            checkEquals(2 * 1024, BlockDelta.blockSizeFor(0), "empty file");
+            checkEquals(64 * 1024, BlockDelta.blockSizeFor(1L << 32), "4 GB file");
+            checkEquals(128 * 1024, BlockDelta.blockSizeFor(Long.MAX_VALUE), "largest file");
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            run("a node patches a file from its own signature", () -> {
+                byte[] base = random(BASE_SIZE, 11);
+                byte[] changed = base.clone();
+                System.arraycopy(random(100, 12), 0, changed, 30_000, 100);
+                node.upload("System", "patched.bin", base, 1, 8192);
+
+                BlockDelta.Signature signature;
+                try (Socket socket = node.open("signature", "System", "patched.bin")) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    checkEquals((long) base.length, in.readLong(), "size");
+                    signature = BlockDelta.Signature.readFrom(in);
+                }
+                BlockDelta.Delta delta = BlockDelta.compute(signature, ByteBuffer.wrap(changed));
+                check(delta.getLiteralBytes() < 3L * signature.getBlockSize(),
+                        delta.getLiteralBytes() + " literal bytes for a 100-byte change");
+                checkEquals("OK", patch(node, "patched.bin", delta, delta.getResultChecksum()), "patch reply");
+                check(Arrays.equals(changed, node.read("System", "patched.bin")), "patched file differs");
+                checkEquals(2L, node.getContext().getNamespace().lookup("System", "patched.bin").getVersion(), "version");
+            });
+
+            run("a node refuses a delta computed against another version", () -> {
+                byte[] base = random(BASE_SIZE, 13);
+                node.upload("System", "stale.bin", base, 1, 8192);
+                BlockDelta.Delta delta = BlockDelta.compute(signature(random(BASE_SIZE, 14)), ByteBuffer.wrap(base));
+                checkEquals("BaseMismatch", patch(node, "stale.bin", delta, delta.getResultChecksum()), "patch reply");
+                check(Arrays.equals(base, node.read("System", "stale.bin")), "file changed");
+            });
+
+            run("a node refuses a patch whose result does not match its checksum", () -> {
+                byte[] base = random(BASE_SIZE, 15);
+                node.upload("System", "corrupt.bin", base, 1, 8192);
+                BlockDelta.Delta delta = BlockDelta.compute(signature(base), ByteBuffer.wrap(random(BASE_SIZE, 16)));
+                checkEquals("Failed", patch(node, "corrupt.bin", delta, Checksums.sha256(new byte[0])), "patch reply");
+                check(Arrays.equals(base, node.read("System", "corrupt.bin")), "file changed");
+            });
+        }
+
+        finish();
+    }
+
+    /** Sends a "patch" for the file; returns the node's last reply. */
+    private static String patch(LocalNode node, String filename, BlockDelta.Delta delta, String resultChecksum)
+            throws IOException {
+        try (Socket socket = node.open("patch", "System", filename)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.writeUTF(delta.getBaseChecksum());
+            out.writeUTF(resultChecksum);
+            out.writeLong(delta.getResultSize());
+            out.writeInt(delta.getBlockSize());
+            out.writeLong(2);
+            String reply = in.readUTF();
+            if (!"Ready".equals(reply)) return reply;
+            out.write(delta.getInstructions());
+            return in.readUTF();
+        }
+    }
+
+    /** Computes the delta from base to changed, applies it to base and checks the result. */
+    private static BlockDelta.Delta roundTrip(byte[] base, byte[] changed) throws IOException {
+        BlockDelta.Delta delta = BlockDelta.compute(signature(base), ByteBuffer.wrap(changed));
+        checkEquals(Checksums.sha256(base), delta.getBaseChecksum(), "base checksum");
+        checkEquals(Checksums.sha256(changed), delta.getResultChecksum(), "result checksum");
+        checkEquals((long) changed.length, delta.getResultSize(), "result size");
+
+        File baseFile = File.createTempFile("delta-base", ".bin");
+        try {
+            Files.write(baseFile.toPath(), base);
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            long written;
+            try (RandomAccessFile file = new RandomAccessFile(baseFile, "r")) {
+                written = BlockDelta.apply(new DataInputStream(new ByteArrayInputStream(delta.getInstructions())),
+                        file, delta.getBlockSize(), result);
+            }
+            checkEquals((long) changed.length, written, "bytes written");
+            check(Arrays.equals(changed, result.toByteArray()), "applied delta differs from the new content");
+        } finally {
+            baseFile.delete();
+        }
+        return delta;
+    }
+
+    private static BlockDelta.Signature signature(byte[] base) throws IOException {
+        return BlockDelta.signature(new ByteArrayInputStream(base), base.length, Checksums.sha256(base));
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,103 @@
+package utils;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import node.LocalNode;
+
+public class ChunkedTransferTest {
+    public static void main(String[] args) throws IOException {
+        run("frames are joined back into the stream", () -> {
+            byte[] data = random(3 * ChunkedTransfer.CHUNK_SIZE + 17, 1);
+            ByteArrayOutputStream sink = new ByteArrayOutputStream();
+            checkEquals((long) data.length, ChunkedTransfer.readChunks(in(frames(data, ChunkedTransfer.CHUNK_SIZE)), sink),
+                    "bytes copied");
+            check(Arrays.equals(data, sink.toByteArray()), "joined stream differs");
+            checkEquals(0L, ChunkedTransfer.readChunks(in(frames(new byte[0], 1)), new ByteArrayOutputStream()),
+                    "empty stream");
+        });
+
+        run("an aborted stream is reported", () -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            ChunkedTransfer.writeChunk(out, new byte[10], 0, 10);
+            ChunkedTransfer.writeAbort(out);
+            checkEquals(-1L, ChunkedTransfer.readChunks(in(bytes.toByteArray()), new ByteArrayOutputStream()), "result");
+        });
+
+        run("frames over the chunk size are refused", () -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeInt(ChunkedTransfer.CHUNK_SIZE + 1);
+            checkThrows(IOException.class, () -> ChunkedTransfer.readChunks(in(bytes.toByteArray()),
+                    new ByteArrayOutputStream()), "oversized frame");
+        });
+
+        run("a stream cut inside a frame fails", () -> {
+            byte[] framed = frames(random(1000, 2), 1000);
+            byte[] cut = Arrays.copyOf(framed, 500);
+            checkThrows(EOFException.class, () -> ChunkedTransfer.readChunks(in(cut), new ByteArrayOutputStream()),
+                    "cut frame");
+        });
+
+        run("copy takes exactly the bytes asked for", () -> {
+            byte[] data = random(20_000, 3);
+            InputStream source = new ByteArrayInputStream(data);
+            ByteArrayOutputStream sink = new ByteArrayOutputStream();
+            ChunkedTransfer.copy(source, sink, 12_345);
+            check(Arrays.equals(Arrays.copyOf(data, 12_345), sink.toByteArray()), "copied bytes differ");
+            checkEquals(20_000 - 12_345, source.available(), "bytes left in the source");
+            checkThrows(EOFException.class, () -> ChunkedTransfer.copy(new ByteArrayInputStream(data),
+                    new ByteArrayOutputStream(), data.length + 1), "short source");
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            run("a node stores a file sent in many frames", () -> {
+                byte[] data = random(2 * ChunkedTransfer.CHUNK_SIZE + 5, 4);
+                checkEquals("OK", node.upload("System", "big.bin", data, 1, ChunkedTransfer.CHUNK_SIZE), "reply");
+                check(Arrays.equals(data, node.read("System", "big.bin")), "stored file differs");
+                checkEquals("OK", node.upload("System", "small.bin", data, 2, 4096), "reply for small frames");
+                check(Arrays.equals(data, node.read("System", "small.bin")), "file of small frames differs");
+            });
+
+            run("an aborted upload leaves neither the file nor its temp file", () -> {
+                try (Socket socket = node.open("upload", "System", "aborted.bin")) {
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeLong(1);
+                    out.writeLong(NodeProtocol.ANY_VERSION);
+                    ChunkedTransfer.writeChunk(out, random(5000, 5), 0, 5000);
+                    ChunkedTransfer.writeAbort(out);
+                    checkEquals("Aborted", new DataInputStream(socket.getInputStream()).readUTF(), "reply");
+                }
+                checkEquals(null, node.read("System", "aborted.bin"), "aborted file");
+                String[] left = new File(node.getStorageRoot(), "System").list();
+                check(left != null && Arrays.stream(left).noneMatch(name -> name.startsWith(".aborted.bin")),
+                        "temp files left: " + Arrays.toString(left));
+            });
+        }
+
+        finish();
+    }
+
+    private static byte[] frames(byte[] data, int chunkSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            ChunkedTransfer.writeChunk(out, data, offset, Math.min(chunkSize, data.length - offset));
+        }
+        ChunkedTransfer.writeEnd(out);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream in(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
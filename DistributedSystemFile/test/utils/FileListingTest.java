@@ -0,0 +1,105 @@
+package utils;
+
+import static utils.TestSupport.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import node.LocalNode;
+
+public class FileListingTest {
+    public static void main(String[] args) throws IOException {
+        run("a listing survives its wire form", () -> {
+            String checksum = Checksums.sha256("content".getBytes());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            FileListing.Writer writer = new FileListing.Writer(new DataOutputStream(bytes));
+            writer.department("Sales");
+            writer.file("a.txt", 7, 1000, checksum, 3);
+            writer.department("System");
+            writer.file("b.txt", 0, 2000, checksum, 0);
+            writer.file("c.txt", 1L << 40, 3000, checksum, Long.MAX_VALUE);
+            writer.end("System/c.txt");
+
+            List<String> entries = new ArrayList<>();
+            String cursor = FileListing.read(in(bytes.toByteArray()), collector(entries));
+            checkEquals("System/c.txt", cursor, "cursor");
+            checkEquals(List.of("dept Sales", "Sales/a.txt 7 1000 " + checksum + " 3", "dept System",
+                    "System/b.txt 0 2000 " + checksum + " 0",
+                    "System/c.txt " + (1L << 40) + " 3000 " + checksum + " " + Long.MAX_VALUE), entries, "entries");
+        });
+
+        run("malformed listings are refused", () -> {
+            checkThrows(IOException.class, () -> FileListing.read(in(new byte[]{1, 0, 0, 0}),
+                    collector(new ArrayList<>())), "old version");
+            checkThrows(IOException.class, () -> FileListing.read(in(new byte[]{FileListing.VERSION, 1, 0, 1, 'a'}),
+                    collector(new ArrayList<>())), "file outside a department");
+            checkThrows(IOException.class, () -> FileListing.read(in(new byte[]{FileListing.VERSION, 9}),
+                    collector(new ArrayList<>())), "unknown entry");
+        });
+
+        try (LocalNode node = LocalNode.start()) {
+            List<String> stored = new ArrayList<>();
+            for (String department : new String[]{"Sales", "System"}) {
+                for (int i = 0; i < 4; i++) {
+                    node.upload(department, "file-" + i, new byte[i], i + 1, 16);
+                    stored.add(department + "/file-" + i);
+                }
+            }
+
+            run("a node's listing pages resume where the last one stopped", () -> {
+                for (int pageSize : new int[]{1, 3, 4, 100}) {
+                    List<String> listed = new ArrayList<>();
+                    String cursor = "";
+                    int pages = 0;
+                    do {
+                        List<String> page = new ArrayList<>();
+                        cursor = list(node, "", cursor, pageSize, page);
+                        page.stream().filter(entry -> !entry.startsWith("dept ")).forEach(
+                                entry -> listed.add(entry.substring(0, entry.indexOf(' '))));
+                        check(++pages <= stored.size() + 1, "listing with pages of " + pageSize + " does not end");
+                    } while (!cursor.isEmpty());
+                    checkEquals(stored, listed, "files listed in pages of " + pageSize);
+                }
+            });
+
+            run("a listing can be limited to one department", () -> {
+                List<String> page = new ArrayList<>();
+                checkEquals("", list(node, "System", "", 100, page), "cursor");
+                checkEquals("dept System", page.get(0), "first entry");
+                checkEquals(5, page.size(), "entries");
+                check(page.get(2).startsWith("System/file-1 1 ") && page.get(2).endsWith(" 2"), page.get(2));
+            });
+        }
+
+        finish();
+    }
+
+    private static String list(LocalNode node, String department, String cursor, int pageSize,
+                               List<String> entries) throws IOException {
+        try (Socket socket = node.open("list", department, cursor)) {
+            new DataOutputStream(socket.getOutputStream()).writeInt(pageSize);
+            return FileListing.read(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    collector(entries));
+        }
+    }
+
+    private static FileListing.Visitor collector(List<String> entries) {
+        return new FileListing.Visitor() {
+            @Override
+            public void department(String department) {
+                entries.add("dept " + department);
+            }
+
+            @Override
+            public void file(String department, String filename, long size, long modifiedMillis, String checksum,
+                             long version) {
+                entries.add(department + "/" + filename + " " + size + " " + modifiedMillis + " " + checksum + " " + version);
+            }
+        };
+    }
+
+    private static DataInputStream in(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
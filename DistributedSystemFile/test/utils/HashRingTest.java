@@ -0,0 +1,116 @@
+package utils;
+
+import static utils.TestSupport.*;
+
+import java.util.*;
+
+public class HashRingTest {
+    private static final int VIRTUAL_NODES = 128;
+    private static final int KEYS = 5000;
+    private static final List<String> NODES = List.of("localhost:3001", "localhost:3002", "localhost:3003");
+
+    public static void main(String[] args) {
+        // Read when ClusterConfig is first used, so set before any case runs
+        System.setProperty("cluster.nodes", "localhost:3001,localhost:3002");
+        System.setProperty("cluster.replicationFactor", "5");
+        System.setProperty("cluster.writeQuorum", "9");
+        System.setProperty("cluster.readQuorum", "0");
+
+        run("replicas are distinct and in a stable order", () -> {
+            HashRing ring = new HashRing(NODES, VIRTUAL_NODES);
+            List<String> reversed = new ArrayList<>(NODES);
+            Collections.reverse(reversed);
+            HashRing sameNodes = new HashRing(reversed, VIRTUAL_NODES);
+            for (String key : keys()) {
+                List<String> replicas = ring.replicasFor(key, 2);
+                checkEquals(2, new HashSet<>(replicas).size(), "distinct replicas of " + key);
+                checkEquals(replicas, sameNodes.replicasFor(key, 2), "replicas of " + key);
+                checkEquals(replicas.get(0), ring.replicasFor(key, 1).get(0), "primary of " + key);
+                check(ring.isReplica(replicas.get(1), key, 2), "isReplica of " + key);
+            }
+        });
+
+        run("asking for more replicas than nodes returns every node", () -> {
+            HashRing ring = new HashRing(NODES, VIRTUAL_NODES);
+            checkEquals(new HashSet<>(NODES), new HashSet<>(ring.replicasFor("a.txt", 5)), "replicas");
+            checkEquals(List.of(), new HashRing(List.of(), VIRTUAL_NODES).replicasFor("a.txt", 3), "empty ring");
+        });
+
+        run("every node holds its share of the copies with a larger replication factor", () -> {
+            List<String> nodes = List.of("n1:1", "n2:1", "n3:1", "n4:1", "n5:1");
+            HashRing ring = new HashRing(nodes, VIRTUAL_NODES);
+            Map<String, Integer> copies = new HashMap<>();
+            for (String key : keys()) {
+                List<String> replicas = ring.replicasFor(key, 3);
+                checkEquals(3, new HashSet<>(replicas).size(), "distinct replicas of " + key);
+                replicas.forEach(node -> copies.merge(node, 1, Integer::sum));
+            }
+            // Each node should hold about 3/5 of the keys
+            for (String node : nodes) {
+                int count = copies.getOrDefault(node, 0);
+                check(count > KEYS * 2 / 5 && count < KEYS * 4 / 5, node + " holds " + count + " of " + KEYS + " keys");
+            }
+        });
+
+        run("the replication factor and quorums are clamped to the cluster", () -> {
+            checkEquals(2, ClusterConfig.REPLICATION_FACTOR, "N");
+            checkEquals(2, ClusterConfig.WRITE_QUORUM, "W");
+            checkEquals(1, ClusterConfig.READ_QUORUM, "R");
+            checkEquals("nodes=2 N=2 W=2 R=1", ClusterConfig.describe(), "description");
+            checkEquals(ClusterConfig.NODES, ClusterConfig.newRing().getNodes(), "ring nodes");
+        });
+
+        run("keys spread evenly over the nodes", () -> {
+            HashRing ring = new HashRing(NODES, VIRTUAL_NODES);
+            Map<String, Integer> primaries = new HashMap<>();
+            for (String key : keys()) {
+                primaries.merge(ring.replicasFor(key, 1).get(0), 1, Integer::sum);
+            }
+            for (String node : NODES) {
+                int count = primaries.getOrDefault(node, 0);
+                check(count > KEYS / 5 && count < KEYS / 2, node + " is primary of " + count + " of " + KEYS + " keys");
+            }
+        });
+
+        run("adding a node only moves keys to it", () -> {
+            List<String> grown = new ArrayList<>(NODES);
+            grown.add("localhost:3004");
+            checkMovement(new HashRing(NODES, VIRTUAL_NODES), new HashRing(grown, VIRTUAL_NODES), "localhost:3004");
+        });
+
+        run("removing a node only moves the keys it held", () -> {
+            List<String> shrunk = new ArrayList<>(NODES);
+            shrunk.remove("localhost:3002");
+            checkMovement(new HashRing(shrunk, VIRTUAL_NODES), new HashRing(NODES, VIRTUAL_NODES), "localhost:3002");
+        });
+
+        finish();
+    }
+
+    /** Every key whose replicas changed between the rings gained or lost exactly {@code node}. */
+    private static void checkMovement(HashRing without, HashRing with, String node) {
+        int moved = 0;
+        for (String key : keys()) {
+            List<String> before = without.replicasFor(key, 2);
+            List<String> after = with.replicasFor(key, 2);
+            if (!after.contains(node)) {
+                checkEquals(before, after, "replicas of " + key);
+                continue;
+            }
+            moved++;
+            List<String> others = new ArrayList<>(after);
+            others.remove(node);
+            check(before.containsAll(others), key + " moved from " + before + " to " + after);
+        }
+        // Two replicas of four nodes: about half the keys have one on the changed node
+        check(moved > KEYS / 4 && moved < KEYS * 3 / 4, moved + " of " + KEYS + " keys moved");
+    }
+
+    private static List<String> keys() {
+        List<String> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add("file-" + i + ".txt");
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,94 @@
+package utils;
+
+import static utils.TestSupport.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import node.LocalNode;
+import node.NamespaceIndex;
+import node.SyncEngine;
+
+public class RateLimiterTest {
+    public static void main(String[] args) throws Exception {
+        run("one second of bytes passes at once", () -> {
+            RateLimiter limiter = new RateLimiter(1_000_000);
+            checkBetween(0, 100, () -> limiter.acquire(1_000_000), "burst");
+        });
+
+        run("bytes beyond the burst are paid off at the rate", () -> {
+            RateLimiter limiter = new RateLimiter(1_000_000);
+            limiter.acquire(1_000_000);
+            checkBetween(400, 900, () -> limiter.acquire(500_000), "half a second of bytes");
+        });
+
+        run("threads share one rate", () -> {
+            RateLimiter limiter = new RateLimiter(200_000);
+            limiter.acquire(200_000);
+            ExecutorService senders = Executors.newFixedThreadPool(4);
+            try {
+                checkBetween(1600, 3000, () -> {
+                    List<Future<?>> sends = new ArrayList<>();
+                    for (int i = 0; i < 8; i++) {
+                        sends.add(senders.submit(() -> {
+                            limiter.acquire(50_000);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> send : sends) {
+                        send.get();
+                    }
+                }, "400 KB over four threads at 200 KB/s");
+            } finally {
+                senders.shutdownNow();
+            }
+        });
+
+        run("a rate of zero does not limit", () -> {
+            RateLimiter limiter = new RateLimiter(0);
+            checkBetween(0, 100, () -> {
+                for (int i = 0; i < 100; i++) {
+                    limiter.acquire(Long.MAX_VALUE / 200);
+                }
+            }, "unlimited");
+        });
+
+        try (LocalNode peer = LocalNode.start(); LocalNode local = LocalNode.start()) {
+            List<SyncEngine.Pull> pulls = new ArrayList<>();
+            for (int i = 0; i < 150; i++) {
+                peer.upload("System", "file-" + i, ("file " + i).getBytes(), 2, 64);
+                NamespaceIndex.FileEntry entry = peer.getContext().getNamespace().lookup("System", "file-" + i);
+                pulls.add(new SyncEngine.Pull("System", "file-" + i, 2, entry.getModifiedMillis(), entry.getChecksum()));
+            }
+
+            run("a pull of more files than one batch stores them all", () -> {
+                SyncEngine sync = local.getContext().getSyncEngine();
+                checkEquals(150, sync.pull("localhost", peer.getContext().getPort(), pulls), "files stored");
+                for (int i = 0; i < 150; i += 37) {
+                    checkEquals("file " + i, new String(local.read("System", "file-" + i)), "content of file-" + i);
+                }
+            });
+
+            run("content already stored is linked instead of fetched", () -> {
+                NamespaceIndex.FileEntry entry = peer.getContext().getNamespace().lookup("System", "file-7");
+                SyncEngine.Pull copy = new SyncEngine.Pull("Sales", "copy-of-7", 3, entry.getModifiedMillis(),
+                        entry.getChecksum());
+                peer.close(); // the content can only come from the local store now
+                checkEquals(1, local.getContext().getSyncEngine().pull("localhost", peer.getContext().getPort(),
+                        List.of(copy)), "files stored");
+                checkEquals("file 7", new String(local.read("Sales", "copy-of-7")), "linked content");
+            });
+        }
+
+        finish();
+    }
+
+    private static void checkBetween(long minMillis, long maxMillis, TestSupport.TestCase action, String message)
+            throws Exception {
+        long start = System.nanoTime();
+        action.run();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        check(elapsed >= minMillis && elapsed <= maxMillis,
+                message + " took " + elapsed + " ms, expected " + minMillis + " to " + maxMillis);
+    }
+}
@@ -0,0 +1,197 @@
+package utils;
+
+import static utils.TestSupport.*;
+
+import client.RpcClient;
+import coordinator.ICoordinator;
+import coordinator.RpcServer;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RpcProtocolTest {
+    public static void main(String[] args) throws Exception {
+        run("plain values keep their type", () -> {
+            checkEquals(null, roundTrip(null), "null");
+            checkEquals("", roundTrip(""), "empty string");
+            checkEquals("fichier-é.txt", roundTrip("fichier-é.txt"), "non-ASCII string");
+            checkEquals(new byte[]{1, 2, 3}, roundTrip(new byte[]{1, 2, 3}), "bytes");
+            checkEquals(-1L, roundTrip(-1L), "long");
+            checkEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE), "largest long");
+            checkEquals(42, roundTrip(42), "int");
+            checkEquals(true, roundTrip(true), "boolean");
+            checkEquals(List.of("a", "b"), roundTrip(List.of("a", "b")), "string list");
+        });
+
+        run("strings are not limited to 64 KB", () -> {
+            String long100k = "x".repeat(100_000);
+            checkEquals(long100k, roundTrip(long100k), "100 KB string");
+        });
+
+        run("API types are written field by field", () -> {
+            VersionedFile file = (VersionedFile) roundTrip(new VersionedFile(7, new byte[]{9}));
+            checkEquals(7L, file.getVersion(), "version");
+            checkEquals(new byte[]{9}, file.getData(), "data");
+            checkEquals(null, ((VersionedFile) roundTrip(new VersionedFile(-1, null))).getData(), "absent data");
+
+            TransferPlan plan = new TransferPlan("System", "a.bin", 12, List.of("localhost:3001"), 1, "ticket");
+            TransferPlan read = (TransferPlan) roundTrip(plan);
+            checkEquals(plan.getDepartment(), read.getDepartment(), "department");
+            checkEquals(plan.getFilename(), read.getFilename(), "filename");
+            checkEquals(plan.getVersion(), read.getVersion(), "version");
+            checkEquals(plan.getNodes(), read.getNodes(), "nodes");
+            checkEquals(plan.getQuorum(), read.getQuorum(), "quorum");
+            checkEquals(plan.getTicket(), read.getTicket(), "ticket");
+        });
+
+        run("maps keep their order and nested values", () -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("z.txt", new byte[]{1});
+            map.put("a.txt", null);
+            map.put("m.txt", true);
+            @SuppressWarnings("unchecked")
+            Map<String, Object> read = (Map<String, Object>) roundTrip(map);
+            checkEquals(new ArrayList<>(map.keySet()), new ArrayList<>(read.keySet()), "keys");
+            checkEquals(new byte[]{1}, read.get("z.txt"), "bytes value");
+            check(read.containsKey("a.txt") && read.get("a.txt") == null, "null value");
+            checkEquals(true, read.get("m.txt"), "boolean value");
+        });
+
+        run("other serializable API values are accepted", () -> {
+            checkEquals(List.of(1, 2), roundTrip(new ArrayList<>(List.of(1, 2))), "list of ints");
+            checkEquals(new Date(5), roundTrip(new Date(5)), "date");
+        });
+
+        run("serialized classes outside the API are refused", () -> {
+            checkThrows(InvalidClassException.class, () -> roundTrip(new File("/etc/passwd")), "java.io.File");
+        });
+
+        run("malformed values are refused", () -> {
+            checkThrows(IOException.class, () -> read(new byte[]{99}), "unknown tag");
+            checkThrows(IOException.class, () -> read(new byte[]{2, (byte) 0xff, 0, 0, 0}), "negative length");
+            checkThrows(EOFException.class, () -> read(new byte[]{2, 0, 0, 0, 10, 1, 2}), "cut short");
+            checkThrows(IOException.class, () -> read(new byte[]{2, 0x7f, 0, 0, 0}), "length over the frame limit");
+        });
+
+        run("every coordinator method has a wire id", () -> {
+            checkEquals(RpcProtocol.METHODS.size(), new HashSet<>(RpcProtocol.METHODS).size(), "distinct names");
+            check(RpcProtocol.METHODS.size() <= 128, "ids must fit in a byte");
+            for (Method method : ICoordinator.class.getMethods()) {
+                check(RpcProtocol.METHODS.contains(method.getName()), method.getName() + " has no wire id");
+            }
+        });
+
+        CountDownLatch slowCall = new CountDownLatch(1);
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        ICoordinator stub = (ICoordinator) Proxy.newProxyInstance(ICoordinator.class.getClassLoader(),
+                new Class<?>[]{ICoordinator.class}, (proxy, method, callArgs) -> {
+                    calls.add(method.getName());
+                    switch (method.getName()) {
+                        case "signIn":
+                            return "password".equals(callArgs[1]) ? "token-" + callArgs[0] : null;
+                        case "getFileVersion":
+                            return Long.parseLong((String) callArgs[1]);
+                        case "getFile":
+                            if ("slow".equals(callArgs[1])) slowCall.await();
+                            if ("broken".equals(callArgs[1])) throw new RemoteException("node on fire");
+                            return "missing".equals(callArgs[1]) ? null : ((String) callArgs[1]).getBytes();
+                        case "beginUpload":
+                            return "session";
+                        case "uploadChunk":
+                        case "finishUpload":
+                            return true;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Thread server = new Thread(new RpcServer(stub, port), "test-rpc-server");
+        server.setDaemon(true);
+        server.start();
+
+        try (RpcClient client = connect(port)) {
+            run("calls reach the coordinator and bring back its answers", () -> {
+                checkEquals("token-admin", client.signIn("admin", "password"), "sign-in");
+                checkEquals(null, client.signIn("admin", "wrong"), "refused sign-in");
+                checkEquals(42L, client.getFileVersion("token", "42"), "long result");
+                checkEquals("a.txt", new String(client.getFile("token", "a.txt")), "bytes result");
+                checkEquals(null, client.getFile("token", "missing"), "null result");
+            });
+
+            run("a failed call is thrown as a RemoteException and the connection stays usable", () -> {
+                try {
+                    client.getFile("token", "broken");
+                    throw new AssertionError("failed call returned");
+                } catch (RemoteException e) {
+                    check(e.getMessage().contains("node on fire"), e.getMessage());
+                }
+                checkEquals(7L, client.getFileVersion("token", "7"), "call after the failure");
+            });
+
+            run("a slow call does not hold up the calls sent after it", () -> {
+                CompletableFuture<Object> slow = client.callAsync("getFile", "token", "slow");
+                checkEquals(1L, client.getFileVersion("token", "1"), "call behind the slow one");
+                check(!slow.isDone(), "slow call finished early");
+                slowCall.countDown();
+                checkEquals("slow", new String((byte[]) slow.get(10, TimeUnit.SECONDS)), "slow call");
+            });
+
+            run("answers of pipelined calls go to the calls that asked", () -> {
+                List<CompletableFuture<Object>> pending = new ArrayList<>();
+                for (int i = 0; i < 2_000; i++) {
+                    pending.add(client.callAsync("getFileVersion", "token", String.valueOf(i)));
+                }
+                for (int i = 0; i < pending.size(); i++) {
+                    checkEquals((long) i, pending.get(i).get(30, TimeUnit.SECONDS), "answer to call " + i);
+                }
+            });
+
+            run("data larger than a frame goes as an upload session", () -> {
+                calls.clear();
+                byte[] data = new byte[2 * ChunkedTransfer.CHUNK_SIZE + 1];
+                check(client.saveFile("token", "big.bin", data), "save");
+                checkEquals(List.of("beginUpload", "uploadChunk", "uploadChunk", "uploadChunk", "finishUpload"),
+                        calls, "calls made");
+            });
+
+            run("a request over the frame limit fails without closing the connection", () -> {
+                CompletableFuture<Object> tooLarge = client.callAsync("uploadChunk", "session",
+                        new byte[RpcProtocol.MAX_REQUEST_FRAME]);
+                checkThrows(ExecutionException.class, () -> tooLarge.get(10, TimeUnit.SECONDS), "oversized call");
+                checkEquals(3L, client.getFileVersion("token", "3"), "call after it");
+            });
+        }
+
+        finish();
+        System.exit(0);
+    }
+
+    /** Connects once the server thread is listening. */
+    private static RpcClient connect(int port) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new RpcClient("localhost", port);
+            } catch (IOException e) {
+                if (attempt == 50) throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static Object roundTrip(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RpcProtocol.writeValue(new DataOutputStream(bytes), value);
+        return read(bytes.toByteArray());
+    }
+
+    private static Object read(byte[] bytes) throws IOException {
+        return RpcProtocol.readValue(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
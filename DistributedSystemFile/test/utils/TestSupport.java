@@ -0,0 +1,60 @@
+package utils;
+
+import java.util.Objects;
+
+/**
+ * Assertions and a runner for the plain-Java tests in this directory; the project has no
+ * build manifest, so there is no test framework on the classpath. Every test class has a
+ * main method that exits with 1 when a case fails:
+ *
+ *   javac -d out $(find src test -name '*.java')
+ *   java -cp out utils.ChunkedTransferTest
+ */
+public final class TestSupport {
+    private static int failures;
+
+    public interface TestCase {
+        void run() throws Exception;
+    }
+
+    private TestSupport() {
+    }
+
+    public static void run(String name, TestCase test) {
+        try {
+            test.run();
+            System.out.println("✅ " + name);
+        } catch (Throwable e) {
+            failures++;
+            System.out.println("❌ " + name + ": " + e);
+        }
+    }
+
+    /** Ends the run, with a failing exit status if any case failed. */
+    public static void finish() {
+        if (failures > 0) {
+            System.out.println(failures + " failed");
+            System.exit(1);
+        }
+    }
+
+    public static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    public static void checkEquals(Object expected, Object actual, String message) {
+        if (!Objects.deepEquals(expected, actual)) {
+            throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    public static void checkThrows(Class<? extends Throwable> expected, TestCase test, String message) {
+        try {
+            test.run();
+        } catch (Throwable e) {
+            if (expected.isInstance(e)) return;
+            throw new AssertionError(message + ": expected " + expected.getSimpleName() + " but got " + e, e);
+        }
+        throw new AssertionError(message + ": expected " + expected.getSimpleName());
+    }
+}